@@ -1,8 +1,11 @@
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.witness.proofmode.ProofMode.OPENPGP_FILE_TAG;
+import static org.witness.proofmode.ProofMode.PROOF_FILE_JSON_TAG;
 import static org.witness.proofmode.ProofMode.PROOF_FILE_TAG;
 
 import android.content.Context;
@@ -19,6 +22,8 @@ import org.junit.runners.MethodSorters;
 import org.witness.proofmode.ProofMode;
 import org.witness.proofmode.crypto.HashUtils;
 import org.witness.proofmode.crypto.pgp.PgpUtils;
+import org.witness.proofmode.service.MediaWatcher;
+import org.witness.proofmode.service.ProofRecordChain;
 import org.witness.proofmode.util.ProofModeUtil;
 import org.witness.proofmode.storage.DefaultStorageProvider;
 
@@ -158,6 +163,64 @@ public class ProofmodeGenerationTests {
 
     }
 
+    @Test
+    public void proofModeGenerator_RegenerateIncremental_ChainsRecords () throws Exception
+    {
+        Context context = InstrumentationRegistry.getInstrumentation().getContext();
+        DefaultStorageProvider storageProvider = new DefaultStorageProvider(context);
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putBoolean(ProofMode.PREF_OPTION_NOTARY, false)
+                .putBoolean(ProofMode.PREF_OPTION_INCREMENTAL_PROOF, true)
+                .commit();
+
+        // Fresh content each run, so the first proof really is the first.
+        File fileMedia = new File(context.getCacheDir(), "regenerate-test.bin");
+        try (FileOutputStream out = new FileOutputStream(fileMedia)) {
+            out.write(("regenerate " + System.nanoTime()).getBytes());
+        }
+        Uri uriMedia = Uri.fromFile(fileMedia);
+        String hash;
+        try (InputStream is = new FileInputStream(fileMedia)) {
+            hash = HashUtils.getSHA256FromFileContent(is);
+        }
+
+        MediaWatcher watcher = MediaWatcher.getInstance(context);
+        watcher.refreshStorageProvider(storageProvider);
+        assertEquals(hash, watcher.processUri(context, uriMedia, hash, false, null));
+        String baseJson = read(storageProvider, hash, hash + PROOF_FILE_JSON_TAG);
+
+        // Without regenerate, existing proof is left alone.
+        assertNull(watcher.processUri(context, uriMedia, hash, false, null));
+        assertFalse(storageProvider.proofIdentifierExists(hash, ProofRecordChain.recordIdentifier(hash, 1)));
+
+        assertEquals(hash, ProofMode.regenerateProof(context, uriMedia, null));
+        assertEquals(hash, ProofMode.regenerateProof(context, uriMedia, hash));
+
+        for (int sequence = 1; sequence <= 2; sequence++) {
+            String record = ProofRecordChain.recordIdentifier(hash, sequence);
+            assertTrue(storageProvider.proofIdentifierExists(hash, record));
+            assertTrue(storageProvider.proofIdentifierExists(hash, record + OPENPGP_FILE_TAG));
+        }
+        ProofRecordChain chain = new ProofRecordChain(storageProvider, hash);
+        assertEquals(2, chain.head().getSequence());
+        assertTrue(chain.verify());
+        assertEquals(baseJson, read(storageProvider, hash, hash + PROOF_FILE_JSON_TAG));
+
+        prefs.edit().remove(ProofMode.PREF_OPTION_INCREMENTAL_PROOF).commit();
+    }
+
+    private static String read(DefaultStorageProvider storageProvider, String hash, String identifier) throws IOException {
+        try (InputStream is = storageProvider.getInputStream(hash, identifier)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) out.write(buffer, 0, n);
+            return out.toString("UTF-8");
+        }
+    }
+
     public void zipProof(File[] files, File fileZip, String publicKeyString) throws IOException {
 
         BufferedInputStream origin;
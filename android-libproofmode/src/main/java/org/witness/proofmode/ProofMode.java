@@ -7,7 +7,6 @@ import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
 import android.preference.PreferenceManager;
-import android.webkit.MimeTypeMap;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
@@ -23,6 +22,8 @@ import org.witness.proofmode.service.PhotosContentJob;
 import org.witness.proofmode.service.PhotosContentWorker;
 import org.witness.proofmode.service.VideosContentJob;
 import org.witness.proofmode.service.VideosContentWorker;
+import org.witness.proofmode.storage.DefaultStorageProvider;
+import org.witness.proofmode.storage.ProofLayoutMigrationWorker;
 import org.witness.proofmode.util.GPSTracker;
 
 import java.io.BufferedInputStream;
@@ -31,7 +32,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -69,6 +69,15 @@ public class ProofMode {
 
     public final static String PREF_OPTION_CAWG_SIGNING = "useCawgSigning";
     public final static boolean PREF_OPTION_CAWG_SIGNING_DEFAULT = false;
+
+    // Proof re-generated through regenerateProof is written as a chained, signed record instead of a CSV append
+    public final static String PREF_OPTION_INCREMENTAL_PROOF = "incrementalProof";
+    public final static boolean PREF_OPTION_INCREMENTAL_PROOF_DEFAULT = false;
+
+    // Proof folders go to proofmode/ab/cd/<hash>; existing ones are moved once, for good
+    public final static String PREF_OPTION_SHARDED_LAYOUT = "shardedProofLayout";
+    public final static boolean PREF_OPTION_SHARDED_LAYOUT_DEFAULT = false;
+
     public final static String PREF_CAWG_CREATOR = "cawgCreator";
     public final static String PREF_CAWG_RIGHTS = "cawgRights";
 
@@ -85,6 +94,8 @@ public class ProofMode {
 
     public final static String PROOF_FILE_TAG = ".proof.csv";
     public final static String PROOF_FILE_JSON_TAG = ".proof.json";
+    public final static String PROOF_RECORD_TAG = ".proof.r";
+    public final static String PROOF_RECORD_HEAD_TAG = ".proof.head";
     public final static String OPENPGP_FILE_TAG = ".asc";
     public final static String OPENTIMESTAMPS_FILE_TAG = ".ots";
     public final static String GOOGLE_SAFETYNET_FILE_TAG = ".gst";
@@ -139,7 +150,19 @@ public class ProofMode {
 
     public synchronized static void initBackgroundService(Context context) {
         if (!mInit) {
-            MediaWatcher.getInstance(context);
+            MediaWatcher mw = MediaWatcher.getInstance(context);
+
+            // Pick up proof jobs the previous process did not get to finish. Reading the
+            // journal is disk IO, and this runs on the main thread.
+            mw.singleThreaded().execute(mw::resumeIncompleteJobs);
+
+            // Move proof folders to the sharded layout once it is switched on, and finish a
+            // move the previous process started.
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            if (prefs.getBoolean(PREF_OPTION_SHARDED_LAYOUT, PREF_OPTION_SHARDED_LAYOUT_DEFAULT))
+                DefaultStorageProvider.enableShardedLayout(context);
+            else
+                ProofLayoutMigrationWorker.resumeIfNeeded(context);
 
             // Use WorkManager for Android 15+ (API 35) due to background network restrictions,
             // fall back to JobScheduler for older versions
@@ -217,6 +240,24 @@ public class ProofMode {
 
     }
 
+    /**
+     * Write proof again for media that already has it; {@code hash} may be null to hash the
+     * media first. With {@link #PREF_OPTION_INCREMENTAL_PROOF} on, this adds a small signed
+     * record chained to the existing proof instead of rewriting it.
+     *
+     * @return the media hash, or null if no proof was written
+     */
+    public static String regenerateProof(Context context, Uri uri, String hash) throws IOException, PGPException {
+
+        if (hash == null) {
+            try (InputStream is = context.getContentResolver().openInputStream(uri)) {
+                hash = HashUtils.getSHA256FromFileContent(is);
+            }
+        }
+        return MediaWatcher.getInstance(context).processUri(context, uri, hash, false, null, null, null, true);
+
+    }
+
 
     /**
      * @deprecated Latent multi-writer for {@link #PREF_OPTION_LOCATION}. Production
@@ -253,102 +294,18 @@ public class ProofMode {
         return pu.getPublicKeyString();
     }
 
+    /**
+     * Verify every media file in the bundle; see {@link ProofZipVerifier}.
+     */
     public static boolean verifyProofZip(Context context, FileDescriptor proofZip) throws Exception {
-
-        InputStream proofZipStream = new FileInputStream(proofZip);
-
-        try (ZipInputStream zis = new ZipInputStream(proofZipStream)) {
-
-            // list files in zip
-            ZipEntry zipEntry = zis.getNextEntry();
-
-            while (zipEntry != null) {
-
-                ByteArrayInputStream mediaFile = null;
-                String mediaHashSha256 = null;
-
-                if (!zipEntry.getName().endsWith(File.separator)) {
-
-                    String mimeType = getMimeType(zipEntry.getName());
-
-                    if (mimeType != null && (mimeType.startsWith("audio") || mimeType.startsWith("image") || mimeType.startsWith("video"))) {
-                        mediaFile = (ByteArrayInputStream) copyStream(zis);
-                        mediaHashSha256 = HashUtils.getSHA256FromFileContent(mediaFile);
-                        mediaFile.reset();
-
-                        //reopen stream
-                        InputStream proofZipStream2 = new FileInputStream(proofZip);
-                        boolean verifiedIntegrity = verifyProofZipIntegrity(context, mediaHashSha256, mediaFile, proofZipStream2);
-                        proofZipStream2.close();
-                        if (!verifiedIntegrity)
-                            return false;
-                    }
-
-                }
-
-                zipEntry = zis.getNextEntry();
-
-
-            }
-            zis.closeEntry();
-
-        }
-
-        return true;
-
+        return ProofZipVerifier.verify(context, proofZip);
     }
 
+    /**
+     * Verify every media file in the bundle; see {@link ProofZipVerifier}.
+     */
     public static boolean verifyProofZip(Context context, Uri proofZipUri) throws Exception {
-
-        InputStream proofZipStream = context.getContentResolver().openInputStream(proofZipUri);
-
-        try (ZipInputStream zis = new ZipInputStream(proofZipStream)) {
-
-            // list files in zip
-            ZipEntry zipEntry = zis.getNextEntry();
-
-            while (zipEntry != null) {
-
-                ByteArrayInputStream mediaFile = null;
-                String mediaHashSha256 = null;
-
-                if (!zipEntry.getName().endsWith(File.separator)) {
-
-                    String mimeType = getMimeType(zipEntry.getName());
-
-                    if (mimeType != null && (mimeType.startsWith("audio") || mimeType.startsWith("image") || mimeType.startsWith("video"))) {
-                        mediaFile = (ByteArrayInputStream) copyStream(zis);
-                        mediaHashSha256 = HashUtils.getSHA256FromFileContent(mediaFile);
-                        mediaFile.reset();
-
-                        //reopen stream
-                        InputStream proofZipStream2 = context.getContentResolver().openInputStream(proofZipUri);
-                        boolean verifiedIntegrity = verifyProofZipIntegrity(context, mediaHashSha256, mediaFile, proofZipStream2);
-                        proofZipStream2.close();
-                        if (!verifiedIntegrity)
-                            return false;
-                    }
-
-                }
-
-                zipEntry = zis.getNextEntry();
-
-
-            }
-            zis.closeEntry();
-
-        }
-
-        return true;
-    }
-
-    private static String getMimeType(String url) {
-        String type = null;
-        String extension = MimeTypeMap.getFileExtensionFromUrl(url);
-        if (extension != null) {
-            type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-        }
-        return type;
+        return ProofZipVerifier.verify(context, proofZipUri);
     }
 
     public static boolean verifyProofZip(Context context, String mediaHashSha256, InputStream mediaFile, InputStream proofZipStream) throws Exception {
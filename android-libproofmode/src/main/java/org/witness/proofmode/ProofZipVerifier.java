@@ -0,0 +1,315 @@
+package org.witness.proofmode;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.webkit.MimeTypeMap;
+
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.json.JSONObject;
+import org.witness.proofmode.crypto.HashUtils;
+import org.witness.proofmode.crypto.pgp.DetachedSignatureProcessor;
+import org.witness.proofmode.crypto.pgp.PgpUtils;
+import org.witness.proofmode.service.ProofModeV1Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import timber.log.Timber;
+
+/**
+ * Checks every media file in a proof bundle against its signature and signed proof.
+ * <p>
+ * The bundle is opened once with random access, so its central directory is read a single
+ * time and each entry is read directly, however many media files it holds. Media is never
+ * buffered: the proof JSON names the file it describes, so the expected hash, and with it
+ * the signature, are known before the media is read, and one pass feeds both SHA-256 and
+ * the signature check. Media whose proof JSON is missing, or names another file, is read
+ * twice instead (hash, then signature). Media entries are verified in parallel, each with
+ * one fixed-size buffer, so memory does not depend on the size of the bundle.
+ * <p>
+ * Content URIs that are not backed by a seekable file are copied to the cache directory
+ * first, since {@link ZipFile} needs a path.
+ */
+public class ProofZipVerifier {
+
+    public final static int DEFAULT_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_SIDECAR_BYTES = 1024 * 1024;
+
+    private final ZipFile mZip;
+    private final int mParallelism;
+
+    public ProofZipVerifier(ZipFile zip) {
+        this(zip, DEFAULT_PARALLELISM);
+    }
+
+    public ProofZipVerifier(ZipFile zip, int parallelism) {
+        mZip = zip;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    public static boolean verify(Context context, Uri proofZipUri) throws Exception {
+        if (ContentResolver.SCHEME_FILE.equals(proofZipUri.getScheme()) && proofZipUri.getPath() != null) {
+            try (ZipFile zip = new ZipFile(proofZipUri.getPath())) {
+                return new ProofZipVerifier(zip).verify();
+            }
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(proofZipUri, "r")) {
+            if (pfd != null) {
+                return verifyDescriptor(context, pfd, () -> resolver.openInputStream(proofZipUri));
+            }
+        }
+
+        return verifySpooled(context, resolver.openInputStream(proofZipUri));
+    }
+
+    public static boolean verify(Context context, FileDescriptor proofZip) throws Exception {
+        try (ParcelFileDescriptor pfd = ParcelFileDescriptor.dup(proofZip)) {
+            return verifyDescriptor(context, pfd, () -> new FileInputStream(proofZip));
+        }
+    }
+
+    private static boolean verifyDescriptor(Context context, ParcelFileDescriptor pfd, Callable<InputStream> reopen) throws Exception {
+        ZipFile zip = null;
+        try {
+            // Reopens the same file by path, with its own offset, when the descriptor is a file.
+            zip = new ZipFile(new File("/proc/self/fd/" + pfd.getFd()));
+        } catch (IOException e) {
+            Timber.d("Proof zip is not seekable, copying it first: %s", e.getMessage());
+        }
+
+        if (zip == null)
+            return verifySpooled(context, reopen.call());
+
+        try (ZipFile z = zip) {
+            return new ProofZipVerifier(z).verify();
+        }
+    }
+
+    private static boolean verifySpooled(Context context, InputStream in) throws Exception {
+        if (in == null)
+            throw new ProofException("Could not open proof zip");
+
+        File spool = File.createTempFile("proofzip", ".zip", context.getCacheDir());
+        try {
+            try (InputStream is = in; OutputStream os = new FileOutputStream(spool)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, n);
+                }
+            }
+            try (ZipFile zip = new ZipFile(spool)) {
+                return new ProofZipVerifier(zip).verify();
+            }
+        } finally {
+            spool.delete();
+        }
+    }
+
+    /**
+     * @return true if every media entry verified, or there is none.
+     * @throws ProofException naming the first missing or invalid piece of proof.
+     */
+    public boolean verify() throws Exception {
+        List<ZipEntry> media = new ArrayList<>();
+        Map<String, ZipEntry> entries = new HashMap<>();
+
+        Enumeration<? extends ZipEntry> all = mZip.entries();
+        while (all.hasMoreElements()) {
+            ZipEntry entry = all.nextElement();
+            if (entry.isDirectory())
+                continue;
+
+            entries.put(entry.getName(), entry);
+            if (isMedia(entry.getName()))
+                media.add(entry);
+        }
+
+        if (media.isEmpty())
+            return true;
+
+        ZipEntry pubKeyEntry = entries.get(ProofMode.PUBKEY_FILE);
+        if (pubKeyEntry == null)
+            throw new ProofException("No public key pubkey.asc found");
+
+        PGPPublicKey publicKey;
+        try (InputStream is = mZip.getInputStream(pubKeyEntry)) {
+            publicKey = PgpUtils.getPublicKey(is);
+        }
+
+        Map<String, String> hashByName = indexProofJson(entries);
+
+        if (media.size() == 1 || mParallelism == 1) {
+            for (ZipEntry entry : media)
+                verifyMedia(entry, entries, hashByName, publicKey);
+            return true;
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(Math.min(mParallelism, media.size()));
+        try {
+            List<Future<Void>> results = new ArrayList<>(media.size());
+            for (ZipEntry entry : media) {
+                results.add(exec.submit(() -> {
+                    verifyMedia(entry, entries, hashByName, publicKey);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+
+        return true;
+    }
+
+    private void verifyMedia(ZipEntry entry, Map<String, ZipEntry> entries, Map<String, String> hashByName,
+                             PGPPublicKey publicKey) throws Exception {
+        String expected = hashByName.get(baseName(entry.getName()));
+        ZipEntry expectedSig = expected != null ? entries.get(expected + ProofMode.OPENPGP_FILE_TAG) : null;
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        String mediaHash;
+        boolean mediaSigVerified;
+
+        if (expectedSig != null) {
+            PGPSignature sig;
+            try (InputStream is = mZip.getInputStream(expectedSig)) {
+                sig = DetachedSignatureProcessor.initVerifier(is, publicKey);
+            }
+
+            try (InputStream is = mZip.getInputStream(entry)) {
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    sha256.update(buffer, 0, n);
+                    sig.update(buffer, 0, n);
+                }
+            }
+
+            mediaHash = HashUtils.asHex(sha256.digest());
+            mediaSigVerified = mediaHash.equals(expected) && sig.verify();
+            if (!mediaHash.equals(expected))
+                Timber.d("Proof json for %s names another hash, checking by content", entry.getName());
+        } else {
+            try (InputStream is = mZip.getInputStream(entry)) {
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    sha256.update(buffer, 0, n);
+                }
+            }
+            mediaHash = HashUtils.asHex(sha256.digest());
+            mediaSigVerified = false;
+        }
+
+        ZipEntry mediaSig = entries.get(mediaHash + ProofMode.OPENPGP_FILE_TAG);
+        ZipEntry proofFile = entries.get(mediaHash + ProofMode.PROOF_FILE_TAG);
+        ZipEntry proofFileSig = entries.get(mediaHash + ProofMode.PROOF_FILE_TAG + ProofMode.OPENPGP_FILE_TAG);
+
+        if (mediaSig == null)
+            throw new ProofException("No media signature found");
+
+        if (proofFile == null)
+            throw new ProofException("No proof json found");
+
+        if (proofFileSig == null)
+            throw new ProofException("No proof json signature found");
+
+        if (!verifySignature(proofFile, proofFileSig, publicKey))
+            throw new ProofException("Proof json signature not valid");
+
+        if (!mediaSigVerified && !verifySignature(entry, mediaSig, publicKey))
+            throw new ProofException("Media signature not valid");
+    }
+
+    private boolean verifySignature(ZipEntry file, ZipEntry sig, PGPPublicKey publicKey) throws Exception {
+        try (InputStream fileStream = mZip.getInputStream(file); InputStream sigStream = mZip.getInputStream(sig)) {
+            return DetachedSignatureProcessor.verifySignature(fileStream, sigStream, publicKey);
+        }
+    }
+
+    /** Media file name to the hash its proof JSON records, for every readable proof JSON. */
+    private Map<String, String> indexProofJson(Map<String, ZipEntry> entries) {
+        Map<String, String> hashByName = new HashMap<>();
+
+        for (ZipEntry entry : entries.values()) {
+            String name = baseName(entry.getName());
+            if (!name.endsWith(ProofMode.PROOF_FILE_JSON_TAG))
+                continue;
+
+            String hash = name.substring(0, name.length() - ProofMode.PROOF_FILE_JSON_TAG.length());
+            try {
+                String path = new JSONObject(readSmall(entry)).optString(ProofModeV1Constants.FILE_PATH, null);
+                if (path != null)
+                    hashByName.put(baseName(Uri.decode(path)), hash);
+            } catch (Exception e) {
+                Timber.d("Unreadable proof json %s: %s", entry.getName(), e.getMessage());
+            }
+        }
+
+        return hashByName;
+    }
+
+    private String readSmall(ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream is = mZip.getInputStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_SIDECAR_BYTES)
+                    throw new ProofException("Proof json too large: " + entry.getName());
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isMedia(String name) {
+        String extension = MimeTypeMap.getFileExtensionFromUrl(name);
+        if (extension == null)
+            return false;
+
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return mimeType != null && (mimeType.startsWith("audio") || mimeType.startsWith("image") || mimeType.startsWith("video"));
+    }
+
+    private static String baseName(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash >= 0 ? path.substring(slash + 1) : path;
+    }
+}
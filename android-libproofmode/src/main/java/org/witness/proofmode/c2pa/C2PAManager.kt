@@ -25,8 +25,6 @@ import org.contentauth.c2pa.Action
 import org.contentauth.c2pa.Builder
 import org.contentauth.c2pa.BuilderIntent
 import org.contentauth.c2pa.C2PA
-import org.contentauth.c2pa.C2PAContext
-import org.contentauth.c2pa.C2PASettings
 import org.contentauth.c2pa.CertificateManager
 import org.contentauth.c2pa.DigitalSourceType
 import org.contentauth.c2pa.FileStream
@@ -59,7 +57,6 @@ import timber.log.Timber
 import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.FileInputStream
-import java.io.InputStreamReader
 import java.math.BigInteger
 import java.security.KeyFactory
 import java.security.KeyPairGenerator
@@ -76,6 +73,8 @@ import java.util.Date
 import java.util.Locale
 import java.util.StringTokenizer
 import java.util.TimeZone
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import javax.crypto.Cipher
 import javax.security.auth.x500.X500Principal
 import kotlin.math.abs
@@ -100,6 +99,26 @@ class C2PAManager(private val context: Context, private val preferencesManager:
 
         private const val TSA_DEFAULT = BuildConfig.TSA_SERVER
 
+        /**
+         * Validate one in every this many freshly signed files in the background, see
+         * [validateSignedMediaAsync]. 1 validates all of them, which prefills the validation
+         * cache for every new item in the feed; 0 turns the check off.
+         */
+        @JvmStatic
+        @Volatile
+        var postSignValidationEvery: Int = 1
+
+        private val postSignCount = AtomicInteger()
+
+        // One low-priority thread, so post-sign checks never compete with capture and
+        // signing for cores.
+        private val postSignExecutor = Executors.newSingleThreadExecutor { r ->
+            Thread(r, "c2pa-post-sign").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+
         /**
          * Formats a signed decimal-degrees coordinate as an XMP GPSCoordinate string
          * ("D,M.mmmmmmH"), which is what the exif:GPSLatitude / exif:GPSLongitude
@@ -122,16 +141,6 @@ class C2PAManager(private val context: Context, private val preferencesManager:
         }
     }
 
-    private var trustAnchors: String? = null
-    private var allowedList: String? = null
-    private var trustConfig: String? = null
-
-    init {
-        trustAnchors = InputStreamReader(context.assets.open("C2PA-TRUST-LIST-AND-TSA-TRUST-LIST.pem")).readText()
-        allowedList = InputStreamReader(context.assets.open("proofsign_trust_anchors.txt")).readText()
-        trustConfig = InputStreamReader(context.assets.open("trustConfig.txt")).readText()
-    }
-
     suspend fun signMediaFile(
         signingMode: SigningMode,
         inFile: File,
@@ -359,9 +368,9 @@ class C2PAManager(private val context: Context, private val preferencesManager:
                 }
                 Timber.d("Signed file size: ${outFile.length()} bytes")
 
-                // Verify the signed image
-                var validationState = validateSignedMedia(outFile.absolutePath)
-                Timber.d("validationState=$validationState")
+                // No validation here: it would re-read and parse the whole signed file
+                // on the capture path. Callers that know the post-embed hash schedule
+                // it with validateSignedMediaAsync.
 
                 Result.Success(outStream)
             }
@@ -853,38 +862,11 @@ class C2PAManager(private val context: Context, private val preferencesManager:
         Timber.d( "Starting signImageData")
         Timber.d( "Manifest JSON: ${manifestJSON.take(200)}...") // First 200 chars
 
-        val createdLabels = Builder.DEFAULT_CREATED_ASSERTION_LABELS + listOf(
-            "proofmode.metadata",
-            "c2pa.metadata"
-        )
-
         var currentSigner = signer;
 
         val doCawgSigning = PreferenceManager.getDefaultSharedPreferences(context)
             .getBoolean(ProofMode.PREF_OPTION_CAWG_SIGNING, ProofMode.PREF_OPTION_CAWG_SIGNING_DEFAULT)
 
-        val settingsJson = buildJsonObject {
-            put("version", 1)
-            put("builder", buildJsonObject {
-                put("created_assertion_labels", buildJsonArray {
-                    for (label in createdLabels) {
-                        add(label)
-                    }
-                })
-
-            })
-
-            put ("trust", buildJsonObject {
-              //  put ("trust_anchors", trustAnchors)
-            //    put ("allowed_list", allowedList)
-                put ("trust_config", trustConfig)
-            })
-
-        }
-
-        val settingsJsonString = settingsJson.toString()
-        Timber.d("Settings JSON:  $settingsJsonString")
-
         if (doCawgSigning) {
             val pPrefs = PreferenceManager.getDefaultSharedPreferences(context)
             val cawgCreator = pPrefs.getString(ProofMode.PREF_CAWG_CREATOR, "Proofmode Android User") ?: ""
@@ -908,15 +890,11 @@ class C2PAManager(private val context: Context, private val preferencesManager:
             currentSigner = combined
         }
 
-        val settings = C2PASettings.create().apply {
-            updateFromString(settingsJson.toString(), "json")
-        }
-
-        var cc = C2PAContext.fromSettings(settings)
+        // The context (builder settings and trust config) is shared by every signature.
+        val cc = C2PARuntime.signingContext(context)
         val builder = Builder.fromContext(cc).withDefinition(manifestJSON)
 
        // val builder = Builder.fromJson(manifestJSON, settings)
-        settings.close()
         if (!embed)
             builder.setNoEmbed()
 
@@ -990,16 +968,7 @@ class C2PAManager(private val context: Context, private val preferencesManager:
 
     public fun validateSignedMedia(filePath: String): ValidationState {
 
-        val settingsJson = buildJsonObject {
-            put("version", 1)
-            put ("trust", buildJsonObject {
-                put ("trust_anchors", trustAnchors)
-                put ("allowed_list", allowedList)
-                put ("trust_config", trustConfig)
-            })
-        }
-
-        C2PA.loadSettings(settingsJson.toString(),"json")
+        C2PARuntime.useReaderSettings(context)
 
         try {
 
@@ -1066,16 +1035,34 @@ class C2PAManager(private val context: Context, private val preferencesManager:
         return ValidationState.INVALID
     }
 
-    public fun readManifest(filePath: String): String {
+    /**
+     * Validate [signedFile], which was just signed and now hashes to [hash], on a background
+     * thread, for one in every [postSignValidationEvery] calls. The result is logged, put in
+     * the shared [C2PAValidationCache] so the feed shows it without validating the file
+     * again, and passed to [onResult]. Returns whether the check was scheduled.
+     */
+    fun validateSignedMediaAsync(hash: String, signedFile: File, onResult: ((ValidationState) -> Unit)? = null): Boolean {
+        val every = postSignValidationEvery
+        if (every <= 0 || postSignCount.getAndIncrement() % every != 0) return false
 
-        val settingsJson = buildJsonObject {
-            put("version", 1)
-            put ("trust", buildJsonObject {
-                put ("trust_anchors", trustAnchors)
-                put ("allowed_list", allowedList)
-            })
+        postSignExecutor.execute {
+            try {
+                val state = validateSignedMedia(signedFile.absolutePath)
+                Timber.d("Post-sign validation of ${signedFile.name}: $state")
+                C2PAValidationCache.forContext(context).put(hash, state)
+                onResult?.invoke(state)
+            } catch (e: Exception) {
+                Timber.w(e, "Post-sign validation of ${signedFile.name} failed")
+            }
         }
-        C2PA.loadSettings(settingsJson.toString(),"json")
+        return true
+    }
+
+    public fun readManifest(filePath: String): String {
+
+        // Same settings as validateSignedMedia, so switching between the two does not
+        // reload them.
+        C2PARuntime.useReaderSettings(context)
 
         // Read and verify using C2PA
         val manifestJSON = C2PA.readFile(filePath, null)
@@ -1353,7 +1340,6 @@ class C2PAManager(private val context: Context, private val preferencesManager:
 
                 }
 
-                val nonceOfIngredient = HashUtils.getSHA256FromFileContent(FileInputStream(inFile))
                 if (certChain?.isNotEmpty() == true)
                 {
 
@@ -0,0 +1,148 @@
+package org.witness.proofmode.c2pa
+
+import android.content.Context
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import org.contentauth.c2pa.Builder
+import org.contentauth.c2pa.C2PA
+import org.contentauth.c2pa.C2PAContext
+import org.contentauth.c2pa.C2PASettings
+import timber.log.Timber
+
+/**
+ * Process-wide C2PA state that [C2PAManager] used to rebuild on every call: the trust
+ * material from the library assets, the reader settings JSON that validation loads with
+ * [C2PA.loadSettings], the [C2PAContext] signing builders are made from, and a shared
+ * [C2PAManager] for callers that only validate or read manifests.
+ *
+ * Each piece is built on first use and kept until [reset], which [org.witness.proofmode.service.MediaWatcher.resetC2PA]
+ * calls when the signing settings change. Signers are not kept here: a CAWG identity
+ * signer consumes the signer it wraps, so every signature still needs a fresh one.
+ */
+object C2PARuntime {
+
+    /** Trust anchors, allowed list and trust config, with a digest that identifies them. */
+    class Trust internal constructor(
+        val anchors: String,
+        val allowedList: String,
+        val config: String,
+    ) {
+        val version: String = C2PAValidationCache.trustVersionOf(
+            listOf(anchors.toByteArray(), allowedList.toByteArray(), config.toByteArray())
+        )
+    }
+
+    /** Assertions a created (not notarized) manifest claims as the signer's own. */
+    private val CREATED_LABELS = Builder.DEFAULT_CREATED_ASSERTION_LABELS + listOf(
+        "proofmode.metadata",
+        "c2pa.metadata"
+    )
+
+    @Volatile
+    private var trust: Trust? = null
+
+    @Volatile
+    private var readerSettings: String? = null
+
+    @Volatile
+    private var signingContext: C2PAContext? = null
+
+    @Volatile
+    private var manager: C2PAManager? = null
+
+    // The reader settings each thread last loaded. Settings loaded with C2PA.loadSettings
+    // may be kept per thread by the native library, so every worker thread loads them
+    // once, instead of every call loading them again.
+    private val loadedReaderSettings = ThreadLocal<String?>()
+
+    @JvmStatic
+    fun trust(context: Context): Trust {
+        trust?.let { return it }
+        synchronized(this) {
+            trust?.let { return it }
+            val assets = context.applicationContext.assets
+            fun read(name: String) = assets.open(name).bufferedReader().use { it.readText() }
+            return Trust(
+                read("C2PA-TRUST-LIST-AND-TSA-TRUST-LIST.pem"),
+                read("proofsign_trust_anchors.txt"),
+                read("trustConfig.txt"),
+            ).also { trust = it }
+        }
+    }
+
+    /** Load the reader settings (full trust material) on this thread, unless it already has them. */
+    @JvmStatic
+    fun useReaderSettings(context: Context) {
+        val settings = readerSettings ?: synchronized(this) {
+            readerSettings ?: trust(context).let { t ->
+                buildJsonObject {
+                    put("version", 1)
+                    put("trust", buildJsonObject {
+                        put("trust_anchors", t.anchors)
+                        put("allowed_list", t.allowedList)
+                        put("trust_config", t.config)
+                    })
+                }.toString()
+            }.also { readerSettings = it }
+        }
+        // Identity check: the string is only replaced by reset().
+        if (loadedReaderSettings.get() === settings) return
+        C2PA.loadSettings(settings, "json")
+        loadedReaderSettings.set(settings)
+    }
+
+    /** The context signing builders are created from. */
+    @JvmStatic
+    fun signingContext(context: Context): C2PAContext {
+        signingContext?.let { return it }
+        synchronized(this) {
+            signingContext?.let { return it }
+            val settingsJson = buildJsonObject {
+                put("version", 1)
+                put("builder", buildJsonObject {
+                    put("created_assertion_labels", buildJsonArray {
+                        for (label in CREATED_LABELS) {
+                            add(label)
+                        }
+                    })
+                })
+                put("trust", buildJsonObject {
+                    put("trust_config", trust(context).config)
+                })
+            }.toString()
+            Timber.d("C2PA signing settings JSON: $settingsJson")
+
+            val settings = C2PASettings.create().apply {
+                updateFromString(settingsJson, "json")
+            }
+            val cc = C2PAContext.fromSettings(settings)
+            settings.close()
+            return cc.also { signingContext = it }
+        }
+    }
+
+    /** A shared manager on the application context. */
+    @JvmStatic
+    fun manager(context: Context): C2PAManager {
+        manager?.let { return it }
+        synchronized(this) {
+            manager?.let { return it }
+            val appContext = context.applicationContext
+            return C2PAManager(appContext, PreferencesManager(appContext)).also { manager = it }
+        }
+    }
+
+    /**
+     * Drop everything built from settings so the next call rebuilds it. A signing context
+     * handed out earlier is left to finish whatever signature is using it.
+     */
+    @JvmStatic
+    @Synchronized
+    fun reset() {
+        readerSettings = null
+        signingContext = null
+        manager = null
+    }
+}
@@ -0,0 +1,157 @@
+package org.witness.proofmode.c2pa
+
+import android.content.Context
+import org.witness.proofmode.util.AppendOnlyLog
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Results of [C2PAManager.validateSignedMedia], keyed by the content hash of the media, so
+ * the Activities feed and the asset view validate each signed file natively once, not once
+ * per row, screen and process.
+ *
+ * Every entry belongs to a [trustVersion], a digest of the trust anchors, allowed list and
+ * trust config that validation ran against. When that material changes, older entries no
+ * longer match and are dropped. At most [maxEntries] results are kept, least recently used
+ * first out.
+ *
+ * Results are also appended to a tab-separated [AppendOnlyLog], one line per result:
+ * `hash  trustVersion  state`. A state of `-` forgets the hash. The log is replayed on first
+ * use; the last line for a hash wins, and a line that does not parse is skipped. It is
+ * rewritten to the live entries when it has grown to more than twice that.
+ */
+class C2PAValidationCache internal constructor(
+    file: File,
+    val trustVersion: String,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+) {
+
+    companion object {
+        const val STORE_FILE = "c2pa-validation.log"
+
+        internal const val DEFAULT_MAX_ENTRIES = 2048
+        private const val MIN_COMPACT_LINES = 256
+        private const val FORGOTTEN = "-"
+
+        @Volatile
+        private var sInstance: C2PAValidationCache? = null
+
+        /** The shared cache in [context]'s files folder, for the trust material bundled with the app. */
+        @JvmStatic
+        fun forContext(context: Context): C2PAValidationCache {
+            sInstance?.let { return it }
+            synchronized(this) {
+                sInstance?.let { return it }
+                val version = C2PARuntime.trust(context).version
+                return C2PAValidationCache(File(context.filesDir, STORE_FILE), version).also { sInstance = it }
+            }
+        }
+
+        /** Digest identifying one set of trust material. */
+        internal fun trustVersionOf(material: List<ByteArray>): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            for (part in material) {
+                digest.update(part.size.toString().toByteArray())
+                digest.update(part)
+            }
+            return digest.digest().take(8).joinToString("") { "%02x".format(it) }
+        }
+    }
+
+    private val states = object : LinkedHashMap<String, ValidationState>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ValidationState>?) =
+            size > maxEntries
+    }
+    private val log = AppendOnlyLog(file)
+    private var loaded = false
+
+    @Synchronized
+    operator fun get(hash: String): ValidationState? {
+        load()
+        return states[hash]
+    }
+
+    /** Record that the media with content [hash] validated as [state]. */
+    @Synchronized
+    fun put(hash: String, state: ValidationState) {
+        load()
+        if (states.put(hash, state) == state) return
+        append(hash, state.name)
+    }
+
+    /** Forget the result for [hash], e.g. because the media was signed again. */
+    @Synchronized
+    fun invalidate(hash: String) {
+        load()
+        if (states.remove(hash) == null) return
+        append(hash, FORGOTTEN)
+    }
+
+    /** Forget every result. */
+    @Synchronized
+    fun invalidateAll() {
+        states.clear()
+        loaded = true
+        log.delete()
+    }
+
+    /**
+     * The cached result for [hash], or the result of [validate], which is then cached.
+     * A [validate] that throws caches nothing. Two threads asking for the same new hash
+     * at once may both validate it.
+     */
+    fun getOrValidate(hash: String, validate: () -> ValidationState): ValidationState {
+        get(hash)?.let { return it }
+        return validate().also { put(hash, it) }
+    }
+
+    /** Number of cached results. */
+    @Synchronized
+    fun size(): Int {
+        load()
+        return states.size
+    }
+
+    private fun append(hash: String, state: String) {
+        try {
+            log.append(line(hash, state))
+        } catch (e: IOException) {
+            Timber.w(e, "Could not persist C2PA validation result for $hash")
+        }
+        maybeCompact()
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+
+        try {
+            log.replay { line ->
+                val f = line.split('\t')
+                if (f.size != 3 || f[0].isEmpty() || f[1] != trustVersion) return@replay
+                if (f[2] == FORGOTTEN) {
+                    states.remove(f[0])
+                } else {
+                    ValidationState.values().firstOrNull { it.name == f[2] }?.let { states[f[0]] = it }
+                }
+            }
+        } catch (e: IOException) {
+            Timber.w(e, "Could not read C2PA validation results, starting empty")
+            states.clear()
+        }
+        maybeCompact()
+    }
+
+    private fun maybeCompact() {
+        if (!log.shouldCompact(states.size, MIN_COMPACT_LINES)) return
+        try {
+            log.rewrite(states.asSequence().map { (hash, state) -> line(hash, state.name) })
+        } catch (e: IOException) {
+            Timber.w(e, "Could not compact C2PA validation results")
+        }
+    }
+
+    private fun line(hash: String, state: String) = "$hash\t$trustVersion\t$state"
+}
@@ -0,0 +1,87 @@
+package org.witness.proofmode.crypto
+
+import org.bouncycastle.openpgp.PGPSignatureGenerator
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.MessageDigest
+
+/**
+ * Everything the proof pipeline needs from the bytes of the final media artifact,
+ * produced by a single read in [MediaDigest.compute].
+ *
+ * [pgpSignature] is the finished detached signature over the media (armored or binary,
+ * as requested), or null when no signature generator was supplied. The generator sees
+ * the bytes during the read, but the signature itself is only made the first time
+ * [pgpSignature] is asked for, so media whose proof already exists is never signed.
+ * [leafBytes] holds the media content only when it fit under the capture limit, so
+ * plugins that need the raw bytes (e.g. UnixFS leaf chunking for IPFS) can reuse them
+ * instead of re-reading the file; larger media leave it null and consumers fall back to
+ * their own read.
+ */
+class MediaDigest(
+    val sha256: String,
+    val size: Long,
+    signature: (() -> ByteArray)?,
+    val leafBytes: ByteArray?,
+) {
+    val pgpSignature: ByteArray? by lazy { signature?.invoke() }
+
+    companion object {
+        const val BUFFER_SIZE = 64 * 1024
+
+        /**
+         * Media up to this size is kept in memory for [leafBytes]. Ingest runs several
+         * media at once, so this stays around the size of a photo; video is re-read.
+         */
+        const val DEFAULT_LEAF_CAPTURE_LIMIT = 4L * 1024 * 1024
+
+        /**
+         * Tee [input] through SHA-256, [signatureGenerator] (when non-null) and, up to
+         * [leafCaptureLimit] bytes, an in-memory copy. [finishSignature] turns the
+         * updated generator into the encoded detached signature when [pgpSignature] is
+         * first read. The stream is closed before returning.
+         */
+        @JvmStatic
+        @JvmOverloads
+        @Throws(IOException::class)
+        fun compute(
+            input: InputStream,
+            signatureGenerator: PGPSignatureGenerator? = null,
+            finishSignature: ((PGPSignatureGenerator) -> ByteArray)? = null,
+            leafCaptureLimit: Long = DEFAULT_LEAF_CAPTURE_LIMIT,
+        ): MediaDigest {
+            val sha256 = MessageDigest.getInstance("SHA-256")
+            var leaf: ByteArrayOutputStream? = if (leafCaptureLimit > 0) ByteArrayOutputStream() else null
+            var size = 0L
+
+            input.use { stream ->
+                val buffer = ByteArray(BUFFER_SIZE)
+                var n = stream.read(buffer)
+                while (n != -1) {
+                    if (n > 0) {
+                        sha256.update(buffer, 0, n)
+                        signatureGenerator?.update(buffer, 0, n)
+                        size += n
+                        if (leaf != null) {
+                            if (size <= leafCaptureLimit) leaf.write(buffer, 0, n)
+                            else leaf = null // too large to hold; consumers re-read instead
+                        }
+                    }
+                    n = stream.read(buffer)
+                }
+            }
+
+            val signature = if (signatureGenerator != null && finishSignature != null) {
+                { finishSignature(signatureGenerator) }
+            } else null
+
+            return MediaDigest(
+                sha256 = HashUtils.asHex(sha256.digest()),
+                size = size,
+                signature = signature,
+                leafBytes = leaf?.toByteArray(),
+            )
+        }
+    }
+}
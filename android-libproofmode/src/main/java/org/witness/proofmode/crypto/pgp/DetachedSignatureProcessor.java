@@ -83,6 +83,30 @@ public class DetachedSignatureProcessor
             InputStream     fileSignatureDetached,
             PGPPublicKey     publicKey)
             throws GeneralSecurityException, IOException, PGPException
+    {
+        PGPSignature proofSig = initVerifier(fileSignatureDetached, publicKey);
+
+        int n;
+        byte[] buffer = new byte[8192];
+        while ((n = fileStream.read(buffer)) >= 0)
+        {
+            proofSig.update(buffer, 0, n);
+        }
+
+        fileStream.close();
+
+        return proofSig.verify();
+    }
+
+    /*
+     * read the detached signature and return it ready to be fed the bytes of the signed
+     * document, so a caller hashing the document anyway can check the signature in the
+     * same pass and finish with verify().
+     */
+    public static PGPSignature initVerifier(
+            InputStream     fileSignatureDetached,
+            PGPPublicKey     publicKey)
+            throws IOException, PGPException
     {
         InputStream inSig = PGPUtil.getDecoderStream(fileSignatureDetached);
 
@@ -103,44 +127,86 @@ public class DetachedSignatureProcessor
             pgpSignatureList = (PGPSignatureList)o;
         }
 
+        if (pgpSignatureList == null || pgpSignatureList.isEmpty())
+        {
+            throw new PGPException("no signature found");
+        }
+
         PGPSignature proofSig = pgpSignatureList.get(0);
         proofSig.init(new JcaPGPContentVerifierBuilderProvider().setProvider(ProofMode.getProvider()), publicKey);
 
-        int ch;
-        while ((ch = fileStream.read()) != -1)
-        {
-            proofSig.update((byte)ch);
-        }
+        return proofSig;
+    }
 
-        fileStream.close();
+    /*
+     * unlock skey and return a generator ready to be fed the bytes of a binary document.
+     * Callers that already read the document for another reason (e.g. hashing it) can
+     * update the generator as they go and finish with encodeSignature, instead of
+     * reading the document a second time through createSignature.
+     */
+    public static PGPSignatureGenerator initSignatureGenerator(
+            PGPSecretKey    skey,
+            char[]          pass)
+            throws PGPException
+    {
+        BouncyCastleProvider prov = ProofMode.getProvider();
 
-        return proofSig.verify();
+        PBESecretKeyDecryptor keyDecryptor = new JcePBESecretKeyDecryptorBuilder().setProvider(prov).build(pass);
+        PGPPrivateKey            pgpPrivKey = skey.extractPrivateKey(keyDecryptor);
+        PGPSignatureGenerator sGen = new PGPSignatureGenerator(new JcaPGPContentSignerBuilder(skey.getPublicKey().getAlgorithm(), PGPUtil.SHA256).setProvider(prov));
+
+        sGen.init(PGPSignature.BINARY_DOCUMENT, pgpPrivKey);
+
+        return sGen;
     }
 
-    public static void createSignature(
-            PGPSecretKey             skey,
-            InputStream          in,
+    /*
+     * write the detached signature for everything sGen has been updated with so far.
+     */
+    public static void encodeSignature(
+            PGPSignatureGenerator sGen,
             OutputStream    out,
-            char[]          pass,
             boolean         armor)
             throws IOException, PGPException
     {
-
         if (armor)
         {
             out = new ArmoredOutputStream(out);
         }
 
-        BouncyCastleProvider prov = ProofMode.getProvider();
+        BCPGOutputStream         bOut = new BCPGOutputStream(out);
 
-        PBESecretKeyDecryptor keyDecryptor = new JcePBESecretKeyDecryptorBuilder().setProvider(prov).build(pass);
-        PGPPrivateKey            pgpPrivKey = skey.extractPrivateKey(keyDecryptor);
-        PGPSignatureGenerator sGen = new PGPSignatureGenerator(new JcaPGPContentSignerBuilder(skey.getPublicKey().getAlgorithm(), PGPUtil.SHA256).setProvider(prov));
+        sGen.generate().encode(bOut);
 
-        sGen.init(PGPSignature.BINARY_DOCUMENT, pgpPrivKey);
+        if (armor)
+        {
+            out.close();
+        }
+    }
 
-        BCPGOutputStream         bOut = new BCPGOutputStream(out);
+    public static void createSignature(
+            PGPSecretKey             skey,
+            InputStream          in,
+            OutputStream    out,
+            char[]          pass,
+            boolean         armor)
+            throws IOException, PGPException
+    {
+
+        createSignature(initSignatureGenerator(skey, pass), in, out, armor);
+    }
 
+    /*
+     * sign in with an already initialized generator, e.g. one from a PgpSigningSession
+     * that keeps the private key unlocked between signatures.
+     */
+    public static void createSignature(
+            PGPSignatureGenerator sGen,
+            InputStream          in,
+            OutputStream    out,
+            boolean         armor)
+            throws IOException, PGPException
+    {
         int n = -1;
         byte[] buffer = new byte[2048];
         while ((n = in.read(buffer)) >= 0)
@@ -150,12 +216,7 @@ public class DetachedSignatureProcessor
 
         in.close();
 
-        sGen.generate().encode(bOut);
-
-        if (armor)
-        {
-            out.close();
-        }
+        encodeSignature(sGen, out, armor);
 
         //this is for attached / inline sig
 
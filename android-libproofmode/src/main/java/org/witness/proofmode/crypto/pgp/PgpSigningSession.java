@@ -0,0 +1,150 @@
+package org.witness.proofmode.crypto.pgp;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+import org.witness.proofmode.ProofMode;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the unlocked signing key between detached signatures.
+ * <p>
+ * Unlocking a 4096-bit RSA secret key runs the S2K and the RSA key decode, which used to
+ * happen for every one of the three signatures in each proof. A session unlocks once and
+ * hands out ready-to-use {@link PGPSignatureGenerator}s built from a shared content signer
+ * builder. The private key is dropped after {@link #DEFAULT_IDLE_TIMEOUT_MS} without use,
+ * when the passphrase changes, or on {@link #close()}.
+ * <p>
+ * Only a SHA-256 of the passphrase is retained (to notice a different passphrase), and it
+ * is zeroed on eviction. BouncyCastle keeps RSA key material in immutable BigIntegers, so
+ * eviction can only release the key for collection, not overwrite it.
+ */
+public class PgpSigningSession {
+
+    public final static long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private final static ScheduledExecutorService sEvictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pgp-session-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PGPSecretKey mSecretKey;
+    private final long mIdleTimeoutMs;
+    private final JcaPGPContentSignerBuilder mSignerBuilder;
+
+    private PGPPrivateKey mPrivateKey = null;
+    private byte[] mPassDigest = null;
+    private ScheduledFuture<?> mEviction = null;
+
+    public PgpSigningSession (PGPSecretKey secretKey)
+    {
+        this(secretKey, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public PgpSigningSession (PGPSecretKey secretKey, long idleTimeoutMs)
+    {
+        mSecretKey = secretKey;
+        mIdleTimeoutMs = idleTimeoutMs;
+        mSignerBuilder = new JcaPGPContentSignerBuilder(secretKey.getPublicKey().getAlgorithm(), PGPUtil.SHA256)
+                .setProvider(ProofMode.getProvider());
+    }
+
+    /**
+     * Return a generator initialized for a binary-document signature, unlocking the key
+     * only if it is not already held for this passphrase. Generators are independent, so
+     * callers may feed several of them concurrently.
+     */
+    public synchronized PGPSignatureGenerator newSignatureGenerator (char[] pass) throws PGPException
+    {
+        byte[] passDigest = digest(pass);
+
+        if (mPrivateKey == null || mPassDigest == null || !MessageDigest.isEqual(passDigest, mPassDigest))
+        {
+            PGPPrivateKey privateKey = mSecretKey.extractPrivateKey(
+                    new JcePBESecretKeyDecryptorBuilder().setProvider(ProofMode.getProvider()).build(pass));
+            evict();
+            mPrivateKey = privateKey;
+            mPassDigest = passDigest;
+        }
+        else
+        {
+            Arrays.fill(passDigest, (byte) 0);
+        }
+
+        scheduleEviction();
+
+        PGPSignatureGenerator sGen = new PGPSignatureGenerator(mSignerBuilder);
+        sGen.init(PGPSignature.BINARY_DOCUMENT, mPrivateKey);
+        return sGen;
+    }
+
+    public synchronized boolean isUnlocked ()
+    {
+        return mPrivateKey != null;
+    }
+
+    /** Drop the unlocked key now; the next signature unlocks again. */
+    public synchronized void close ()
+    {
+        if (mEviction != null)
+        {
+            mEviction.cancel(false);
+            mEviction = null;
+        }
+        evict();
+    }
+
+    private void scheduleEviction ()
+    {
+        if (mEviction != null)
+            mEviction.cancel(false);
+
+        mEviction = sEvictor.schedule(() -> {
+            synchronized (PgpSigningSession.this) {
+                mEviction = null;
+                evict();
+            }
+        }, mIdleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void evict ()
+    {
+        mPrivateKey = null;
+        if (mPassDigest != null)
+        {
+            Arrays.fill(mPassDigest, (byte) 0);
+            mPassDigest = null;
+        }
+    }
+
+    private static byte[] digest (char[] pass) throws PGPException
+    {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(pass));
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(bytes);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new PGPException("SHA-256 unavailable", e);
+        } finally {
+            if (bytes.hasArray())
+                Arrays.fill(bytes.array(), (byte) 0);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.bouncycastle.openpgp.PGPPublicKeyRing;
 import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
 import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
 import org.bouncycastle.openpgp.PGPUtil;
 import org.bouncycastle.openpgp.jcajce.JcaPGPPublicKeyRingCollection;
@@ -87,6 +88,7 @@ public class PgpUtils {
     private PGPSecretKey pgpSec = null;
     private PGPSecretKeyRing skr = null;
     private PGPPublicKeyRing pkr = null;
+    private PgpSigningSession signingSession = null;
 
     private static String keyEmail = "noone@proofmode.witness.org";
 
@@ -290,10 +292,45 @@ public class PgpUtils {
     }
 
     public void createDetachedSignature (InputStream is, OutputStream mediaSig, String password, boolean armor) throws PGPException, IOException {
-        DetachedSignatureProcessor.createSignature(pgpSec, new DataInputStream(is), mediaSig, password.toCharArray(), armor);
+        DetachedSignatureProcessor.createSignature(createDetachedSignatureGenerator(password), new DataInputStream(is), mediaSig, armor);
 
     }
 
+    /**
+     * The session that keeps the secret key unlocked between signatures, so a burst of
+     * proofs pays the S2K/RSA unlock once rather than three times per proof.
+     */
+    public synchronized PgpSigningSession getSigningSession () throws PGPException {
+        if (pgpSec == null)
+            throw new PGPException("not yet initialized");
+
+        if (signingSession == null)
+            signingSession = new PgpSigningSession(pgpSec);
+
+        return signingSession;
+    }
+
+    private synchronized void closeSigningSession () {
+        if (signingSession != null) {
+            signingSession.close();
+            signingSession = null;
+        }
+    }
+
+    /**
+     * Start a detached signature whose input is fed incrementally via
+     * {@link PGPSignatureGenerator#update(byte[], int, int)}; finish it with
+     * {@link #encodeDetachedSignature}. Lets a single read of the media serve both
+     * hashing and signing.
+     */
+    public PGPSignatureGenerator createDetachedSignatureGenerator (String password) throws PGPException {
+        return getSigningSession().newSignatureGenerator(password.toCharArray());
+    }
+
+    public void encodeDetachedSignature (PGPSignatureGenerator sGen, OutputStream mediaSig, boolean armor) throws PGPException, IOException {
+        DetachedSignatureProcessor.encodeSignature(sGen, mediaSig, armor);
+    }
+
     public boolean verifyDetachedSignature (InputStream fileStream, InputStream sigStream, PGPPublicKey pubKey) throws Exception
     {
         return DetachedSignatureProcessor.verifySignature(fileStream, sigStream, pubKey);
@@ -335,6 +372,7 @@ public class PgpUtils {
         File filePubKeyRing = new File(context.getFilesDir(),FILE_PUBLIC_KEY_RING);
         fileSecKeyRing.delete();
         filePubKeyRing.delete();
+        closeSigningSession();
         pgpSec = null;
     }
 
@@ -376,6 +414,7 @@ public class PgpUtils {
             }
 
             this.skr = rewritten;
+            closeSigningSession();
             this.pgpSec = rewritten.getSecretKey();
             return true;
         } catch (Exception e) {
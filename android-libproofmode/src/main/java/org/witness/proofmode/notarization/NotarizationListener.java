@@ -17,4 +17,11 @@ public interface NotarizationListener {
 
     public void notarizationFailed(int errCode, String message);
 
+    /**
+     * The provider did not notarize {@code hash}, e.g. because the user has switched it off.
+     * No result follows.
+     */
+    public default void notarizationSkipped(String hash) {
+    }
+
 }
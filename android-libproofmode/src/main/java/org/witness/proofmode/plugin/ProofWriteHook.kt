@@ -2,15 +2,21 @@ package org.witness.proofmode.plugin
 
 import android.content.Context
 import android.net.Uri
+import org.witness.proofmode.crypto.MediaDigest
 import org.witness.proofmode.storage.StorageProvider
 import java.util.concurrent.ExecutorService
 
+/**
+ * [mediaDigest] carries the single-pass digest of the media the proof was written for,
+ * when the writer had one; hooks should prefer it over re-reading [mediaUri].
+ */
 data class ProofWriteEvent(
     val context: Context,
     val mediaHash: String,
     val mediaUri: Uri,
     val storageProvider: StorageProvider,
     val executor: ExecutorService,
+    val mediaDigest: MediaDigest? = null,
 )
 
 /** Handlers attach from optional plugins (e.g. IpfsCidPlugin). Empty by default — NF2 zero-leakage. */
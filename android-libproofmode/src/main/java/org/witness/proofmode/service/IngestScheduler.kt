@@ -0,0 +1,239 @@
+package org.witness.proofmode.service
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.util.EnumMap
+
+/**
+ * Order in which queued proof work is started. Earlier entries always win a free slot:
+ * a shutter press should never wait behind a gallery import or a MediaStore backfill.
+ */
+enum class IngestPriority {
+    /** In-app camera capture (or a camera broadcast). */
+    CAPTURE,
+
+    /** Explicit import through the public ProofMode API / share sheet. */
+    IMPORT,
+
+    /** C2PA re-sign of an existing asset from SingleAssetView. */
+    RESIGN,
+
+    /** MediaStore observers catching up on media created outside the app. */
+    BACKFILL,
+}
+
+/** Point-in-time view of an [IngestScheduler] queue, per [IngestPriority]. */
+data class IngestQueueStats(
+    val queued: Int,
+    val started: Long,
+    val rejected: Long,
+    val totalWaitMs: Long,
+    val maxWaitMs: Long,
+) {
+    val averageWaitMs: Long get() = if (started == 0L) 0 else totalWaitMs / started
+}
+
+/**
+ * Runs proof ingest work with a bounded number of concurrent jobs, one FIFO queue per
+ * [IngestPriority], and cancellation keyed by media URI.
+ *
+ * Replaces the per-call `CoroutineScope(Dispatchers.IO).launch` in [MediaWatcher], which let
+ * any number of hash/sign/embed jobs compete for IO threads at once. Backpressure is
+ * applied per class: once a queue holds [capacityPerClass] entries further submissions are
+ * rejected (and counted) so callers can leave the media for a later pass. [IngestPriority.CAPTURE]
+ * is never rejected — losing a capture's proof is worse than a long queue.
+ *
+ * Work for a key that already has work is never dropped. If the existing work has not
+ * started and the new work's priority is the same or higher, the new work takes its place
+ * (at the new priority): it was submitted later, so it carries the newer parameters, such
+ * as a capture nonce. Otherwise, and always while the existing work is running, the new
+ * work waits behind it and is queued once it finishes. Each key keeps at most one such
+ * follow-up per [IngestPriority]; a newer one replaces an older one of the same class.
+ * Work that is replaced before it starts has its `onSuperseded` callback run instead.
+ */
+class IngestScheduler(
+    parallelism: Int = DEFAULT_PARALLELISM,
+    private val capacityPerClass: Int = DEFAULT_CAPACITY_PER_CLASS,
+    private val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO),
+    private val clockMs: () -> Long = { System.nanoTime() / 1_000_000 },
+) {
+    companion object {
+        const val DEFAULT_PARALLELISM = 2
+        const val DEFAULT_CAPACITY_PER_CLASS = 256
+    }
+
+    private class Entry(
+        val key: String,
+        var priority: IngestPriority,
+        val enqueuedAtMs: Long,
+        var work: suspend () -> Unit,
+        var onSuperseded: (() -> Unit)?,
+    ) {
+        var job: Job? = null
+
+        // Work for the same key submitted while this entry could not take it, by class.
+        val followUps = EnumMap<IngestPriority, Entry>(IngestPriority::class.java)
+    }
+
+    private class Counters {
+        var started = 0L
+        var rejected = 0L
+        var totalWaitMs = 0L
+        var maxWaitMs = 0L
+    }
+
+    private val lock = Any()
+    private val queues = EnumMap<IngestPriority, ArrayDeque<Entry>>(IngestPriority::class.java).apply {
+        IngestPriority.values().forEach { put(it, ArrayDeque()) }
+    }
+    private val counters = EnumMap<IngestPriority, Counters>(IngestPriority::class.java).apply {
+        IngestPriority.values().forEach { put(it, Counters()) }
+    }
+    private val entriesByKey = HashMap<String, Entry>()
+    private var running = 0
+
+    /** Maximum number of jobs running at once. Raising it starts queued work immediately. */
+    @Volatile
+    var parallelism: Int = parallelism.coerceAtLeast(1)
+        set(value) {
+            field = value.coerceAtLeast(1)
+            drain()
+        }
+
+    /**
+     * Queue [work] for the media identified by [key] (normally the media URI string).
+     * Returns false when the [priority] queue is full and the work was not accepted.
+     * [onSuperseded] runs, instead of [work], if newer work for [key] replaces it before
+     * it starts.
+     */
+    fun submit(
+        key: String,
+        priority: IngestPriority,
+        onSuperseded: (() -> Unit)? = null,
+        work: suspend () -> Unit,
+    ): Boolean {
+        val superseded: (() -> Unit)?
+        synchronized(lock) {
+            val entry = Entry(key, priority, clockMs(), work, onSuperseded)
+            val existing = entriesByKey[key]
+            if (existing != null) {
+                if (existing.job == null && priority <= existing.priority) {
+                    if (priority < existing.priority) {
+                        queues[existing.priority]!!.remove(existing)
+                        existing.priority = priority
+                        queues[priority]!!.addLast(existing)
+                    }
+                    superseded = existing.onSuperseded
+                    existing.work = work
+                    existing.onSuperseded = onSuperseded
+                } else {
+                    superseded = existing.followUps.put(priority, entry)?.onSuperseded
+                }
+            } else {
+                val queue = queues[priority]!!
+                if (priority != IngestPriority.CAPTURE && queue.size >= capacityPerClass) {
+                    counters[priority]!!.rejected++
+                    Timber.w("Ingest queue %s full (%d); rejecting %s", priority, queue.size, key)
+                    return false
+                }
+
+                queue.addLast(entry)
+                entriesByKey[key] = entry
+                superseded = null
+            }
+        }
+        superseded?.invoke()
+        drain()
+        return true
+    }
+
+    /**
+     * Drop queued work for [key], or cancel it if it is already running, together with
+     * any work waiting behind it. Returns false if nothing was scheduled under that key.
+     */
+    fun cancel(key: String): Boolean {
+        val job = synchronized(lock) {
+            val entry = entriesByKey.remove(key) ?: return false
+            if (entry.job == null) {
+                queues[entry.priority]!!.remove(entry)
+                return true
+            }
+            entry.job
+        }
+        job?.cancel(CancellationException("ingest of $key cancelled"))
+        return true
+    }
+
+    fun isScheduled(key: String): Boolean = synchronized(lock) { entriesByKey.containsKey(key) }
+
+    fun queueDepth(priority: IngestPriority): Int = synchronized(lock) { queues[priority]!!.size }
+
+    fun runningCount(): Int = synchronized(lock) { running }
+
+    fun stats(): Map<IngestPriority, IngestQueueStats> = synchronized(lock) {
+        IngestPriority.values().associateWith { priority ->
+            val c = counters[priority]!!
+            IngestQueueStats(
+                queued = queues[priority]!!.size,
+                started = c.started,
+                rejected = c.rejected,
+                totalWaitMs = c.totalWaitMs,
+                maxWaitMs = c.maxWaitMs,
+            )
+        }
+    }
+
+    /** Queue the most urgent work that waited behind [finished], carrying the rest along. */
+    private fun queueFollowUp(finished: Entry) {
+        val next = finished.followUps.values.firstOrNull() ?: return
+        finished.followUps.remove(next.priority)
+        next.followUps.putAll(finished.followUps)
+        queues[next.priority]!!.addLast(next)
+        entriesByKey[next.key] = next
+    }
+
+    private fun drain() {
+        while (true) {
+            val job = synchronized(lock) {
+                if (running >= parallelism) return
+                val entry = IngestPriority.values().firstNotNullOfOrNull { queues[it]!!.removeFirstOrNull() }
+                    ?: return
+
+                val waitedMs = clockMs() - entry.enqueuedAtMs
+                counters[entry.priority]!!.apply {
+                    started++
+                    totalWaitMs += waitedMs
+                    if (waitedMs > maxWaitMs) maxWaitMs = waitedMs
+                }
+                running++
+
+                scope.launch(start = CoroutineStart.LAZY) {
+                    try {
+                        entry.work()
+                    } catch (e: CancellationException) {
+                        Timber.d("Ingest of %s cancelled", entry.key)
+                    } catch (t: Throwable) {
+                        Timber.e(t, "Ingest of %s failed", entry.key)
+                    }
+                }.also {
+                    entry.job = it
+                    // Also fires for a job cancelled before it got to start.
+                    it.invokeOnCompletion {
+                        synchronized(lock) {
+                            running--
+                            if (entriesByKey.remove(entry.key, entry)) queueFollowUp(entry)
+                        }
+                        drain()
+                    }
+                }
+            }
+            job.start()
+        }
+    }
+}
@@ -16,9 +16,6 @@ import android.provider.MediaStore
 import android.text.TextUtils
 import android.util.Log
 import com.google.android.gms.common.util.IOUtils
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
 import org.bouncycastle.openpgp.PGPException
 import org.contentauth.c2pa.C2PA
 import org.json.JSONObject
@@ -26,16 +23,19 @@ import org.witness.proofmode.LocationCapturePolicy
 import org.witness.proofmode.ProofMode
 import org.witness.proofmode.ProofModeConstants
 import org.witness.proofmode.c2pa.C2PAManager
-import org.witness.proofmode.c2pa.PreferencesManager
+import org.witness.proofmode.c2pa.C2PARuntime
+import org.witness.proofmode.c2pa.C2PAValidationCache
 import org.witness.proofmode.c2pa.SigningMode
 import org.witness.proofmode.c2pa.ValidationState
 import org.witness.proofmode.c2pa.proofsign.CaptureAuthority
 import org.witness.proofmode.crypto.HashUtils
+import org.witness.proofmode.crypto.MediaDigest
 import org.witness.proofmode.crypto.pgp.PassphraseKeystore
 import org.witness.proofmode.crypto.pgp.PgpUtils
 import org.witness.proofmode.notarization.NotarizationListener
 import org.witness.proofmode.notarization.NotarizationProvider
 import org.witness.proofmode.storage.CompositeStorageProvider
+import org.witness.proofmode.storage.GroupCommitStorage
 import org.witness.proofmode.storage.DefaultStorageProvider
 import org.witness.proofmode.storage.filebase.FilebaseConfig
 import org.witness.proofmode.storage.filebase.FilebaseStorageProvider
@@ -64,8 +64,13 @@ import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import java.util.TimeZone
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
     private var mPrefs: SharedPreferences? = null
@@ -76,6 +81,7 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
 
     var storageProvider: StorageProvider? = null
     private var mC2paManager: C2PAManager? = null
+    private var mJournal: ProofJobJournal? = null
 
     private val outputDirectory: String by lazy {
         "${Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM)}/ProofMode/"
@@ -95,12 +101,15 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
         // owner; here we just read whatever it has provisioned.
         mPassphrase = PassphraseKeystore.getOrCreatePassphrase(context!!)
 
-        if (mC2paManager == null) mC2paManager =
-            C2PAManager(mContext!!, PreferencesManager(mContext!!))
+        if (mC2paManager == null) mC2paManager = C2PARuntime.manager(mContext!!)
+
+        if (mJournal == null) mJournal = ProofJobJournal.getInstance(context)
     }
 
     public fun resetC2PA () {
-        mC2paManager = C2PAManager(mContext!!, PreferencesManager(mContext!!))
+        // Signing settings changed: rebuild the shared C2PA settings and contexts too.
+        C2PARuntime.reset()
+        mC2paManager = C2PARuntime.manager(mContext!!)
     }
 
     public fun refreshStorageProvider (storageProvider: StorageProvider?) {
@@ -166,9 +175,7 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                var mimeType = mContext?.contentResolver?.getType(tmpUriMedia!!)
 
                 if (tmpUriMedia != null) {
-                    CoroutineScope(Dispatchers.IO).launch {
-                        ingestMedia (tmpUriMedia, true, null, mimeType!!, null)
-                    }
+                    ingestMedia (tmpUriMedia, true, null, mimeType!!, null, priority = IngestPriority.CAPTURE)
                 }
             }
         })
@@ -186,8 +193,76 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
         fun processUriDone(hash: String?)
     }
 
+    /**
+     * Queue proof generation for [uriMediaSource] on [ingestScheduler]. Camera captures
+     * (those carrying a [captureNonce]) default to [IngestPriority.CAPTURE], explicit
+     * imports to [IngestPriority.IMPORT] and autogenerated MediaStore catch-up to
+     * [IngestPriority.BACKFILL]. Returns false if the queue for that class is full.
+     */
     @JvmOverloads
-    fun ingestMedia (uriMediaSource: Uri, autogen: Boolean, createdAt: Date?, mimeType: String?, inputHash: String?, captureNonce: ByteArray? = null)  {
+    fun ingestMedia (
+        uriMediaSource: Uri,
+        autogen: Boolean,
+        createdAt: Date?,
+        mimeType: String?,
+        inputHash: String?,
+        captureNonce: ByteArray? = null,
+        priority: IngestPriority = when {
+            captureNonce != null -> IngestPriority.CAPTURE
+            autogen -> IngestPriority.BACKFILL
+            else -> IngestPriority.IMPORT
+        },
+    ): Boolean = submitIngest(uriMediaSource, autogen, createdAt, mimeType, inputHash, captureNonce, priority, null)
+
+    /**
+     * Resubmit ingest jobs that [ProofJobJournal] shows were interrupted by process death,
+     * each from its last completed stage. A recorded hash is reused only while the file's
+     * size and modification time still match. Capture nonces live only in memory, so a
+     * capture interrupted before its C2PA embed resumes with the PGP/hash sidecar only.
+     * Returns the number of jobs resubmitted.
+     */
+    fun resumeIncompleteJobs(): Int {
+        val context = mContext ?: return 0
+        val journal = mJournal ?: return 0
+        var resumed = 0
+
+        for (job in journal.incomplete()) {
+            if (ingestScheduler.isScheduled(job.uri)) continue
+
+            if (journal.resumed(job.id) > MAX_RESUME_ATTEMPTS) {
+                Timber.w("Abandoning proof job for %s after %d attempts", job.uri, job.attempts)
+                journal.record(job.id, ProofJobStage.ABANDONED)
+                continue
+            }
+
+            val uri = Uri.parse(job.uri)
+            val accepted = if (job.stage == ProofJobStage.SIDECARS_WRITTEN && job.hash != null) {
+                ingestScheduler.submit(job.uri, job.priority) {
+                    val notarized = { journal.record(job.id, ProofJobStage.NOTARIZED) }
+                    if (isNotarizationEnabled(context)) notarizeMedia(context, uri, job.hash, notarized, missingOnly = true)
+                    else notarized()
+                }
+            } else {
+                submitIngest(uri, job.autogen, job.createdAt?.let { Date(it) }, job.mimeType, null, null, job.priority, job)
+            }
+
+            if (accepted) resumed++
+        }
+
+        if (resumed > 0) Timber.d("Resumed %d interrupted proof jobs", resumed)
+        return resumed
+    }
+
+    private fun submitIngest(
+        uriMediaSource: Uri,
+        autogen: Boolean,
+        createdAt: Date?,
+        mimeType: String?,
+        inputHash: String?,
+        captureNonce: ByteArray?,
+        priority: IngestPriority,
+        resumeJob: ProofJob?,
+    ): Boolean {
         val intent = Intent()
 
         // Target our own app package so these broadcasts reach our unexported
@@ -202,7 +277,27 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
 
         var mediaHash = inputHash
 
-        CoroutineScope(Dispatchers.IO).launch {
+        // Journal the job before queueing it, so work still waiting in the queue survives
+        // process death too. If newer work for the same media replaces it before it starts,
+        // the scheduler reports it superseded and the newer job carries on in its place.
+        val journal = mJournal
+        val jobId = resumeJob?.id
+            ?: journal?.begin(uriMediaSource.toString(), mimeType, autogen, createdAt?.time, priority)
+
+        fun recordStage(stage: ProofJobStage, file: File? = null) {
+            if (jobId == null) return
+            val hash = mediaHash
+            if (file != null && hash != null)
+                journal?.record(jobId, stage, actualUriMedia.toString(), hash, file.length(), file.lastModified())
+            else
+                journal?.record(jobId, stage)
+        }
+
+        val accepted = ingestScheduler.submit(
+            uriMediaSource.toString(),
+            priority,
+            onSuperseded = { recordStage(ProofJobStage.ABANDONED) },
+        ) {
 
             var fileMedia = File(actualUriMedia.getPath())
             var actualMimeType = mimeType
@@ -222,6 +317,17 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                         fileMedia = File(mediaPath)
                 }
 
+            if (resumeJob != null) {
+                if (!fileMedia.exists()) {
+                    Timber.w("Interrupted proof job media is gone: %s", actualUriMedia)
+                    recordStage(ProofJobStage.ABANDONED)
+                    return@submit
+                }
+                if (resumeJob.hash != null && fileMedia.length() == resumeJob.size
+                    && fileMedia.lastModified() == resumeJob.lastModified)
+                    mediaHash = resumeJob.hash
+            }
+
             if (fileMedia != null) {
                 var fileMediaOut = fileMedia
                 var doEmbed = true
@@ -260,6 +366,8 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
 
                 }
 
+                if (!doImport) recordStage(ProofJobStage.ABANDONED)
+
                 if (doImport) {
                     // Proof generation is starting: let the Activities feed flip
                     // the already-visible capture to its "generating" state. Keyed
@@ -287,10 +395,26 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                             signingMode = SigningMode.HARDWARE
                     }
 
-                    if (mediaHash.isNullOrEmpty())
-                        mediaHash = HashUtils.getSHA256FromFileContent(
-                        mContext!!.contentResolver.openInputStream(actualUriMedia)
-                    )
+                    // Single-pass digest of the final artifact: SHA-256, PGP media signature
+                    // and leaf bytes all come from one read and are handed down to writeProof
+                    // and the ProofWriteEvent. When a C2PA embed is about to rewrite the file
+                    // the pre-embed read only needs the hash (the nonce is bound to it); the
+                    // full digest is taken once, after the embed, below.
+                    var mediaDigest: MediaDigest? = null
+                    val willEmbed = captureNonce != null && vState != ValidationState.INVALID
+
+                    if (mediaHash.isNullOrEmpty()) {
+                        if (willEmbed)
+                            mediaHash = HashUtils.getSHA256FromFileContent(
+                                mContext!!.contentResolver.openInputStream(actualUriMedia)
+                            )
+                        else {
+                            mediaDigest = digestMedia(mContext!!, actualUriMedia)
+                            mediaHash = mediaDigest?.sha256
+                        }
+
+                        if (mediaHash != null) recordStage(ProofJobStage.HASHED, fileMedia)
+                    }
 
                     // C2PA signing is gated by a capture-authorization nonce.
                     // Non-camera callers (gallery imports, MediaStore observers,
@@ -303,7 +427,7 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                     // thread-local signing scope around the inner signer
                     // callbacks. signMediaFile throws UnauthorizedCaptureException
                     // synchronously if anything is wrong.
-                    if (captureNonce != null && vState != ValidationState.INVALID) {
+                    if (willEmbed) {
                         // mediaHash is the SHA-256 of this same file content (computed above by
                         // streaming, or supplied by the caller), so reuse it rather than reading
                         // the whole file into a ByteArray to re-digest — a large video OOMs that way.
@@ -333,15 +457,20 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                         // to the final artifact. Without this the proof is stored under the
                         // pre-embed hash and the asset view shows no metadata until the proof
                         // is manually regenerated.
-                        try {
-                            mediaHash = HashUtils.getSHA256FromFileContent(
-                                mContext!!.contentResolver.openInputStream(actualUriMedia)
-                            )
-                        } catch (e: Exception) {
-                            Timber.w(e, "Could not recompute post-embed media hash; keeping pre-embed hash")
+                        mediaDigest = digestMedia(mContext!!, actualUriMedia)
+                        if (mediaDigest != null) {
+                            mediaHash = mediaDigest.sha256
+                            recordStage(ProofJobStage.EMBEDDED, fileMediaOut)
+                            // Check the new manifest off the capture path; the result
+                            // prefills the feed's validation cache under the new hash.
+                            mC2paManager?.validateSignedMediaAsync(mediaDigest.sha256, fileMediaOut)
                         }
+                        else
+                            Timber.w("Could not recompute post-embed media hash; keeping pre-embed hash")
                     }
 
+                    if (mediaHash == null) recordStage(ProofJobStage.ABANDONED)
+
                     try {
 
 
@@ -364,7 +493,7 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                         }
 
                         val resultHash =
-                            processUri(mContext!!, actualUriMedia, mediaHash, autogen, createdAt)
+                            processUri(mContext!!, actualUriMedia, mediaHash, autogen, createdAt, mediaDigest, jobId)
 
 
                     } catch (exception: FileNotFoundException) {
@@ -376,7 +505,8 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
             }
         }
 
-
+        if (!accepted && resumeJob == null) jobId?.let { journal?.record(it, ProofJobStage.ABANDONED) }
+        return accepted
     }
 
     fun processUri(
@@ -406,13 +536,23 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
         }
     }
 
+    /**
+     * Write proof for [uriMedia]. Media that already has proof is skipped unless [regenerate]
+     * is set; then a new proof is written for it, as a [ProofRecordChain] record when
+     * [ProofMode.PREF_OPTION_INCREMENTAL_PROOF] is on, and only missing notarizations are
+     * requested again.
+     */
+    @JvmOverloads
     @Throws(IOException::class, PGPException::class)
     fun processUri(
         context: Context,
         uriMedia: Uri,
         mediaHash: String?,
         autogenerated: Boolean,
-        createdAt: Date?
+        createdAt: Date?,
+        mediaDigest: MediaDigest? = null,
+        jobId: String? = null,
+        regenerate: Boolean = false
     ): String? {
         if (mPrefs == null) mPrefs = PreferenceManager.getDefaultSharedPreferences(context)
 
@@ -420,16 +560,19 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
             mPrefs!!.getBoolean(ProofMode.PREF_OPTION_PHONE, ProofMode.PREF_OPTION_PHONE_DEFAULT)
         val showLocation = LocationCapturePolicy.shouldEmbedLocation(context)
 
-        val autoNotarize =
-            mPrefs!!.getBoolean(ProofMode.PREF_OPTION_NOTARY, ProofMode.PREF_OPTION_NOTARY_DEFAULT)
         val showMobileNetwork = mPrefs!!.getBoolean(
             ProofMode.PREF_OPTION_NETWORK,
             ProofMode.PREF_OPTION_NETWORK_DEFAULT
         ) && LocationCapturePolicy.hasFineLocationPermission(context)
 
         if (mediaHash != null) {
+            var exists = false
             try {
-                if (proofExists(mediaHash)) return null
+                exists = proofExists(mediaHash)
+                if (exists && !regenerate) {
+                    jobId?.let { mJournal?.record(it, ProofJobStage.NOTARIZED) }
+                    return null
+                }
             } catch (e: FileNotFoundException) {
                 //must not exist!
             }
@@ -447,7 +590,12 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                 e.printStackTrace()
             }
 
-            val `is` = context.getContentResolver().openInputStream(uriMedia)
+            // A digest of this exact content already carries the media signature, so the
+            // media only has to be re-opened when there is none to reuse.
+            val digest = mediaDigest?.takeIf { it.sha256 == mediaHash }
+            val `is` = if (digest?.pgpSignature == null)
+                context.getContentResolver().openInputStream(uriMedia)
+            else null
             writeProof(
                 context,
                 uriMedia,
@@ -457,124 +605,184 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                 showLocation,
                 showMobileNetwork,
                 notes,
-                createdAt
+                createdAt,
+                digest
             )
-            `is`!!.close()
+            `is`?.close()
+            jobId?.let { mJournal?.record(it, ProofJobStage.SIDECARS_WRITTEN) }
 
-            if (autoNotarize && isOnline(context)) {
-                try {
-                    for (provider in mProviders) {
-                        val cr = context.contentResolver
-                        val isNotarize = cr.openInputStream(uriMedia)
-                        val mimeType = cr.getType(uriMedia)
-
-                        provider.notarize(
-                            mediaHash,
-                            mimeType,
-                            isNotarize,
-                            object : NotarizationListener {
-                                override fun notarizationSuccessful(hash: String?, result: String) {
-                                    Timber.d(
-                                        "Got notarization success response for %s",
-                                        provider.getNotarizationFileExtension()
-                                    )
-
-                                    try {
-                                        storageProvider!!.saveBytes(
-                                            hash,
-                                            hash + provider.getNotarizationFileExtension(),
-                                            result.toByteArray(
-                                                StandardCharsets.UTF_8
-                                            ),
-                                            object : StorageListener {
-                                                override fun saveSuccessful(
-                                                    hash: String?,
-                                                    uri: String?
-                                                ) {
-                                                }
-
-                                                override fun saveFailed(exception: Exception?) {
-                                                }
-                                            })
-                                    } catch (e: Exception) {
-                                        e.printStackTrace()
-                                    }
-                                }
+            val notarized = { if (jobId != null) mJournal?.record(jobId, ProofJobStage.NOTARIZED) }
+            if (isNotarizationEnabled(context)) notarizeMedia(context, uriMedia, mediaHash, notarized, missingOnly = exists)
+            else notarized()
 
-                                override fun notarizationSuccessful(hash: String?, fileTmp: File) {
-                                    Timber.d(
-                                        "Got notarization success response for %s",
-                                        fileTmp.getName()
-                                    )
-                                    val ext: String? = fileTmp.getName().split(".".toRegex())
-                                        .dropLastWhile { it.isEmpty() }.toTypedArray()[1]
-
-                                    try {
-                                        storageProvider!!.saveStream(
-                                            hash,
-                                            hash + '.' + ext,
-                                            FileInputStream(fileTmp),
-                                            object : StorageListener {
-                                                override fun saveSuccessful(
-                                                    hash: String?,
-                                                    uri: String?
-                                                ) {
-                                                }
-
-                                                override fun saveFailed(exception: Exception?) {
-                                                }
-                                            })
-                                    } catch (e: FileNotFoundException) {
-                                        throw RuntimeException(e)
-                                    }
-                                }
+            return mediaHash
+        } else {
+            Timber.d("Unable to generated hash of media files, no proof generated")
+        }
 
-                                override fun notarizationSuccessful(
-                                    hash: String?,
-                                    result: ByteArray?
-                                ) {
-                                    Timber.d(
-                                        "Got notarization success response for %s, timestamp: %s",
-                                        provider.getNotarizationFileExtension(),
-                                        result
-                                    )
-                                    storageProvider!!.saveBytes(
-                                        hash,
-                                        hash + provider.getNotarizationFileExtension(),
-                                        result,
-                                        object : StorageListener {
-                                            override fun saveSuccessful(
-                                                hash: String?,
-                                                uri: String?
-                                            ) {
-                                            }
+        return null
+    }
 
-                                            override fun saveFailed(exception: Exception?) {
-                                            }
-                                        })
-                                }
+    private fun isIncrementalProofEnabled(): Boolean =
+        mPrefs!!.getBoolean(ProofMode.PREF_OPTION_INCREMENTAL_PROOF, ProofMode.PREF_OPTION_INCREMENTAL_PROOF_DEFAULT)
 
-                                override fun notarizationFailed(errCode: Int, message: String?) {
-                                    Timber.d(
-                                        "Got notarization error response for %s: %s",
-                                        provider.getNotarizationFileExtension(),
-                                        message
-                                    )
-                                }
-                            })
-                    }
-                } catch (e: FileNotFoundException) {
-                    Timber.e(e)
-                }
+    private fun isNotarizationEnabled(context: Context): Boolean =
+        mPrefs!!.getBoolean(ProofMode.PREF_OPTION_NOTARY, ProofMode.PREF_OPTION_NOTARY_DEFAULT)
+                && isOnline(context)
+
+    /**
+     * Hand [mediaHash] to every notarization provider and save what each returns next to
+     * the proof. [onSettled] runs once every provider has reported back, successfully,
+     * with a failure, or as skipped because it is switched off; a provider that throws
+     * counts as failed. Providers may answer much later (OpenTimestamps batches stamps for a few
+     * seconds), so a job is only journaled [ProofJobStage.NOTARIZED] from there; if the
+     * process dies first, the job is resumed and notarized again. With [missingOnly], as
+     * on resume, providers whose result is already saved for [mediaHash] are skipped.
+     */
+    private fun notarizeMedia(
+        context: Context,
+        uriMedia: Uri,
+        mediaHash: String,
+        onSettled: (() -> Unit)? = null,
+        missingOnly: Boolean = false,
+    ) {
+        val providers = mProviders.filter {
+            !missingOnly || !storageProvider!!.proofIdentifierExists(mediaHash, mediaHash + it.getNotarizationFileExtension())
+        }
+        val remaining = AtomicInteger(providers.size)
+        fun settled() {
+            if (remaining.decrementAndGet() == 0) onSettled?.invoke()
+        }
+        if (providers.isEmpty()) onSettled?.invoke()
+
+        val cr = context.contentResolver
+        for (provider in providers) {
+            // Each provider settles exactly once: by its callback, by skipping, or by throwing.
+            val reported = AtomicBoolean()
+            fun settle() {
+                if (reported.compareAndSet(false, true)) settled()
             }
 
+            try {
+                val isNotarize = cr.openInputStream(uriMedia)
+                val mimeType = cr.getType(uriMedia)
+
+                provider.notarize(
+                    mediaHash,
+                    mimeType,
+                    isNotarize,
+                    object : NotarizationListener {
+                        override fun notarizationSuccessful(hash: String?, result: String) {
+                            Timber.d(
+                                "Got notarization success response for %s",
+                                provider.getNotarizationFileExtension()
+                            )
 
-            return mediaHash
-        } else {
-            Timber.d("Unable to generated hash of media files, no proof generated")
-        }
+                            try {
+                                storageProvider!!.saveBytes(
+                                    hash,
+                                    hash + provider.getNotarizationFileExtension(),
+                                    result.toByteArray(
+                                        StandardCharsets.UTF_8
+                                    ),
+                                    object : StorageListener {
+                                        override fun saveSuccessful(
+                                            hash: String?,
+                                            uri: String?
+                                        ) {
+                                        }
 
-        return null
+                                        override fun saveFailed(exception: Exception?) {
+                                        }
+                                    })
+                            } catch (e: Exception) {
+                                e.printStackTrace()
+                            } finally {
+                                settle()
+                            }
+                        }
+
+                        override fun notarizationSuccessful(hash: String?, fileTmp: File) {
+                            Timber.d(
+                                "Got notarization success response for %s",
+                                fileTmp.getName()
+                            )
+                            val ext: String? = fileTmp.getName().split(".".toRegex())
+                                .dropLastWhile { it.isEmpty() }.toTypedArray()[1]
+
+                            try {
+                                storageProvider!!.saveStream(
+                                    hash,
+                                    hash + '.' + ext,
+                                    FileInputStream(fileTmp),
+                                    object : StorageListener {
+                                        override fun saveSuccessful(
+                                            hash: String?,
+                                            uri: String?
+                                        ) {
+                                        }
+
+                                        override fun saveFailed(exception: Exception?) {
+                                        }
+                                    })
+                            } catch (e: FileNotFoundException) {
+                                throw RuntimeException(e)
+                            } finally {
+                                settle()
+                            }
+                        }
+
+                        override fun notarizationSuccessful(
+                            hash: String?,
+                            result: ByteArray?
+                        ) {
+                            Timber.d(
+                                "Got notarization success response for %s, timestamp: %s",
+                                provider.getNotarizationFileExtension(),
+                                result
+                            )
+                            try {
+                                storageProvider!!.saveBytes(
+                                    hash,
+                                    hash + provider.getNotarizationFileExtension(),
+                                    result,
+                                    object : StorageListener {
+                                        override fun saveSuccessful(
+                                            hash: String?,
+                                            uri: String?
+                                        ) {
+                                        }
+
+                                        override fun saveFailed(exception: Exception?) {
+                                        }
+                                    })
+                            } finally {
+                                settle()
+                            }
+                        }
+
+                        override fun notarizationFailed(errCode: Int, message: String?) {
+                            Timber.d(
+                                "Got notarization error response for %s: %s",
+                                provider.getNotarizationFileExtension(),
+                                message
+                            )
+                            settle()
+                        }
+
+                        override fun notarizationSkipped(hash: String?) {
+                            Timber.d(
+                                "Notarization by %s skipped",
+                                provider.getNotarizationFileExtension()
+                            )
+                            settle()
+                        }
+                    })
+            } catch (e: Exception) {
+                Timber.e(e, "Notarization by %s failed", provider.getNotarizationFileExtension())
+                settle()
+            }
+        }
     }
 
     @Throws(PGPException::class, IOException::class)
@@ -879,6 +1087,34 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
         return null
     }
 
+    /**
+     * Read [uriMedia] once and return its SHA-256, armored PGP media signature and (for
+     * media under [MediaDigest.DEFAULT_LEAF_CAPTURE_LIMIT]) its bytes. Returns null when the
+     * media cannot be read; the signature is omitted if PGP is not initialized yet.
+     */
+    private fun digestMedia(context: Context, uriMedia: Uri): MediaDigest? {
+        return try {
+            val input = context.contentResolver.openInputStream(uriMedia) ?: return null
+            val pu = try {
+                PgpUtils.getInstance()
+            } catch (e: PGPException) {
+                null
+            }
+            MediaDigest.compute(
+                input,
+                pu?.createDetachedSignatureGenerator(mPassphrase),
+                { sGen ->
+                    ByteArrayOutputStream().also {
+                        pu!!.encodeDetachedSignature(sGen, it, true)
+                    }.toByteArray()
+                },
+            )
+        } catch (e: Exception) {
+            Timber.w(e, "Could not digest media %s", uriMedia)
+            null
+        }
+    }
+
     @Throws(FileNotFoundException::class)
     fun generateHash(uri: Uri): String? {
         return HashUtils.getSHA256FromFileContent(
@@ -905,15 +1141,18 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
      * chosen signing mode (remote ProofSign or local self-signed). This is intended for
      * the SingleAssetView "re-sign" action on an invalid C2PA manifest; callers should
      * confirm [proofExists] for the current hash before invoking it.
+     *
+     * Returns false if the re-sign queue is full and nothing was started. A re-sign asked
+     * for while the same media is still being ingested runs once that ingest finishes.
      */
-    fun resignMedia(uriMediaSource: Uri, mimeType: String?) {
-        CoroutineScope(Dispatchers.IO).launch {
-            val context = mContext ?: return@launch
+    fun resignMedia(uriMediaSource: Uri, mimeType: String?): Boolean {
+        return ingestScheduler.submit(uriMediaSource.toString(), IngestPriority.RESIGN) {
+            val context = mContext ?: return@submit
             val expectedPackageName = context.packageName
-            val srcFile = File(uriMediaSource.path ?: return@launch)
+            val srcFile = File(uriMediaSource.path ?: return@submit)
             if (!srcFile.exists()) {
                 Timber.w("resignMedia: source file does not exist: ${uriMediaSource.path}")
-                return@launch
+                return@submit
             }
             val actualMimeType = mimeType
                 ?: context.contentResolver.getType(uriMediaSource)
@@ -927,7 +1166,7 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                 }
             } catch (e: Exception) {
                 Timber.e(e, "resignMedia: failed to copy source file")
-                return@launch
+                return@submit
             }
             val workUri = Uri.fromFile(workFile)
 
@@ -974,6 +1213,12 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
             }
 
             if (newHash != null) {
+                // The new asset may have been looked at while it was being signed;
+                // drop any validation result cached for it before it is announced,
+                // and let the background check fill in the real one.
+                C2PAValidationCache.forContext(context).invalidate(newHash)
+                mC2paManager?.validateSignedMediaAsync(newHash, workFile)
+
                 // 3) Announce as an import so the Activities feed adds a new item.
                 Intent().apply {
                     action = ProofMode.EVENT_PROOF_GENERATED_IMPORT
@@ -982,8 +1227,11 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                     putExtra(ProofMode.EVENT_PROOF_EXTRA_HASH, newHash)
                 }.also { context.sendBroadcast(it) }
 
-                // 4) Generate the ProofMode proof sidecar for the new asset/hash.
-                processUri(context, workUri, newHash, false, null)
+                // 4) Generate the ProofMode proof sidecar for the new asset/hash. Journal it
+                //    like any ingest, so a stamp still waiting in a batch is redone if the
+                //    process dies, and an interrupted proof is finished as an import.
+                val jobId = mJournal?.begin(workUri.toString(), actualMimeType, false, null, IngestPriority.IMPORT)
+                processUri(context, workUri, newHash, false, null, jobId = jobId)
             }
         }
     }
@@ -1011,7 +1259,8 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
         showLocation: Boolean,
         showMobileNetwork: Boolean,
         notes: String?,
-        createdAt: Date?
+        createdAt: Date?,
+        mediaDigest: MediaDigest? = null
     ) {
         val usePgpArmor = true
 
@@ -1024,77 +1273,102 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
             (storageProvider as? CompositeStorageProvider)?.bindMedia(mediaHash, uriMedia, mimeType)
         }
 
-        //        File fileMediaProof = new File(fileFolder, mediaHash + PROOF_FILE_TAG);
-        val proofExists = storageProvider!!.proofExists(mediaHash)
-
-        //add data to proof csv and sign again
-        val writeHeaders = !proofExists
-
-        val hmProof = buildProof(
-            context,
-            uriMedia,
-            mediaHash,
-            showDeviceIds,
-            showLocation,
-            showMobileNetwork,
-            notes,
-            createdAt
-        )
+        // The CSV, JSON and signatures are committed together: a crash part way through
+        // leaves no proof.csv behind to pass for a complete proof.
+        inProofBatch(mediaHash) {
+            //        File fileMediaProof = new File(fileFolder, mediaHash + PROOF_FILE_TAG);
+            val proofExists = storageProvider!!.proofExists(mediaHash)
 
-        writeMapToCSV(
-            context,
-            mediaHash,
-            mediaHash + ProofMode.PROOF_FILE_TAG,
-            hmProof,
-            writeHeaders
-        )
+            //add data to proof csv and sign again
+            val writeHeaders = !proofExists
 
-        val jProof = JSONObject(hmProof)
-        storageProvider!!.saveText(
-            mediaHash,
-            mediaHash + ProofMode.PROOF_FILE_JSON_TAG,
-            jProof.toString(),
-            null
-        )
+            val hmProof = buildProof(
+                context,
+                uriMedia,
+                mediaHash,
+                showDeviceIds,
+                showLocation,
+                showMobileNetwork,
+                notes,
+                createdAt
+            )
 
-        val pu = PgpUtils.getInstance()
-
-        //sign the proof csv file
-        val isProof =
-            storageProvider!!.getInputStream(mediaHash, mediaHash + ProofMode.PROOF_FILE_TAG)
-        //        OutputStream osProofSig = mStorageProvider.getOutputStream(mediaHash, mediaHash + PROOF_FILE_TAG + OPENPGP_FILE_TAG);
-        val osProofSig = ByteArrayOutputStream()
-        pu.createDetachedSignature(isProof, osProofSig, mPassphrase, usePgpArmor)
-        storageProvider!!.saveBytes(
-            mediaHash,
-            mediaHash + ProofMode.PROOF_FILE_TAG + ProofMode.OPENPGP_FILE_TAG,
-            osProofSig.toByteArray(),
-            null
-        )
+            if (proofExists && isIncrementalProofEnabled()) {
+                // Leave the signed base proof as is and chain a small signed record onto it.
+                val record = ProofRecordChain(storageProvider!!, mediaHash!!).append(hmProof) { input ->
+                    ByteArrayOutputStream().also {
+                        PgpUtils.getInstance().createDetachedSignature(input, it, mPassphrase, usePgpArmor)
+                    }.toByteArray()
+                }
+                Timber.d("Proof record %s written for hash %s", record, mediaHash)
+                return@inProofBatch
+            }
 
-        //sign the proof json file
-        val isProofJson =
-            storageProvider!!.getInputStream(mediaHash, mediaHash + ProofMode.PROOF_FILE_JSON_TAG)
-        //OutputStream osProofJsonSig = mStorageProvider.getOutputStream(mediaHash, mediaHash + PROOF_FILE_JSON_TAG + OPENPGP_FILE_TAG);
-        val osProofJsonSig = ByteArrayOutputStream()
-        pu.createDetachedSignature(isProofJson, osProofJsonSig, mPassphrase, usePgpArmor)
-        storageProvider!!.saveBytes(
-            mediaHash,
-            mediaHash + ProofMode.PROOF_FILE_JSON_TAG + ProofMode.OPENPGP_FILE_TAG,
-            osProofJsonSig.toByteArray(),
-            null
-        )
+            writeMapToCSV(
+                context,
+                mediaHash,
+                mediaHash + ProofMode.PROOF_FILE_TAG,
+                hmProof,
+                writeHeaders
+            )
 
-        //sign the media file
-        //OutputStream osMediaSig = mStorageProvider.getOutputStream(mediaHash, mediaHash + OPENPGP_FILE_TAG);
-        val osMediaSig = ByteArrayOutputStream()
-        pu.createDetachedSignature(`is`, osMediaSig, mPassphrase, usePgpArmor)
-        storageProvider!!.saveBytes(
-            mediaHash,
-            mediaHash + ProofMode.OPENPGP_FILE_TAG,
-            osMediaSig.toByteArray(),
-            null
-        )
+            val jProof = JSONObject(hmProof)
+            storageProvider!!.saveText(
+                mediaHash,
+                mediaHash + ProofMode.PROOF_FILE_JSON_TAG,
+                jProof.toString(),
+                null
+            )
+
+            val pu = PgpUtils.getInstance()
+
+            // The three detached signatures are independent once the CSV and JSON exist, so sign
+            // them concurrently on the bounded signing pool and wait for the whole group. The
+            // signatures are saved afterwards, in the original order, on this thread so storage
+            // providers keep seeing one writer per proof.
+            fun signIdentifier(identifier: String) = mSigningExec.submit<ByteArray> {
+                //OutputStream osSig = mStorageProvider.getOutputStream(mediaHash, identifier + OPENPGP_FILE_TAG);
+                val osSig = ByteArrayOutputStream()
+                pu.createDetachedSignature(
+                    storageProvider!!.getInputStream(mediaHash, identifier),
+                    osSig,
+                    mPassphrase,
+                    usePgpArmor
+                )
+                osSig.toByteArray()
+            }
+
+            //sign the proof csv and json files
+            val proofSig = signIdentifier(mediaHash + ProofMode.PROOF_FILE_TAG)
+            val proofJsonSig = signIdentifier(mediaHash + ProofMode.PROOF_FILE_JSON_TAG)
+
+            //sign the media file, reusing the signature from the ingest digest pass when there is one
+            val mediaSig = mediaDigest?.pgpSignature?.let { CompletableFuture.completedFuture(it) }
+                ?: mSigningExec.submit<ByteArray> {
+                    ByteArrayOutputStream().also {
+                        pu.createDetachedSignature(`is`, it, mPassphrase, usePgpArmor)
+                    }.toByteArray()
+                }
+
+            storageProvider!!.saveBytes(
+                mediaHash,
+                mediaHash + ProofMode.PROOF_FILE_TAG + ProofMode.OPENPGP_FILE_TAG,
+                awaitSignature(proofSig),
+                null
+            )
+            storageProvider!!.saveBytes(
+                mediaHash,
+                mediaHash + ProofMode.PROOF_FILE_JSON_TAG + ProofMode.OPENPGP_FILE_TAG,
+                awaitSignature(proofJsonSig),
+                null
+            )
+            storageProvider!!.saveBytes(
+                mediaHash,
+                mediaHash + ProofMode.OPENPGP_FILE_TAG,
+                awaitSignature(mediaSig),
+                null
+            )
+        }
 
         ProofWriteHookRegistry.notify(
             ProofWriteEvent(
@@ -1103,12 +1377,34 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
                 mediaUri = uriMedia,
                 storageProvider = storageProvider!!,
                 executor = mExec,
+                mediaDigest = mediaDigest,
             ),
         )
 
         Timber.d("Proof written/updated for uri %s and hash %s", uriMedia, mediaHash)
     }
 
+    /** Run [block] as one group commit for [mediaHash] when the provider supports it. */
+    private fun <T> inProofBatch(mediaHash: String?, block: () -> T): T {
+        val provider = storageProvider
+        return if (mediaHash != null && provider is GroupCommitStorage) provider.batch(mediaHash, block) else block()
+    }
+
+    /** Wait for a signing task, rethrowing its PGP/IO failure as writeProof always has. */
+    @Throws(PGPException::class, IOException::class)
+    private fun awaitSignature(signature: Future<ByteArray>): ByteArray {
+        try {
+            return signature.get()
+        } catch (e: ExecutionException) {
+            when (val cause = e.cause) {
+                is PGPException -> throw cause
+                is IOException -> throw cause
+                is RuntimeException -> throw cause
+                else -> throw IOException("Signing failed", cause)
+            }
+        }
+    }
+
     val isExternalStorageWritable: Boolean
         /* Checks if external storage is available for read and write */
         get() {
@@ -1287,6 +1583,24 @@ class MediaWatcher : BroadcastReceiver(), ProofModeV1Constants {
 
         private var mInstance: MediaWatcher? = null
 
+        /** Restarts after which an interrupted proof job is given up on. */
+        private const val MAX_RESUME_ATTEMPTS = 3
+
+        /**
+         * Process-wide queue for ingest, import, re-sign and backfill work. Shared because
+         * the system may instantiate this receiver once per broadcast.
+         */
+        @JvmStatic
+        val ingestScheduler = IngestScheduler()
+
+        /**
+         * Shared CPU pool for the per-proof PGP signatures. Bounded so a burst of proofs
+         * does not oversubscribe the cores; three is the most one proof can use.
+         */
+        private val mSigningExec: ExecutorService = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors().coerceIn(1, 3)
+        )
+
         @JvmStatic
         @Synchronized
         fun getInstance(context: Context?): MediaWatcher? {
@@ -1447,7 +1761,7 @@ internal fun buildFilebaseAutoComposite(
     return when (config.resolveUploadMode()) {
         FilebaseConfig.UploadMode.IPFS_DIRECTORY,
         FilebaseConfig.UploadMode.S3_MEMBERS -> {
-            val filebaseProvider = FilebaseStorageProvider.from(config)
+            val filebaseProvider = FilebaseStorageProvider.from(config, FilebaseStorageProvider.multipartStateDir(context))
             CompositeStorageProvider(
                 primary,
                 filebaseProvider,
@@ -74,7 +74,8 @@ class PhotosContentWorker(appContext: Context, workerParams: WorkerParameters) :
 
                 if (mw != null) {
                     for ((key, uri) in uriList) {
-                        mw.ingestMedia(uri, true, null, defaultPhotoType, null)
+                        // A full backfill queue leaves the URI unmarked so a later trigger can retry it.
+                        if (!mw.ingestMedia(uri, true, null, defaultPhotoType, null)) continue
                         synchronized(recentlyProcessed) {
                             recentlyProcessed.add(key)
                             // Evict oldest entries if cache is full
@@ -0,0 +1,304 @@
+package org.witness.proofmode.service
+
+import android.content.Context
+import org.json.JSONException
+import org.json.JSONObject
+import org.witness.proofmode.ProofMode
+import org.witness.proofmode.util.AppendOnlyLog
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.util.UUID
+
+/**
+ * Stages of one ingest job, in the order [MediaWatcher] completes them.
+ *
+ * C2PA signing and embedding happen in one native call that rewrites the file, so they
+ * share [EMBEDDED]; the PGP signatures are part of the sidecars.
+ */
+enum class ProofJobStage {
+    /** Accepted by [IngestScheduler]; nothing done yet. */
+    STARTED,
+
+    /** SHA-256 of the media as found on disk is known. */
+    HASHED,
+
+    /** C2PA manifest signed and embedded; the hash is now that of the rewritten file. */
+    EMBEDDED,
+
+    /** CSV, JSON and PGP signatures are written to the storage provider. */
+    SIDECARS_WRITTEN,
+
+    /** Notarization has run, or was skipped by preference or connectivity. Terminal. */
+    NOTARIZED,
+
+    /**
+     * Gave up: media vanished, was rejected on import, could not be hashed, or newer work
+     * for the same media took this job's place before it started. Terminal.
+     */
+    ABANDONED;
+
+    val isTerminal: Boolean get() = this == NOTARIZED || this == ABANDONED
+}
+
+/**
+ * Last recorded state of an ingest job. [size] and [lastModified] describe the media file
+ * at the time [hash] was taken, so a resumed job can tell whether the hash still applies
+ * without reading the file again.
+ */
+data class ProofJob(
+    val id: String,
+    val uri: String,
+    val mimeType: String?,
+    val autogen: Boolean,
+    val createdAt: Long?,
+    val priority: IngestPriority,
+    val stage: ProofJobStage,
+    val hash: String? = null,
+    val size: Long = -1,
+    val lastModified: Long = -1,
+    val attempts: Int = 0,
+)
+
+/**
+ * Append-only log of ingest job stages so work interrupted by process death can resume
+ * from the last completed stage instead of starting again (or being lost).
+ *
+ * Each [begin]/[record] call appends one JSON line to an [AppendOnlyLog]; the file is
+ * replayed on first use, not on construction, so creating the journal on the main thread
+ * does no IO. A torn final line is ignored. Once the file holds [compactAfter] lines, and
+ * more than twice as many as there are unfinished jobs, it is rewritten to hold only those.
+ */
+class ProofJobJournal(
+    file: File,
+    private val compactAfter: Int = DEFAULT_COMPACT_AFTER,
+    private val clockMs: () -> Long = System::currentTimeMillis,
+) {
+    companion object {
+        const val JOURNAL_FOLDER = "proofmode-jobs"
+        const val JOURNAL_FILE = "journal.log"
+        const val DEFAULT_COMPACT_AFTER = 512
+
+        @Volatile
+        private var sInstance: ProofJobJournal? = null
+
+        /** Process-wide journal under [ProofMode.getProofFileSystem], or the app files dir. */
+        @JvmStatic
+        fun getInstance(context: Context): ProofJobJournal {
+            sInstance?.let { return it }
+            return synchronized(this) {
+                sInstance ?: ProofJobJournal(
+                    File(File(ProofMode.getProofFileSystem() ?: context.filesDir, JOURNAL_FOLDER), JOURNAL_FILE)
+                ).also { sInstance = it }
+            }
+        }
+    }
+
+    private val jobs = LinkedHashMap<String, ProofJob>()
+    private val log = AppendOnlyLog(file)
+    private var loaded = false
+
+    /** Start a job for [uri] and return its id. */
+    @Synchronized
+    fun begin(
+        uri: String,
+        mimeType: String?,
+        autogen: Boolean,
+        createdAt: Long?,
+        priority: IngestPriority,
+    ): String {
+        load()
+        val job = ProofJob(
+            id = UUID.randomUUID().toString(),
+            uri = uri,
+            mimeType = mimeType,
+            autogen = autogen,
+            createdAt = createdAt,
+            priority = priority,
+            stage = ProofJobStage.STARTED,
+        )
+        jobs[job.id] = job
+        append(toJson(job))
+        maybeCompact()
+        return job.id
+    }
+
+    /**
+     * Record that job [id] completed [stage]. Non-null [uri] and [hash] replace the
+     * recorded ones (an import may move the media, an embed changes the hash).
+     */
+    @JvmOverloads
+    @Synchronized
+    fun record(
+        id: String,
+        stage: ProofJobStage,
+        uri: String? = null,
+        hash: String? = null,
+        size: Long = -1,
+        lastModified: Long = -1,
+    ) {
+        load()
+        val job = jobs[id] ?: return
+        val updated = job.copy(
+            stage = stage,
+            uri = uri ?: job.uri,
+            hash = hash ?: job.hash,
+            size = if (hash != null) size else job.size,
+            lastModified = if (hash != null) lastModified else job.lastModified,
+        )
+
+        append(JSONObject().apply {
+            put("id", id)
+            put("stage", stage.name)
+            put("t", clockMs())
+            if (uri != null) put("uri", uri)
+            if (hash != null) {
+                put("hash", hash)
+                put("size", size)
+                put("mtime", lastModified)
+            }
+        })
+
+        if (stage.isTerminal) jobs.remove(id)
+        else jobs[id] = updated
+
+        maybeCompact()
+    }
+
+    /**
+     * Note that job [id] is being resumed after a restart. Returns the number of resumes
+     * so far, so callers can give up on a job that keeps failing.
+     */
+    @Synchronized
+    fun resumed(id: String): Int {
+        load()
+        val job = jobs[id] ?: return 0
+        jobs[id] = job.copy(attempts = job.attempts + 1)
+        append(JSONObject().apply {
+            put("id", id)
+            put("stage", job.stage.name)
+            put("t", clockMs())
+            put("resume", true)
+        })
+        maybeCompact()
+        return job.attempts + 1
+    }
+
+    /** Jobs that have not reached a terminal stage, oldest first. */
+    @Synchronized
+    fun incomplete(): List<ProofJob> {
+        load()
+        return jobs.values.toList()
+    }
+
+    @Synchronized
+    fun get(id: String): ProofJob? {
+        load()
+        return jobs[id]
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+        try {
+            log.replay { line ->
+                if (line.isBlank()) return@replay
+                val json = try {
+                    JSONObject(line)
+                } catch (e: JSONException) {
+                    Timber.w("Skipping unreadable proof journal line")
+                    return@replay
+                }
+                replay(json)
+            }
+        } catch (e: IOException) {
+            Timber.e(e, "Could not read proof job journal %s", log.file)
+        }
+    }
+
+    private fun replay(json: JSONObject) {
+        val id = json.optString("id").ifEmpty { return }
+        val stage = try {
+            ProofJobStage.valueOf(json.optString("stage"))
+        } catch (e: IllegalArgumentException) {
+            return
+        }
+
+        if (stage.isTerminal) {
+            jobs.remove(id)
+            return
+        }
+
+        val job = jobs[id]
+        if (job == null) {
+            // First line for a job carries the full description.
+            val uri = json.optString("uri").ifEmpty { return }
+            val priority = try {
+                IngestPriority.valueOf(json.optString("priority"))
+            } catch (e: IllegalArgumentException) {
+                IngestPriority.IMPORT
+            }
+            jobs[id] = ProofJob(
+                id = id,
+                uri = uri,
+                mimeType = json.optString("mime").ifEmpty { null },
+                autogen = json.optBoolean("autogen"),
+                createdAt = if (json.has("createdAt")) json.optLong("createdAt") else null,
+                priority = priority,
+                stage = stage,
+                hash = json.optString("hash").ifEmpty { null },
+                size = json.optLong("size", -1),
+                lastModified = json.optLong("mtime", -1),
+                attempts = json.optInt("attempts"),
+            )
+        } else {
+            val hash = json.optString("hash").ifEmpty { null }
+            jobs[id] = job.copy(
+                stage = stage,
+                uri = json.optString("uri").ifEmpty { job.uri },
+                hash = hash ?: job.hash,
+                size = if (hash != null) json.optLong("size", -1) else job.size,
+                lastModified = if (hash != null) json.optLong("mtime", -1) else job.lastModified,
+                attempts = if (json.optBoolean("resume")) job.attempts + 1 else job.attempts,
+            )
+        }
+    }
+
+    private fun toJson(job: ProofJob) = JSONObject().apply {
+        put("id", job.id)
+        put("stage", job.stage.name)
+        put("t", clockMs())
+        put("uri", job.uri)
+        if (job.mimeType != null) put("mime", job.mimeType)
+        put("autogen", job.autogen)
+        if (job.createdAt != null) put("createdAt", job.createdAt)
+        put("priority", job.priority.name)
+        if (job.hash != null) {
+            put("hash", job.hash)
+            put("size", job.size)
+            put("mtime", job.lastModified)
+        }
+        if (job.attempts > 0) put("attempts", job.attempts)
+    }
+
+    private fun append(json: JSONObject) {
+        try {
+            log.append(json.toString())
+        } catch (e: IOException) {
+            Timber.e(e, "Could not append to proof job journal %s", log.file)
+        }
+    }
+
+    private fun maybeCompact() {
+        if (log.shouldCompact(jobs.size, compactAfter)) compact()
+    }
+
+    /** Rewrite the journal with one line per unfinished job, replacing it atomically. */
+    private fun compact() {
+        try {
+            log.rewrite(jobs.values.asSequence().map { toJson(it).toString() })
+        } catch (e: IOException) {
+            Timber.w(e, "Could not compact proof job journal")
+        }
+    }
+}
@@ -36,6 +36,11 @@ public interface ProofModeV1Constants {
     public static final String FILE_HASH_SHA_256 = "File Hash SHA256";
     public static final String FILE_CREATED = "File Created";
 
+    public static final String PROOF_RECORD_VERSION = "Proof Record Version";
+    public static final String PROOF_RECORD_SEQUENCE = "Proof Record Sequence";
+    public static final String PREVIOUS_PROOF_RECORD = "Previous Proof Record";
+    public static final String PREVIOUS_PROOF_RECORD_SHA_256 = "Previous Proof Record SHA256";
+
     //"yyyy-MM-dd'T'HH:mm:ssZ"
     public static final String ISO_DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
 }
@@ -0,0 +1,162 @@
+package org.witness.proofmode.service
+
+import org.json.JSONObject
+import org.witness.proofmode.ProofMode
+import org.witness.proofmode.crypto.HashUtils
+import org.witness.proofmode.storage.StorageProvider
+import java.io.IOException
+import java.io.InputStream
+import java.util.Locale
+
+/**
+ * Incremental proof for media that is proofed again.
+ *
+ * The first proof of a hash is the usual `.proof.csv` / `.proof.json` pair. With
+ * [ProofMode.PREF_OPTION_INCREMENTAL_PROOF] on, each later proof from
+ * [ProofMode.regenerateProof] leaves those files alone. It writes a record
+ * `<hash>.proof.r<NNNNNN>.json` with its own detached signature. The record
+ * holds only the proof points that differ from the base `.proof.json`, with a JSON null for
+ * a point the base has and the new proof does not, plus its sequence number and the name and
+ * SHA-256 of the record before it. Records therefore form a hash chain back to the base.
+ *
+ * `<hash>.proof.head` names the newest record and its digest. Appending a record then reads
+ * the base and that pointer, writes and signs one small file, and never touches the history,
+ * so re-proofing costs the size of the change rather than the length of the history.
+ */
+class ProofRecordChain(private val storage: StorageProvider, private val hash: String) {
+
+    /** The newest link in the chain: the base `.proof.json` when [sequence] is 0. */
+    data class Head(val sequence: Int, val identifier: String, val sha256: String)
+
+    companion object {
+        const val RECORD_VERSION = 1
+
+        private val RECORD_NAME = Regex("""\.proof\.r(\d{6,})\.json""")
+
+        private val CHAIN_KEYS = setOf(
+            ProofModeV1Constants.PROOF_RECORD_VERSION,
+            ProofModeV1Constants.PROOF_RECORD_SEQUENCE,
+            ProofModeV1Constants.PREVIOUS_PROOF_RECORD,
+            ProofModeV1Constants.PREVIOUS_PROOF_RECORD_SHA_256,
+        )
+
+        @JvmStatic
+        fun recordIdentifier(hash: String, sequence: Int): String =
+            hash + ProofMode.PROOF_RECORD_TAG + String.format(Locale.US, "%06d", sequence) + ".json"
+
+        /** Whether [identifier] is one of [hash]'s records (not its signature). */
+        @JvmStatic
+        fun isRecord(hash: String, identifier: String): Boolean =
+            identifier.startsWith(hash) && RECORD_NAME.matches(identifier.substring(hash.length))
+    }
+
+    private val headIdentifier = hash + ProofMode.PROOF_RECORD_HEAD_TAG
+    private val baseIdentifier = hash + ProofMode.PROOF_FILE_JSON_TAG
+
+    /** The newest record, or the base proof when there are none yet. */
+    @Throws(IOException::class)
+    fun head(): Head {
+        storage.getInputStream(hash, headIdentifier)?.use { input ->
+            val fields = String(input.readBytes(), Charsets.UTF_8).trim().split('\t')
+            if (fields.size == 3) fields[0].toIntOrNull()?.let { return Head(it, fields[1], fields[2]) }
+        }
+        val base = read(baseIdentifier) ?: throw IOException("No base proof for $hash")
+        return Head(0, baseIdentifier, HashUtils.getSHA256FromBytes(base))
+    }
+
+    /**
+     * Append a record for the freshly generated [proof] and sign it with [sign], which gets
+     * the record's bytes and returns the detached signature.
+     *
+     * @return the new record's identifier.
+     */
+    @Throws(IOException::class)
+    fun append(proof: Map<String?, String?>, sign: (InputStream) -> ByteArray): String {
+        val previous = head()
+        val base = baseProof()
+
+        val record = JSONObject()
+        for ((key, value) in proof) {
+            if (key == null || value == null) continue
+            if (base.optString(key, null) != value) record.put(key, value)
+        }
+        base.keys().forEach { key ->
+            if (key !in CHAIN_KEYS && proof[key] == null) record.put(key, JSONObject.NULL)
+        }
+        record.put(ProofModeV1Constants.PROOF_RECORD_VERSION, RECORD_VERSION)
+        record.put(ProofModeV1Constants.PROOF_RECORD_SEQUENCE, previous.sequence + 1)
+        record.put(ProofModeV1Constants.PREVIOUS_PROOF_RECORD, previous.identifier)
+        record.put(ProofModeV1Constants.PREVIOUS_PROOF_RECORD_SHA_256, previous.sha256)
+
+        val bytes = record.toString().toByteArray(Charsets.UTF_8)
+        val identifier = recordIdentifier(hash, previous.sequence + 1)
+        storage.saveBytes(hash, identifier, bytes, null)
+        storage.saveBytes(hash, identifier + ProofMode.OPENPGP_FILE_TAG, sign(bytes.inputStream()), null)
+        storage.replaceText(
+            hash,
+            headIdentifier,
+            "${previous.sequence + 1}\t$identifier\t${HashUtils.getSHA256FromBytes(bytes)}",
+            null,
+        )
+        return identifier
+    }
+
+    /**
+     * The proof points as of the newest record: the base proof with that record's changes and
+     * removals on top. Only the base and the newest record are read.
+     */
+    @Throws(IOException::class)
+    fun current(): Map<String, String> {
+        val state = LinkedHashMap<String, String>()
+        val base = baseProof()
+        base.keys().forEach { state[it] = base.getString(it) }
+
+        val head = head()
+        if (head.sequence > 0) {
+            val record = JSONObject(String(read(head.identifier) ?: throw IOException("Missing ${head.identifier}"), Charsets.UTF_8))
+            record.keys().forEach { key ->
+                when {
+                    key in CHAIN_KEYS -> {}
+                    record.isNull(key) -> state.remove(key)
+                    else -> state[key] = record.getString(key)
+                }
+            }
+        }
+        return state
+    }
+
+    /**
+     * Walk the chain from the head back to the base, checking each link's digest and
+     * sequence. Signatures are checked separately, like those of the base proof.
+     */
+    fun verify(): Boolean {
+        return try {
+            var link = head()
+            while (link.sequence > 0) {
+                val bytes = read(link.identifier) ?: return false
+                if (HashUtils.getSHA256FromBytes(bytes) != link.sha256) return false
+                val record = JSONObject(String(bytes, Charsets.UTF_8))
+                if (record.getInt(ProofModeV1Constants.PROOF_RECORD_SEQUENCE) != link.sequence) return false
+                link = Head(
+                    link.sequence - 1,
+                    record.getString(ProofModeV1Constants.PREVIOUS_PROOF_RECORD),
+                    record.getString(ProofModeV1Constants.PREVIOUS_PROOF_RECORD_SHA_256),
+                )
+            }
+            val base = read(link.identifier) ?: return false
+            link.identifier == baseIdentifier && HashUtils.getSHA256FromBytes(base) == link.sha256
+        } catch (e: Exception) {
+            false
+        }
+    }
+
+    /** The newest full proof object in `.proof.json`; earlier versions appended one per line. */
+    private fun baseProof(): JSONObject {
+        val text = String(read(baseIdentifier) ?: return JSONObject(), Charsets.UTF_8)
+        val last = text.lineSequence().lastOrNull { it.isNotBlank() } ?: return JSONObject()
+        return JSONObject(last)
+    }
+
+    private fun read(identifier: String): ByteArray? =
+        storage.getInputStream(hash, identifier)?.use { it.readBytes() }
+}
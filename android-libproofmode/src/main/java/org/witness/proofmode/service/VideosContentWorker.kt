@@ -74,7 +74,8 @@ class VideosContentWorker(appContext: Context, workerParams: WorkerParameters) :
 
                 if (mw != null) {
                     for ((key, uri) in uriList) {
-                        mw.ingestMedia(uri, true, null, defaultVideoType, null)
+                        // A full backfill queue leaves the URI unmarked so a later trigger can retry it.
+                        if (!mw.ingestMedia(uri, true, null, defaultVideoType, null)) continue
                         synchronized(recentlyProcessed) {
                             recentlyProcessed.add(key)
                             while (recentlyProcessed.size > MAX_RECENT_CACHE) {
@@ -3,6 +3,7 @@ package org.witness.proofmode.storage
 import android.content.Context
 import android.net.Uri
 import android.util.Log
+import java.io.File
 import java.io.InputStream
 import java.util.ArrayList
 import java.util.concurrent.ConcurrentHashMap
@@ -16,7 +17,8 @@ import org.witness.proofmode.storage.proofset.ProofSetUploader
 /**
  * Primary + optional secondary storage. When [deferProofSetUpload] is true (Filebase auto-upload),
  * proof sidecars are written to primary only and a proof-set upload is flushed
- * via [ProofSetUploader] once first-pass membership is complete.
+ * via [ProofSetUploader] once first-pass membership is complete. Otherwise each sidecar is
+ * mirrored to secondary through a [SecondaryUploadQueue].
  *
  * The media leaf (`{hash}.jpg` / etc.) is **not** saved through [saveBytes]/[saveText] — it is
  * injected at upload time from a content [Uri]. Callers (MediaWatcher) must tip Composite off
@@ -29,12 +31,35 @@ class CompositeStorageProvider(
     private val appContext: Context? = null,
     private val deferProofSetUpload: Boolean = false,
     private val filebaseConfig: FilebaseConfig? = null,
-) : StorageProvider {
+) : StorageProvider, GroupCommitStorage {
 
     companion object {
         private const val TAG = "CompositeStorageProvider"
+        private const val SECONDARY_QUEUE_FOLDER = "secondary-queue"
     }
 
+    /**
+     * Mirrors sidecars to [secondaryProvider] when [deferProofSetUpload] is false. Saves only
+     * queue a copy of the primary artifact; the upload runs on the queue's own thread, so
+     * writing a proof never waits on the network. It is created with the provider, so work
+     * an earlier process left in the spool is picked up at start, not at the next save.
+     */
+    private val secondaryQueue: SecondaryUploadQueue? =
+        if (secondaryProvider == null || deferProofSetUpload) {
+            null
+        } else {
+            val base = appContext?.filesDir ?: File(System.getProperty("java.io.tmpdir") ?: ".")
+            SecondaryUploadQueue(File(base, SECONDARY_QUEUE_FOLDER), primaryProvider, secondaryProvider)
+        }
+
+    private class OpenBatch {
+        var depth = 0
+        val identifiers = LinkedHashSet<String>()
+    }
+
+    /** hash → identifiers saved inside a [batch] that has not committed yet. */
+    private val openBatches = ConcurrentHashMap<String, OpenBatch>()
+
     /** hash → (media content Uri, mime) for deferred proof-set leaf injection. */
     private val mediaByHash = ConcurrentHashMap<String, Pair<Uri, String?>>()
 
@@ -65,74 +90,36 @@ class CompositeStorageProvider(
 
     override fun saveStream(hash: String, identifier: String, stream: InputStream, listener: StorageListener?) {
         primaryProvider.saveStream(hash, identifier, stream, listener)
-
-        if (deferProofSetUpload) {
-            tryFlush(hash)
-            return
-        }
-
-        secondaryProvider?.let { secondary ->
-            try {
-                if (stream.markSupported()) {
-                    stream.reset()
-                } else {
-                    Log.w(TAG, "Stream doesn't support reset, secondary provider may get empty stream")
-                }
-
-                secondary.saveStream(hash, identifier, stream, object : StorageListener {
-                    override fun saveSuccessful(hash: String?, uri: String?) {
-                        Log.d(TAG, "Successfully saved $identifier to secondary storage at: $uri")
-                        primaryProvider.replaceText(hash, "$identifier.uri", uri, null)
-                    }
-
-                    override fun saveFailed(exception: Exception?) {
-                        Log.w(TAG, "Failed to save $identifier to secondary storage: ${exception?.message}")
-                    }
-                })
-            } catch (e: Exception) {
-                Log.e(TAG, "Error saving to secondary provider", e)
-            }
-        }
+        afterPrimarySave(hash, identifier)
     }
 
     override fun saveBytes(hash: String, identifier: String, data: ByteArray, listener: StorageListener?) {
         primaryProvider.saveBytes(hash, identifier, data, listener)
-
-        if (deferProofSetUpload) {
-            tryFlush(hash)
-            return
-        }
-
-        secondaryProvider?.saveBytes(hash, identifier, data, object : StorageListener {
-            override fun saveSuccessful(hash: String?, uri: String?) {
-                Log.d(TAG, "Successfully saved $identifier to secondary storage at: $uri")
-                primaryProvider.replaceText(hash, "$identifier.uri", uri, null)
-            }
-
-            override fun saveFailed(exception: Exception?) {
-                Log.w(TAG, "Failed to save $identifier to secondary storage: ${exception?.message}")
-            }
-        })
+        afterPrimarySave(hash, identifier)
     }
 
     override fun saveText(hash: String, identifier: String, data: String, listener: StorageListener?) {
         primaryProvider.saveText(hash, identifier, data, listener)
+        afterPrimarySave(hash, identifier)
+    }
 
+    private fun afterPrimarySave(hash: String, identifier: String) {
         if (deferProofSetUpload) {
             tryFlush(hash)
             return
         }
-
-        secondaryProvider?.saveText(hash, identifier, data, object : StorageListener {
-            override fun saveSuccessful(hash: String?, uri: String?) {
-                Log.d(TAG, "Successfully saved text $identifier to secondary storage at: $uri")
-                primaryProvider.replaceText(hash, "$identifier.uri", uri, null)
-            }
-
-            override fun saveFailed(exception: Exception?) {
-                Log.w(TAG, "Failed to save text $identifier to secondary storage: ${exception?.message}")
+        val queue = secondaryQueue ?: return
+
+        // Inside a batch the primary file is not committed yet; queue it once it is.
+        openBatches[hash]?.let { batch ->
+            synchronized(batch) {
+                if (batch.depth > 0) {
+                    batch.identifiers.add(identifier)
+                    return
+                }
             }
-        })
+        }
+        queue.enqueue(hash, identifier)
     }
 
     /**
@@ -196,9 +183,9 @@ class CompositeStorageProvider(
             .filter { ProofSetMembershipPolicy.isManifestMember(ctx, hash, it) }
             .toSet()
         val candidate = ProofSetUploader.buildMembershipStamp(
-            hash, mode, inclusion, memberBasenames, mime,
+            hash, mode, inclusion, memberBasenames, mime, secondary.uploadTarget(mode),
         )
-        if (candidate == ProofSetUploader.lastUploadedMembership(hash)) return
+        if (candidate == ProofSetUploader.lastUploadedMembership(ctx, hash)) return
 
         ProofSetUploader.enqueueProofSetUpload(
             ctx,
@@ -221,6 +208,39 @@ class CompositeStorageProvider(
         )
     }
 
+    /**
+     * Batches on primary. Deferred flushes attempted inside the batch see none of its files,
+     * so one more is tried once they are committed. Secondary copies are queued at the same
+     * point, and dropped with the batch if it fails.
+     */
+    override fun <T> batch(hash: String, block: () -> T): T {
+        val primary = primaryProvider as? GroupCommitStorage ?: return block()
+        if (secondaryQueue == null) {
+            val result = primary.batch(hash, block)
+            if (deferProofSetUpload) tryFlush(hash)
+            return result
+        }
+
+        // Tracked inside the primary batch, which holds the hash: a save from another thread
+        // waits for the commit and then queues its own copy.
+        var committed: List<String> = emptyList()
+        val result = primary.batch(hash) {
+            val batch = openBatches.getOrPut(hash) { OpenBatch() }
+            batch.depth++
+            var ok = false
+            try {
+                block().also { ok = true }
+            } finally {
+                if (--batch.depth == 0) {
+                    openBatches.remove(hash)
+                    if (ok) committed = synchronized(batch) { batch.identifiers.toList() }
+                }
+            }
+        }
+        committed.forEach { secondaryQueue?.enqueue(hash, it) }
+        return result
+    }
+
     // All read operations delegate to primary provider only
     override fun getInputStream(hash: String, identifier: String): InputStream? {
         return primaryProvider.getInputStream(hash, identifier)
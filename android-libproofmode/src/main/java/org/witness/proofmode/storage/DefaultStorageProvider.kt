@@ -4,20 +4,48 @@ import android.content.Context
 import android.net.Uri
 import org.witness.proofmode.ProofMode
 import org.witness.proofmode.plugin.ProofArtifactSavedHookRegistry
-import timber.log.Timber
 import java.io.File
 import java.io.FileInputStream
 import java.io.FileNotFoundException
-import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
-import java.io.PrintStream
 import java.util.ArrayList
 
-public class DefaultStorageProvider (context : Context) : StorageProvider {
+public class DefaultStorageProvider (context : Context) : StorageProvider, GroupCommitStorage {
+
+    companion object {
+        private const val PROOF_BASE_FOLDER = "proofmode/"
+
+        /** The folder holding the proof folders. It is not created here. */
+        @JvmStatic
+        fun proofRoot(context: Context): File {
+            val proofFileSystem = ProofMode.getProofFileSystem()
+            return if (proofFileSystem != null) {
+                // The app implemented chooses to store proof elsewhere
+                File(proofFileSystem, PROOF_BASE_FOLDER)
+            } else {
+                // The default app files directory is used
+                File(context.filesDir, PROOF_BASE_FOLDER)
+            }
+        }
+
+        @JvmStatic
+        fun layout(context: Context): ProofDirectoryLayout = ProofDirectoryLayout.forRoot(proofRoot(context))
+
+        /**
+         * Switch to the sharded `ab/cd/<hash>` layout. New proof is written sharded right
+         * away; existing folders are moved in the background and stay readable meanwhile.
+         * [ProofMode.initBackgroundService] calls this while [ProofMode.PREF_OPTION_SHARDED_LAYOUT]
+         * is on. There is no way back to the flat layout.
+         */
+        @JvmStatic
+        fun enableShardedLayout(context: Context) {
+            layout(context).startMigration()
+            ProofLayoutMigrationWorker.resumeIfNeeded(context)
+        }
+    }
 
-    private val PROOF_BASE_FOLDER = "proofmode/"
     private var mContext = context
 
     override fun saveStream(
@@ -26,19 +54,13 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
         stream: InputStream?,
         listener: StorageListener?
     ) {
-        val file = File(
-            getHashStorageDir(
-                hash!!
-            ), identifier!!
-        )
         if (stream != null) {
-            copyStreamToFile(stream, file)
-
-            if (file.exists()) {
-                notifyArtifactSavedIfSuccessful(hash, identifier, file)
-                listener?.saveSuccessful(hash, file.path)
-            } else
-                listener?.saveFailed(FileNotFoundException())
+            val file = stream.use { input ->
+                writeDurably(hash!!, identifier!!, append = false, notify = true) {
+                    input.copyTo(it, DEFAULT_BUFFER_SIZE)
+                }
+            }
+            listener?.saveSuccessful(hash, file.path)
         }
     }
 
@@ -48,13 +70,9 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
         data: String?,
         listener: StorageListener?
     ) {
-        val file = File(getHashStorageDir(hash!!), identifier!!)
         if (data != null) {
-            appendTextToFile(file, data)
-            if (file.exists())
-                listener?.saveSuccessful(hash, file.path)
-            else
-                listener?.saveFailed(FileNotFoundException())
+            // Appends a new line (historical behavior for the CSV proof history).
+            saveTextDurably(hash!!, identifier!!, data + System.lineSeparator(), append = true, listener)
         }
     }
 
@@ -64,22 +82,16 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
         data: String?,
         listener: StorageListener?
     ) {
-        val file = File(getHashStorageDir(hash!!), identifier!!)
         if (data != null) {
-            replaceTextInFile(file, data)
-            if (file.exists())
-                listener?.saveSuccessful(hash, file.path)
-            else
-                listener?.saveFailed(FileNotFoundException())
+            // Single line files (URI sidecars): append would leave stale lines that break
+            // later CID/URI reads.
+            saveTextDurably(hash!!, identifier!!, data, append = false, listener)
         }
     }
 
     override fun getInputStream(hash: String?, identifier: String?): InputStream? {
-        val file = File(
-            getHashStorageDir(
-                hash!!
-            ), identifier!!
-        )
+        val file = File(hashDir(hash!!), identifier!!)
+        durableWriter().pending(hash, file)?.let { return FileInputStream(it) }
         if (file.exists())
             return FileInputStream(file)
         else
@@ -87,13 +99,10 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
     }
 
 
+    /** A stream onto [identifier]; the file appears, whole, when the stream is closed. */
     fun getOutputStream(hash: String?, identifier: String?): OutputStream {
-        val file = File(
-            getHashStorageDir(
-                hash!!
-            ), identifier!!
-        )
-        return FileOutputStream(file)
+        val dir = getHashStorageDir(hash!!) ?: throw FileNotFoundException(hash)
+        return durableWriter().openStream(hash, File(dir, identifier!!), published(hash, identifier, notify = false))
     }
 
     override fun saveBytes(
@@ -103,62 +112,36 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
         listener: StorageListener?,
     ) {
         identifier?.let {
-            var file =
-                File(
-                    getHashStorageDir(
-                        hash!!,
-                    ),
-                    it,
-                )
-
             if (data != null) {
-                writeBytesToFile(
-                    file,
-                    data,
-                )
-
-                if (file.exists()) {
-                    notifyArtifactSavedIfSuccessful(hash, identifier, file)
-                    listener?.saveSuccessful(hash, file.path)
-                } else
-                    listener?.saveFailed(FileNotFoundException())
+                val file = writeDurably(hash!!, it, append = false, notify = true) { out -> out.write(data) }
+                listener?.saveSuccessful(hash, file.path)
             }
         }
     }
 
+    /**
+     * Group the writes for [hash] so they are synced and become visible together; see
+     * [DurableWriter.batch]. Artifact-saved hooks fire at the commit.
+     */
+    override fun <T> batch(hash: String, block: () -> T): T = durableWriter().batch(hash, block)
+
     override fun proofExists(hash: String?) : Boolean {
                return proofIdentifierExists(hash, hash+ProofMode.PROOF_FILE_TAG)
     }
 
     override fun proofIdentifierExists(hash: String?, identifier: String?): Boolean {
-
-        val dirProof = hash?.let { getHashStorageDir(it) }
-        if (dirProof?.exists() == true)
-        {
-            return (identifier?.let {
-                val dirProofHash = File(dirProof, it)
-                dirProofHash.listFiles()?.forEach { Timber.d(it.absolutePath)}
-                dirProofHash.exists()
-            } == true)
-
-
-        }
-
-        return false
+        if (hash == null || identifier == null) return false
+        return ProofIndex.forRoot(proofRoot()).contains(hash, identifier, hashDir(hash))
     }
 
     override fun getProofSet(hash: String?): ArrayList<Uri> {
 
         val listProofSet = ArrayList<Uri>()
 
-        val dirProof = hash?.let { getHashStorageDir(it) }
-        if (dirProof?.exists() == true)
-        {
-            val fileList = dirProof.listFiles()
-
-            for (file in fileList)
-            {
-                listProofSet.add(Uri.fromFile(file))
+        if (hash != null) {
+            val dirProof = hashDir(hash)
+            for (artifact in ProofIndex.forRoot(proofRoot()).artifacts(hash, dirProof)) {
+                listProofSet.add(Uri.fromFile(File(dirProof, artifact.identifier)))
             }
         }
 
@@ -168,52 +151,66 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
 
     override fun getProofItem(uri: Uri?): InputStream? {
         return if (uri?.scheme.equals("file")) {
-            val fileProofItem = File(uri?.path)//uri?.toFile()
+            // A URI handed out before a layout migration points at the old folder.
+            val fileProofItem = layout().resolve(File(uri?.path))//uri?.toFile()
             FileInputStream(fileProofItem)
         } else
             null
     }
 
-    /**
-     * Appends [text] as a new line (historical [saveText] behavior for CSV proof history).
-     */
-    private fun appendTextToFile(fileOut: File, text: String) {
+    private fun saveTextDurably(hash: String, identifier: String, text: String, append: Boolean, listener: StorageListener?) {
         try {
-            val ps = PrintStream(FileOutputStream(fileOut, /* append = */ true))
-            ps.println(text)
-            ps.flush()
-            ps.close()
+            val file = writeDurably(hash, identifier, append, notify = false) {
+                it.write(text.toByteArray(Charsets.UTF_8))
+            }
+            listener?.saveSuccessful(hash, file.path)
         } catch (ioe: IOException) {
             ioe.printStackTrace()
+            listener?.saveFailed(ioe)
         }
     }
 
     /**
-     * Overwrites [fileOut] with [text] (UTF-8). Used by [replaceText] for single line
-     * files (URI sidecars); append would leave stale lines that break later CID/URI reads.
+     * Write [identifier] under [hash] through [DurableWriter]. The index and, when [notify]
+     * is set, the artifact-saved hooks hear about the file once it is in place.
      */
-    private fun replaceTextInFile(fileOut: File, text: String) {
-        try {
-            FileOutputStream(fileOut, /* append = */ false).use { fos ->
-                fos.write(text.toByteArray(Charsets.UTF_8))
-            }
-        } catch (ioe: IOException) {
-            ioe.printStackTrace()
+    @Throws(IOException::class)
+    private fun writeDurably(
+        hash: String,
+        identifier: String,
+        append: Boolean,
+        notify: Boolean,
+        content: (OutputStream) -> Unit,
+    ): File {
+        val dir = getHashStorageDir(hash) ?: throw FileNotFoundException(hash)
+        val file = File(dir, identifier)
+        durableWriter().write(hash, file, append, published(hash, identifier, notify), content)
+        return file
+    }
+
+    private fun published(hash: String, identifier: String, notify: Boolean) =
+        DurableWriter.Published { file ->
+            recordSaved(hash, file)
+            if (notify) ProofArtifactSavedHookRegistry.notify(hash, identifier)
         }
+
+    private fun proofRoot(): File = proofRoot(mContext)
+
+    private fun layout(): ProofDirectoryLayout = ProofDirectoryLayout.forRoot(proofRoot())
+
+    private fun durableWriter(): DurableWriter = DurableWriter.forRoot(proofRoot())
+
+    /** [hash]'s proof folder for reading; unlike [getHashStorageDir] it may not exist. */
+    private fun hashDir(hash: String): File = layout().readDir(hash)
+
+    private fun recordSaved(hash: String, file: File) {
+        ProofIndex.forRoot(proofRoot()).record(hash, file)
     }
 
     fun getHashStorageDir(hash: String): File? {
 
         // Get the directory for the user's public pictures directory.
-        val proofFileSystem = ProofMode.getProofFileSystem()
-        val fileParentDir: File
-        fileParentDir = if (proofFileSystem != null) {
-            // The app implemented chooses to store proof elsewhere
-            File(proofFileSystem, PROOF_BASE_FOLDER)
-        } else {
-            // The default app files directory is used
-            File(mContext.filesDir, PROOF_BASE_FOLDER)
-        }
+        val fileParentDir = proofRoot()
         if (!fileParentDir.exists()) {
             fileParentDir.mkdir()
         }
@@ -238,37 +235,6 @@ public class DefaultStorageProvider (context : Context) : StorageProvider {
          * return null;
          * }
          * } */
-        val fileHashDir = File(fileParentDir, "$hash/")
-        if (!fileHashDir.exists()) if (!fileHashDir.mkdir()) return null
-        return fileHashDir
-    }
-
-
-    @Synchronized
-    private fun writeBytesToFile(fileOut: File, data: ByteArray) {
-        FileOutputStream(fileOut).write(data)
-    }
-
-    private fun copyFileToFile(fileIn: File, fileOut: File) {
-        val inStream = FileInputStream(fileIn)
-        val outStream = FileOutputStream(fileOut)
-        val inChannel = inStream.channel
-        val outChannel = outStream.channel
-        inChannel.transferTo(0, inChannel.size(), outChannel)
-        inStream.close()
-        outStream.close()
-    }
-
-    private fun copyStreamToFile(inStream: InputStream, fileOut: File) {
-        val outStream = FileOutputStream(fileOut)
-        inStream.copyTo(outStream, DEFAULT_BUFFER_SIZE)
-        inStream.close()
-        outStream.close()
-    }
-
-    private fun notifyArtifactSavedIfSuccessful(hash: String?, identifier: String?, file: File) {
-        if (hash != null && identifier != null && file.exists()) {
-            ProofArtifactSavedHookRegistry.notify(hash, identifier)
-        }
+        return layout().writeDir(hash)
     }
 }
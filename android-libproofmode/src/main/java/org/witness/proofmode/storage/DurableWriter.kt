@@ -0,0 +1,255 @@
+package org.witness.proofmode.storage
+
+import org.witness.proofmode.ProofMode
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.FilterOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Crash-safe writes for the proof folders under one root.
+ *
+ * Content goes to a temp file in [tempDir], is synced, and is then renamed over the target.
+ * The rename is atomic, so a file under its final name is always whole. A crash leaves at
+ * most a stray temp file, and stray temp files are cleared the next time the writer is
+ * created.
+ *
+ * [batch] groups the writes for one proof hash. Inside it, files are neither synced nor
+ * renamed. Reads go to the pending temp files through [pending]. On commit, all of them
+ * are synced and renamed in the order they were first written, except that the proof CSV,
+ * whose presence is what marks a proof as there, is renamed last. Each folder is then
+ * synced once. So a proof shows up whole or not at all, and costs one sync point instead
+ * of one per sidecar. If the block throws, the pending files are dropped.
+ *
+ * Writes for one hash are serialized. A batch holds its hash for as long as it runs, so
+ * only writes from the thread that opened it join it; a write from any other thread waits
+ * for the commit and then goes straight through. Appends therefore never lose one
+ * another's lines, even though each one rewrites the file to keep it whole.
+ */
+class DurableWriter internal constructor(private val tempDir: File) {
+
+    /** Called once the file is in place. */
+    fun interface Published {
+        fun published(file: File)
+    }
+
+    private class Pending(val temp: File, val target: File, var onPublished: Published?)
+
+    private class Batch {
+        var depth = 0
+        val files = LinkedHashMap<String, Pending>()
+    }
+
+    private class HashLock {
+        val lock = ReentrantLock()
+        var users = 0
+    }
+
+    private val batches = ConcurrentHashMap<String, Batch>()
+    private val locks = HashMap<String, HashLock>()
+
+    companion object {
+        const val TEMP_FOLDER = ".pending"
+        private const val STALE_AFTER_MS = 60 * 60 * 1000L
+
+        private val sInstances = HashMap<String, DurableWriter>()
+
+        /** The shared writer for the proof folders under [proofRoot]. */
+        @JvmStatic
+        fun forRoot(proofRoot: File): DurableWriter {
+            val tempDir = File(proofRoot.absoluteFile, TEMP_FOLDER)
+            synchronized(sInstances) {
+                return sInstances.getOrPut(tempDir.path) { DurableWriter(tempDir).also { it.clearStale() } }
+            }
+        }
+    }
+
+    /**
+     * Write [target] with what [content] produces, keeping its current content first when
+     * [append] is set. [onPublished] runs once the file is in place, which inside a [batch]
+     * is at commit.
+     */
+    @Throws(IOException::class)
+    fun write(hash: String, target: File, append: Boolean, onPublished: Published?, content: (OutputStream) -> Unit) {
+        locked(hash) {
+            // Holding the lock, an open batch can only be this thread's own.
+            batches[hash]?.let { batch ->
+                synchronized(batch) {
+                    val pending = batch.files[target.path]
+                    val temp = pending?.temp ?: newTemp(target)
+                    try {
+                        if (pending == null && append && target.exists()) target.copyTo(temp, overwrite = true)
+                        FileOutputStream(temp, append).use(content)
+                    } catch (e: IOException) {
+                        if (pending == null) temp.delete()
+                        throw e
+                    }
+                    if (pending == null) batch.files[target.path] = Pending(temp, target, onPublished)
+                    else if (onPublished != null) pending.onPublished = onPublished
+                }
+                return@locked
+            }
+
+            val temp = newTemp(target)
+            try {
+                if (append && target.exists()) target.copyTo(temp, overwrite = true)
+                FileOutputStream(temp, append).use {
+                    content(it)
+                    it.flush()
+                    it.fd.sync()
+                }
+                publish(temp, target, onPublished)
+            } finally {
+                temp.delete() // no-op once renamed
+            }
+        }
+    }
+
+    /**
+     * A stream onto [target] that is written through a temp file. It is published when it is
+     * closed, or joins [hash]'s batch if the closing thread has one open.
+     */
+    @Throws(IOException::class)
+    fun openStream(hash: String, target: File, onPublished: Published?): OutputStream {
+        val temp = newTemp(target)
+        return object : FilterOutputStream(FileOutputStream(temp)) {
+            private var closed = false
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                out.write(b, off, len)
+            }
+
+            override fun close() {
+                if (closed) return
+                closed = true
+                super.close()
+                adopt(hash, temp, target, onPublished)
+            }
+        }
+    }
+
+    /**
+     * The not yet committed content for [target], if [hash] has a batch open that wrote it.
+     * Unlike writes, this is answered on any thread, so the batch's owner can hand reads off.
+     */
+    fun pending(hash: String, target: File): File? {
+        val batch = batches[hash] ?: return null
+        synchronized(batch) {
+            return batch.files[target.path]?.temp
+        }
+    }
+
+    /** Whether a [batch] for [hash] is running. */
+    fun isBatchOpen(hash: String): Boolean = batches.containsKey(hash)
+
+    /**
+     * Run [block] with [hash]'s writes grouped; see the class comment. Batches nest. Other
+     * threads writing to [hash] wait until the outermost one has committed.
+     */
+    @Throws(IOException::class)
+    fun <T> batch(hash: String, block: () -> T): T = locked(hash) {
+        val batch = batches.getOrPut(hash) { Batch() }
+        batch.depth++
+        var ok = false
+        try {
+            val result = block()
+            ok = true
+            result
+        } finally {
+            if (--batch.depth == 0) {
+                batches.remove(hash)
+                end(batch, ok)
+            }
+        }
+    }
+
+    private fun end(batch: Batch, commit: Boolean) {
+        synchronized(batch) {
+            if (!commit) {
+                batch.files.values.forEach { it.temp.delete() }
+                return
+            }
+
+            try {
+                for (p in batch.files.values) {
+                    FileOutputStream(p.temp, true).use { it.fd.sync() }
+                }
+                val dirs = LinkedHashSet<File>()
+                // The proof CSV marks the proof as present, so it goes in once the rest is there.
+                for (p in batch.files.values.sortedBy { it.target.name.endsWith(ProofMode.PROOF_FILE_TAG) }) {
+                    p.target.parentFile?.let { dirs.add(it) }
+                    if (!p.temp.renameTo(p.target)) throw IOException("Could not move ${p.target.name} into place")
+                }
+                dirs.forEach { syncDir(it) }
+                for (p in batch.files.values) {
+                    p.onPublished?.published(p.target)
+                }
+            } finally {
+                batch.files.values.forEach { it.temp.delete() }
+            }
+        }
+    }
+
+    /** Publish the finished [temp] as [target], or hand it to this thread's batch for [hash]. */
+    private fun adopt(hash: String, temp: File, target: File, onPublished: Published?) {
+        locked(hash) {
+            batches[hash]?.let { batch ->
+                synchronized(batch) {
+                    batch.files.put(target.path, Pending(temp, target, onPublished))?.temp?.delete()
+                }
+                return@locked
+            }
+            try {
+                FileOutputStream(temp, true).use { it.fd.sync() }
+                publish(temp, target, onPublished)
+            } finally {
+                temp.delete()
+            }
+        }
+    }
+
+    /** Run [block] holding [hash]'s lock; the lock is dropped once no thread wants it. */
+    private fun <T> locked(hash: String, block: () -> T): T {
+        val hashLock = synchronized(locks) { locks.getOrPut(hash) { HashLock() }.also { it.users++ } }
+        hashLock.lock.lock()
+        try {
+            return block()
+        } finally {
+            hashLock.lock.unlock()
+            synchronized(locks) { if (--hashLock.users == 0) locks.remove(hash) }
+        }
+    }
+
+    private fun publish(temp: File, target: File, onPublished: Published?) {
+        if (!temp.renameTo(target)) throw IOException("Could not move ${target.name} into place")
+        target.parentFile?.let { syncDir(it) }
+        onPublished?.published(target)
+    }
+
+    private fun newTemp(target: File): File {
+        if (!tempDir.exists()) tempDir.mkdirs()
+        return File.createTempFile(target.name.take(64) + ".", ".tmp", tempDir)
+    }
+
+    /** Make the rename itself durable. */
+    private fun syncDir(dir: File) {
+        try {
+            FileChannel.open(dir.toPath(), StandardOpenOption.READ).use { it.force(true) }
+        } catch (e: IOException) {
+            // Not every file system lets a folder be synced; the data is already on disk.
+        }
+    }
+
+    private fun clearStale() {
+        val cutoff = System.currentTimeMillis() - STALE_AFTER_MS
+        tempDir.listFiles()?.forEach {
+            if (it.lastModified() < cutoff && it.delete()) Timber.d("Removed stale proof temp file %s", it.name)
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.witness.proofmode.storage
+
+/**
+ * A [StorageProvider] that can make the writes for one proof durable, and visible, together.
+ */
+interface GroupCommitStorage {
+
+    /**
+     * Run [block], holding back the files it saves under [hash] until it returns and then
+     * committing them at once. Reads through the provider see them meanwhile. If [block]
+     * throws, they are dropped.
+     */
+    fun <T> batch(hash: String, block: () -> T): T
+}
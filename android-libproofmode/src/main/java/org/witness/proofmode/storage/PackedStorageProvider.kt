@@ -0,0 +1,185 @@
+package org.witness.proofmode.storage
+
+import android.content.Context
+import android.net.Uri
+import org.witness.proofmode.ProofMode
+import org.witness.proofmode.plugin.ProofArtifactSavedHookRegistry
+import timber.log.Timber
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.io.InputStream
+import java.util.ArrayList
+
+/**
+ * [StorageProvider] that keeps all sidecars of a proof in one [ProofPack] file,
+ * `proofpack/<hash>.pack`, instead of one file each in `proofmode/<hash>/`. A proof then
+ * costs one inode and one open file per write rather than six to ten.
+ *
+ * [getProofSet] hands out `proofpack:///<hash>/<identifier>` URIs; their last path segment is
+ * the identifier, as with the file URIs of [DefaultStorageProvider], and [getProofItem] opens
+ * them. [exportToLoose] writes packs back out as loose files for tools that expect them.
+ * [batch] syncs a proof's writes once and fires their artifact-saved hooks at that commit.
+ *
+ * Nothing in the app selects this provider; it is for hosts of the library, which install
+ * it with [org.witness.proofmode.service.MediaWatcher.refreshStorageProvider]. The app's
+ * own screens read proofs through [DefaultStorageProvider].
+ */
+class PackedStorageProvider(private val root: File) : StorageProvider, GroupCommitStorage {
+
+    constructor(context: Context) : this(
+        File(ProofMode.getProofFileSystem() ?: context.filesDir, PACK_BASE_FOLDER)
+    )
+
+    companion object {
+        const val SCHEME = "proofpack"
+        const val PACK_EXTENSION = ".pack"
+
+        private const val PACK_BASE_FOLDER = "proofpack/"
+        private const val MAX_CACHED_PACKS = 64
+
+        @JvmStatic
+        fun uriFor(hash: String, identifier: String): Uri =
+            Uri.Builder().scheme(SCHEME).authority("").appendPath(hash).appendPath(identifier).build()
+    }
+
+    /**
+     * Recently used packs, so their offset tables are not rebuilt on every call. A pack
+     * evicted here while another caller still holds it is handed out again by
+     * [ProofPack.forFile], so there is never a second writer for the same file.
+     */
+    private val packs = object : LinkedHashMap<String, ProofPack>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ProofPack>?) =
+            size > MAX_CACHED_PACKS
+    }
+
+    /** Artifact-saved hooks held back until the batch open on this thread commits. */
+    private val deferredHooks = ThreadLocal<MutableList<Pair<String, String>>?>()
+
+    private fun pack(hash: String): ProofPack = synchronized(packs) {
+        packs.getOrPut(hash) { ProofPack.forFile(File(root, hash + PACK_EXTENSION)) }
+    }
+
+    /** Group the writes for [hash] into one sync; see [ProofPack.batch]. */
+    override fun <T> batch(hash: String, block: () -> T): T {
+        if (deferredHooks.get() != null) return pack(hash).batch(block)
+
+        val hooks = ArrayList<Pair<String, String>>()
+        deferredHooks.set(hooks)
+        val result = try {
+            pack(hash).batch(block)
+        } finally {
+            deferredHooks.set(null)
+        }
+        hooks.forEach { (h, identifier) -> ProofArtifactSavedHookRegistry.notify(h, identifier) }
+        return result
+    }
+
+    override fun saveStream(hash: String?, identifier: String?, stream: InputStream?, listener: StorageListener?) {
+        if (hash == null || identifier == null || stream == null) return
+        save(hash, identifier, listener, notify = true) { it.put(identifier, stream) }
+    }
+
+    override fun saveBytes(hash: String?, identifier: String?, data: ByteArray?, listener: StorageListener?) {
+        if (hash == null || identifier == null || data == null) return
+        save(hash, identifier, listener, notify = true) { it.put(identifier, data) }
+    }
+
+    override fun saveText(hash: String?, identifier: String?, data: String?, listener: StorageListener?) {
+        if (hash == null || identifier == null || data == null) return
+        // Same line ending as the PrintStream.println the loose layout appends with.
+        val line = data + System.lineSeparator()
+        save(hash, identifier, listener, notify = false) { it.append(identifier, line.toByteArray()) }
+    }
+
+    override fun replaceText(hash: String?, identifier: String?, data: String?, listener: StorageListener?) {
+        if (hash == null || identifier == null || data == null) return
+        save(hash, identifier, listener, notify = false) { it.put(identifier, data.toByteArray(Charsets.UTF_8)) }
+    }
+
+    override fun getInputStream(hash: String?, identifier: String?): InputStream? {
+        if (hash == null || identifier == null) return null
+        return try {
+            pack(hash).open(identifier)
+        } catch (e: IOException) {
+            Timber.w(e, "Could not read %s from proof pack", identifier)
+            null
+        }
+    }
+
+    override fun proofExists(hash: String?): Boolean =
+        proofIdentifierExists(hash, hash + ProofMode.PROOF_FILE_TAG)
+
+    override fun proofIdentifierExists(hash: String?, identifier: String?): Boolean {
+        if (hash == null || identifier == null) return false
+        if (!File(root, hash + PACK_EXTENSION).exists()) return false
+        return try {
+            pack(hash).contains(identifier)
+        } catch (e: IOException) {
+            false
+        }
+    }
+
+    override fun getProofSet(hash: String?): ArrayList<Uri> {
+        val listProofSet = ArrayList<Uri>()
+        if (hash != null && File(root, hash + PACK_EXTENSION).exists()) {
+            try {
+                pack(hash).names().mapTo(listProofSet) { uriFor(hash, it) }
+            } catch (e: IOException) {
+                Timber.w(e, "Could not list proof pack %s", hash)
+            }
+        }
+        return listProofSet
+    }
+
+    override fun getProofItem(uri: Uri?): InputStream? {
+        if (uri?.scheme != SCHEME) return null
+        val segments = uri.pathSegments
+        if (segments.size != 2) return null
+        return getInputStream(segments[0], segments[1])
+    }
+
+    /**
+     * Write every entry of [hash]'s pack as a loose file through [target], which keeps its
+     * own index and layout up to date. Hooks are not fired again.
+     *
+     * @return the number of files written.
+     */
+    @Throws(IOException::class)
+    fun exportToLoose(hash: String, target: DefaultStorageProvider): Int {
+        if (!File(root, hash + PACK_EXTENSION).exists()) return 0
+        return pack(hash).exportTo { identifier -> target.getOutputStream(hash, identifier) }
+    }
+
+    /** [exportToLoose] for every pack; returns the number of proofs exported. */
+    @Throws(IOException::class)
+    fun exportAllToLoose(target: DefaultStorageProvider): Int {
+        var proofs = 0
+        root.list()?.forEach { name ->
+            if (name.endsWith(PACK_EXTENSION)) {
+                if (exportToLoose(name.removeSuffix(PACK_EXTENSION), target) > 0) proofs++
+            }
+        }
+        return proofs
+    }
+
+    private fun save(
+        hash: String,
+        identifier: String,
+        listener: StorageListener?,
+        notify: Boolean,
+        write: (ProofPack) -> Unit,
+    ) {
+        try {
+            write(pack(hash))
+        } catch (e: IOException) {
+            Timber.e(e, "Could not save %s to proof pack", identifier)
+            listener?.saveFailed(e)
+            return
+        }
+        if (notify) {
+            deferredHooks.get()?.add(hash to identifier) ?: ProofArtifactSavedHookRegistry.notify(hash, identifier)
+        }
+        listener?.saveSuccessful(hash, uriFor(hash, identifier).toString())
+    }
+}
@@ -0,0 +1,239 @@
+package org.witness.proofmode.storage
+
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+
+/** How proof folders are arranged under the proof root. */
+enum class ProofLayoutState {
+    /** `<root>/<hash>/`: the original layout. */
+    FLAT,
+
+    /** New proof goes to the sharded path; older folders are still being moved. */
+    MIGRATING,
+
+    /** `<root>/ab/cd/<hash>/` for every proof. */
+    SHARDED,
+}
+
+/**
+ * Where each proof folder lives under [root], and the move from the flat layout to the
+ * sharded one.
+ *
+ * A flat root with tens of thousands of entries is slow to list and to create entries in on
+ * f2fs and sdcardfs. The sharded layout spreads folders over two levels of two hex digits
+ * each, so no directory holds more than 256 entries, apart from the proof folders at the
+ * bottom. Hashes shorter than [SHARD_PREFIX] characters always stay flat.
+ *
+ * Migration is a rename of each proof folder, which is atomic on one file system, so it
+ * can be interrupted at any point and resumed by running [migrateAll] again. While it runs:
+ *  - [writeDir] moves a hash's flat folder before handing out the sharded one, so a proof
+ *    is never split over both places;
+ *  - a folder with a [DurableWriter] batch open is not moved, since the batch's files are
+ *    renamed into it at commit. Writes keep going to it, and [migrateAll] picks it up on a
+ *    later run;
+ *  - [readDir] prefers the sharded folder and falls back to the flat one;
+ *  - [resolve] maps a file URI handed out before the move to where the file is now;
+ *  - a file found in both layouts keeps its newer copy, and the older one is moved under
+ *    [CONFLICTS_DIR], so every flat folder empties and the migration can finish.
+ *
+ * The state is kept in a marker file in [root], so it is shared by every provider
+ * instance and survives restarts.
+ */
+class ProofDirectoryLayout private constructor(val root: File) {
+
+    companion object {
+        const val LAYOUT_FILE = ".layout"
+        const val SHARD_PREFIX = 4
+
+        /** Older copies of files found in both layouts, as `<hash>/<name>.<mtime>`. */
+        const val CONFLICTS_DIR = ".conflicts"
+
+        private val sInstances = HashMap<String, ProofDirectoryLayout>()
+
+        @JvmStatic
+        fun forRoot(root: File): ProofDirectoryLayout {
+            synchronized(sInstances) {
+                return sInstances.getOrPut(root.absolutePath) { ProofDirectoryLayout(root.absoluteFile) }
+            }
+        }
+
+        private fun isShardName(name: String) =
+            name.length == 2 && name.all { it in '0'..'9' || it in 'a'..'f' || it in 'A'..'F' }
+    }
+
+    private val stateFile = File(root, LAYOUT_FILE)
+
+    @Volatile
+    private var cachedState: ProofLayoutState? = null
+
+    val state: ProofLayoutState
+        get() {
+            cachedState?.let { return it }
+            val read = try {
+                if (stateFile.exists()) ProofLayoutState.valueOf(stateFile.readText().trim()) else ProofLayoutState.FLAT
+            } catch (e: Exception) {
+                Timber.w(e, "Unreadable proof layout marker, assuming migration is under way")
+                ProofLayoutState.MIGRATING
+            }
+            cachedState = read
+            return read
+        }
+
+    fun flatDir(hash: String): File = File(root, hash)
+
+    fun shardedDir(hash: String): File =
+        if (hash.length < SHARD_PREFIX) flatDir(hash)
+        else File(root, "${hash.substring(0, 2)}/${hash.substring(2, 4)}/$hash")
+
+    /** Where [hash]'s folder is now, for reading. It may not exist. */
+    fun readDir(hash: String): File = when (state) {
+        ProofLayoutState.FLAT -> flatDir(hash)
+        ProofLayoutState.SHARDED -> shardedDir(hash)
+        ProofLayoutState.MIGRATING -> shardedDir(hash).takeIf { it.exists() } ?: flatDir(hash)
+    }
+
+    /** [hash]'s folder for writing, created if needed; null if it could not be created. */
+    fun writeDir(hash: String): File? {
+        val dir = when (state) {
+            ProofLayoutState.FLAT -> flatDir(hash)
+            ProofLayoutState.MIGRATING -> {
+                if (migrateOne(hash) || !inBatch(hash) || !flatDir(hash).isDirectory) shardedDir(hash)
+                else flatDir(hash)
+            }
+            ProofLayoutState.SHARDED -> shardedDir(hash)
+        }
+        if (!dir.exists() && !dir.mkdirs()) return null
+        return dir
+    }
+
+    /**
+     * [file] if it exists, else the same file in [hash][File.getParentFile]'s folder under the
+     * current layout, so URIs handed out before a migration keep working.
+     */
+    fun resolve(file: File): File {
+        if (file.exists()) return file
+        val hash = file.parentFile?.name ?: return file
+        val moved = File(readDir(hash), file.name)
+        return if (moved.exists()) moved else file
+    }
+
+    /** Start moving to the sharded layout. New proof is written sharded from now on. */
+    @Synchronized
+    fun startMigration() {
+        if (state == ProofLayoutState.FLAT) setState(ProofLayoutState.MIGRATING)
+    }
+
+    /**
+     * Move every flat proof folder, stopping early when [shouldStop] returns true. Marks the
+     * layout [ProofLayoutState.SHARDED] once nothing is left to move.
+     *
+     * @return the number of folders moved by this call.
+     */
+    fun migrateAll(shouldStop: () -> Boolean = { false }): Int {
+        if (state != ProofLayoutState.MIGRATING) return 0
+
+        var moved = 0
+        var leftBehind = 0
+        val names = root.list() ?: emptyArray()
+        for (name in names) {
+            if (name.startsWith(".") || name.length < SHARD_PREFIX || isShardName(name)) continue
+            if (!File(root, name).isDirectory) continue
+            if (shouldStop()) return moved
+
+            if (migrateOne(name)) moved++ else if (File(root, name).exists()) leftBehind++
+        }
+
+        if (leftBehind == 0) {
+            synchronized(this) {
+                if (state == ProofLayoutState.MIGRATING) setState(ProofLayoutState.SHARDED)
+            }
+        } else {
+            Timber.w("Proof layout migration left %d folders in place", leftBehind)
+        }
+        Timber.d("Proof layout migration moved %d folders", moved)
+        return moved
+    }
+
+    /**
+     * Move [hash]'s flat folder to its sharded place, unless a batch is writing into it.
+     * True if something was moved.
+     */
+    @Synchronized
+    fun migrateOne(hash: String): Boolean {
+        val from = flatDir(hash)
+        val to = shardedDir(hash)
+        if (from == to || !from.isDirectory || inBatch(hash)) return false
+
+        to.parentFile?.mkdirs()
+        if (!to.exists() && from.renameTo(to)) return true
+
+        // Target already exists (e.g. a run interrupted mid-merge): move what it lacks.
+        var moved = false
+        from.listFiles()?.forEach { f ->
+            val target = File(to, f.name)
+            if (if (target.exists()) resolveDuplicate(hash, f, target) else f.renameTo(target)) moved = true
+        }
+        from.delete() // only succeeds once empty
+        return moved
+    }
+
+    /**
+     * [flat] and [sharded] are the same proof file in both layouts. An identical flat copy
+     * is dropped. Otherwise the newer copy ends up in the sharded folder and the older one
+     * is set aside under [CONFLICTS_DIR], so nothing is lost and the flat folder can empty.
+     * True if the flat copy is gone.
+     */
+    private fun resolveDuplicate(hash: String, flat: File, sharded: File): Boolean {
+        try {
+            if (sameContent(flat, sharded)) return flat.delete()
+
+            val flatIsNewer = flat.lastModified() > sharded.lastModified()
+            val older = if (flatIsNewer) sharded else flat
+            val aside = conflictFile(hash, older)
+            aside.parentFile?.mkdirs()
+            if (!older.renameTo(aside)) return false
+            Timber.w("Proof file %s exists in both layouts, kept the newer, moved the older to %s", flat.name, aside)
+            return !flatIsNewer || flat.renameTo(sharded)
+        } catch (e: IOException) {
+            Timber.w(e, "Could not compare %s in both layouts", flat.name)
+            return false
+        }
+    }
+
+    private fun conflictFile(hash: String, file: File): File {
+        val dir = File(root, "$CONFLICTS_DIR/$hash")
+        var candidate = File(dir, "${file.name}.${file.lastModified()}")
+        var n = 1
+        while (candidate.exists()) candidate = File(dir, "${file.name}.${file.lastModified()}-${n++}")
+        return candidate
+    }
+
+    @Throws(IOException::class)
+    private fun sameContent(a: File, b: File): Boolean {
+        if (a.length() != b.length()) return false
+        a.inputStream().buffered().use { ina ->
+            b.inputStream().buffered().use { inb ->
+                while (true) {
+                    val x = ina.read()
+                    if (x != inb.read()) return false
+                    if (x == -1) return true
+                }
+            }
+        }
+    }
+
+    private fun inBatch(hash: String) = DurableWriter.forRoot(root).isBatchOpen(hash)
+
+    private fun setState(newState: ProofLayoutState) {
+        try {
+            root.mkdirs()
+            val tmp = File(root, "$LAYOUT_FILE.tmp")
+            tmp.writeText(newState.name)
+            if (!tmp.renameTo(stateFile)) throw IOException("rename failed")
+            cachedState = newState
+        } catch (e: IOException) {
+            Timber.e(e, "Could not record proof layout %s", newState)
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.witness.proofmode.storage
+
+import org.witness.proofmode.util.AppendOnlyLog
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+
+/**
+ * Persistent index of the artifacts in each proof folder, so [DefaultStorageProvider] can
+ * answer existence and membership queries without listing directories.
+ *
+ * The index is a cache of the file system, not the source of truth. Artifacts saved through
+ * the provider are recorded as they are written. Plugins and tests also write into the hash
+ * folders directly, so:
+ *
+ *  - a miss in [contains] is settled with one `exists()` call on the file, and the result
+ *    is remembered;
+ *  - [artifacts] remembers the folder's modification time from when it last listed the
+ *    folder. It lists the folder again only when that time has changed, so a file added
+ *    behind the index's back is picked up on the next call.
+ *
+ * Folder times can be as coarse as [MTIME_GRANULARITY_MS], so a file added in the same
+ * tick as a listing leaves the time unchanged. A listing only counts once the folder time
+ * is at least that old; until then every call lists again. For the same reason [record]
+ * never moves the time forward itself: after a save the time has changed, and the next
+ * [artifacts] call lists the folder, which also picks up anything written beside the
+ * save. Proof folders are never deleted by the app. A folder removed from outside is
+ * forgotten the next time it is listed.
+ *
+ * On disk the index is a tab-separated [AppendOnlyLog] that is replayed on first use. A
+ * torn last line is ignored. A listing that finds what the index already holds writes
+ * nothing; otherwise its lines go out in one write. The log is rewritten to the live
+ * entries when it has grown to more than twice their number, which is kept as a running
+ * count.
+ */
+class ProofIndex(file: File) {
+
+    /** One file in a proof folder, as last seen. */
+    data class Artifact(val identifier: String, val size: Long, val lastModified: Long)
+
+    private class Folder {
+        val artifacts = LinkedHashMap<String, Artifact>()
+        var listedAt = UNLISTED
+    }
+
+    companion object {
+        const val INDEX_FILE = "proofmode-index.log"
+
+        /** Coarsest folder time step to expect: FAT, as used on SD cards, keeps 2 seconds. */
+        const val MTIME_GRANULARITY_MS = 2000L
+
+        private const val UNLISTED = Long.MIN_VALUE
+        private const val MIN_COMPACT_LINES = 1024
+
+        private const val ARTIFACT = "A"
+        private const val LISTED = "L"
+        private const val FORGET = "X"
+
+        private val sInstances = HashMap<String, ProofIndex>()
+
+        /** The shared index for the proof folders under [proofRoot]; it lives beside them. */
+        @JvmStatic
+        fun forRoot(proofRoot: File): ProofIndex {
+            val parent = proofRoot.absoluteFile.parentFile ?: proofRoot.absoluteFile
+            val indexFile = File(parent, INDEX_FILE)
+            synchronized(sInstances) {
+                return sInstances.getOrPut(indexFile.path) { ProofIndex(indexFile) }
+            }
+        }
+    }
+
+    private val folders = HashMap<String, Folder>()
+    private val log = AppendOnlyLog(file)
+    private var loaded = false
+
+    /** Lines a compacted log would hold: one per artifact and one per listed folder. */
+    private var live = 0
+
+    /** Whether [identifier] is known to exist in [hash]'s folder at [dir]. */
+    @Synchronized
+    fun contains(hash: String, identifier: String, dir: File): Boolean {
+        load()
+        if (folders[hash]?.artifacts?.containsKey(identifier) == true) return true
+
+        val f = File(dir, identifier)
+        if (!f.exists()) return false
+
+        put(hash, Artifact(identifier, f.length(), f.lastModified()))
+        return true
+    }
+
+    /** Remember that [saved] was just written into [hash]'s folder. */
+    @Synchronized
+    fun record(hash: String, saved: File) {
+        load()
+        put(hash, Artifact(saved.name, saved.length(), saved.lastModified()))
+    }
+
+    /** Every artifact in [hash]'s folder at [dir]; the folder is listed only if it changed. */
+    @Synchronized
+    fun artifacts(hash: String, dir: File): List<Artifact> {
+        load()
+        val folder = folders[hash]
+        val modified = dir.lastModified() // 0 if missing
+
+        if (modified == 0L) {
+            if (folder != null) {
+                remove(hash)
+                append(listOf(line(FORGET, hash)))
+            }
+            return emptyList()
+        }
+
+        if (folder != null && folder.listedAt == modified) return folder.artifacts.values.toList()
+
+        val listed = Folder()
+        dir.listFiles()?.forEach {
+            listed.artifacts[it.name] = Artifact(it.name, it.length(), it.lastModified())
+        }
+        // A listing taken within a time step of the folder's change may have missed a file
+        // added in that same step, so it is not trusted to stand for [modified].
+        if (System.currentTimeMillis() - modified >= MTIME_GRANULARITY_MS) listed.listedAt = modified
+
+        // Log only what differs from what the index held. A file that went away can only
+        // be dropped by starting the folder over.
+        val known = folder?.artifacts.orEmpty()
+        val restart = known.keys.any { it !in listed.artifacts }
+        val lines = ArrayList<String>()
+        if (restart) lines.add(line(FORGET, hash))
+        for (a in listed.artifacts.values) {
+            if (restart || known[a.identifier] != a) lines.add(artifactLine(hash, a))
+        }
+        if (listed.listedAt != UNLISTED && (restart || listed.listedAt != folder?.listedAt)) {
+            lines.add(line(LISTED, hash, listed.listedAt.toString()))
+        }
+
+        remove(hash)
+        folders[hash] = listed
+        live += liveLines(listed)
+        append(lines)
+        maybeCompact()
+
+        return listed.artifacts.values.toList()
+    }
+
+    /** Number of proof folders the index knows about. */
+    @Synchronized
+    fun size(): Int {
+        load()
+        return folders.size
+    }
+
+    private fun put(hash: String, artifact: Artifact) {
+        if (folders.getOrPut(hash) { Folder() }.artifacts.put(artifact.identifier, artifact) == null) live++
+        append(listOf(artifactLine(hash, artifact)))
+        maybeCompact()
+    }
+
+    private fun remove(hash: String) {
+        folders.remove(hash)?.let { live -= liveLines(it) }
+    }
+
+    private fun liveLines(folder: Folder) = folder.artifacts.size + if (folder.listedAt != UNLISTED) 1 else 0
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+
+        try {
+            log.replay { line -> replay(line.split('\t')) }
+        } catch (e: IOException) {
+            Timber.w(e, "Could not read proof index, starting empty")
+            folders.clear()
+        }
+        live = folders.values.sumOf { liveLines(it) }
+        maybeCompact()
+    }
+
+    private fun replay(f: List<String>) {
+        if (f.size < 2) return
+        try {
+            when (f[0]) {
+                ARTIFACT -> if (f.size >= 5) {
+                    folders.getOrPut(f[1]) { Folder() }.artifacts[f[2]] =
+                        Artifact(f[2], f[3].toLong(), f[4].toLong())
+                }
+                LISTED -> if (f.size >= 3) folders.getOrPut(f[1]) { Folder() }.listedAt = f[2].toLong()
+                FORGET -> folders.remove(f[1])
+            }
+        } catch (e: NumberFormatException) {
+            // torn last line
+        }
+    }
+
+    private fun append(lines: List<String>) {
+        try {
+            log.append(lines)
+        } catch (e: IOException) {
+            Timber.w(e, "Could not append to proof index")
+        }
+    }
+
+    private fun maybeCompact() {
+        if (!log.shouldCompact(live, MIN_COMPACT_LINES)) return
+
+        val lines = sequence {
+            for ((hash, folder) in folders) {
+                for (a in folder.artifacts.values) yield(artifactLine(hash, a))
+                if (folder.listedAt != UNLISTED) yield(line(LISTED, hash, folder.listedAt.toString()))
+            }
+        }
+        try {
+            log.rewrite(lines)
+        } catch (e: IOException) {
+            Timber.w(e, "Could not compact proof index")
+        }
+    }
+
+    private fun artifactLine(hash: String, a: Artifact) =
+        line(ARTIFACT, hash, a.identifier, a.size.toString(), a.lastModified.toString())
+
+    private fun line(vararg fields: String) = fields.joinToString("\t")
+}
@@ -0,0 +1,51 @@
+package org.witness.proofmode.storage
+
+import android.content.Context
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequest
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import timber.log.Timber
+
+/**
+ * Moves proof folders from the flat layout to the sharded one in the background (see
+ * [ProofDirectoryLayout]). Each folder is moved by one rename, so a run that is stopped
+ * or killed is picked up where it left off by the next one.
+ */
+class ProofLayoutMigrationWorker(appContext: Context, workerParams: WorkerParameters) :
+    Worker(appContext, workerParams) {
+
+    override fun doWork(): Result {
+        val layout = DefaultStorageProvider.layout(applicationContext)
+        layout.migrateAll { isStopped }
+
+        return if (layout.state == ProofLayoutState.MIGRATING) {
+            Timber.d("Proof layout migration not finished, retrying later")
+            Result.retry()
+        } else {
+            Result.success()
+        }
+    }
+
+    companion object {
+        const val WORK_NAME = "proof-layout-migration"
+
+        @JvmStatic
+        fun schedule(context: Context) {
+            val request = OneTimeWorkRequest.Builder(ProofLayoutMigrationWorker::class.java)
+                .setConstraints(Constraints.Builder().setRequiresStorageNotLow(true).build())
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request)
+        }
+
+        /** Re-schedule a migration the previous process did not finish. */
+        @JvmStatic
+        fun resumeIfNeeded(context: Context) {
+            if (DefaultStorageProvider.layout(context).state == ProofLayoutState.MIGRATING) schedule(context)
+        }
+    }
+}
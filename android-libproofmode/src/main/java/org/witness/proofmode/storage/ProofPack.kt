@@ -0,0 +1,371 @@
+package org.witness.proofmode.storage
+
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.lang.ref.WeakReference
+import java.util.zip.CRC32
+
+/**
+ * All the sidecars of one proof in a single append-only file.
+ *
+ * The file starts with [MAGIC] and is followed by records:
+ *
+ *     op (1) | name length (2) | name (UTF-8) | data length (8) | data | CRC-32 (4)
+ *
+ * [OP_PUT] replaces the named entry, [OP_APPEND] adds to it (the CSV history). The CRC covers
+ * the op, the name and the data. Opening a pack reads it through once, checking every
+ * record's CRC, and builds the offset table: for each name, the file ranges that make up its
+ * content. A record that fails its CRC is left out of the table, so it is never served as
+ * proof; if it is the last one it is a torn tail and is cut off.
+ *
+ * Each write is synced before it returns. Inside [batch] the sync is held back to the end,
+ * so a proof's sidecars cost one sync point together.
+ *
+ * Replaced content stays in the file until [compact] rewrites it, which happens on its own
+ * once dead bytes outweigh live ones.
+ *
+ * The offset table and the write position belong to one instance, and its lock is what
+ * keeps two writers from both appending at the same offset. So all access to a file goes
+ * through the one instance [forFile] hands out for it, for as long as anyone holds it.
+ */
+class ProofPack internal constructor(val file: File) {
+
+    private class Segment(val offset: Long, val length: Long)
+
+    private val table = LinkedHashMap<String, MutableList<Segment>>()
+    private var end = -1L
+    private var liveBytes = 0L
+    private var batchDepth = 0
+    private var unsynced = false
+
+    companion object {
+        const val OP_PUT = 1
+        const val OP_APPEND = 2
+
+        private val MAGIC = "PMPACK1\n".toByteArray(Charsets.US_ASCII)
+        private const val MAX_NAME = 0xffff
+        private const val COMPACT_MIN_BYTES = 64 * 1024L
+        private const val BUFFER_SIZE = 16 * 1024
+
+        private val sOpen = HashMap<String, WeakReference<ProofPack>>()
+        private var sPurgeAt = 64
+
+        /** The pack for [file], shared with every other caller that still holds it. */
+        @JvmStatic
+        fun forFile(file: File): ProofPack {
+            val key = file.absolutePath
+            synchronized(sOpen) {
+                sOpen[key]?.get()?.let { return it }
+                if (sOpen.size >= sPurgeAt) {
+                    sOpen.values.removeAll { it.get() == null }
+                    sPurgeAt = maxOf(64, sOpen.size * 2)
+                }
+                return ProofPack(file).also { sOpen[key] = WeakReference(it) }
+            }
+        }
+    }
+
+    @Synchronized
+    fun contains(name: String): Boolean {
+        load()
+        return table.containsKey(name)
+    }
+
+    /** Entry names, in the order they were first written. */
+    @Synchronized
+    fun names(): List<String> {
+        load()
+        return table.keys.toList()
+    }
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun put(name: String, data: ByteArray) = write(OP_PUT, name, data.inputStream())
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun put(name: String, data: InputStream) = write(OP_PUT, name, data)
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun append(name: String, data: ByteArray) = write(OP_APPEND, name, data.inputStream())
+
+    /**
+     * The content of [name], or null if it is not in the pack. The stream reads the ranges
+     * it was opened with, so later writes and compaction do not disturb it.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun open(name: String): InputStream? {
+        load()
+        val segments = table[name]?.toList() ?: return null
+        return SegmentInputStream(RandomAccessFile(file, "r"), segments)
+    }
+
+    /** Copy every entry out through [output], e.g. into a loose proof folder. */
+    @Throws(IOException::class)
+    fun exportTo(output: (name: String) -> OutputStream): Int {
+        var count = 0
+        for (name in names()) {
+            val input = open(name) ?: continue
+            input.use { src -> output(name).use { src.copyTo(it, BUFFER_SIZE) } }
+            count++
+        }
+        return count
+    }
+
+    /**
+     * Run [block], syncing its writes once when it returns instead of once each. If it
+     * throws, the records it added are cut off again. The pack stays locked meanwhile, so
+     * other threads see all of the writes or none.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun <T> batch(block: () -> T): T {
+        load()
+        val start = end
+        batchDepth++
+        var ok = false
+        try {
+            val result = block()
+            ok = true
+            return result
+        } finally {
+            if (--batchDepth == 0) {
+                if (ok) commit() else rollBack(start)
+            }
+        }
+    }
+
+    private fun commit() {
+        if (unsynced) {
+            RandomAccessFile(file, "rw").use { it.fd.sync() }
+            unsynced = false
+        }
+        maybeCompact()
+    }
+
+    private fun rollBack(start: Long) {
+        unsynced = false
+        if (end == start) return
+        if (start <= MAGIC.size) {
+            file.delete()
+        } else {
+            RandomAccessFile(file, "rw").use { it.setLength(start) }
+        }
+        end = -1L
+        load()
+    }
+
+    /** Rewrite the pack with one [OP_PUT] per live entry. */
+    @Synchronized
+    @Throws(IOException::class)
+    fun compact() {
+        load()
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        val segments = LinkedHashMap(table)
+        RandomAccessFile(file, "r").use { src ->
+            RandomAccessFile(tmp, "rw").use { out ->
+                out.setLength(0)
+                out.write(MAGIC)
+                for ((name, parts) in segments) {
+                    writeRecord(out, OP_PUT, name, SegmentInputStream(src, parts, closeSource = false))
+                }
+                out.fd.sync()
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete()
+            throw IOException("Could not replace $file")
+        }
+        end = -1L
+        load()
+    }
+
+    private fun write(op: Int, name: String, data: InputStream) {
+        load()
+        file.parentFile?.mkdirs()
+        RandomAccessFile(file, "rw").use { out ->
+            if (end == 0L) {
+                out.setLength(0)
+                out.write(MAGIC)
+                end = MAGIC.size.toLong()
+            }
+            out.seek(end)
+            val (dataOffset, length) = writeRecord(out, op, name, data)
+            end = out.filePointer
+
+            val segment = Segment(dataOffset, length)
+            if (op == OP_PUT) {
+                table.put(name, mutableListOf(segment))?.let { old -> liveBytes -= old.sumOf { it.length } }
+            } else {
+                table.getOrPut(name) { ArrayList() }.add(segment)
+            }
+            liveBytes += length
+
+            if (batchDepth == 0) out.fd.sync() else unsynced = true
+        }
+        if (batchDepth == 0) maybeCompact()
+    }
+
+    private fun maybeCompact() {
+        if (end > COMPACT_MIN_BYTES && end - liveBytes > liveBytes) compact()
+    }
+
+    /**
+     * Write one record at [out]'s position. The data length is patched in after the data, so
+     * a crash mid-record leaves a header that cannot be mistaken for a whole one.
+     */
+    private fun writeRecord(out: RandomAccessFile, op: Int, name: String, data: InputStream): Pair<Long, Long> {
+        val nameBytes = name.toByteArray(Charsets.UTF_8)
+        require(nameBytes.isNotEmpty() && nameBytes.size <= MAX_NAME) { "Bad entry name: $name" }
+
+        val crc = CRC32()
+        crc.update(op)
+        crc.update(nameBytes)
+
+        out.write(op)
+        out.writeShort(nameBytes.size)
+        out.write(nameBytes)
+        val lengthAt = out.filePointer
+        out.writeLong(-1L)
+        val dataOffset = out.filePointer
+
+        val buffer = ByteArray(BUFFER_SIZE)
+        var length = 0L
+        data.use { input ->
+            var n = input.read(buffer)
+            while (n != -1) {
+                out.write(buffer, 0, n)
+                crc.update(buffer, 0, n)
+                length += n
+                n = input.read(buffer)
+            }
+        }
+        out.writeInt(crc.value.toInt())
+        val after = out.filePointer
+        out.seek(lengthAt)
+        out.writeLong(length)
+        out.seek(after)
+        return dataOffset to length
+    }
+
+    /** Build the offset table if the file changed since it was last read. */
+    private fun load() {
+        if (end >= 0 && file.length() == end) return
+        table.clear()
+        liveBytes = 0L
+        end = 0L
+        if (!file.exists()) return
+
+        RandomAccessFile(file, "rw").use { raf ->
+            val size = raf.length()
+            val magic = ByteArray(MAGIC.size)
+            if (size < MAGIC.size) {
+                // Created, but the header never made it out.
+                raf.setLength(0)
+                return
+            }
+            raf.readFully(magic)
+            if (!magic.contentEquals(MAGIC)) {
+                end = -1L
+                throw IOException("Not a proof pack: $file")
+            }
+
+            var pos = MAGIC.size.toLong()
+            while (pos < size) {
+                if (pos + 3 > size) break
+                raf.seek(pos)
+                val op = raf.read()
+                val nameLength = raf.readUnsignedShort()
+                if ((op != OP_PUT && op != OP_APPEND) || pos + 3 + nameLength + 8 > size) break
+                val nameBytes = ByteArray(nameLength).also { raf.readFully(it) }
+                val length = raf.readLong()
+                val dataOffset = raf.filePointer
+                if (length < 0 || dataOffset + length + 4 > size) break
+
+                val name = String(nameBytes, Charsets.UTF_8)
+                val segment = Segment(dataOffset, length)
+                val next = dataOffset + length + 4
+                if (crcMatches(raf, op, name, segment)) {
+                    apply(op, name, segment)
+                } else if (next == size) {
+                    break // torn final record
+                } else {
+                    // Framed but damaged: leave it out, and let compaction drop its bytes.
+                    Timber.w("Skipping corrupt record %s in %s", name, file)
+                }
+                pos = next
+            }
+
+            if (pos < size) {
+                Timber.w("Dropping torn tail of %s (%d bytes)", file, size - pos)
+                raf.setLength(pos)
+            }
+            end = pos
+        }
+    }
+
+    private fun apply(op: Int, name: String, segment: Segment) {
+        if (op == OP_PUT) {
+            table.put(name, mutableListOf(segment))?.let { old -> liveBytes -= old.sumOf { it.length } }
+        } else {
+            table.getOrPut(name) { ArrayList() }.add(segment)
+        }
+        liveBytes += segment.length
+    }
+
+    private fun crcMatches(raf: RandomAccessFile, op: Int, name: String, segment: Segment): Boolean {
+        val crc = CRC32()
+        crc.update(op)
+        crc.update(name.toByteArray(Charsets.UTF_8))
+        raf.seek(segment.offset)
+        val buffer = ByteArray(BUFFER_SIZE)
+        var remaining = segment.length
+        while (remaining > 0) {
+            val n = raf.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+            if (n < 0) return false
+            crc.update(buffer, 0, n)
+            remaining -= n
+        }
+        return raf.readInt() == crc.value.toInt()
+    }
+
+    private class SegmentInputStream(
+        private val source: RandomAccessFile,
+        private val segments: List<Segment>,
+        private val closeSource: Boolean = true,
+    ) : InputStream() {
+        private var index = 0
+        private var position = segments.firstOrNull()?.offset ?: 0L
+        private var remaining = segments.firstOrNull()?.length ?: 0L
+
+        override fun read(): Int {
+            val one = ByteArray(1)
+            return if (read(one, 0, 1) == -1) -1 else one[0].toInt() and 0xff
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            while (remaining == 0L) {
+                if (++index >= segments.size) return -1
+                position = segments[index].offset
+                remaining = segments[index].length
+            }
+            source.seek(position)
+            val n = source.read(b, off, minOf(len.toLong(), remaining).toInt())
+            if (n < 0) throw IOException("Proof pack truncated")
+            position += n
+            remaining -= n
+            return n
+        }
+
+        override fun close() {
+            if (closeSource) source.close()
+        }
+    }
+}
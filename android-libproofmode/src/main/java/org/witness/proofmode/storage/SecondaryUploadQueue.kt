@@ -0,0 +1,217 @@
+package org.witness.proofmode.storage
+
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URLDecoder
+import java.net.URLEncoder
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Outbound queue that mirrors primary artifacts to a secondary [StorageProvider] off the
+ * proof-writing thread.
+ *
+ * [enqueue] copies the artifact as it now is in [primary] into [spoolDir] as
+ * `<hash>/<identifier>`. This is local I/O only. A single worker thread then uploads the
+ * queued copies with [StorageProvider.saveStream] and records each returned URI as the
+ * `<identifier>.uri` tip on [primary], like the old inline fan-out did.
+ *
+ * - **Coalescing.** A newer copy of the same artifact replaces an older one that has not
+ *   gone out yet. An appended `.proof.csv` is therefore uploaded once, whole, and not once
+ *   per line.
+ * - **Batching.** One drain uploads everything queued, grouped by proof.
+ * - **Retry.** The first failure ends the drain, and the queue is tried again after a delay.
+ *   The delay doubles from [INITIAL_BACKOFF_MS] up to [MAX_BACKOFF_MS].
+ * - **Persistence.** Queued copies live on disk, so work left at process death is picked up
+ *   when the next queue for [spoolDir] is created.
+ *
+ * While an artifact is being uploaded it is renamed to `<identifier>~inflight`. A copy
+ * enqueued meanwhile lands under the plain name and is not lost when the upload finishes.
+ */
+class SecondaryUploadQueue internal constructor(
+    private val spoolDir: File,
+    private val primary: StorageProvider,
+    private val secondary: StorageProvider,
+    scheduler: ((Runnable, Long) -> Unit)?,
+) {
+
+    constructor(spoolDir: File, primary: StorageProvider, secondary: StorageProvider) :
+        this(spoolDir, primary, secondary, null)
+
+    companion object {
+        const val INITIAL_BACKOFF_MS = 1_000L
+        const val MAX_BACKOFF_MS = 15 * 60 * 1_000L
+
+        /** How long one upload may take before it is counted as failed. */
+        private const val UPLOAD_TIMEOUT_MS = 10 * 60 * 1_000L
+        private const val IDLE_THREAD_TIMEOUT_S = 30L
+        private const val STALE_TEMP_MS = 60 * 60 * 1_000L
+
+        private const val INFLIGHT_SUFFIX = "~inflight"
+        private const val TEMP_SUFFIX = "~tmp"
+
+        private fun encode(identifier: String): String = URLEncoder.encode(identifier, "UTF-8")
+
+        private fun decode(name: String): String = URLDecoder.decode(name, "UTF-8")
+    }
+
+    /** The result of one upload, which a provider may report from another thread. */
+    private class Outcome : StorageListener {
+        val done = CountDownLatch(1)
+        @Volatile var uri: String? = null
+        @Volatile var failure: Exception? = null
+
+        override fun saveSuccessful(hash: String?, uri: String?) {
+            this.uri = uri
+            done.countDown()
+        }
+
+        override fun saveFailed(exception: Exception?) {
+            failure = exception ?: IOException("Upload failed")
+            done.countDown()
+        }
+    }
+
+    /** Runs a drain after a delay in ms; a single worker thread unless a test passes its own. */
+    private val schedule: (Runnable, Long) -> Unit = scheduler ?: run {
+        val executor = ScheduledThreadPoolExecutor(1) { r ->
+            Thread(r, "secondary-upload").apply { isDaemon = true }
+        }
+        executor.setKeepAliveTime(IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS)
+        executor.allowCoreThreadTimeOut(true)
+        val onWorker: (Runnable, Long) -> Unit = { r, delayMs -> executor.schedule(r, delayMs, TimeUnit.MILLISECONDS) }
+        onWorker
+    }
+
+    private val lock = Any()
+    private var drainScheduled = false
+    private var backoffMs = 0L
+
+    init {
+        recover()
+        if (hasQueued()) kick()
+    }
+
+    /**
+     * Queue the current primary content of [identifier] for upload. Returns false when
+     * [primary] has no such artifact or it could not be copied.
+     */
+    fun enqueue(hash: String, identifier: String): Boolean {
+        val input = primary.getInputStream(hash, identifier) ?: run {
+            Timber.w("Nothing to queue for %s: not in primary storage", identifier)
+            return false
+        }
+        val name = encode(identifier)
+        try {
+            spoolDir.mkdirs()
+            val temp = File.createTempFile(name.take(64) + ".", TEMP_SUFFIX, spoolDir)
+            try {
+                input.use { source ->
+                    FileOutputStream(temp).use {
+                        source.copyTo(it)
+                        it.fd.sync()
+                    }
+                }
+                // Under the lock so a drain cannot remove the proof's folder in between.
+                synchronized(lock) {
+                    val dir = File(spoolDir, hash).apply { mkdirs() }
+                    if (!temp.renameTo(File(dir, name))) throw IOException("Could not queue $identifier")
+                }
+            } finally {
+                temp.delete() // no-op once renamed
+            }
+        } catch (e: IOException) {
+            Timber.e(e, "Could not queue %s for secondary storage", identifier)
+            return false
+        }
+        kick()
+        return true
+    }
+
+    /** Number of artifacts waiting, including one being uploaded. */
+    fun queuedCount(): Int =
+        spoolDir.listFiles { f -> f.isDirectory }?.sumOf { it.list()?.size ?: 0 } ?: 0
+
+    private fun hasQueued() = queuedCount() > 0
+
+    private fun kick() {
+        synchronized(lock) {
+            if (drainScheduled) return
+            drainScheduled = true
+            schedule(Runnable { runDrain() }, backoffMs)
+        }
+    }
+
+    private fun runDrain() {
+        synchronized(lock) { drainScheduled = false }
+        val emptied = try {
+            drain()
+        } catch (e: Exception) {
+            Timber.e(e, "Secondary upload drain failed")
+            false
+        }
+        synchronized(lock) {
+            backoffMs = if (emptied) 0L else (backoffMs * 2).coerceIn(INITIAL_BACKOFF_MS, MAX_BACKOFF_MS)
+        }
+        if (!emptied && hasQueued()) kick()
+    }
+
+    /** Upload everything queued, one proof at a time. Stops at the first failure. */
+    @Synchronized
+    private fun drain(): Boolean {
+        val hashDirs = spoolDir.listFiles { f -> f.isDirectory } ?: return true
+        for (dir in hashDirs.sortedBy { it.lastModified() }) {
+            val hash = dir.name
+            val queued = dir.listFiles { f -> !f.name.endsWith(INFLIGHT_SUFFIX) } ?: continue
+            for (item in queued.sortedBy { it.lastModified() }) {
+                if (!upload(hash, item)) return false
+            }
+            synchronized(lock) { dir.delete() } // only succeeds once nothing new was queued meanwhile
+        }
+        return true
+    }
+
+    private fun upload(hash: String, item: File): Boolean {
+        val identifier = decode(item.name)
+        val inflight = File(item.parentFile, item.name + INFLIGHT_SUFFIX)
+        if (!item.renameTo(inflight)) return !item.exists()
+
+        val outcome = Outcome()
+        try {
+            inflight.inputStream().use { input ->
+                secondary.saveStream(hash, identifier, input, outcome)
+                if (!outcome.done.await(UPLOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    outcome.failure = IOException("Upload of $identifier timed out")
+                }
+            }
+        } catch (e: Exception) {
+            outcome.failure = e
+        }
+
+        outcome.failure?.let {
+            Timber.w("Failed to save %s to secondary storage: %s", identifier, it.message)
+            // Put it back unless a newer copy was queued while this one was out.
+            if (item.exists() || !inflight.renameTo(item)) inflight.delete()
+            return false
+        }
+        inflight.delete()
+        Timber.d("Saved %s to secondary storage at: %s", identifier, outcome.uri)
+        outcome.uri?.let { primary.replaceText(hash, "$identifier.uri", it, null) }
+        return true
+    }
+
+    /** Settle what an earlier process left behind: put uploads in flight back, drop torn copies. */
+    private fun recover() {
+        val cutoff = System.currentTimeMillis() - STALE_TEMP_MS
+        spoolDir.listFiles { f -> f.name.endsWith(TEMP_SUFFIX) && f.lastModified() < cutoff }?.forEach { it.delete() }
+        spoolDir.listFiles { f -> f.isDirectory }?.forEach { dir ->
+            dir.listFiles { f -> f.name.endsWith(INFLIGHT_SUFFIX) }?.forEach { f ->
+                val item = File(dir, f.name.removeSuffix(INFLIGHT_SUFFIX))
+                if (item.exists() || !f.renameTo(item)) f.delete()
+            }
+        }
+    }
+}
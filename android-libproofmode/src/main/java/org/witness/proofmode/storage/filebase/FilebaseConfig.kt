@@ -28,6 +28,8 @@ data class FilebaseConfig(
     val autoUpload: Boolean = true,
     /** Auto path only: include injected media leaf vs sidecars-only in membership uploads. */
     val autoIncludeMedia: Boolean = true,
+    /** Size of each part of an S3 multipart upload; S3 needs at least 5 MB. */
+    val multipartPartSize: Long = FilebaseStorageProvider.DEFAULT_MULTIPART_PART_SIZE,
 ) {
     /** How an assembled proof set should reach Filebase (IPFS directory preferred over S3). */
     enum class UploadMode { IPFS_DIRECTORY, S3_MEMBERS, NONE }
@@ -72,6 +74,7 @@ data class FilebaseConfig(
         const val PREF_FILEBASE_IPFS_BEARER_TOKEN = "filebase_ipfs_bearer_token"
         const val PREF_FILEBASE_AUTO_UPLOAD = "filebase_auto_upload"
         const val PREF_FILEBASE_AUTO_INCLUDE_MEDIA = "filebase_auto_include_media"
+        const val PREF_FILEBASE_MULTIPART_PART_SIZE = "filebase_multipart_part_size"
         const val PREF_FILEBASE_PREFS_SCHEMA_VERSION = "filebase_prefs_schema_version"
         const val FILEBASE_PREFS_SCHEMA_VERSION = 2
 
@@ -114,6 +117,9 @@ data class FilebaseConfig(
             ipfsBearerToken = prefs.getString(PREF_FILEBASE_IPFS_BEARER_TOKEN, "") ?: "",
             autoUpload = prefs.getBoolean(PREF_FILEBASE_AUTO_UPLOAD, true),
             autoIncludeMedia = prefs.getBoolean(PREF_FILEBASE_AUTO_INCLUDE_MEDIA, true),
+            multipartPartSize = prefs.getLong(
+                PREF_FILEBASE_MULTIPART_PART_SIZE, FilebaseStorageProvider.DEFAULT_MULTIPART_PART_SIZE,
+            ),
             )
         }
 
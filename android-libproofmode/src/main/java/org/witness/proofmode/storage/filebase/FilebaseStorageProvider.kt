@@ -1,5 +1,6 @@
 package org.witness.proofmode.storage.filebase
 
+import android.content.Context
 import android.net.Uri
 import android.util.Log
 import java.io.*
@@ -10,6 +11,8 @@ import java.nio.file.Paths
 import java.security.MessageDigest
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import javax.crypto.Mac
 import javax.crypto.spec.SecretKeySpec
@@ -37,6 +40,10 @@ open class FilebaseStorageProvider(
     private val endpoint: String = "https://s3.filebase.com",
     private val region: String = "us-east-1",
     private val ipfsBearerToken: String = "",
+    /** Where multipart upload progress is kept for resuming; `null` keeps it in memory only. */
+    private val multipartStateDir: File? = null,
+    private val multipartPartSize: Long = DEFAULT_MULTIPART_PART_SIZE,
+    private val multipartParallelism: Int = DEFAULT_MULTIPART_PARALLELISM,
 ) : StorageProvider {
 
     companion object {
@@ -50,6 +57,23 @@ open class FilebaseStorageProvider(
         /** Directory `/api/v0/add` query — Filebase-supported params only. */
         private const val IPFS_ADD_PARAM = "wrap-with-directory=true&cid-version=1"
 
+        private const val UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD"
+
+        /** Objects larger than one part are uploaded in parts of this size. */
+        const val DEFAULT_MULTIPART_PART_SIZE = 8L * 1024 * 1024
+        const val DEFAULT_MULTIPART_PARALLELISM = 4
+        /** S3's smallest allowed part (the last part may be smaller). */
+        const val MIN_MULTIPART_PART_SIZE = 5L * 1024 * 1024
+        private const val MAX_MULTIPART_PARTS = 10_000L
+        private const val PART_ATTEMPTS = 3
+        private const val MULTIPART_STATE_FOLDER = "filebase-multipart"
+
+        private val UPLOAD_ID = Regex("<UploadId>([^<]+)</UploadId>")
+
+        /** Default [multipartStateDir] in the app's files folder. */
+        @JvmStatic
+        fun multipartStateDir(context: Context): File = File(context.filesDir, MULTIPART_STATE_FOLDER)
+
         /**
          * Parse a CID from IPFS RPC NDJSON.
          *
@@ -124,13 +148,16 @@ open class FilebaseStorageProvider(
             return "$IPFS_RPC_BASE_URL/api/v0/pin/rm?arg=$encodedCid"
         }
 
-        fun from(config: FilebaseConfig): FilebaseStorageProvider = FilebaseStorageProvider(
+        @JvmOverloads
+        fun from(config: FilebaseConfig, multipartStateDir: File? = null): FilebaseStorageProvider = FilebaseStorageProvider(
             accessKey = config.accessKey,
             secretKey = config.secretKey,
             bucketName = config.bucketName,
             endpoint = config.endpoint,
             region = config.region,
             ipfsBearerToken = config.ipfsBearerToken,
+            multipartStateDir = multipartStateDir,
+            multipartPartSize = config.multipartPartSize,
         )
     }
 
@@ -197,6 +224,17 @@ open class FilebaseStorageProvider(
         }
     }
 
+    /**
+     * Where a [mode] upload lands: the S3 endpoint and bucket, or for IPFS the RPC host and a
+     * digest of the bearer token, which selects the bucket (the token itself is never returned).
+     * Proof sets uploaded to one target are not taken as uploaded to another.
+     */
+    open fun uploadTarget(mode: FilebaseConfig.UploadMode): String = when (mode) {
+        FilebaseConfig.UploadMode.IPFS_DIRECTORY -> "$IPFS_RPC_BASE_URL#" + sha256(ipfsBearerToken).take(16)
+        FilebaseConfig.UploadMode.S3_MEMBERS -> "${endpoint.trimEnd('/')}/$bucketName"
+        FilebaseConfig.UploadMode.NONE -> ""
+    }
+
     /**
      * Upload a flat proof-set directory via Filebase IPFS RPC (`wrap-with-directory`).
      * Multipart filenames are [DeferredArtifact.identifier] basenames only (no `hash/` prefix).
@@ -298,8 +336,57 @@ open class FilebaseStorageProvider(
         override fun contentLength(): Long = length
 
         override fun writeTo(sink: BufferedSink) {
-            open().use { input -> sink.writeAll(input.source()) }
+            // Exactly [length] bytes: a multipart part is a slice of a longer stream.
+            open().use { input -> sink.write(input.source(), length) }
+        }
+    }
+
+    /**
+     * One stream read front to back across the parts of a multipart upload, for sources that
+     * cannot seek. A part behind the stream's position (a retry) reopens it and reads up to
+     * the part again; a part ahead of it skips forward.
+     */
+    private class SequentialSource(private val open: () -> InputStream) : Closeable {
+        private var stream: InputStream? = null
+        private var position = 0L
+
+        fun writeTo(sink: BufferedSink, offset: Long, length: Long) {
+            val input = stream?.takeIf { position <= offset } ?: run {
+                close()
+                open().also { stream = it }
+            }
+            try {
+                input.skipFully(offset - position)
+                position = offset
+                sink.write(input.source(), length)
+                position += length
+            } catch (e: IOException) {
+                // Where the stream stopped is unknown; the next part starts over.
+                close()
+                throw e
+            }
         }
+
+        override fun close() {
+            stream?.close()
+            stream = null
+            position = 0
+        }
+    }
+
+    /** One part read from a [SequentialSource]. One-shot, so OkHttp never replays it. */
+    private class SequentialPartBody(
+        private val source: SequentialSource,
+        private val offset: Long,
+        private val length: Long,
+    ) : RequestBody() {
+        override fun contentType(): MediaType? = null
+
+        override fun contentLength(): Long = length
+
+        override fun isOneShot(): Boolean = true
+
+        override fun writeTo(sink: BufferedSink) = source.writeTo(sink, offset, length)
     }
 
     /** Single POST seam for every IPFS RPC call, so tests can stub it without a socket. */
@@ -421,6 +508,13 @@ open class FilebaseStorageProvider(
         uploadSource(hash, identifier, file.length(), listener) { file.inputStream() }
     }
 
+    /**
+     * PUT [length] bytes from [open] as `hash/identifier`.
+     *
+     * Payloads are signed as `UNSIGNED-PAYLOAD` (TLS carries the integrity), so the source is
+     * read once, while it is sent, instead of once more up front to digest it. Sources larger
+     * than one part go up as an S3 multipart upload; see [uploadMultipart].
+     */
     private fun uploadSource(
         hash: String,
         identifier: String,
@@ -431,72 +525,274 @@ open class FilebaseStorageProvider(
         try {
             val objectKey = "$hash/$identifier"
             val contentType = ProofSetContentTypes.contentTypeFor(identifier)
+            val partSize = partSizeFor(length)
 
-            val requestBody = StreamRequestBody(contentType.toMediaType(), length, open)
-            val timestamp = getTimestamp()
-            val dateStamp = getDateStamp()
-            // Digest the source once, not once per use: SigV4 needs it in the canonical headers,
-            // the canonical request, and the sent header.
-            val payloadHash = streamingSha256(open)
-
-            // Create canonical request
-            val canonicalHeaders = "host:${endpoint.removePrefix("https://")}\n" +
-                    "x-amz-content-sha256:$payloadHash\n" +
-                    "x-amz-date:$timestamp\n"
-
-            val signedHeaders = "host;x-amz-content-sha256;x-amz-date"
-            val canonicalRequest = "PUT\n" +
-                    "/$bucketName/$objectKey\n" +
-                    "\n" +
-                    canonicalHeaders +
-                    "\n" +
-                    signedHeaders +
-                    "\n" +
-                    payloadHash
-
-            // Create string to sign
-            val credentialScope = "$dateStamp/$region/$SERVICE/aws4_request"
-            val stringToSign = "$ALGORITHM\n" +
-                    timestamp + "\n" +
-                    credentialScope + "\n" +
-                    sha256(canonicalRequest)
-
-            // Calculate signature
-            val signature = calculateSignature(secretKey, dateStamp, region, SERVICE, stringToSign)
-
-            // Create authorization header
-            val authorization = "$ALGORITHM Credential=$accessKey/$credentialScope, " +
-                    "SignedHeaders=$signedHeaders, Signature=$signature"
-
-            val request = Request.Builder()
-                .url("$endpoint/$bucketName/$objectKey")
-                .put(requestBody)
-                .addHeader("Host", endpoint.removePrefix("https://"))
-                .addHeader("x-amz-content-sha256", payloadHash)
-                .addHeader("x-amz-date", timestamp)
-                .addHeader("Authorization", authorization)
-                .addHeader("Content-Type", contentType)
-                .build()
-
-            client.newCall(request).execute().use { response ->
-                if (response.isSuccessful) {
-                    Log.d(TAG, "Successfully uploaded $identifier to Filebase")
-                    // Extract IPFS CID from response headers if available
-                    val ipfsCid = response.header("x-amz-meta-cid")
-                    Log.d(TAG, "IPFS CID: $ipfsCid")
-                    listener?.saveSuccessful(hash, "https://ipfs.filebase.io/ipfs/$ipfsCid")
-                } else {
-                    val error = IOException("Upload failed: ${response.code} ${response.message}")
-                    Log.e(TAG, "Upload failed", error)
-                    listener?.saveFailed(error)
+            val uri = if (length > partSize) {
+                uploadMultipart(objectKey, contentType, length, partSize, open)
+            } else {
+                val request = signedRequest(
+                    "PUT", objectKey, emptyList(), UNSIGNED_PAYLOAD,
+                    StreamRequestBody(contentType.toMediaType(), length, open),
+                )
+                executeS3(request).use { response ->
+                    if (!response.isSuccessful) throw IOException("Upload failed: ${response.code} ${response.message}")
+                    gatewayUri(response)
                 }
             }
+            Log.d(TAG, "Successfully uploaded $identifier to Filebase")
+            listener?.saveSuccessful(hash, uri)
         } catch (e: Exception) {
             Log.e(TAG, "Error uploading file to Filebase", e)
             listener?.saveFailed(e)
         }
     }
 
+    /** Gateway URI for the CID Filebase reports for an uploaded object. */
+    private fun gatewayUri(response: Response): String {
+        // Extract IPFS CID from response headers if available
+        val ipfsCid = response.header("x-amz-meta-cid")
+        Log.d(TAG, "IPFS CID: $ipfsCid")
+        return "https://ipfs.filebase.io/ipfs/$ipfsCid"
+    }
+
+    /** Part size for an object of [length]: the configured size, grown to stay within S3's part limit. */
+    private fun partSizeFor(length: Long): Long {
+        val configured = maxOf(multipartPartSize, MIN_MULTIPART_PART_SIZE)
+        return maxOf(configured, (length + MAX_MULTIPART_PARTS - 1) / MAX_MULTIPART_PARTS)
+    }
+
+    /**
+     * S3 multipart upload of [length] bytes from [open].
+     *
+     * When the source can seek (a file, or the [android.os.ParcelFileDescriptor] behind most
+     * content Uris), up to [multipartParallelism] parts are sent at once, each from its own
+     * stream positioned at its offset. Any other source is read once, front to back, and its
+     * parts are sent one after another; see [SequentialSource]. Parts that fail are retried
+     * a few times. Finished parts are kept in a [MultipartUploadState] under
+     * [multipartStateDir], so when the upload fails anyway, the next upload of the same
+     * object resumes with the missing parts instead of starting over.
+     */
+    private fun uploadMultipart(
+        objectKey: String,
+        contentType: String,
+        length: Long,
+        partSize: Long,
+        open: () -> InputStream,
+    ): String {
+        val stateFile = multipartStateDir?.let {
+            MultipartUploadState.pruneStale(it)
+            MultipartUploadState.fileFor(it, bucketName, objectKey, length, partSize)
+        }
+        var state = stateFile?.let { MultipartUploadState.load(it) }
+            ?.takeIf { it.length == length && it.partSize == partSize }
+        if (state != null) {
+            Log.d(TAG, "Resuming upload of $objectKey: ${state.missingParts().size} of ${state.partCount} parts left")
+        }
+
+        for (attempt in 1..2) {
+            val current = state ?: MultipartUploadState.begin(
+                stateFile, initiateMultipart(objectKey, contentType), length, partSize,
+            )
+            try {
+                uploadParts(objectKey, current, open)
+                val uri = completeMultipart(objectKey, current)
+                current.discard()
+                return uri
+            } catch (e: NoSuchUploadException) {
+                // S3 no longer knows the upload (expired or aborted): start a new one once.
+                Log.w(TAG, "Upload ${current.uploadId} of $objectKey is gone; starting over")
+                current.discard()
+                state = null
+                if (attempt == 2) throw e
+            }
+        }
+        throw IllegalStateException("unreachable")
+    }
+
+    private class NoSuchUploadException(message: String) : IOException(message)
+
+    private fun initiateMultipart(objectKey: String, contentType: String): String {
+        val request = signedRequest(
+            "POST", objectKey, listOf("uploads" to ""), sha256(""),
+            ByteArray(0).toRequestBody(null), contentType,
+        )
+        executeS3(request).use { response ->
+            val body = response.body?.string().orEmpty()
+            if (!response.isSuccessful) throw IOException("Initiate multipart failed: ${response.code} ${response.message}")
+            return UPLOAD_ID.find(body)?.groupValues?.get(1)
+                ?: throw IOException("No UploadId in initiate multipart response")
+        }
+    }
+
+    private fun uploadParts(objectKey: String, state: MultipartUploadState, open: () -> InputStream) {
+        val missing = state.missingParts()
+        if (missing.isEmpty()) return
+
+        if (!isSeekable(open)) {
+            SequentialSource(open).use { source ->
+                for (part in missing) {
+                    uploadPart(objectKey, state, part) { offset, size -> SequentialPartBody(source, offset, size) }
+                }
+            }
+            return
+        }
+
+        val executor = Executors.newFixedThreadPool(minOf(maxOf(multipartParallelism, 1), missing.size))
+        try {
+            val futures = missing.map { part ->
+                executor.submit<Unit> {
+                    uploadPart(objectKey, state, part) { offset, size ->
+                        StreamRequestBody(null, size) { open().also { it.seekTo(offset) } }
+                    }
+                }
+            }
+            for (future in futures) {
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause as? IOException ?: IOException(e.cause)
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /** True when the streams [open] hands back are files whose channel can be positioned. */
+    private fun isSeekable(open: () -> InputStream): Boolean = open().use { input ->
+        val channel = (input as? FileInputStream)?.channel ?: return false
+        try {
+            channel.position(channel.position())
+            true
+        } catch (e: IOException) {
+            // A pipe: the file descriptor of a streamed content Uri.
+            false
+        }
+    }
+
+    private fun uploadPart(
+        objectKey: String,
+        state: MultipartUploadState,
+        part: Int,
+        body: (offset: Long, size: Long) -> RequestBody,
+    ) {
+        val offset = state.offsetOf(part)
+        val size = state.sizeOf(part)
+        val query = listOf("partNumber" to part.toString(), "uploadId" to state.uploadId)
+        var lastError: IOException? = null
+
+        for (attempt in 1..PART_ATTEMPTS) {
+            if (Thread.currentThread().isInterrupted) break
+            try {
+                executeS3(signedRequest("PUT", objectKey, query, UNSIGNED_PAYLOAD, body(offset, size))).use { response ->
+                    if (response.code == 404) throw NoSuchUploadException("No such upload ${state.uploadId}")
+                    if (!response.isSuccessful) throw IOException("Part $part failed: ${response.code} ${response.message}")
+                    val etag = response.header("ETag") ?: throw IOException("Part $part stored without an ETag")
+                    state.partStored(part, etag)
+                    return
+                }
+            } catch (e: NoSuchUploadException) {
+                throw e
+            } catch (e: IOException) {
+                Log.w(TAG, "Part $part of $objectKey failed (attempt $attempt): ${e.message}")
+                lastError = e
+            }
+        }
+        throw lastError ?: IOException("Part $part of $objectKey interrupted")
+    }
+
+    private fun completeMultipart(objectKey: String, state: MultipartUploadState): String {
+        val xml = buildString {
+            append("<CompleteMultipartUpload>")
+            for ((part, etag) in state.completedParts()) {
+                append("<Part><PartNumber>").append(part).append("</PartNumber>")
+                append("<ETag>").append(etag.replace("&", "&amp;").replace("<", "&lt;")).append("</ETag></Part>")
+            }
+            append("</CompleteMultipartUpload>")
+        }.toByteArray()
+        val request = signedRequest(
+            "POST", objectKey, listOf("uploadId" to state.uploadId), sha256(xml),
+            xml.toRequestBody("application/xml".toMediaType()),
+        )
+        executeS3(request).use { response ->
+            if (response.code == 404) throw NoSuchUploadException("No such upload ${state.uploadId}")
+            // S3 can report a failed completion inside a 200 response.
+            val body = response.peekBody(Long.MAX_VALUE).string()
+            if (!response.isSuccessful || body.contains("<Error>")) {
+                throw IOException("Complete multipart failed: ${response.code} ${response.message}")
+            }
+            return gatewayUri(response)
+        }
+    }
+
+    /**
+     * A SigV4-signed request for `/bucket/objectKey` with [query] parameters. [payloadHash] is
+     * the hex SHA-256 of the body, or [UNSIGNED_PAYLOAD].
+     */
+    private fun signedRequest(
+        method: String,
+        objectKey: String,
+        query: List<Pair<String, String>>,
+        payloadHash: String,
+        body: RequestBody,
+        contentType: String? = null,
+    ): Request {
+        val timestamp = getTimestamp()
+        val dateStamp = getDateStamp()
+        val host = endpoint.removePrefix("https://")
+        val canonicalQuery = query
+            .map { (k, v) -> awsEncode(k) to awsEncode(v) }
+            .sortedWith(compareBy({ it.first }, { it.second }))
+            .joinToString("&") { (k, v) -> "$k=$v" }
+
+        // Create canonical request
+        val canonicalHeaders = "host:$host\n" +
+                "x-amz-content-sha256:$payloadHash\n" +
+                "x-amz-date:$timestamp\n"
+
+        val signedHeaders = "host;x-amz-content-sha256;x-amz-date"
+        val canonicalRequest = "$method\n" +
+                "/$bucketName/$objectKey\n" +
+                "$canonicalQuery\n" +
+                canonicalHeaders +
+                "\n" +
+                signedHeaders +
+                "\n" +
+                payloadHash
+
+        // Create string to sign
+        val credentialScope = "$dateStamp/$region/$SERVICE/aws4_request"
+        val stringToSign = "$ALGORITHM\n" +
+                timestamp + "\n" +
+                credentialScope + "\n" +
+                sha256(canonicalRequest)
+
+        // Calculate signature
+        val signature = calculateSignature(secretKey, dateStamp, region, SERVICE, stringToSign)
+
+        // Create authorization header
+        val authorization = "$ALGORITHM Credential=$accessKey/$credentialScope, " +
+                "SignedHeaders=$signedHeaders, Signature=$signature"
+
+        val url = "$endpoint/$bucketName/$objectKey" + if (canonicalQuery.isEmpty()) "" else "?$canonicalQuery"
+        val builder = Request.Builder()
+            .url(url)
+            .method(method, body)
+            .addHeader("Host", host)
+            .addHeader("x-amz-content-sha256", payloadHash)
+            .addHeader("x-amz-date", timestamp)
+            .addHeader("Authorization", authorization)
+        (contentType ?: body.contentType()?.toString())?.let { builder.addHeader("Content-Type", it) }
+        return builder.build()
+    }
+
+    /** Single seam for every S3 call, so tests can answer them without a socket. */
+    protected open fun executeS3(request: Request): Response = client.newCall(request).execute()
+
+    /** URI-encode per SigV4: unreserved characters stay, everything else is `%XX`. */
+    private fun awsEncode(value: String): String =
+        URLEncoder.encode(value, "UTF-8").replace("+", "%20").replace("*", "%2A").replace("%7E", "~")
+
     private fun getTimestamp(): String {
         val sdf = SimpleDateFormat(DATE_FORMAT, Locale.US)
         sdf.timeZone = TimeZone.getTimeZone("UTC")
@@ -509,20 +805,6 @@ open class FilebaseStorageProvider(
         return sdf.format(Date())
     }
 
-    /** SigV4 payload digest over a source that may be far larger than the heap. */
-    private fun streamingSha256(open: () -> InputStream): String {
-        val digest = MessageDigest.getInstance("SHA-256")
-        open().use { input ->
-            val buffer = ByteArray(64 * 1024)
-            while (true) {
-                val read = input.read(buffer)
-                if (read < 0) break
-                digest.update(buffer, 0, read)
-            }
-        }
-        return digest.digest().joinToString("") { "%02x".format(it) }
-    }
-
     private fun sha256(data: String): String {
         return sha256(data.toByteArray())
     }
@@ -723,3 +1005,22 @@ open class FilebaseStorageProvider(
         }.start()
     }
 }
+
+/** Move a file stream's channel to [offset]. */
+private fun InputStream.seekTo(offset: Long) {
+    (this as FileInputStream).channel.position(offset)
+}
+
+/** Skip exactly [count] bytes forward. */
+private fun InputStream.skipFully(count: Long) {
+    var remaining = count
+    while (remaining > 0) {
+        val skipped = skip(remaining)
+        if (skipped > 0) {
+            remaining -= skipped
+        } else {
+            if (read() < 0) throw EOFException("Source ended $remaining bytes before offset $count")
+            remaining--
+        }
+    }
+}
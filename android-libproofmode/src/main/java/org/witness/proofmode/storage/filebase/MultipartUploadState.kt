@@ -0,0 +1,119 @@
+package org.witness.proofmode.storage.filebase
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.TreeMap
+import org.json.JSONObject
+
+/**
+ * Progress of one S3 multipart upload: its upload id, how the object is cut into parts, and
+ * the ETag of each part that has been stored.
+ *
+ * With a [file], the state is written there after every part (temp file + rename), so an
+ * upload cut off by a dropped connection or process death resumes at the first missing part
+ * the next time the same object is uploaded. The file is named after the bucket, object key,
+ * length and part size. The object key starts with the media hash, so a changed source gets
+ * a new name instead of resuming into the wrong upload. Without a [file] the state lives only
+ * as long as the upload call.
+ */
+internal class MultipartUploadState private constructor(
+    private val file: File?,
+    val uploadId: String,
+    val length: Long,
+    val partSize: Long,
+    private val etags: TreeMap<Int, String>,
+) {
+
+    companion object {
+        private const val TAG = "MultipartUploadState"
+
+        /** S3 keeps unfinished uploads for a while, but not forever; older state is dropped. */
+        private const val STALE_AFTER_MS = 7 * 24 * 60 * 60 * 1000L
+
+        /** Where the state of uploading [objectKey] in this shape lives under [dir]. */
+        fun fileFor(dir: File, bucket: String, objectKey: String, length: Long, partSize: Long): File {
+            val digest = MessageDigest.getInstance("SHA-256")
+                .digest("$bucket/$objectKey|$length|$partSize".toByteArray())
+            return File(dir, digest.joinToString("") { "%02x".format(it) } + ".json")
+        }
+
+        /** Saved state in [file], or null when there is none or it is unreadable. */
+        fun load(file: File): MultipartUploadState? {
+            if (!file.exists()) return null
+            if (file.lastModified() < System.currentTimeMillis() - STALE_AFTER_MS) {
+                file.delete()
+                return null
+            }
+            return try {
+                val json = JSONObject(file.readText())
+                val parts = json.getJSONObject("parts")
+                val etags = TreeMap<Int, String>()
+                parts.keys().forEach { etags[it.toInt()] = parts.getString(it) }
+                MultipartUploadState(file, json.getString("uploadId"), json.getLong("length"), json.getLong("partSize"), etags)
+            } catch (e: Exception) {
+                // IOException, JSONException or NumberFormatException: a torn or foreign file.
+                Log.w(TAG, "Dropping unreadable multipart state ${file.name}", e)
+                file.delete()
+                null
+            }
+        }
+
+        /** State for a freshly initiated upload, saved to [file] right away. */
+        fun begin(file: File?, uploadId: String, length: Long, partSize: Long): MultipartUploadState =
+            MultipartUploadState(file, uploadId, length, partSize, TreeMap()).also { it.save() }
+
+        /** Remove state files under [dir] that are too old to resume. */
+        fun pruneStale(dir: File) {
+            val cutoff = System.currentTimeMillis() - STALE_AFTER_MS
+            dir.listFiles()?.forEach { if (it.lastModified() < cutoff) it.delete() }
+        }
+    }
+
+    val partCount: Int
+        get() = ((length + partSize - 1) / partSize).toInt()
+
+    fun offsetOf(part: Int): Long = (part - 1) * partSize
+
+    fun sizeOf(part: Int): Long = minOf(partSize, length - offsetOf(part))
+
+    /** Part numbers, from 1, that are not stored yet. */
+    @Synchronized
+    fun missingParts(): List<Int> = (1..partCount).filter { it !in etags }
+
+    /** Stored parts in order, as part number to ETag. */
+    @Synchronized
+    fun completedParts(): Map<Int, String> = TreeMap(etags)
+
+    @Synchronized
+    fun partStored(part: Int, etag: String) {
+        etags[part] = etag
+        save()
+    }
+
+    fun discard() {
+        file?.delete()
+    }
+
+    @Synchronized
+    private fun save() {
+        val target = file ?: return
+        val parts = JSONObject()
+        etags.forEach { (part, etag) -> parts.put(part.toString(), etag) }
+        val json = JSONObject()
+            .put("uploadId", uploadId)
+            .put("length", length)
+            .put("partSize", partSize)
+            .put("parts", parts)
+        try {
+            target.parentFile?.mkdirs()
+            val tmp = File(target.parentFile, target.name + ".tmp")
+            tmp.writeText(json.toString())
+            if (!tmp.renameTo(target)) throw IOException("rename failed")
+        } catch (e: IOException) {
+            // The upload itself goes on; only resuming it later is lost.
+            Log.w(TAG, "Could not save multipart state ${target.name}", e)
+        }
+    }
+}
@@ -6,4 +6,6 @@ data class MembershipStamp(
     val uploadMode: FilebaseConfig.UploadMode,
     val mediaInclusion: MediaInclusion,
     val basenames: Set<String>,
+    /** [org.witness.proofmode.storage.filebase.FilebaseStorageProvider.uploadTarget] of the upload. */
+    val target: String,
 )
@@ -0,0 +1,140 @@
+package org.witness.proofmode.storage.proofset
+
+import android.content.Context
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import org.witness.proofmode.storage.filebase.FilebaseConfig
+import org.witness.proofmode.util.AppendOnlyLog
+
+/**
+ * On-disk record of the last [MembershipStamp] each proof set was uploaded with, so a cold
+ * start does not upload again a proof set that is already pinned.
+ *
+ * The store is a tab-separated [AppendOnlyLog], one line per stamp:
+ * `hash  mode  inclusion  basenames  target`. The last line for a hash wins. Basenames are
+ * joined with `/`, and a leading proof hash is written as `*`, so most lines hold only
+ * suffixes such as `*.proof.csv`. The log is replayed on first use, and a line that does not
+ * parse is skipped; that includes lines written before the target was recorded, so those
+ * proof sets are uploaded once more. A torn line that still parses ends in a shorter target
+ * than was uploaded to, so the worst case is one extra upload, never a missed one. The log
+ * is rewritten to one line per hash when it has grown to more than twice that.
+ */
+class MembershipStampStore(file: File) {
+
+    companion object {
+        private const val TAG = "MembershipStampStore"
+
+        const val STORE_FILE = "proofset-membership.log"
+
+        private const val MIN_COMPACT_LINES = 256
+        private const val HASH_MARK = "*"
+        private const val NAME_SEPARATOR = "/"
+
+        private val sInstances = HashMap<String, MembershipStampStore>()
+
+        /** The shared store in [context]'s files folder. */
+        @JvmStatic
+        fun forContext(context: Context): MembershipStampStore {
+            val storeFile = File(context.filesDir, STORE_FILE)
+            synchronized(sInstances) {
+                return sInstances.getOrPut(storeFile.path) { MembershipStampStore(storeFile) }
+            }
+        }
+
+        /** Forget every store, on disk as well as in memory. */
+        internal fun clearForTesting() {
+            synchronized(sInstances) {
+                sInstances.values.forEach { it.clear() }
+                sInstances.clear()
+            }
+        }
+    }
+
+    private val stamps = HashMap<String, MembershipStamp>()
+    private val log = AppendOnlyLog(file)
+    private var loaded = false
+
+    @Synchronized
+    operator fun get(hash: String): MembershipStamp? {
+        load()
+        return stamps[hash]
+    }
+
+    /** Record that [hash] was uploaded as [stamp]. Nothing is written if it already was. */
+    @Synchronized
+    fun put(hash: String, stamp: MembershipStamp) {
+        load()
+        if (stamps.put(hash, stamp) == stamp) return
+        try {
+            log.append(line(hash, stamp))
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not persist membership stamp for $hash", e)
+        }
+        maybeCompact()
+    }
+
+    /** Number of proof sets with a stamp. */
+    @Synchronized
+    fun size(): Int {
+        load()
+        return stamps.size
+    }
+
+    @Synchronized
+    private fun clear() {
+        stamps.clear()
+        loaded = true
+        log.delete()
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+
+        try {
+            log.replay { line ->
+                parse(line)?.let { (hash, stamp) -> stamps[hash] = stamp }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not read membership stamps, starting empty", e)
+            stamps.clear()
+        }
+        maybeCompact()
+    }
+
+    private fun parse(line: String): Pair<String, MembershipStamp>? {
+        val f = line.split('\t')
+        if (f.size != 5 || f[0].isEmpty()) return null
+        val hash = f[0]
+        return try {
+            val names = if (f[3].isEmpty()) emptySet() else f[3].split(NAME_SEPARATOR).mapTo(LinkedHashSet()) {
+                if (it.startsWith(HASH_MARK)) hash + it.substring(HASH_MARK.length) else it
+            }
+            hash to MembershipStamp(
+                FilebaseConfig.UploadMode.valueOf(f[1]),
+                MediaInclusion.valueOf(f[2]),
+                names,
+                f[4],
+            )
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+    }
+
+    private fun maybeCompact() {
+        if (!log.shouldCompact(stamps.size, MIN_COMPACT_LINES)) return
+        try {
+            log.rewrite(stamps.asSequence().map { (hash, stamp) -> line(hash, stamp) })
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not compact membership stamps", e)
+        }
+    }
+
+    private fun line(hash: String, stamp: MembershipStamp): String {
+        val names = stamp.basenames.sorted().joinToString(NAME_SEPARATOR) {
+            if (it.startsWith(hash)) HASH_MARK + it.substring(hash.length) else it
+        }
+        return "$hash\t${stamp.uploadMode.name}\t${stamp.mediaInclusion.name}\t$names\t${stamp.target}"
+    }
+}
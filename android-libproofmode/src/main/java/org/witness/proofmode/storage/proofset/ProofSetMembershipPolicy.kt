@@ -5,6 +5,7 @@ import android.content.SharedPreferences
 import android.net.Uri
 import android.preference.PreferenceManager
 import org.witness.proofmode.ProofMode
+import org.witness.proofmode.service.ProofRecordChain
 
 /**
  * First-pass Filebase directory membership for proof sets.
@@ -35,6 +36,9 @@ object ProofSetMembershipPolicy {
             val providerDefault: Boolean,
         ) : ArtifactRule()
 
+        /** Included in the upload set whenever it is on disk. Never blocks first-pass. */
+        data class Optional(val matches: (proofSetHash: String, basename: String) -> Boolean) : ArtifactRule()
+
         /** Never a manifest member (any basename matching [matches]). */
         data class AlwaysExclude(val matches: (String) -> Boolean) : ArtifactRule()
     }
@@ -46,6 +50,7 @@ object ProofSetMembershipPolicy {
     //            GlobalDefault: The default value for the global preference.
     //            ProviderPrefKey: The key for the provider-specific preference that controls whether this artifact type is included.
     //            ProviderDefault: The default value for the provider-specific preference.
+    // Optional: Included in the upload set whenever it is on disk. Never blocks first-pass.
     // AlwaysExclude: Never a manifest member (any basename matching [matches]).
     private val RULES: List<ArtifactRule> = listOf(
         ArtifactRule.RequiredCore(ProofMode.PROOF_FILE_TAG),
@@ -67,6 +72,11 @@ object ProofSetMembershipPolicy {
             providerPrefKey = ProofMode.PREF_OPTION_NOTARY_NOSTR,
             providerDefault = ProofMode.PREF_OPTION_NOTARY_NOSTR_DEFAULT,
         ),
+        // Incremental proof records (.proof.rNNNNNN.json) and their signatures
+        ArtifactRule.Optional { hash, name ->
+            ProofRecordChain.isRecord(hash, name.removeSuffix(ProofMode.OPENPGP_FILE_TAG))
+        },
+        ArtifactRule.AlwaysExclude { it.endsWith(ProofMode.PROOF_RECORD_HEAD_TAG) },
         ArtifactRule.AlwaysExclude { it.endsWith(".uri") },
         ArtifactRule.AlwaysExclude { it.endsWith(".ipfs-cids.json") },
         ArtifactRule.AlwaysExclude { it.contains(".ipfs-cids.late-") && it.endsWith(".json") },
@@ -82,6 +92,9 @@ object ProofSetMembershipPolicy {
     private val prefGatedRules: List<ArtifactRule.PrefGated> =
         RULES.filterIsInstance<ArtifactRule.PrefGated>()
 
+    private val optionalRules: List<ArtifactRule.Optional> =
+        RULES.filterIsInstance<ArtifactRule.Optional>()
+
     private val excludeRules: List<ArtifactRule.AlwaysExclude> =
         RULES.filterIsInstance<ArtifactRule.AlwaysExclude>()
 
@@ -94,6 +107,7 @@ object ProofSetMembershipPolicy {
     fun isManifestMember(context: Context, proofSetHash: String, basename: String): Boolean {
         if (isExcludedFromManifest(basename)) return false
         if (isCoreArtifact(proofSetHash, basename)) return true
+        if (optionalRules.any { it.matches(proofSetHash, basename) }) return true
         val prefs = PreferenceManager.getDefaultSharedPreferences(context)
         return prefGatedRules.any { rule ->
             basename == proofSetHash + rule.suffix && rule.isEnabled(prefs)
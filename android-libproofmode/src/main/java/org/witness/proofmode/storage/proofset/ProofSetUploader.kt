@@ -37,17 +37,21 @@ import org.witness.proofmode.storage.filebase.S3MembersUploadStrategy
  * - [processScope] is process-lifetime — do NOT cancel it from an Activity or ViewModel.
  *   It uses [SupervisorJob] so one hash's failure or cancellation does not cancel other hashes'
  *   in-flight work.
- * - [mutexByHash] and [lastUploadedMembershipByHash] are process-lifetime in-memory maps.
- *   They are NOT persisted across process death. Their entries are created on first use and
- *   are never removed (Mutex objects are cheap; entries accumulate proportionally to unique
- *   hashes seen in the process lifetime).
- * - Each [Mutex] in [mutexByHash] is owned by [withLock] only. There are no manual
+ * - Upload stamps live in a [MembershipStampStore] in the app's files folder, so they survive
+ *   process death: a cold-start flush of an already uploaded proof set takes the stamp-skip
+ *   path instead of uploading again.
+ * - [locksByHash] holds a [Mutex] only while some pipeline for that hash is running or
+ *   waiting. Each entry counts its users and is removed when the last one leaves, so idle
+ *   hashes cost nothing.
+ * - Each [Mutex] in [locksByHash] is owned by [withLock] only. There are no manual
  *   `lock()`/`unlock()` calls outside that block — [withLock] releases in its own `finally`.
  */
 object ProofSetUploader {
     private const val TAG = "ProofSetUploader"
 
-    private val lastUploadedMembershipByHash = ConcurrentHashMap<String, MembershipStamp>()
+    /** Set by the first call that has a [Context]; see [stamps]. */
+    @Volatile
+    private var stampStore: MembershipStampStore? = null
 
     /**
      * Process-lifetime [CoroutineScope] for per-hash upload pipelines.
@@ -57,14 +61,22 @@ object ProofSetUploader {
      */
     private var processScope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
 
+    /** A hash's [Mutex] and the number of pipelines holding or waiting for it. */
+    private class HashLock {
+        val mutex = Mutex()
+        var users = 0
+    }
+
     /**
-     * One [Mutex] per hash. Serializes the full pipeline (reassemble → stamp → upload →
-     * persist sidecars → advance stamp) for each hash independently.
+     * One [Mutex] per hash with work in flight. Serializes the full pipeline (reassemble →
+     * stamp → upload → persist sidecars → advance stamp) for each hash independently.
      *
      * A second caller whose coroutine suspends at [Mutex.withLock] will pick up fresh storage
      * state after acquiring, naturally handling membership changes that occurred mid-flight.
+     * Users are counted under [ConcurrentHashMap.compute], so an entry is never dropped while
+     * someone is waiting on it.
      */
-    private val mutexByHash = ConcurrentHashMap<String, Mutex>()
+    private val locksByHash = ConcurrentHashMap<String, HashLock>()
 
     /** Last enqueue args captured for unit tests (Composite media-source contract). */
     @Volatile
@@ -81,13 +93,26 @@ object ProofSetUploader {
     internal fun clearMapsForTesting(dispatcher: CoroutineDispatcher = Dispatchers.IO) {
         processScope.cancel()
         processScope = CoroutineScope(SupervisorJob() + dispatcher)
-        lastUploadedMembershipByHash.clear()
-        mutexByHash.clear()
+        MembershipStampStore.clearForTesting()
+        stampStore = null
+        locksByHash.clear()
         lastEnqueueForTesting = null
     }
 
-    /** Process-scoped stamp for post/pre-enqueue compare. Production-safe name. */
-    fun lastUploadedMembership(hash: String): MembershipStamp? = lastUploadedMembershipByHash[hash]
+    /**
+     * Stamp of [hash]'s last upload for post/pre-enqueue compare. Production-safe name. Reads
+     * the persisted stamps once any call has opened them; prefer the [Context] overload.
+     */
+    fun lastUploadedMembership(hash: String): MembershipStamp? = stampStore?.get(hash)
+
+    /** [lastUploadedMembership], opening the persisted stamps first if need be. */
+    fun lastUploadedMembership(context: Context, hash: String): MembershipStamp? = stamps(context)[hash]
+
+    /** Number of hashes with a [Mutex] in [locksByHash]; for tests. */
+    internal fun lockCountForTesting(): Int = locksByHash.size
+
+    private fun stamps(context: Context): MembershipStampStore =
+        stampStore ?: MembershipStampStore.forContext(context).also { stampStore = it }
 
     /**
      * Shared entry for Composite + Share.
@@ -128,11 +153,11 @@ object ProofSetUploader {
             return false
         }
 
+        val stamps = stamps(context)
         processScope.launch {
-            val mutex = mutexByHash.computeIfAbsent(hash) { Mutex() }
             // Mutex held for the full pipeline: acquire → reassemble fresh → stamp compare →
             // sync Strategy upload → advance stamp on Success. withLock releases in finally.
-            mutex.withLock {
+            withHashLock(hash) {
                 // Re-resolve media under the lock so a rebind while we waited takes effect. The
                 // handle is a length + stream opener; media bytes are never held here.
                 val media = resolveMedia(mediaSource, mediaInclusion)
@@ -146,7 +171,7 @@ object ProofSetUploader {
                     .filter { ProofSetMembershipPolicy.isManifestMember(context, hash, it) }
                     .toSet()
                 val candidate = buildMembershipStamp(
-                    hash, mode, mediaInclusion, memberBasenames, resolvedMime,
+                    hash, mode, mediaInclusion, memberBasenames, resolvedMime, filebase.uploadTarget(mode),
                 )
 
                 // Stamp comparison:
@@ -154,7 +179,7 @@ object ProofSetUploader {
                 //            success with the existing Filebase URI sidecar (notifyStampSkipSuccess).
                 //            This is the "already done" path after a successful upload when tryFlush races again.
                 //   - Not equal: first-pass re-check → assemble → Strategy upload → advance stamp on success.
-                if (candidate == lastUploadedMembershipByHash[hash]) {
+                if (candidate == stamps[hash]) {
                     // Stamp-skip fail-closed: always assemble included members.
                     // INCLUDE_MEDIA: also fail-closed on media that no longer resolves.
                     // SIDECARS_ONLY: do not fail solely for missing media.
@@ -162,7 +187,7 @@ object ProofSetUploader {
                         listener?.saveFailed(
                             IllegalStateException("Stamp match but injected media missing or empty"),
                         )
-                        return@withLock
+                        return@withHashLock
                     }
                     val readable = assembleArtifacts(
                         context, hash, onDisk, media, primary, mediaInclusion,
@@ -171,10 +196,10 @@ object ProofSetUploader {
                         listener?.saveFailed(
                             IllegalStateException("Stamp match but proof set members unreadable"),
                         )
-                        return@withLock
+                        return@withHashLock
                     }
-                    notifyStampSkipSuccess(primary, hash, listener)
-                    return@withLock
+                    notifyStampSkipSuccess(primary, hash, mode, listener)
+                    return@withHashLock
                 }
 
                 // Re-check first-pass completeness on the post-acquire snapshot. Catches cases where
@@ -187,7 +212,7 @@ object ProofSetUploader {
                     listener?.saveFailed(
                         IllegalStateException("Proof set first-pass became incomplete before upload"),
                     )
-                    return@withLock
+                    return@withHashLock
                 }
 
                 // Build the upload set for the onDisk membership snapshot already taken under the
@@ -200,7 +225,7 @@ object ProofSetUploader {
                     listener?.saveFailed(
                         IllegalStateException("Failed to assemble proof set artifacts after mutex acquire"),
                     )
-                    return@withLock
+                    return@withHashLock
                 }
 
                 val mediaName = when (mediaInclusion) {
@@ -222,7 +247,7 @@ object ProofSetUploader {
                 }
                 when (outcome) {
                     is ProofSetUploadOutcome.Success -> {
-                        lastUploadedMembershipByHash[hash] = candidate
+                        stamps.put(hash, candidate)
                         listener?.saveSuccessful(hash, outcome.resultUri) // sole success notify
                     }
                     is ProofSetUploadOutcome.Failed -> {
@@ -235,6 +260,16 @@ object ProofSetUploader {
         return true
     }
 
+    /** Run [block] under [hash]'s [Mutex], dropping the entry once no one else needs it. */
+    private suspend fun withHashLock(hash: String, block: suspend () -> Unit) {
+        val lock = locksByHash.compute(hash) { _, l -> (l ?: HashLock()).also { it.users++ } }!!
+        try {
+            lock.mutex.withLock { block() }
+        } finally {
+            locksByHash.computeIfPresent(hash) { _, l -> if (--l.users == 0) null else l }
+        }
+    }
+
     /**
      * Pre-enqueue readiness gate. Runs synchronously on the caller's thread before scheduling
      * the coroutine. Returns `false` (without firing [StorageListener.saveFailed]) when the
@@ -320,23 +355,37 @@ object ProofSetUploader {
         mediaInclusion: MediaInclusion,
         memberBasenames: Set<String>,
         mediaMime: String?,
+        target: String,
     ): MembershipStamp {
         val basenames = when (mediaInclusion) {
             MediaInclusion.INCLUDE_MEDIA ->
                 memberBasenames + ProofSetMembershipPolicy.manifestLinkNameForMedia(hash, mediaMime)
             MediaInclusion.SIDECARS_ONLY -> memberBasenames
         }
-        return MembershipStamp(mode, mediaInclusion, basenames)
+        return MembershipStamp(mode, mediaInclusion, basenames, target)
     }
 
     private fun readSidecarText(primary: StorageProvider, hash: String, suffix: String): String? =
         primary.getInputStream(hash, hash + suffix)
             ?.bufferedReader()?.use { it.readText() }?.trim()
 
-    private fun notifyStampSkipSuccess(primary: StorageProvider, hash: String, listener: StorageListener?) {
+    /**
+     * Report the URI [mode]'s last upload wrote. An S3 upload never writes the IPFS sidecar,
+     * so one left by an earlier IPFS upload is not reported for it.
+     */
+    private fun notifyStampSkipSuccess(
+        primary: StorageProvider,
+        hash: String,
+        mode: FilebaseConfig.UploadMode,
+        listener: StorageListener?,
+    ) {
         if (listener == null) return
-        val uri = readSidecarText(primary, hash, FilebaseSidecarContract.FILEBASE_IPFS_URI_SUFFIX)
-            ?: readSidecarText(primary, hash, FilebaseSidecarContract.FILEBASE_IMAGE_URI_SUFFIX)
+        val ipfsUri = when (mode) {
+            FilebaseConfig.UploadMode.IPFS_DIRECTORY ->
+                readSidecarText(primary, hash, FilebaseSidecarContract.FILEBASE_IPFS_URI_SUFFIX)
+            else -> null
+        }
+        val uri = ipfsUri ?: readSidecarText(primary, hash, FilebaseSidecarContract.FILEBASE_IMAGE_URI_SUFFIX)
         listener.saveSuccessful(hash, uri)
     }
 }
@@ -0,0 +1,95 @@
+package org.witness.proofmode.util
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.RandomAccessFile
+
+/**
+ * A UTF-8 text file of one record per line that only grows, until its owner rewrites it
+ * to the live records.
+ *
+ * The owner keeps the records in memory: it [replay]s the file once on first use, [append]s
+ * a line per change, and calls [rewrite] when [lines] has grown well past what is live (see
+ * [shouldCompact]). A process killed mid-append leaves a torn last line; [replay] hands it
+ * over like any other, for the owner to skip when it does not parse, and then ends it so the
+ * next append starts on a line of its own. Lines are not fsync'd, since the page cache
+ * survives the process being killed, which is the case these logs are for.
+ *
+ * Not thread-safe; owners call it under their own lock. Errors are thrown for the owner to
+ * log in its own words.
+ */
+class AppendOnlyLog(val file: File) {
+
+    /** Lines in the file, as counted by [replay] and kept up by [append] and [rewrite]. */
+    var lines = 0
+        private set
+
+    /** Pass every line of the file to [onLine], in order. A missing file has none. */
+    @Throws(IOException::class)
+    fun replay(onLine: (String) -> Unit) {
+        lines = 0
+        if (!file.exists()) return
+
+        file.forEachLine(Charsets.UTF_8) { line ->
+            lines++
+            onLine(line)
+        }
+        // End a torn last line so the next append starts on a line of its own.
+        if (file.length() > 0 && RandomAccessFile(file, "r").use { it.seek(file.length() - 1); it.read() } != '\n'.code) {
+            file.appendText("\n", Charsets.UTF_8)
+        }
+    }
+
+    /** Add [line], which must not hold a line break. */
+    @Throws(IOException::class)
+    fun append(line: String) = append(listOf(line))
+
+    /** Add [records], one line each, in a single write. None may hold a line break. */
+    @Throws(IOException::class)
+    fun append(records: List<String>) {
+        if (records.isEmpty()) return
+        file.parentFile?.mkdirs()
+        val text = StringBuilder()
+        for (line in records) text.append(line).append('\n')
+        OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8).use { it.write(text.toString()) }
+        lines += records.size
+    }
+
+    /** Whether the file holds more than twice [live] lines, and at least [minLines]. */
+    fun shouldCompact(live: Int, minLines: Int): Boolean = lines >= minLines && lines > live * 2
+
+    /**
+     * Replace the file with [records], through a synced temporary file and a rename, so a
+     * crash leaves either the old file or the new one.
+     */
+    @Throws(IOException::class)
+    fun rewrite(records: Sequence<String>) {
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        try {
+            var count = 0
+            FileOutputStream(tmp).use { out ->
+                val writer = OutputStreamWriter(out, Charsets.UTF_8)
+                for (line in records) {
+                    writer.write(line)
+                    writer.write("\n")
+                    count++
+                }
+                writer.flush()
+                out.fd.sync()
+            }
+            if (!tmp.renameTo(file)) throw IOException("rename failed")
+            lines = count
+        } catch (e: IOException) {
+            tmp.delete()
+            throw e
+        }
+    }
+
+    /** Remove the file; the log starts empty. */
+    fun delete() {
+        file.delete()
+        lines = 0
+    }
+}
@@ -0,0 +1,282 @@
+package org.witness.proofmode
+
+import android.webkit.MimeTypeMap
+import org.bouncycastle.bcpg.ArmoredOutputStream
+import org.bouncycastle.bcpg.HashAlgorithmTags
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters
+import org.bouncycastle.openpgp.PGPEncryptedData
+import org.bouncycastle.openpgp.PGPKeyRingGenerator
+import org.bouncycastle.openpgp.PGPPublicKey
+import org.bouncycastle.openpgp.PGPSecretKey
+import org.bouncycastle.openpgp.PGPSignature
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyEncryptorBuilder
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.witness.proofmode.crypto.HashUtils
+import org.witness.proofmode.crypto.pgp.DetachedSignatureProcessor
+import org.witness.proofmode.crypto.pgp.PgpUtils
+import org.witness.proofmode.service.ProofModeV1Constants
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.InputStream
+import java.math.BigInteger
+import java.security.SecureRandom
+import java.util.Collections
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class ProofZipVerifierTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private class Media(val name: String, val bytes: ByteArray) {
+        val hash: String = HashUtils.getSHA256FromBytes(bytes)
+    }
+
+    /** Counts how often each entry is opened, to tell one pass over the media from two. */
+    private class CountingZipFile(file: File) : ZipFile(file) {
+        val opened: MutableMap<String, Int> = ConcurrentHashMap()
+
+        override fun getInputStream(entry: ZipEntry): InputStream {
+            opened.merge(entry.name, 1, Int::plus)
+            return super.getInputStream(entry)
+        }
+    }
+
+    @Before
+    fun setUp() {
+        shadowOf(MimeTypeMap.getSingleton()).addExtensionMimeTypeMapping("jpg", "image/jpeg")
+    }
+
+    private fun media(name: String, seed: Int) = Media(name, ByteArray(200_000) { ((it * 31 + seed) % 251).toByte() })
+
+    private fun sign(bytes: ByteArray, key: PGPSecretKey = signingKey): ByteArray {
+        val out = ByteArrayOutputStream()
+        DetachedSignatureProcessor.createSignature(key, ByteArrayInputStream(bytes), out, PASSPHRASE, true)
+        return out.toByteArray()
+    }
+
+    /** Entries of a bundle as ProofMode shares it, one proof per media file. */
+    private fun entries(vararg media: Media, json: Boolean = true): MutableMap<String, ByteArray> {
+        val entries = linkedMapOf(ProofMode.PUBKEY_FILE to publicKeyRing)
+        for (m in media) {
+            val csv = "${ProofModeV1Constants.FILE_PATH},File Hash SHA256\n/storage/emulated/0/DCIM/${m.name},${m.hash}\n"
+                .toByteArray()
+            entries[m.name] = m.bytes
+            entries[m.hash + ProofMode.OPENPGP_FILE_TAG] = sign(m.bytes)
+            entries[m.hash + ProofMode.PROOF_FILE_TAG] = csv
+            entries[m.hash + ProofMode.PROOF_FILE_TAG + ProofMode.OPENPGP_FILE_TAG] = sign(csv)
+            if (json) {
+                entries[m.hash + ProofMode.PROOF_FILE_JSON_TAG] = JSONObject()
+                    .put(ProofModeV1Constants.FILE_PATH, "/storage/emulated/0/DCIM/${m.name}")
+                    .toString().toByteArray()
+            }
+        }
+        return entries
+    }
+
+    private fun zip(entries: Map<String, ByteArray>): CountingZipFile {
+        val file = tmp.newFile()
+        ZipOutputStream(FileOutputStream(file)).use { zip ->
+            for ((name, bytes) in entries) {
+                zip.putNextEntry(ZipEntry(name))
+                zip.write(bytes)
+                zip.closeEntry()
+            }
+        }
+        return CountingZipFile(file)
+    }
+
+    private fun assertRejected(entries: Map<String, ByteArray>, reason: String, parallelism: Int = 1) {
+        zip(entries).use { zip ->
+            try {
+                ProofZipVerifier(zip, parallelism).verify()
+                fail("expected ProofException: $reason")
+            } catch (e: ProofException) {
+                assertEquals(reason, e.message)
+            }
+        }
+    }
+
+    @Test
+    fun jsonNamingTheMedia_verifiesInOnePass() {
+        val photo = media("photo.jpg", 1)
+
+        zip(entries(photo)).use { zip ->
+            assertTrue(ProofZipVerifier(zip, 1).verify())
+            assertEquals(1, zip.opened["photo.jpg"])
+        }
+    }
+
+    @Test
+    fun withoutJson_mediaIsReadTwice_andStillVerifies() {
+        val photo = media("photo.jpg", 1)
+
+        zip(entries(photo, json = false)).use { zip ->
+            assertTrue(ProofZipVerifier(zip, 1).verify())
+            assertEquals(2, zip.opened["photo.jpg"])
+        }
+    }
+
+    @Test
+    fun jsonNamingAnotherHash_fallsBackToTheContent() {
+        val photo = media("photo.jpg", 1)
+        val other = media("other.jpg", 2)
+        val entries = entries(photo, other)
+        // The proof json of other.jpg now claims to describe photo.jpg.
+        entries[other.hash + ProofMode.PROOF_FILE_JSON_TAG] = JSONObject()
+            .put(ProofModeV1Constants.FILE_PATH, "/storage/emulated/0/DCIM/photo.jpg")
+            .toString().toByteArray()
+        entries.remove(photo.hash + ProofMode.PROOF_FILE_JSON_TAG)
+
+        zip(entries).use { zip ->
+            assertTrue(ProofZipVerifier(zip, 1).verify())
+            assertEquals(2, zip.opened["photo.jpg"])
+        }
+    }
+
+    @Test
+    fun manyMedia_verifyInParallel_eachReadOnce() {
+        val photos = (1..6).map { media("photo$it.jpg", it) }
+
+        zip(entries(*photos.toTypedArray())).use { zip ->
+            assertTrue(ProofZipVerifier(zip, 3).verify())
+            photos.forEach { assertEquals(1, zip.opened[it.name]) }
+        }
+    }
+
+    @Test
+    fun oneBadMediaAmongMany_failsTheParallelVerify() {
+        val photos = (1..6).map { media("photo$it.jpg", it) }
+        val entries = entries(*photos.toTypedArray())
+        entries[photos[3].hash + ProofMode.OPENPGP_FILE_TAG] = sign(photos[0].bytes)
+
+        assertRejected(entries, "Media signature not valid", parallelism = 3)
+    }
+
+    @Test
+    fun tamperedMedia_hasNoProof() {
+        val photo = media("photo.jpg", 1)
+        val entries = entries(photo)
+        entries["photo.jpg"] = photo.bytes.copyOf().also { it[1000] = (it[1000] + 1).toByte() }
+
+        assertRejected(entries, "No media signature found")
+    }
+
+    @Test
+    fun mediaSignatureOfOtherBytes_isNotValid() {
+        val photo = media("photo.jpg", 1)
+        val entries = entries(photo)
+        entries[photo.hash + ProofMode.OPENPGP_FILE_TAG] = sign(media("other.jpg", 2).bytes)
+
+        assertRejected(entries, "Media signature not valid")
+        // The two-pass path checks the signature on its own.
+        entries.remove(photo.hash + ProofMode.PROOF_FILE_JSON_TAG)
+        assertRejected(entries, "Media signature not valid")
+    }
+
+    @Test
+    fun mediaSignedByAnotherKey_isNotValid() {
+        val photo = media("photo.jpg", 1)
+        val entries = entries(photo)
+        entries[photo.hash + ProofMode.OPENPGP_FILE_TAG] = sign(photo.bytes, otherKey)
+
+        assertRejected(entries, "Media signature not valid")
+    }
+
+    @Test
+    fun tamperedProof_isNotValid() {
+        val photo = media("photo.jpg", 1)
+        val entries = entries(photo)
+        entries[photo.hash + ProofMode.PROOF_FILE_TAG] = "${ProofModeV1Constants.FILE_PATH}\n/elsewhere.jpg\n".toByteArray()
+
+        assertRejected(entries, "Proof json signature not valid")
+    }
+
+    @Test
+    fun missingSidecars_areNamed() {
+        val photo = media("photo.jpg", 1)
+
+        assertRejected(entries(photo).apply { remove(photo.hash + ProofMode.OPENPGP_FILE_TAG) }, "No media signature found")
+        assertRejected(entries(photo).apply { remove(photo.hash + ProofMode.PROOF_FILE_TAG) }, "No proof json found")
+        assertRejected(
+            entries(photo).apply { remove(photo.hash + ProofMode.PROOF_FILE_TAG + ProofMode.OPENPGP_FILE_TAG) },
+            "No proof json signature found",
+        )
+        assertRejected(entries(photo).apply { remove(ProofMode.PUBKEY_FILE) }, "No public key pubkey.asc found")
+    }
+
+    @Test
+    fun bundleWithoutMedia_verifies() {
+        zip(Collections.singletonMap(ProofMode.PUBKEY_FILE, publicKeyRing)).use { zip ->
+            assertTrue(ProofZipVerifier(zip).verify())
+        }
+    }
+
+    @Test
+    fun initVerifier_checksTheBytesFedToIt() {
+        val bytes = media("photo.jpg", 1).bytes
+        val publicKey = PgpUtils.getPublicKey(ByteArrayInputStream(publicKeyRing))
+
+        val good = DetachedSignatureProcessor.initVerifier(ByteArrayInputStream(sign(bytes)), publicKey)
+        // Fed in pieces, as ProofZipVerifier does while hashing.
+        good.update(bytes, 0, 1000)
+        good.update(bytes, 1000, bytes.size - 1000)
+        assertTrue(good.verify())
+
+        val changed = DetachedSignatureProcessor.initVerifier(ByteArrayInputStream(sign(bytes)), publicKey)
+        changed.update(bytes, 0, bytes.size - 1)
+        assertFalse(changed.verify())
+
+        val foreign = DetachedSignatureProcessor.initVerifier(ByteArrayInputStream(sign(bytes, otherKey)), publicKey)
+        foreign.update(bytes)
+        assertFalse(foreign.verify())
+    }
+
+    companion object {
+        private val PASSPHRASE = "password".toCharArray()
+
+        // ProofMode makes 4096-bit keys; 1024 bits keep the tests quick and verify the same way.
+        private fun keyRing(userId: String): PGPKeyRingGenerator {
+            val generator = RSAKeyPairGenerator()
+            generator.init(RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), SecureRandom(), 1024, 12))
+            val pair = BcPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), Date())
+            val sha1 = BcPGPDigestCalculatorProvider().get(HashAlgorithmTags.SHA1)
+            return PGPKeyRingGenerator(
+                PGPSignature.POSITIVE_CERTIFICATION, pair, userId, sha1, null, null,
+                BcPGPContentSignerBuilder(pair.publicKey.algorithm, HashAlgorithmTags.SHA256),
+                BcPBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1).build(PASSPHRASE),
+            )
+        }
+
+        private val ring = keyRing("proofmode-test@example.org")
+        private val signingKey: PGPSecretKey = ring.generateSecretKeyRing().secretKey
+        private val otherKey: PGPSecretKey = keyRing("someone-else@example.org").generateSecretKeyRing().secretKey
+
+        private val publicKeyRing: ByteArray = ByteArrayOutputStream().also { out ->
+            ArmoredOutputStream(out).use { ring.generatePublicKeyRing().encode(it) }
+        }.toByteArray()
+    }
+}
@@ -0,0 +1,80 @@
+package org.witness.proofmode.c2pa
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class C2PAValidationCacheTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val hash = "abc123deadbeef"
+
+    private fun file() = File(tmp.root, C2PAValidationCache.STORE_FILE)
+
+    @Test
+    fun results_surviveARestart_andTheLastOneWins() {
+        C2PAValidationCache(file(), "v1").apply {
+            put(hash, ValidationState.INVALID)
+            put(hash, ValidationState.TRUSTED)
+        }
+
+        val reopened = C2PAValidationCache(file(), "v1")
+        assertEquals(ValidationState.TRUSTED, reopened[hash])
+        assertNull(reopened["other"])
+    }
+
+    @Test
+    fun newTrustMaterial_dropsOlderResults() {
+        C2PAValidationCache(file(), "v1").put(hash, ValidationState.VALID)
+
+        assertNull(C2PAValidationCache(file(), "v2")[hash])
+        assertNotEquals(
+            C2PAValidationCache.trustVersionOf(listOf("anchors".toByteArray(), "list".toByteArray())),
+            C2PAValidationCache.trustVersionOf(listOf("anchors2".toByteArray(), "list".toByteArray())),
+        )
+    }
+
+    @Test
+    fun invalidate_isPersisted() {
+        C2PAValidationCache(file(), "v1").apply {
+            put(hash, ValidationState.INVALID)
+            invalidate(hash)
+        }
+
+        assertNull(C2PAValidationCache(file(), "v1")[hash])
+    }
+
+    @Test
+    fun getOrValidate_validatesOnlyOnAMiss_andCachesNothingOnAThrow() {
+        val cache = C2PAValidationCache(file(), "v1")
+        var calls = 0
+
+        try {
+            cache.getOrValidate(hash) { calls++; throw IllegalStateException("native failure") }
+        } catch (expected: IllegalStateException) {
+        }
+        assertNull(cache[hash])
+
+        assertEquals(ValidationState.VALID, cache.getOrValidate(hash) { calls++; ValidationState.VALID })
+        assertEquals(ValidationState.VALID, cache.getOrValidate(hash) { calls++; ValidationState.INVALID })
+        assertEquals(2, calls)
+    }
+
+    @Test
+    fun cache_isBounded_onDiskAsWellAsInMemory() {
+        val cache = C2PAValidationCache(file(), "v1", maxEntries = 100)
+        for (i in 0 until 1000) cache.put("hash$i", ValidationState.VALID)
+
+        assertEquals(100, cache.size())
+        assertNull(cache["hash0"])
+        assertEquals(ValidationState.VALID, cache["hash999"])
+        assertTrue(file().readLines().size <= 300)
+        assertEquals(100, C2PAValidationCache(file(), "v1", maxEntries = 100).size())
+    }
+}
@@ -0,0 +1,37 @@
+package org.witness.proofmode.crypto
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.ByteArrayInputStream
+
+class MediaDigestTest {
+    private val media = ByteArray(200_000) { (it % 251).toByte() }
+
+    @Test
+    fun compute_sha256MatchesHashUtils() {
+        val digest = MediaDigest.compute(ByteArrayInputStream(media))
+        assertEquals(HashUtils.getSHA256FromBytes(media), digest.sha256)
+        assertEquals(media.size.toLong(), digest.size)
+    }
+
+    @Test
+    fun compute_keepsLeafBytesUnderLimit() {
+        val digest = MediaDigest.compute(ByteArrayInputStream(media), leafCaptureLimit = media.size.toLong())
+        assertArrayEquals(media, digest.leafBytes)
+    }
+
+    @Test
+    fun compute_dropsLeafBytesOverLimit() {
+        val digest = MediaDigest.compute(ByteArrayInputStream(media), leafCaptureLimit = 1024)
+        assertNull(digest.leafBytes)
+        assertEquals(HashUtils.getSHA256FromBytes(media), digest.sha256)
+    }
+
+    @Test
+    fun compute_withoutSignatureGenerator_hasNoSignature() {
+        val digest = MediaDigest.compute(ByteArrayInputStream(media))
+        assertNull(digest.pgpSignature)
+    }
+}
@@ -0,0 +1,132 @@
+package org.witness.proofmode.service
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class IngestSchedulerTest {
+
+    private fun blockWith(scheduler: IngestScheduler, gate: CountDownLatch, started: CountDownLatch) {
+        scheduler.submit("blocker", IngestPriority.CAPTURE) {
+            started.countDown()
+            gate.await()
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun queuedWork_startsInPriorityOrder() {
+        val scheduler = IngestScheduler(parallelism = 1)
+        val gate = CountDownLatch(1)
+        blockWith(scheduler, gate, CountDownLatch(1))
+
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val done = CountDownLatch(4)
+        for ((key, priority) in listOf(
+            "backfill" to IngestPriority.BACKFILL,
+            "resign" to IngestPriority.RESIGN,
+            "import" to IngestPriority.IMPORT,
+            "capture" to IngestPriority.CAPTURE,
+        )) {
+            scheduler.submit(key, priority) { order.add(key); done.countDown() }
+        }
+        assertEquals(1, scheduler.queueDepth(IngestPriority.BACKFILL))
+
+        gate.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("capture", "import", "resign", "backfill"), order)
+    }
+
+    @Test
+    fun fullQueue_rejectsExceptCapture() {
+        val scheduler = IngestScheduler(parallelism = 1, capacityPerClass = 1)
+        val gate = CountDownLatch(1)
+        blockWith(scheduler, gate, CountDownLatch(1))
+
+        assertTrue(scheduler.submit("a", IngestPriority.BACKFILL) {})
+        assertFalse(scheduler.submit("b", IngestPriority.BACKFILL) {})
+        assertTrue(scheduler.submit("c", IngestPriority.CAPTURE) {})
+        assertTrue(scheduler.submit("d", IngestPriority.CAPTURE) {})
+        assertEquals(1L, scheduler.stats()[IngestPriority.BACKFILL]!!.rejected)
+        gate.countDown()
+    }
+
+    @Test
+    fun cancel_dropsQueuedWork() {
+        val scheduler = IngestScheduler(parallelism = 1)
+        val gate = CountDownLatch(1)
+        blockWith(scheduler, gate, CountDownLatch(1))
+
+        var ran = false
+        scheduler.submit("content://media/1", IngestPriority.IMPORT) { ran = true }
+        assertTrue(scheduler.cancel("content://media/1"))
+        assertFalse(scheduler.isScheduled("content://media/1"))
+
+        val after = CountDownLatch(1)
+        scheduler.submit("after", IngestPriority.IMPORT) { after.countDown() }
+        gate.countDown()
+        assertTrue(after.await(5, TimeUnit.SECONDS))
+        assertFalse(ran)
+    }
+
+    @Test
+    fun duplicateKey_isCoalescedAndPromoted() {
+        val scheduler = IngestScheduler(parallelism = 1)
+        val gate = CountDownLatch(1)
+        blockWith(scheduler, gate, CountDownLatch(1))
+
+        scheduler.submit("same", IngestPriority.BACKFILL) {}
+        scheduler.submit("same", IngestPriority.CAPTURE) {}
+        assertEquals(0, scheduler.queueDepth(IngestPriority.BACKFILL))
+        assertEquals(1, scheduler.queueDepth(IngestPriority.CAPTURE))
+        gate.countDown()
+    }
+
+    @Test
+    fun duplicateKey_queuedWorkTakesTheNewerWork() {
+        val scheduler = IngestScheduler(parallelism = 1)
+        val gate = CountDownLatch(1)
+        blockWith(scheduler, gate, CountDownLatch(1))
+
+        val ran = Collections.synchronizedList(mutableListOf<String>())
+        val superseded = Collections.synchronizedList(mutableListOf<String>())
+        val done = CountDownLatch(1)
+        scheduler.submit("same", IngestPriority.BACKFILL, onSuperseded = { superseded.add("backfill") }) {
+            ran.add("backfill")
+        }
+        assertTrue(scheduler.submit("same", IngestPriority.CAPTURE) { ran.add("capture"); done.countDown() })
+        assertEquals(listOf("backfill"), superseded)
+
+        gate.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("capture"), ran)
+    }
+
+    @Test
+    fun duplicateKey_waitsBehindRunningOrMoreUrgentWork() {
+        val scheduler = IngestScheduler(parallelism = 2)
+        val gate = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val ran = Collections.synchronizedList(mutableListOf<String>())
+        val done = CountDownLatch(3)
+        scheduler.submit("same", IngestPriority.IMPORT) {
+            started.countDown()
+            gate.await()
+            ran.add("import")
+            done.countDown()
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+
+        assertTrue(scheduler.submit("same", IngestPriority.BACKFILL) { ran.add("backfill"); done.countDown() })
+        assertTrue(scheduler.submit("same", IngestPriority.RESIGN) { ran.add("resign"); done.countDown() })
+        assertEquals(1, scheduler.runningCount())
+
+        gate.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("import", "resign", "backfill"), ran)
+    }
+}
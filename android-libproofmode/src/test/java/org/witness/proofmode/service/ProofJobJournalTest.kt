@@ -0,0 +1,110 @@
+package org.witness.proofmode.service
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class ProofJobJournalTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun journalFile() = File(tmp.root, "jobs/journal.log")
+
+    @Test
+    fun reopen_restoresLastCompletedStage() {
+        val journal = ProofJobJournal(journalFile())
+        val id = journal.begin("file:///a.jpg", "image/jpeg", true, 1234L, IngestPriority.CAPTURE)
+        journal.record(id, ProofJobStage.HASHED, "file:///a.jpg", "aa", 10, 20)
+        journal.record(id, ProofJobStage.EMBEDDED, "file:///a.jpg", "bb", 11, 21)
+
+        val job = ProofJobJournal(journalFile()).incomplete().single()
+        assertEquals(ProofJobStage.EMBEDDED, job.stage)
+        assertEquals("bb", job.hash)
+        assertEquals(11L, job.size)
+        assertEquals(21L, job.lastModified)
+        assertEquals(1234L, job.createdAt)
+        assertEquals(IngestPriority.CAPTURE, job.priority)
+    }
+
+    @Test
+    fun terminalStages_areDroppedOnReplay() {
+        val journal = ProofJobJournal(journalFile())
+        val done = journal.begin("file:///a.jpg", null, false, null, IngestPriority.IMPORT)
+        val gone = journal.begin("file:///b.jpg", null, false, null, IngestPriority.IMPORT)
+        journal.record(done, ProofJobStage.NOTARIZED)
+        journal.record(gone, ProofJobStage.ABANDONED)
+
+        assertTrue(ProofJobJournal(journalFile()).incomplete().isEmpty())
+    }
+
+    @Test
+    fun tornLastLine_isIgnored() {
+        val journal = ProofJobJournal(journalFile())
+        val id = journal.begin("file:///a.jpg", null, false, null, IngestPriority.BACKFILL)
+        journalFile().appendText("{\"id\":\"$id\",\"stage\":\"SIDECA")
+
+        val job = ProofJobJournal(journalFile()).get(id)!!
+        assertEquals(ProofJobStage.STARTED, job.stage)
+        assertNull(job.hash)
+    }
+
+    @Test
+    fun tornLastLine_doesNotSwallowTheNextRecord() {
+        val id = ProofJobJournal(journalFile()).begin("file:///a.jpg", null, false, null, IngestPriority.BACKFILL)
+        journalFile().appendText("{\"id\":\"$id\",\"stage\":\"SIDECA")
+
+        ProofJobJournal(journalFile()).record(id, ProofJobStage.HASHED, null, "aa", 1, 2)
+
+        val job = ProofJobJournal(journalFile()).get(id)!!
+        assertEquals(ProofJobStage.HASHED, job.stage)
+        assertEquals("aa", job.hash)
+    }
+
+    @Test
+    fun resumeAttempts_surviveReopen() {
+        val journal = ProofJobJournal(journalFile())
+        val id = journal.begin("file:///a.jpg", null, false, null, IngestPriority.IMPORT)
+        assertEquals(1, journal.resumed(id))
+
+        assertEquals(2, ProofJobJournal(journalFile()).resumed(id))
+    }
+
+    @Test
+    fun compaction_keepsOnlyUnfinishedJobs() {
+        val journal = ProofJobJournal(journalFile(), compactAfter = 8)
+        val keep = journal.begin("file:///keep.jpg", null, false, null, IngestPriority.IMPORT)
+        journal.record(keep, ProofJobStage.HASHED, null, "cc", 1, 2)
+        repeat(4) {
+            val id = journal.begin("file:///$it.jpg", null, false, null, IngestPriority.IMPORT)
+            journal.record(id, ProofJobStage.NOTARIZED)
+        }
+
+        assertTrue(journalFile().readLines().size < 8)
+        val job = ProofJobJournal(journalFile()).incomplete().single()
+        assertEquals(keep, job.id)
+        assertEquals("cc", job.hash)
+    }
+
+    @Test
+    fun compaction_waitsWhileMostLinesAreLive() {
+        val journal = ProofJobJournal(journalFile(), compactAfter = 8)
+        val ids = (0 until 10).map { journal.begin("file:///$it.jpg", null, false, null, IngestPriority.IMPORT) }
+        assertEquals(10, journalFile().readLines().size)
+
+        ids.forEach { journal.record(it, ProofJobStage.HASHED, null, "h$it", 1, 2) }
+        assertEquals(20, journalFile().readLines().size)
+
+        journal.record(ids[0], ProofJobStage.EMBEDDED)
+        assertEquals(10, journalFile().readLines().size)
+        assertEquals(10, ProofJobJournal(journalFile()).incomplete().size)
+    }
+}
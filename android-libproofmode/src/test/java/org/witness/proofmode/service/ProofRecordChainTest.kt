@@ -0,0 +1,109 @@
+package org.witness.proofmode.service
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.witness.proofmode.ProofMode
+import org.witness.proofmode.storage.DefaultStorageProvider
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class ProofRecordChainTest {
+    private val hash = "feedface" + "0".repeat(56)
+    private lateinit var storage: DefaultStorageProvider
+    private val signed = ArrayList<String>()
+
+    private val base = linkedMapOf<String?, String?>(
+        ProofModeV1Constants.FILE_HASH_SHA_256 to hash,
+        ProofModeV1Constants.PROOF_GENERATED to "2026-01-01T00:00:00.000Z",
+        ProofModeV1Constants.LOCATION_LATITUDE to "1.0",
+    )
+
+    private fun sign(input: java.io.InputStream): ByteArray {
+        signed.add(String(input.readBytes()))
+        return "sig".toByteArray()
+    }
+
+    private fun read(identifier: String) =
+        storage.getInputStream(hash, identifier)!!.use { String(it.readBytes()) }
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        storage = DefaultStorageProvider(context)
+        storage.saveText(hash, hash + ProofMode.PROOF_FILE_JSON_TAG, JSONObject(base as Map<*, *>).toString(), null)
+    }
+
+    @Test
+    fun append_writesOnlyChangedPoints_signedAndChained() {
+        val chain = ProofRecordChain(storage, hash)
+        val regenerated = LinkedHashMap(base).apply {
+            put(ProofModeV1Constants.PROOF_GENERATED, "2026-02-01T00:00:00.000Z")
+        }
+
+        val first = chain.append(regenerated, ::sign)
+        assertEquals(ProofRecordChain.recordIdentifier(hash, 1), first)
+
+        val record = JSONObject(read(first))
+        assertEquals("2026-02-01T00:00:00.000Z", record.getString(ProofModeV1Constants.PROOF_GENERATED))
+        assertFalse(record.has(ProofModeV1Constants.LOCATION_LATITUDE))
+        assertEquals(hash + ProofMode.PROOF_FILE_JSON_TAG, record.getString(ProofModeV1Constants.PREVIOUS_PROOF_RECORD))
+        assertEquals(listOf(read(first)), signed)
+        assertEquals("sig", read(first + ProofMode.OPENPGP_FILE_TAG))
+    }
+
+    @Test
+    fun chain_verifies_andCurrentMergesHeadOverBase() {
+        val chain = ProofRecordChain(storage, hash)
+        for (i in 2..4) {
+            chain.append(LinkedHashMap(base).apply { put(ProofModeV1Constants.LOCATION_LATITUDE, "$i.0") }, ::sign)
+        }
+
+        assertEquals(3, chain.head().sequence)
+        assertTrue(chain.verify())
+        assertEquals("4.0", chain.current()[ProofModeV1Constants.LOCATION_LATITUDE])
+        assertEquals(hash, chain.current()[ProofModeV1Constants.FILE_HASH_SHA_256])
+
+        // The base proof itself is never rewritten.
+        assertEquals(JSONObject(base as Map<*, *>).toString() + "\n", read(hash + ProofMode.PROOF_FILE_JSON_TAG))
+    }
+
+    @Test
+    fun droppedPoint_isWrittenAsNull_andRemovedFromCurrent() {
+        val chain = ProofRecordChain(storage, hash)
+        val withoutLocation = LinkedHashMap(base).apply { remove(ProofModeV1Constants.LOCATION_LATITUDE) }
+
+        val first = chain.append(withoutLocation, ::sign)
+
+        assertTrue(JSONObject(read(first)).isNull(ProofModeV1Constants.LOCATION_LATITUDE))
+        assertFalse(chain.current().containsKey(ProofModeV1Constants.LOCATION_LATITUDE))
+        assertEquals(hash, chain.current()[ProofModeV1Constants.FILE_HASH_SHA_256])
+    }
+
+    @Test
+    fun tamperedRecord_breaksTheChain() {
+        val chain = ProofRecordChain(storage, hash)
+        chain.append(LinkedHashMap(base).apply { put(ProofModeV1Constants.NOTES, "one") }, ::sign)
+        chain.append(LinkedHashMap(base).apply { put(ProofModeV1Constants.NOTES, "two") }, ::sign)
+
+        val first = ProofRecordChain.recordIdentifier(hash, 1)
+        storage.saveBytes(hash, first, read(first).replace("one", "0ne").toByteArray(), null)
+
+        assertFalse(chain.verify())
+    }
+
+    @Test
+    fun isRecord_matchesRecordsOnly() {
+        assertTrue(ProofRecordChain.isRecord(hash, ProofRecordChain.recordIdentifier(hash, 12)))
+        assertFalse(ProofRecordChain.isRecord(hash, ProofRecordChain.recordIdentifier(hash, 12) + ProofMode.OPENPGP_FILE_TAG))
+        assertFalse(ProofRecordChain.isRecord(hash, hash + ProofMode.PROOF_FILE_JSON_TAG))
+    }
+}
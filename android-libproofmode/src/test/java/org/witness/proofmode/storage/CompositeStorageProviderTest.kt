@@ -25,6 +25,8 @@ import java.io.IOException
 import java.io.InputStream
 import java.util.ArrayList
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import kotlinx.coroutines.Dispatchers
 import org.witness.proofmode.storage.filebase.FilebaseConfig
@@ -276,6 +278,7 @@ class CompositeStorageProviderTest {
                 MediaInclusion.SIDECARS_ONLY,
                 coreBasenames(),
                 "image/jpeg",
+                sidecarsSecondary.uploadTarget(FilebaseConfig.UploadMode.IPFS_DIRECTORY),
             ),
             sidecarsStamp,
         )
@@ -297,6 +300,7 @@ class CompositeStorageProviderTest {
                 MediaInclusion.INCLUDE_MEDIA,
                 coreBasenames(),
                 "image/jpeg",
+                includeSecondary.uploadTarget(FilebaseConfig.UploadMode.IPFS_DIRECTORY),
             ),
             includeStamp,
         )
@@ -405,6 +409,53 @@ class CompositeStorageProviderTest {
         assertTrue(!primary.proofIdentifierExists(hash, "$tipId.uri"))
     }
 
+    @Test
+    fun nonDeferredSave_fansOutFromTheQueue_notTheCallingThread() {
+        val primary = AccumulatingStorageProvider()
+        val uploaded = CountDownLatch(1)
+        var uploadThread: Thread? = null
+        var inlineCalls = 0
+        val secondary = object : StorageProvider by FlakySecondary() {
+            override fun saveStream(hash: String?, identifier: String?, stream: InputStream?, listener: StorageListener?) {
+                uploadThread = Thread.currentThread()
+                assertEquals("{}", String(stream!!.readBytes()))
+                listener?.saveSuccessful(hash, "s3://bucket/$identifier")
+                uploaded.countDown()
+            }
+
+            override fun saveBytes(hash: String?, identifier: String?, data: ByteArray?, listener: StorageListener?) {
+                inlineCalls++
+            }
+        }
+        val composite = CompositeStorageProvider(primary, secondary, context, deferProofSetUpload = false)
+
+        composite.saveBytes(hash, "$hash.proof.json", "{}".toByteArray(), null)
+
+        assertTrue(uploaded.await(5, TimeUnit.SECONDS))
+        assertTrue(uploadThread != Thread.currentThread())
+        assertEquals(0, inlineCalls)
+    }
+
+    @Test
+    fun spooledWork_isUploadedWhenTheProviderIsCreated_notAtTheNextSave() {
+        val identifier = "$hash.proof.json"
+        File(context.filesDir, "secondary-queue/$hash/$identifier").apply {
+            parentFile!!.mkdirs()
+            writeText("{}")
+        }
+        val uploaded = CountDownLatch(1)
+        val secondary = object : StorageProvider by FlakySecondary() {
+            override fun saveStream(hash: String?, identifier: String?, stream: InputStream?, listener: StorageListener?) {
+                listener?.saveSuccessful(hash, "s3://bucket/$identifier")
+                uploaded.countDown()
+            }
+        }
+
+        CompositeStorageProvider(AccumulatingStorageProvider(), secondary, context, deferProofSetUpload = false)
+
+        assertTrue(uploaded.await(5, TimeUnit.SECONDS))
+    }
+
     @Test
     fun failedUpload_sameMembership_doesNotAutoRetry() {
         var failuresRemaining = 1
@@ -4,6 +4,7 @@ import android.content.Context
 import androidx.test.core.app.ApplicationProvider
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
@@ -66,4 +67,18 @@ class DefaultStorageProviderArtifactHookTest {
         provider.saveText(hash, "$hash.csv", "line", null)
         assertTrue(captured.isEmpty())
     }
+
+    @Test
+    fun batch_notifiesOnceCommitted() {
+        val hash = "testhash5"
+        provider.batch(hash) {
+            provider.saveText(hash, "$hash.proof.csv", "line", null)
+            provider.saveBytes(hash, "$hash.asc", byteArrayOf(6), null)
+            assertTrue(captured.isEmpty())
+            assertFalse(provider.proofExists(hash))
+            assertEquals("line\n", provider.getInputStream(hash, "$hash.proof.csv")!!.use { String(it.readBytes()) })
+        }
+        assertEquals(hash to "$hash.asc", captured.single())
+        assertTrue(provider.proofExists(hash))
+    }
 }
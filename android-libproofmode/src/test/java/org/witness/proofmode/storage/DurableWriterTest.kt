@@ -0,0 +1,213 @@
+package org.witness.proofmode.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class DurableWriterTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun root() = File(tmp.root, "proofmode")
+
+    private fun target(name: String) = File(root(), "aa/$name").apply { parentFile!!.mkdirs() }
+
+    private fun DurableWriter.text(target: File, text: String, append: Boolean = false, published: MutableList<File>? = null) =
+        write("aa", target, append, { f -> published?.add(f) }) { it.write(text.toByteArray()) }
+
+    private fun tempFiles() = File(root(), DurableWriter.TEMP_FOLDER).list()?.toList() ?: emptyList()
+
+    @Test
+    fun write_replacesAndAppends_leavingNoTempFiles() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+
+        writer.text(csv, "header\n")
+        writer.text(csv, "row\n", append = true)
+        assertEquals("header\nrow\n", csv.readText())
+
+        writer.text(csv, "new\n")
+        assertEquals("new\n", csv.readText())
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun failedWrite_leavesTheOldFileWhole() {
+        val writer = DurableWriter.forRoot(root())
+        val json = target("aa.proof.json")
+        writer.text(json, "{\"whole\":true}")
+
+        try {
+            writer.write("aa", json, false, null) {
+                it.write("{\"torn".toByteArray())
+                throw IOException("disk full")
+            }
+            fail()
+        } catch (e: IOException) {
+            // expected
+        }
+
+        assertEquals("{\"whole\":true}", json.readText())
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun batch_publishesEverythingAtCommit_andReadsSeePendingContent() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+        val asc = target("aa.proof.csv.asc")
+        val published = ArrayList<File>()
+
+        writer.batch("aa") {
+            writer.text(csv, "header\n", append = true, published = published)
+            writer.text(csv, "row\n", append = true, published = published)
+            writer.text(asc, "sig", published = published)
+
+            assertFalse(csv.exists())
+            assertEquals("header\nrow\n", writer.pending("aa", csv)!!.readText())
+            assertTrue(published.isEmpty())
+        }
+
+        assertEquals("header\nrow\n", csv.readText())
+        assertEquals("sig", asc.readText())
+        assertEquals(listOf(csv, asc), published)
+        assertNull(writer.pending("aa", csv))
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun failedCommit_neverLeavesTheProofCsvWithoutItsSidecars() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+        val json = target("aa.proof.json")
+        File(json, "in-the-way").apply { parentFile!!.mkdirs(); writeText("x") }
+
+        try {
+            writer.batch("aa") {
+                writer.text(csv, "header\n")
+                writer.text(json, "{}")
+            }
+            fail()
+        } catch (e: IOException) {
+            // the JSON could not be moved over the folder in its place
+        }
+
+        assertFalse(csv.exists())
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun writeFromAnotherThread_waitsForTheBatch_insteadOfJoiningIt() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+        val ots = target("aa.ots")
+        val published = ArrayList<File>()
+        val started = CountDownLatch(1)
+        val done = CountDownLatch(1)
+        val other = Thread {
+            started.countDown()
+            writer.text(ots, "ots")
+            done.countDown()
+        }
+
+        writer.batch("aa") {
+            writer.text(csv, "header\n", published = published)
+            other.start()
+            started.await()
+            assertFalse(done.await(200, TimeUnit.MILLISECONDS))
+            assertNull(writer.pending("aa", ots))
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+
+        assertEquals(listOf(csv), published)
+        assertEquals("ots", ots.readText())
+    }
+
+    @Test
+    fun concurrentAppends_keepEveryLine() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+
+        val threads = (0 until 4).map { t ->
+            Thread { repeat(25) { i -> writer.text(csv, "$t-$i\n", append = true) } }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(100, csv.readLines().toSet().size)
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun failedBatch_publishesNothing() {
+        val writer = DurableWriter.forRoot(root())
+        val csv = target("aa.proof.csv")
+
+        try {
+            writer.batch("aa") {
+                writer.text(csv, "header\n")
+                throw IllegalStateException("signing failed")
+            }
+        } catch (e: IllegalStateException) {
+            // expected
+        }
+
+        assertFalse(csv.exists())
+        assertTrue(tempFiles().isEmpty())
+    }
+
+    @Test
+    fun nestedBatches_commitOnceAtTheOutermost() {
+        val writer = DurableWriter.forRoot(root())
+        val ots = target("aa.ots")
+
+        writer.batch("aa") {
+            writer.batch("aa") { writer.text(ots, "ots") }
+            assertFalse(ots.exists())
+        }
+        assertEquals("ots", ots.readText())
+    }
+
+    @Test
+    fun openStream_publishesOnClose_andJoinsBatches() {
+        val writer = DurableWriter.forRoot(root())
+        val direct = target("aa.c2pa")
+        val batched = target("aa.cid")
+
+        val out = writer.openStream("aa", direct, null)
+        out.write("manifest".toByteArray())
+        assertFalse(direct.exists())
+        out.close()
+        assertEquals("manifest", direct.readText())
+
+        writer.batch("aa") {
+            writer.openStream("aa", batched, null).use { it.write("cid".toByteArray()) }
+            assertNotNull(writer.pending("aa", batched))
+            assertFalse(batched.exists())
+        }
+        assertEquals("cid", batched.readText())
+    }
+
+    @Test
+    fun staleTempFiles_areClearedOnStart() {
+        val pending = File(root(), DurableWriter.TEMP_FOLDER).apply { mkdirs() }
+        val stale = File(pending, "aa.proof.json.123.tmp").apply { writeText("torn") }
+        stale.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L)
+        val fresh = File(pending, "bb.proof.json.456.tmp").apply { writeText("in flight") }
+
+        DurableWriter.forRoot(root())
+
+        assertFalse(stale.exists())
+        assertTrue(fresh.exists())
+    }
+}
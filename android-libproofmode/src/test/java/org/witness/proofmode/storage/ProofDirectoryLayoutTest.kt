@@ -0,0 +1,154 @@
+package org.witness.proofmode.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ProofDirectoryLayoutTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val hashA = "abcd" + "0".repeat(60)
+    private val hashB = "abef" + "1".repeat(60)
+
+    private fun root() = tmp.newFolder("proofmode")
+
+    private fun flatProof(root: File, hash: String, name: String = "$hash.proof.csv"): File =
+        File(root, "$hash/$name").apply { parentFile!!.mkdirs(); writeText("x") }
+
+    @Test
+    fun flat_isTheDefault() {
+        val layout = ProofDirectoryLayout.forRoot(root())
+        assertEquals(ProofLayoutState.FLAT, layout.state)
+        assertEquals(File(layout.root, hashA), layout.writeDir(hashA))
+    }
+
+    @Test
+    fun migration_readsBothLayouts_andWritesSharded() {
+        val root = root()
+        flatProof(root, hashA)
+        flatProof(root, hashB)
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+
+        // Not moved yet: read from the flat folder.
+        assertEquals(File(root, hashA), layout.readDir(hashA))
+
+        // Writing moves the folder first, so the proof is never split.
+        val written = layout.writeDir(hashA)
+        assertEquals(File(root, "ab/cd/$hashA"), written)
+        assertTrue(File(written, "$hashA.proof.csv").exists())
+        assertFalse(File(root, hashA).exists())
+        assertEquals(written, layout.readDir(hashA))
+        assertEquals(File(root, hashB), layout.readDir(hashB))
+    }
+
+    @Test
+    fun migrateAll_isResumable_andFinishesSharded() {
+        val root = root()
+        val hashes = (0 until 10).map { "%02x%02x".format(it, it) + "f".repeat(60) }
+        hashes.forEach { flatProof(root, it) }
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+
+        var calls = 0
+        val first = layout.migrateAll { calls++ >= 4 }
+        assertEquals(4, first)
+        assertEquals(ProofLayoutState.MIGRATING, layout.state)
+
+        assertEquals(6, layout.migrateAll())
+        assertEquals(ProofLayoutState.SHARDED, layout.state)
+        hashes.forEach { assertTrue(File(layout.readDir(it), "$it.proof.csv").exists()) }
+        assertEquals(setOf(".layout") + hashes.map { it.substring(0, 2) }, root.list()!!.toSet())
+    }
+
+    @Test
+    fun migrateOne_mergesIntoAnExistingTarget() {
+        val root = root()
+        flatProof(root, hashA, "$hashA.ots")
+        File(root, "ab/cd/$hashA/$hashA.proof.csv").apply { parentFile!!.mkdirs(); writeText("new") }
+        val layout = ProofDirectoryLayout.forRoot(root)
+
+        assertTrue(layout.migrateOne(hashA))
+        assertFalse(File(root, hashA).exists())
+        assertEquals(setOf("$hashA.ots", "$hashA.proof.csv"), File(root, "ab/cd/$hashA").list()!!.toSet())
+    }
+
+    @Test
+    fun fileInBothLayouts_keepsTheNewer_andSetsTheOlderAside() {
+        val root = root()
+        val flatNewer = flatProof(root, hashA).apply { writeText("flat"); setLastModified(2_000_000L) }
+        File(root, "ab/cd/$hashA/${flatNewer.name}").apply { parentFile!!.mkdirs(); writeText("sharded"); setLastModified(1_000_000L) }
+        val flatOlder = flatProof(root, hashA, "$hashA.ots").apply { writeText("flat"); setLastModified(1_000_000L) }
+        File(root, "ab/cd/$hashA/${flatOlder.name}").apply { writeText("sharded"); setLastModified(2_000_000L) }
+        val same = flatProof(root, hashA, "$hashA.asc")
+        File(root, "ab/cd/$hashA/${same.name}").writeText("x")
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+
+        layout.migrateAll()
+
+        assertEquals(ProofLayoutState.SHARDED, layout.state)
+        assertFalse(File(root, hashA).exists())
+        val sharded = File(root, "ab/cd/$hashA")
+        assertEquals("flat", File(sharded, flatNewer.name).readText())
+        assertEquals("sharded", File(sharded, flatOlder.name).readText())
+        assertEquals("x", File(sharded, same.name).readText())
+
+        val aside = File(root, "${ProofDirectoryLayout.CONFLICTS_DIR}/$hashA")
+        assertEquals(setOf("${flatNewer.name}.1000000", "${flatOlder.name}.1000000"), aside.list()!!.toSet())
+        assertEquals("sharded", File(aside, "${flatNewer.name}.1000000").readText())
+        assertEquals("flat", File(aside, "${flatOlder.name}.1000000").readText())
+    }
+
+    @Test
+    fun folderWithAnOpenBatch_isLeftInPlaceUntilTheBatchCommits() {
+        val root = root()
+        flatProof(root, hashA)
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+        val writer = DurableWriter.forRoot(root)
+
+        writer.batch(hashA) {
+            val dir = layout.writeDir(hashA)!!
+            assertEquals(File(root, hashA), dir)
+            writer.write(hashA, File(dir, "$hashA.asc"), false, null) { it.write(1) }
+
+            assertEquals(0, layout.migrateAll())
+            assertEquals(ProofLayoutState.MIGRATING, layout.state)
+        }
+
+        assertEquals(1, layout.migrateAll())
+        assertEquals(ProofLayoutState.SHARDED, layout.state)
+        assertEquals(setOf("$hashA.proof.csv", "$hashA.asc"), layout.readDir(hashA).list()!!.toSet())
+    }
+
+    @Test
+    fun staleFileUri_resolvesAfterMigration() {
+        val root = root()
+        val old = flatProof(root, hashA)
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+        layout.migrateAll()
+
+        assertFalse(old.exists())
+        assertEquals(File(root, "ab/cd/$hashA/${old.name}"), layout.resolve(old))
+    }
+
+    @Test
+    fun shortHashes_stayFlat() {
+        val root = root()
+        flatProof(root, "h")
+        val layout = ProofDirectoryLayout.forRoot(root)
+        layout.startMigration()
+        layout.migrateAll()
+
+        assertEquals(ProofLayoutState.SHARDED, layout.state)
+        assertEquals(File(root, "h"), layout.readDir("h"))
+        assertTrue(File(root, "h/h.proof.csv").exists())
+    }
+}
@@ -0,0 +1,169 @@
+package org.witness.proofmode.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ProofIndexTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun indexFile() = File(tmp.root, ProofIndex.INDEX_FILE)
+
+    private fun proofDir(hash: String) = File(tmp.root, "proofmode/$hash").apply { mkdirs() }
+
+    /** Write [name] through the "provider" path: write, record. */
+    private fun save(index: ProofIndex, hash: String, name: String): File {
+        val f = File(proofDir(hash), name).apply { writeText("x") }
+        index.record(hash, f)
+        return f
+    }
+
+    @Test
+    fun recorded_artifacts_surviveReopen_withoutTouchingDisk() {
+        val index = ProofIndex(indexFile())
+        val f = save(index, "aa", "aa.proof.csv")
+        f.delete() // the index answers from memory, not the file system
+
+        assertTrue(ProofIndex(indexFile()).contains("aa", "aa.proof.csv", proofDir("aa")))
+    }
+
+    @Test
+    fun miss_fallsBackToFileSystem_andIsRemembered() {
+        val dir = proofDir("bb")
+        File(dir, "bb.ots").writeText("direct")
+        val index = ProofIndex(indexFile())
+
+        assertFalse(index.contains("bb", "bb.asc", dir))
+        assertTrue(index.contains("bb", "bb.ots", dir))
+        assertTrue(ProofIndex(indexFile()).contains("bb", "bb.ots", File(tmp.root, "elsewhere")))
+    }
+
+    @Test
+    fun artifacts_relistOnlyWhenFolderChanged() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("cc")
+        File(dir, "cc.proof.csv").writeText("x")
+        dir.setLastModified(1_000_000L)
+        assertEquals(listOf("cc.proof.csv"), index.artifacts("cc", dir).map { it.identifier })
+
+        // Added behind the index's back without changing the folder time: not seen.
+        File(dir, "cc.ots").writeText("x")
+        dir.setLastModified(1_000_000L)
+        assertEquals(1, index.artifacts("cc", dir).size)
+
+        dir.setLastModified(2_000_000L)
+        assertEquals(setOf("cc.proof.csv", "cc.ots"), index.artifacts("cc", dir).map { it.identifier }.toSet())
+    }
+
+    @Test
+    fun providerSave_doesNotHideEarlierDirectWrite() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("dd")
+        dir.setLastModified(1_000_000L)
+        index.artifacts("dd", dir)
+
+        File(dir, "dd.cid").writeText("direct")
+        dir.setLastModified(2_000_000L)
+        save(index, "dd", "dd.ots")
+
+        assertEquals(setOf("dd.cid", "dd.ots"), index.artifacts("dd", dir).map { it.identifier }.toSet())
+    }
+
+    @Test
+    fun listingInTheSameTimeStep_isNotTrusted() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("gg")
+        val now = System.currentTimeMillis() / 1000 * 1000
+        File(dir, "gg.proof.csv").writeText("x")
+        dir.setLastModified(now)
+        index.artifacts("gg", dir)
+
+        // A second file in the same coarse time step: the folder time does not move.
+        File(dir, "gg.cid").writeText("direct")
+        dir.setLastModified(now)
+        save(index, "gg", "gg.ots")
+        dir.setLastModified(now)
+
+        assertEquals(setOf("gg.proof.csv", "gg.cid", "gg.ots"), index.artifacts("gg", dir).map { it.identifier }.toSet())
+    }
+
+    @Test
+    fun missingFolder_isForgotten() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("ee")
+        save(index, "ee", "ee.proof.csv")
+        dir.deleteRecursively()
+
+        assertTrue(index.artifacts("ee", dir).isEmpty())
+        assertEquals(0, ProofIndex(indexFile()).size())
+    }
+
+    @Test
+    fun tornLastLine_isIgnored_andLaterAppendsStillRead() {
+        save(ProofIndex(indexFile()), "ff", "ff.proof.csv")
+        indexFile().appendText("A\tff\tff.o")
+
+        val index = ProofIndex(indexFile())
+        save(index, "ff", "ff.asc")
+
+        val reopened = ProofIndex(indexFile())
+        val gone = File(tmp.root, "nowhere")
+        assertTrue(reopened.contains("ff", "ff.proof.csv", gone))
+        assertTrue(reopened.contains("ff", "ff.asc", gone))
+        assertFalse(reopened.contains("ff", "ff.o", gone))
+    }
+
+    @Test
+    fun relistingAnUnchangedFolder_writesNothing() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("hh")
+        File(dir, "hh.proof.csv").writeText("x")
+        File(dir, "hh.asc").writeText("x")
+        dir.setLastModified(System.currentTimeMillis())
+
+        index.artifacts("hh", dir)
+        val lines = indexFile().readLines()
+        // Too fresh to trust, so every call lists again, but finds nothing new to log.
+        repeat(5) { assertEquals(2, index.artifacts("hh", dir).size) }
+        assertEquals(lines, indexFile().readLines())
+
+        // Once the folder time can be trusted, only that is added.
+        dir.setLastModified(1_000_000L)
+        index.artifacts("hh", dir)
+        assertEquals(lines + "L\thh\t1000000", indexFile().readLines())
+    }
+
+    @Test
+    fun fileGoneOnRelisting_isForgottenOnReopen() {
+        val index = ProofIndex(indexFile())
+        val dir = proofDir("ii")
+        File(dir, "ii.proof.csv").writeText("x")
+        val cid = File(dir, "ii.cid").apply { writeText("x") }
+        dir.setLastModified(1_000_000L)
+        index.artifacts("ii", dir)
+
+        cid.delete()
+        dir.setLastModified(2_000_000L)
+        assertEquals(listOf("ii.proof.csv"), index.artifacts("ii", dir).map { it.identifier })
+
+        val reopened = ProofIndex(indexFile())
+        val gone = File(tmp.root, "nowhere")
+        assertTrue(reopened.contains("ii", "ii.proof.csv", gone))
+        assertFalse(reopened.contains("ii", "ii.cid", gone))
+    }
+
+    @Test
+    fun rewritingOneArtifact_keepsTheLogCompact() {
+        val index = ProofIndex(indexFile())
+        val f = save(index, "jj", "jj.ots")
+        repeat(3000) { index.record("jj", f) }
+
+        assertTrue(indexFile().readLines().size <= 1024)
+        assertTrue(ProofIndex(indexFile()).contains("jj", "jj.ots", File(tmp.root, "nowhere")))
+    }
+}
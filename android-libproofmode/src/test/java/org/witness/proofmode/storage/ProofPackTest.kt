@@ -0,0 +1,186 @@
+package org.witness.proofmode.storage
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+
+class ProofPackTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun packFile() = File(tmp.root, "abc.pack")
+
+    private fun ProofPack.read(name: String) = open(name)?.use { it.readBytes() }
+
+    @Test
+    fun putAppendAndReplace_surviveReopen() {
+        val pack = ProofPack(packFile())
+        pack.append("abc.proof.csv", "header\n".toByteArray())
+        pack.put("abc.proof.json", "{}".toByteArray())
+        pack.append("abc.proof.csv", "row\n".toByteArray())
+        pack.put("abc.proof.json", "{\"a\":1}".toByteArray())
+
+        val reopened = ProofPack(packFile())
+        assertEquals(listOf("abc.proof.csv", "abc.proof.json"), reopened.names())
+        assertEquals("header\nrow\n", String(reopened.read("abc.proof.csv")!!))
+        assertEquals("{\"a\":1}", String(reopened.read("abc.proof.json")!!))
+        assertNull(reopened.read("abc.ots"))
+    }
+
+    @Test
+    fun tornTail_isDropped_andWritesContinue() {
+        val pack = ProofPack(packFile())
+        pack.put("abc.asc", "sig".toByteArray())
+        pack.put("abc.ots", ByteArray(100) { it.toByte() })
+        val whole = packFile().length()
+        RandomAccessFile(packFile(), "rw").use { it.setLength(whole - 10) }
+
+        val reopened = ProofPack(packFile())
+        assertTrue(reopened.contains("abc.asc"))
+        assertFalse(reopened.contains("abc.ots"))
+
+        reopened.put("abc.ots", "again".toByteArray())
+        assertEquals("again", String(ProofPack(packFile()).read("abc.ots")!!))
+    }
+
+    @Test
+    fun corruptLastRecord_failsItsCrc() {
+        val pack = ProofPack(packFile())
+        pack.put("abc.asc", "sig".toByteArray())
+        pack.put("abc.ots", "proof".toByteArray())
+        RandomAccessFile(packFile(), "rw").use {
+            it.seek(it.length() - 6) // inside the last record's data
+            it.write('X'.code)
+        }
+
+        val reopened = ProofPack(packFile())
+        assertEquals(listOf("abc.asc"), reopened.names())
+    }
+
+    @Test
+    fun corruptEarlierRecord_isLeftOut_andLaterOnesKept() {
+        val pack = ProofPack(packFile())
+        pack.put("abc.proof.json", "old".toByteArray())
+        pack.put("abc.proof.json", "new".toByteArray())
+        pack.put("abc.ots", "proof".toByteArray())
+        val bytes = packFile().readBytes()
+        val at = String(bytes, Charsets.ISO_8859_1).indexOf("new")
+        RandomAccessFile(packFile(), "rw").use {
+            it.seek(at.toLong())
+            it.write('X'.code)
+        }
+
+        val reopened = ProofPack(packFile())
+        assertEquals("old", String(reopened.read("abc.proof.json")!!))
+        assertEquals("proof", String(reopened.read("abc.ots")!!))
+        assertEquals(bytes.size.toLong(), packFile().length())
+    }
+
+    @Test
+    fun batch_keepsItsWrites() {
+        val pack = ProofPack(packFile())
+        val names = pack.batch {
+            pack.put("abc.asc", "sig".toByteArray())
+            pack.append("abc.proof.csv", "row\n".toByteArray())
+            pack.names()
+        }
+
+        assertEquals(listOf("abc.asc", "abc.proof.csv"), names)
+        assertEquals("row\n", String(ProofPack(packFile()).read("abc.proof.csv")!!))
+    }
+
+    @Test
+    fun batch_thatThrows_cutsOffItsWrites() {
+        val pack = ProofPack(packFile())
+        pack.put("abc.asc", "sig".toByteArray())
+        val before = packFile().length()
+
+        try {
+            pack.batch {
+                pack.append("abc.proof.csv", "row\n".toByteArray())
+                pack.put("abc.asc", "other".toByteArray())
+                throw IllegalStateException("signing failed")
+            }
+        } catch (expected: IllegalStateException) {
+        }
+
+        assertEquals(before, packFile().length())
+        assertEquals(listOf("abc.asc"), pack.names())
+        assertEquals("sig", String(pack.read("abc.asc")!!))
+    }
+
+    @Test
+    fun batch_thatThrows_onANewPack_leavesNoFile() {
+        val pack = ProofPack(packFile())
+        try {
+            pack.batch {
+                pack.put("abc.asc", "sig".toByteArray())
+                throw IllegalStateException()
+            }
+        } catch (expected: IllegalStateException) {
+        }
+
+        assertFalse(packFile().exists())
+        assertFalse(pack.contains("abc.asc"))
+    }
+
+    @Test
+    fun replacedContent_isCompactedAway() {
+        val pack = ProofPack(packFile())
+        val big = ByteArray(40_000) { 1 }
+        repeat(5) { pack.put("abc.c2pa", big) }
+
+        assertTrue(packFile().length() < big.size * 2)
+        assertArrayEquals(big, ProofPack(packFile()).read("abc.c2pa"))
+    }
+
+    @Test
+    fun openStream_isUnaffectedByLaterWrites() {
+        val pack = ProofPack(packFile())
+        pack.put("abc.proof.json", "first".toByteArray())
+        val stream = pack.open("abc.proof.json")!!
+        pack.put("abc.proof.json", "second".toByteArray())
+
+        assertEquals("first", String(stream.use { it.readBytes() }))
+    }
+
+    @Test
+    fun forFile_sharesOnePack_soConcurrentWritersDoNotOverwriteEachOther() {
+        val held = ProofPack.forFile(packFile())
+        assertSame(held, ProofPack.forFile(File(tmp.root, "./abc.pack").absoluteFile.normalize()))
+
+        val threads = (0 until 4).map { t ->
+            Thread {
+                repeat(50) { i -> ProofPack.forFile(packFile()).append("abc.proof.csv", "$t-$i\n".toByteArray()) }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        val rows = String(ProofPack(packFile()).read("abc.proof.csv")!!).lines().filter { it.isNotEmpty() }
+        assertEquals(200, rows.size)
+        assertEquals(200, rows.toSet().size)
+    }
+
+    @Test
+    fun exportTo_writesLooseFiles() {
+        val pack = ProofPack(packFile())
+        pack.append("abc.proof.csv", "a\n".toByteArray())
+        pack.append("abc.proof.csv", "b\n".toByteArray())
+        pack.put("abc.asc", "sig".toByteArray())
+
+        val dir = tmp.newFolder("abc")
+        assertEquals(2, pack.exportTo { FileOutputStream(File(dir, it)) })
+        assertEquals("a\nb\n", File(dir, "abc.proof.csv").readText())
+        assertEquals("sig", File(dir, "abc.asc").readText())
+    }
+}
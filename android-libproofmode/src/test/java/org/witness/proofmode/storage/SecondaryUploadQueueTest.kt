@@ -0,0 +1,142 @@
+package org.witness.proofmode.storage
+
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.io.InputStream
+import java.util.ArrayList
+
+class SecondaryUploadQueueTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val hash = "ab" + "0".repeat(62)
+    private val primary = AccumulatingStorageProvider()
+    private val secondary = FlakySecondary()
+
+    /** Drains wait here until the test runs them; delays are recorded for backoff checks. */
+    private val scheduled = ArrayList<Pair<Runnable, Long>>()
+
+    private fun queue() = SecondaryUploadQueue(tmp.root, primary, secondary) { r, delay -> scheduled.add(r to delay) }
+
+    private fun runScheduled() {
+        val next = scheduled.removeAt(0)
+        next.first.run()
+    }
+
+    private fun read(identifier: String) = String(primary.getInputStream(hash, identifier)!!.readBytes())
+
+    @Test
+    fun enqueue_uploadsASnapshotOffThread_andRecordsTheUriTip() {
+        val queue = queue()
+        primary.saveBytes(hash, "$hash.proof.json", "{}".toByteArray(), null)
+
+        assertTrue(queue.enqueue(hash, "$hash.proof.json"))
+        primary.saveBytes(hash, "$hash.proof.json", "{\"changed\":1}".toByteArray(), null)
+        assertTrue(secondary.uploads.isEmpty())
+        assertEquals(1, queue.queuedCount())
+
+        runScheduled()
+
+        assertEquals(listOf("$hash.proof.json" to "{}"), secondary.uploads)
+        assertEquals("s3://bucket/$hash.proof.json", read("$hash.proof.json.uri"))
+        assertEquals(0, queue.queuedCount())
+    }
+
+    @Test
+    fun repeatedSaves_coalesceIntoOneUploadOfTheNewestContent() {
+        val queue = queue()
+        val csv = "$hash.proof.csv"
+        primary.saveText(hash, csv, "header", null)
+        queue.enqueue(hash, csv)
+        primary.saveText(hash, csv, "header\nrow", null)
+        queue.enqueue(hash, csv)
+
+        assertEquals(1, scheduled.size)
+        runScheduled()
+
+        assertEquals(listOf(csv to "header\nrow"), secondary.uploads)
+    }
+
+    @Test
+    fun failure_keepsTheItem_andBacksOff() {
+        val queue = queue()
+        primary.saveBytes(hash, "$hash.asc", "sig".toByteArray(), null)
+        secondary.failuresRemaining = 2
+        queue.enqueue(hash, "$hash.asc")
+        assertEquals(0L, scheduled[0].second)
+
+        runScheduled()
+        assertEquals(SecondaryUploadQueue.INITIAL_BACKOFF_MS, scheduled[0].second)
+        runScheduled()
+        assertEquals(SecondaryUploadQueue.INITIAL_BACKOFF_MS * 2, scheduled[0].second)
+        assertEquals(1, queue.queuedCount())
+
+        runScheduled()
+        assertEquals(listOf("$hash.asc" to "sig"), secondary.uploads)
+        assertTrue(scheduled.isEmpty())
+    }
+
+    @Test
+    fun queuedWork_survivesARestart() {
+        primary.saveBytes(hash, "$hash.ots", "ots".toByteArray(), null)
+        secondary.failuresRemaining = 1
+        queue().enqueue(hash, "$hash.ots")
+        runScheduled()
+        scheduled.clear()
+
+        val restarted = queue()
+        assertEquals(1, restarted.queuedCount())
+        runScheduled()
+
+        assertEquals(listOf("$hash.ots" to "ots"), secondary.uploads)
+    }
+
+    @Test
+    fun missingPrimaryArtifact_isNotQueued() {
+        val queue = queue()
+        assertFalse(queue.enqueue(hash, "$hash.missing"))
+        assertEquals(0, queue.queuedCount())
+    }
+}
+
+/** Secondary that records what it received and fails a set number of times first. */
+class FlakySecondary : StorageProvider {
+    val uploads = ArrayList<Pair<String, String>>()
+    var failuresRemaining = 0
+
+    override fun saveStream(hash: String?, identifier: String?, stream: InputStream?, listener: StorageListener?) {
+        val content = String(stream!!.readBytes())
+        if (failuresRemaining > 0) {
+            failuresRemaining--
+            listener?.saveFailed(IOException("offline"))
+            return
+        }
+        uploads.add(identifier!! to content)
+        listener?.saveSuccessful(hash, "s3://bucket/$identifier")
+    }
+
+    override fun saveBytes(hash: String?, identifier: String?, data: ByteArray?, listener: StorageListener?) =
+        saveStream(hash, identifier, data!!.inputStream(), listener)
+
+    override fun saveText(hash: String?, identifier: String?, data: String?, listener: StorageListener?) =
+        saveStream(hash, identifier, data!!.byteInputStream(), listener)
+
+    override fun replaceText(hash: String?, identifier: String?, data: String?, listener: StorageListener?) =
+        saveText(hash, identifier, data, listener)
+
+    override fun getInputStream(hash: String?, identifier: String?): InputStream? = null
+
+    override fun proofExists(hash: String?): Boolean = false
+
+    override fun proofIdentifierExists(hash: String?, identifier: String?): Boolean = false
+
+    override fun getProofSet(hash: String?): ArrayList<Uri> = ArrayList()
+
+    override fun getProofItem(uri: Uri?): InputStream? = null
+}
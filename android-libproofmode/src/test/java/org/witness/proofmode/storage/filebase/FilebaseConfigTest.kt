@@ -133,6 +133,16 @@ class FilebaseConfigTest {
         assertEquals("", cfg.secretKey)
         assertEquals("", cfg.bucketName)
         assertEquals("", cfg.ipfsBearerToken)
+        assertEquals(FilebaseStorageProvider.DEFAULT_MULTIPART_PART_SIZE, cfg.multipartPartSize)
+    }
+
+    @Test
+    fun fromPrefs_readsMultipartPartSize() {
+        val prefs = prefsWith(
+            FilebaseConfig.PREF_FILEBASE_MULTIPART_PART_SIZE to 16L * 1024 * 1024,
+            schema = FilebaseConfig.FILEBASE_PREFS_SCHEMA_VERSION,
+        )
+        assertEquals(16L * 1024 * 1024, FilebaseConfig.fromPrefs(prefs).multipartPartSize)
     }
 
     @Test
@@ -394,6 +404,7 @@ class FilebaseConfigTest {
                 is String -> editor.putString(key, value)
                 is Boolean -> editor.putBoolean(key, value)
                 is Int -> editor.putInt(key, value)
+                is Long -> editor.putLong(key, value)
             }
         }
         if (schema != null) {
@@ -0,0 +1,222 @@
+package org.witness.proofmode.storage.filebase
+
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import okio.Buffer
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.witness.proofmode.storage.StorageListener
+import org.witness.proofmode.storage.proofset.DeferredArtifact
+import java.io.ByteArrayInputStream
+import java.io.FileInputStream
+import java.util.Collections
+import java.util.TreeMap
+import java.util.concurrent.atomic.AtomicLong
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class FilebaseStorageProviderMultipartTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val hash = "abc123deadbeef"
+    private val partSize = FilebaseStorageProvider.MIN_MULTIPART_PART_SIZE
+    private val video = ByteArray((partSize * 2 + 1234).toInt()) { (it % 251).toByte() }
+
+    private class Call(val method: String, val query: String?, val payloadHash: String?, val body: ByteArray)
+
+    /** In-memory S3 that fails any part in [failingParts]. */
+    private open inner class FakeS3 : FilebaseStorageProvider(
+        accessKey = "ak",
+        secretKey = "sk",
+        bucketName = "bucket",
+        multipartStateDir = tmp.root,
+        multipartPartSize = partSize,
+    ) {
+        val calls: MutableList<Call> = Collections.synchronizedList(ArrayList())
+        val parts = TreeMap<Int, ByteArray>()
+        val failingParts = HashSet<Int>()
+        var uploads = 0
+        var forgetUploads = false
+
+        override fun executeS3(request: Request): Response {
+            val body = Buffer().also { request.body?.writeTo(it) }.readByteArray()
+            val query = request.url.query
+            calls.add(Call(request.method, query, request.header("x-amz-content-sha256"), body))
+
+            val part = request.url.queryParameter("partNumber")?.toInt()
+            return when {
+                query == "uploads=" -> {
+                    synchronized(this) { uploads++ }
+                    respond(request, 200, "<InitiateMultipartUploadResult><UploadId>up-$uploads</UploadId></InitiateMultipartUploadResult>")
+                }
+                forgetUploads && request.url.queryParameter("uploadId") != null -> respond(request, 404, "<Error>NoSuchUpload</Error>")
+                part != null && part in failingParts -> respond(request, 500, "")
+                part != null -> {
+                    synchronized(parts) { parts[part] = body }
+                    respond(request, 200, "", "ETag" to "\"etag-$part\"")
+                }
+                else -> respond(request, 200, "<CompleteMultipartUploadResult/>", "x-amz-meta-cid" to "bafyVideo")
+            }
+        }
+
+        private fun respond(request: Request, code: Int, body: String, vararg headers: Pair<String, String>): Response {
+            val builder = Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code).message("")
+                .body(body.toResponseBody())
+            headers.forEach { (k, v) -> builder.header(k, v) }
+            return builder.build()
+        }
+
+        fun assembled(): ByteArray = parts.values.fold(ByteArray(0)) { acc, b -> acc + b }
+    }
+
+    private class Result : StorageListener {
+        var uri: String? = null
+        var error: Exception? = null
+        override fun saveSuccessful(hash: String?, uri: String?) { this.uri = uri }
+        override fun saveFailed(exception: Exception?) { error = exception }
+    }
+
+    @Test
+    fun largeObject_goesUpInUnsignedParts_readOnce() {
+        val s3 = FakeS3()
+        val result = Result()
+
+        s3.saveBytes(hash, "$hash.mp4", video, result)
+
+        assertEquals("https://ipfs.filebase.io/ipfs/bafyVideo", result.uri)
+        assertArrayEquals(video, s3.assembled())
+        assertEquals(setOf(1, 2, 3), s3.parts.keys)
+        val partCalls = s3.calls.filter { it.query?.contains("partNumber") == true }
+        assertEquals(3, partCalls.size)
+        assertTrue(partCalls.all { it.payloadHash == "UNSIGNED-PAYLOAD" })
+        assertEquals(video.size, partCalls.sumOf { it.body.size })
+
+        val complete = String(s3.calls.last().body)
+        assertTrue(complete.contains("<PartNumber>3</PartNumber><ETag>\"etag-3\"</ETag>"))
+        assertTrue(tmp.root.list()!!.isEmpty())
+    }
+
+    @Test
+    fun fileSource_partsSeekToTheirOffsets_insteadOfReadingUpToThem() {
+        val s3 = FakeS3()
+        val result = Result()
+        val file = tmp.newFile("video.mp4").apply { writeBytes(video) }
+        val bytesRead = AtomicLong()
+        val artifact = DeferredArtifact("$hash.mp4", "video/mp4", file.length()) {
+            object : FileInputStream(file) {
+                override fun read(b: ByteArray, off: Int, len: Int): Int =
+                    super.read(b, off, len).also { if (it > 0) bytesRead.addAndGet(it.toLong()) }
+            }
+        }
+
+        s3.saveArtifact(hash, artifact, result)
+
+        assertNotNull(result.uri)
+        assertArrayEquals(video, s3.assembled())
+        assertEquals(video.size.toLong(), bytesRead.get())
+    }
+
+    @Test
+    fun streamSource_isOpenedOnce_andItsPartsGoUpInOrder() {
+        val s3 = FakeS3()
+        val result = Result()
+        var opens = 0
+        val artifact = DeferredArtifact("$hash.mp4", "video/mp4", video.size.toLong()) {
+            opens++
+            ByteArrayInputStream(video)
+        }
+
+        s3.saveArtifact(hash, artifact, result)
+
+        assertNotNull(result.uri)
+        assertArrayEquals(video, s3.assembled())
+        // One open to find the source cannot seek, one to read it.
+        assertEquals(2, opens)
+        assertEquals(
+            listOf("1", "2", "3"),
+            s3.calls.mapNotNull { call -> call.query?.let { Regex("partNumber=(\\d+)").find(it)?.groupValues?.get(1) } },
+        )
+    }
+
+    @Test
+    fun streamSource_retriesAFailedPart_byReadingUpToItAgain() {
+        val s3 = FakeS3().apply { failingParts.add(2) }
+        var opens = 0
+        val artifact = DeferredArtifact("$hash.mp4", "video/mp4", video.size.toLong()) {
+            opens++
+            ByteArrayInputStream(video)
+        }
+
+        s3.saveArtifact(hash, artifact, Result())
+        s3.failingParts.clear()
+        val result = Result()
+        s3.saveArtifact(hash, artifact, result)
+
+        assertNotNull(result.uri)
+        assertArrayEquals(video, s3.assembled())
+        // Probe and first read, then two retries of part 2 that each start over; then the resume.
+        assertEquals(6, opens)
+    }
+
+    @Test
+    fun smallObject_isOneUnsignedPut() {
+        val s3 = FakeS3()
+        val result = Result()
+
+        s3.saveBytes(hash, "$hash.proof.csv", "a,b\n".toByteArray(), result)
+
+        assertNotNull(result.uri)
+        val call = s3.calls.single()
+        assertEquals("PUT", call.method)
+        assertNull(call.query)
+        assertEquals("UNSIGNED-PAYLOAD", call.payloadHash)
+        assertEquals("a,b\n", String(call.body))
+    }
+
+    @Test
+    fun failedUpload_resumesWithTheMissingPartsOnly() {
+        val first = FakeS3().apply { failingParts.add(2) }
+        val failed = Result()
+        first.saveBytes(hash, "$hash.mp4", video, failed)
+        assertNotNull(failed.error)
+        assertEquals(1, tmp.root.list()!!.size)
+
+        // A new provider, as after a restart, sharing only the state folder.
+        val second = FakeS3()
+        val result = Result()
+        second.saveBytes(hash, "$hash.mp4", video, result)
+
+        assertNotNull(result.uri)
+        assertEquals(setOf(2), second.parts.keys)
+        assertTrue(second.calls.none { it.query == "uploads=" })
+        assertTrue(String(second.calls.last().body).contains("<PartNumber>1</PartNumber><ETag>\"etag-1\"</ETag>"))
+        assertArrayEquals(video, (first.parts + second.parts).toSortedMap().values.fold(ByteArray(0)) { a, b -> a + b })
+        assertTrue(tmp.root.list()!!.isEmpty())
+    }
+
+    @Test
+    fun forgottenUpload_startsOverOnce() {
+        FakeS3().apply { failingParts.add(3) }.saveBytes(hash, "$hash.mp4", video, Result())
+
+        val s3 = FakeS3().apply { forgetUploads = true }
+        val result = Result()
+        s3.saveBytes(hash, "$hash.mp4", video, result)
+
+        // The stale upload id is refused, a new upload is started, and S3 refuses that too.
+        assertNotNull(result.error)
+        assertEquals(1, s3.uploads)
+        assertTrue(tmp.root.list()!!.isEmpty())
+    }
+}
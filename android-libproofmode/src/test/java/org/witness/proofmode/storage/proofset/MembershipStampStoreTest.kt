@@ -0,0 +1,82 @@
+package org.witness.proofmode.storage.proofset
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.witness.proofmode.storage.filebase.FilebaseConfig
+import java.io.File
+
+class MembershipStampStoreTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val hash = "abc123deadbeef"
+
+    private fun file() = File(tmp.root, MembershipStampStore.STORE_FILE)
+
+    private val target = "https://rpc.filebase.io#0123abcd"
+
+    private fun stamp(vararg suffixes: String, inclusion: MediaInclusion = MediaInclusion.INCLUDE_MEDIA) =
+        MembershipStamp(FilebaseConfig.UploadMode.IPFS_DIRECTORY, inclusion, suffixes.mapTo(LinkedHashSet()) { hash + it }, target)
+
+    @Test
+    fun stamps_surviveARestart_andTheLastOneWins() {
+        MembershipStampStore(file()).apply {
+            put(hash, stamp(".proof.csv", ".jpg"))
+            put(hash, stamp(".proof.csv", ".proof.json", ".jpg"))
+        }
+
+        val reopened = MembershipStampStore(file())
+        assertEquals(stamp(".proof.csv", ".proof.json", ".jpg"), reopened[hash])
+        assertNull(reopened["other"])
+    }
+
+    @Test
+    fun lines_storeHashPrefixedNamesAsSuffixes() {
+        MembershipStampStore(file()).put(hash, stamp(".proof.csv", ".jpg"))
+
+        assertEquals(
+            "$hash\tIPFS_DIRECTORY\tINCLUDE_MEDIA\t*.jpg/*.proof.csv\t$target\n",
+            file().readText(),
+        )
+    }
+
+    @Test
+    fun unchangedStamp_isNotWrittenAgain() {
+        val store = MembershipStampStore(file())
+        store.put(hash, stamp(".proof.csv"))
+        val length = file().length()
+
+        store.put(hash, stamp(".proof.csv"))
+        assertEquals(length, file().length())
+    }
+
+    @Test
+    fun unparsableLines_areSkipped() {
+        file().writeText(
+            "$hash\tIPFS_DIRECTORY\tSIDECARS_ONLY\t*.proof.csv\t$target\n" +
+                "other\tNOT_A_MODE\tINCLUDE_MEDIA\t*.jpg\t$target\n" +
+                "untargeted\tIPFS_DIRECTORY\tINCLUDE_MEDIA\t*.jpg\n" +
+                "torn\tS3_MEM",
+        )
+
+        val store = MembershipStampStore(file())
+        assertEquals(stamp(".proof.csv", inclusion = MediaInclusion.SIDECARS_ONLY), store[hash])
+        assertEquals(1, store.size())
+
+        store.put("next", MembershipStamp(FilebaseConfig.UploadMode.S3_MEMBERS, MediaInclusion.SIDECARS_ONLY, emptySet(), "s3/b"))
+        assertTrue(file().readLines().contains("next\tS3_MEMBERS\tSIDECARS_ONLY\t\ts3/b"))
+    }
+
+    @Test
+    fun log_isCompactedToOneLinePerHash() {
+        val store = MembershipStampStore(file())
+        for (i in 0 until 300) store.put(hash, stamp(".proof.csv", ".$i"))
+
+        assertTrue(file().readLines().size < 300)
+        assertEquals(stamp(".proof.csv", ".299"), MembershipStampStore(file())[hash])
+    }
+}
@@ -207,6 +207,18 @@ class ProofSetMembershipPolicyTest {
         }
     }
 
+    @Test
+    fun incrementalProofRecords_areOptionalMembers_headIsNot() {
+        assertTrue(ProofSetMembershipPolicy.isManifestMember(context, hash, "$hash.proof.r000001.json"))
+        assertTrue(ProofSetMembershipPolicy.isManifestMember(context, hash, "$hash.proof.r000001.json.asc"))
+        assertFalse(ProofSetMembershipPolicy.isManifestMember(context, hash, "$hash.proof.head"))
+        assertFalse(ProofSetMembershipPolicy.isManifestMember(context, hash, "other.proof.r000001.json"))
+        assertFalse(ProofSetMembershipPolicy.isManifestMember(context, hash, "$hash.proof.report.json"))
+
+        // Records never hold up the first pass.
+        assertEquals(coreBasenames(), ProofSetMembershipPolicy.requiredCoreBasenames(hash))
+    }
+
     @Test
     fun fromProofSetUri_fileUri_returnsBasename() {
         val uri = Uri.fromFile(File("/tmp/h.proof.csv"))
@@ -15,6 +15,7 @@ import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
 import java.io.ByteArrayInputStream
+import java.io.File
 import java.io.InputStream
 import java.util.ArrayList
 import java.util.concurrent.CountDownLatch
@@ -121,6 +122,28 @@ class ProofSetUploaderTest {
         assertEquals(listOf(hash to gatewayUri), listener.successes)
     }
 
+    @Test
+    fun upload_persistsItsStamp_andReleasesTheHashLock() {
+        val primary = primaryWithCore()
+        val filebase = RecordingFilebaseStorageProvider()
+
+        ProofSetUploader.enqueueProofSetUpload(
+            context,
+            hash,
+            primary,
+            filebase,
+            ProofSetMediaSource.ofBytes(byteArrayOf(1, 2, 3), "image/jpeg"),
+            FilebaseConfig.UploadMode.IPFS_DIRECTORY,
+            MediaInclusion.INCLUDE_MEDIA,
+            null,
+        )
+
+        val stamp = ProofSetUploader.lastUploadedMembership(hash)!!
+        val afterRestart = MembershipStampStore(File(context.filesDir, MembershipStampStore.STORE_FILE))
+        assertEquals(stamp, afterRestart[hash])
+        assertEquals(0, ProofSetUploader.lockCountForTesting())
+    }
+
     @Test
     fun ipfsSuccess_writesIpfsAndImageUri() {
         val gatewayUri = "https://ipfs.filebase.io/ipfs/bafyTestRoot"
@@ -1845,6 +1868,62 @@ class ProofSetUploaderTest {
         assertTrue(skipListener.failures.isEmpty())
     }
 
+    @Test
+    fun changedUploadTarget_uploadsAgain_insteadOfReportingTheOldUri() {
+        val primary = primaryWithCore()
+        val oldBucket = RecordingFilebaseStorageProvider(
+            saveArtifactResultUriPrefix = "s3://old-bucket/", bucketName = "old-bucket",
+        )
+        val newBucket = RecordingFilebaseStorageProvider(
+            saveArtifactResultUriPrefix = "s3://new-bucket/", bucketName = "new-bucket",
+        )
+        val media = byteArrayOf(1, 2, 3)
+
+        for (filebase in listOf(oldBucket, newBucket)) {
+            ProofSetUploader.enqueueProofSetUpload(
+                context,
+                hash,
+                primary,
+                filebase,
+                ProofSetMediaSource.ofBytes(media, "image/jpeg"),
+                FilebaseConfig.UploadMode.S3_MEMBERS,
+                MediaInclusion.INCLUDE_MEDIA,
+                null,
+            )
+        }
+        assertEquals(coreBasenames().size + 1, newBucket.saveArtifactCalls.size)
+        assertEquals(
+            newBucket.uploadTarget(FilebaseConfig.UploadMode.S3_MEMBERS),
+            ProofSetUploader.lastUploadedMembership(hash)!!.target,
+        )
+
+        val listener = RecordingListener()
+        ProofSetUploader.enqueueProofSetUpload(
+            context,
+            hash,
+            primary,
+            newBucket,
+            ProofSetMediaSource.ofBytes(media, "image/jpeg"),
+            FilebaseConfig.UploadMode.S3_MEMBERS,
+            MediaInclusion.INCLUDE_MEDIA,
+            listener,
+        )
+        assertEquals(coreBasenames().size + 1, newBucket.saveArtifactCalls.size)
+        assertEquals(hash to "s3://new-bucket/$hash/$hash.jpg", listener.successes.single())
+    }
+
+    @Test
+    fun ipfsUploadTarget_identifiesTheToken_withoutHoldingIt() {
+        val target = RecordingFilebaseStorageProvider().uploadTarget(FilebaseConfig.UploadMode.IPFS_DIRECTORY)
+
+        assertFalse(target.contains("test-token"))
+        assertNotEquals(
+            target,
+            RecordingFilebaseStorageProvider(ipfsBearerToken = "other-token")
+                .uploadTarget(FilebaseConfig.UploadMode.IPFS_DIRECTORY),
+        )
+    }
+
     @Test
     fun s3_includeMedia_mediaMemberUriMissing_returnsFailedNotSuccessNull() {
         val primary = primaryWithCore()
@@ -1948,11 +2027,13 @@ open class RecordingFilebaseStorageProvider(
     var saveArtifactResultUriPrefix: String = "s3://bucket/",
     /** When true, [saveArtifact] reports success with a null URI (media member URI missing). */
     var saveArtifactNullUri: Boolean = false,
+    bucketName: String = "",
+    ipfsBearerToken: String = "test-token",
 ) : FilebaseStorageProvider(
     accessKey = "",
     secretKey = "",
-    bucketName = "",
-    ipfsBearerToken = "test-token",
+    bucketName = bucketName,
+    ipfsBearerToken = ipfsBearerToken,
 ) {
     val unpinCalls = mutableListOf<String>()
     val uploadDirectoryCalls = mutableListOf<Pair<String, List<DeferredArtifact>>>()
@@ -0,0 +1,98 @@
+package org.witness.proofmode.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class AppendOnlyLogTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun file() = File(tmp.root, "nested/test.log")
+
+    private fun replayed(log: AppendOnlyLog): List<String> {
+        val lines = ArrayList<String>()
+        log.replay { lines.add(it) }
+        return lines
+    }
+
+    @Test
+    fun appendedLines_areReplayedInOrder_andCounted() {
+        AppendOnlyLog(file()).apply {
+            append("a\t1")
+            append("b\t2")
+            assertEquals(2, lines)
+        }
+
+        val reopened = AppendOnlyLog(file())
+        assertEquals(listOf("a\t1", "b\t2"), replayed(reopened))
+        assertEquals(2, reopened.lines)
+    }
+
+    @Test
+    fun appendedBatch_landsAsOneLinePerRecord() {
+        val log = AppendOnlyLog(file())
+        log.append("a\t1")
+        log.append(listOf("b\t2", "c\t3"))
+        log.append(emptyList())
+
+        assertEquals(3, log.lines)
+        assertEquals(listOf("a\t1", "b\t2", "c\t3"), file().readLines())
+    }
+
+    @Test
+    fun missingFile_replaysNothing() {
+        val log = AppendOnlyLog(file())
+        assertEquals(emptyList<String>(), replayed(log))
+        assertEquals(0, log.lines)
+    }
+
+    @Test
+    fun tornLastLine_isReplayed_thenEnded_soTheNextAppendStandsAlone() {
+        file().parentFile!!.mkdirs()
+        file().writeText("a\t1\nb\t")
+
+        val log = AppendOnlyLog(file())
+        assertEquals(listOf("a\t1", "b\t"), replayed(log))
+        log.append("c\t3")
+
+        assertEquals(listOf("a\t1", "b\t", "c\t3"), file().readLines())
+    }
+
+    @Test
+    fun rewrite_replacesTheFile_andResetsTheCount() {
+        val log = AppendOnlyLog(file())
+        repeat(10) { log.append("x\t$it") }
+
+        log.rewrite(sequenceOf("x\t9"))
+
+        assertEquals(listOf("x\t9"), file().readLines())
+        assertEquals(1, log.lines)
+        assertFalse(File(file().parentFile, file().name + ".tmp").exists())
+    }
+
+    @Test
+    fun shouldCompact_onceTwiceTheLiveLines_andTheMinimum() {
+        val log = AppendOnlyLog(file())
+        repeat(10) { log.append("x\t$it") }
+
+        assertFalse(log.shouldCompact(live = 1, minLines = 11))
+        assertFalse(log.shouldCompact(live = 5, minLines = 4))
+        assertTrue(log.shouldCompact(live = 4, minLines = 4))
+    }
+
+    @Test
+    fun delete_startsEmpty() {
+        val log = AppendOnlyLog(file())
+        log.append("a")
+
+        log.delete()
+
+        assertFalse(file().exists())
+        assertEquals(0, log.lines)
+    }
+}
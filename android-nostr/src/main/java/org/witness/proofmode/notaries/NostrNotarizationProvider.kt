@@ -55,6 +55,7 @@ class NostrNotarizationProvider(context: Context) : NotarizationProvider {
 
         if (!isEnabled()) {
             Timber.d("Nostr notarization disabled by user setting; skipping %s", mediaHash)
+            listener.notarizationSkipped(mediaHash)
             return
         }
 
@@ -0,0 +1,24 @@
+package com.eternitywall.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Carries the module's HTTP requests to calendars, Esplora and bitcoind.
+ * <p>
+ * Implementations read the whole body (so the connection can be reused) but stop with a
+ * {@link ResponseTooLargeException} once it exceeds {@code maxResponseBytes}. Swap the
+ * process-wide instance with {@link HttpTransports#set(HttpTransport)}, e.g. to point tests
+ * at a local stand-in calendar.
+ */
+public interface HttpTransport {
+
+    /**
+     * Send a GET, or a POST of {@code data} when it is non-null.
+     *
+     * @return the response, whatever its status; its stream holds the buffered body.
+     * @throws IOException if the request could not be made or the body was too large.
+     */
+    Response execute(URL url, byte[] data, Map<String, String> headers, long maxResponseBytes) throws IOException;
+}
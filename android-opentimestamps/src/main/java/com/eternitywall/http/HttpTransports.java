@@ -0,0 +1,34 @@
+package com.eternitywall.http;
+
+/**
+ * Holds the {@link HttpTransport} used by every {@link Request}. Defaults to one shared
+ * {@link OkHttpTransport}, so all calendar, Esplora and node traffic shares one connection
+ * pool instead of paying a TLS handshake per call.
+ */
+public final class HttpTransports {
+
+    /** Body limit for requests that do not set their own. */
+    public final static long DEFAULT_MAX_RESPONSE_BYTES = 1024 * 1024;
+
+    private static volatile HttpTransport sTransport;
+
+    private HttpTransports() {
+    }
+
+    public static HttpTransport get() {
+        HttpTransport transport = sTransport;
+        if (transport == null) {
+            synchronized (HttpTransports.class) {
+                if (sTransport == null)
+                    sTransport = new OkHttpTransport();
+                transport = sTransport;
+            }
+        }
+        return transport;
+    }
+
+    /** Replace the process-wide transport; null restores the default on next use. */
+    public static void set(HttpTransport transport) {
+        sTransport = transport;
+    }
+}
@@ -0,0 +1,107 @@
+package com.eternitywall.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link HttpTransport} over a single {@link OkHttpClient}: pooled keep-alive connections,
+ * HTTP/2 where the server offers it, transparent gzip, and at most
+ * {@link #DEFAULT_MAX_REQUESTS_PER_HOST} requests in flight per host so a large batch
+ * cannot hammer one calendar.
+ */
+public class OkHttpTransport implements HttpTransport {
+
+    public final static int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    private final static int TIMEOUT_MS = 10000;
+    private final static MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
+
+    private final OkHttpClient mClient;
+    private final int mMaxPerHost;
+    private final Map<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+
+    public OkHttpTransport() {
+        this(new OkHttpClient.Builder()
+                .connectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                .build(), DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    public OkHttpTransport(OkHttpClient client, int maxRequestsPerHost) {
+        mClient = client;
+        mMaxPerHost = Math.max(1, maxRequestsPerHost);
+    }
+
+    @Override
+    public Response execute(URL url, byte[] data, Map<String, String> headers, long maxResponseBytes) throws IOException {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(url)
+                .header("User-Agent", "OpenTimestamps Java")
+                .header("Accept", "application/json");
+
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet())
+                builder.header(entry.getKey(), entry.getValue());
+        }
+
+        if (data != null) {
+            String contentType = headers != null ? headers.get("Content-Type") : null;
+            builder.post(RequestBody.create(data, contentType != null ? MediaType.parse(contentType) : FORM));
+        }
+
+        Semaphore permits = mHostPermits.computeIfAbsent(url.getHost(), h -> new Semaphore(mMaxPerHost));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for " + url.getHost());
+        }
+
+        try (okhttp3.Response httpResponse = mClient.newCall(builder.build()).execute()) {
+            Response response = new Response();
+            response.setStatus(httpResponse.code());
+            response.setFromUrl(url.toString());
+
+            ResponseBody body = httpResponse.body();
+            byte[] bytes = body != null ? readLimited(body, maxResponseBytes, url) : new byte[0];
+            response.setStream(new ByteArrayInputStream(bytes));
+            return response;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static byte[] readLimited(ResponseBody body, long maxResponseBytes, URL url) throws IOException {
+        long declared = body.contentLength();
+        if (declared > maxResponseBytes)
+            throw new ResponseTooLargeException(url + " declared " + declared + " bytes");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(declared > 0 ? (int) declared : 512);
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try (InputStream in = body.byteStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                if (total > maxResponseBytes)
+                    throw new ResponseTooLargeException(url + " exceeded " + maxResponseBytes + " bytes");
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -2,21 +2,16 @@ package com.eternitywall.http;
 
 import com.eternitywall.ots.Utils;
 
-import java.io.DataOutputStream;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipException;
 
 /**
- * For making an HTTP request.
+ * For making an HTTP request through the shared {@link HttpTransport}.
  */
 public class Request implements Callable<Response> {
     private static Logger log = Utils.getLogger(Request.class.getName());
@@ -25,6 +20,7 @@ public class Request implements Callable<Response> {
     private byte[] data;
     private Map<String, String> headers;
     private BlockingQueue<Response> queue;
+    private long maxResponseBytes = HttpTransports.DEFAULT_MAX_RESPONSE_BYTES;
 
     public Request(URL url) {
         this.url = url;
@@ -42,56 +38,24 @@ public class Request implements Callable<Response> {
         this.queue = queue;
     }
 
-    /*
-        urlConnection.setRequestProperty("Accept", "application/vnd.opentimestamps.v1");
-        urlConnection.setRequestProperty("User-Agent", "java-opentimestamps");
-        urlConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-    */
+    /** Cap on the response body; larger responses fail with {@link ResponseTooLargeException}. */
+    public void setMaxResponseBytes(long maxResponseBytes) {
+        this.maxResponseBytes = maxResponseBytes;
+    }
 
     @Override
     public Response call() throws Exception {
-        Response response = new Response();
+        Response response = null;
 
         try {
-            HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
-            httpURLConnection.setReadTimeout(10000);
-            httpURLConnection.setConnectTimeout(10000);
-            httpURLConnection.setRequestProperty("User-Agent", "OpenTimestamps Java");
-            httpURLConnection.setRequestProperty("Accept", "application/json");
-            httpURLConnection.setRequestProperty("Accept-Encoding", "gzip");
-
-            if (headers != null) {
-                for (Map.Entry<String, String> entry : headers.entrySet()) {
-                    httpURLConnection.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-            }
-
-            if (data != null) {
-                httpURLConnection.setDoOutput(true);
-                httpURLConnection.setRequestMethod("POST");
-                httpURLConnection.setRequestProperty("Content-Length", "" + Integer.toString(this.data.length));
-                DataOutputStream wr = new DataOutputStream(httpURLConnection.getOutputStream());
-                wr.write(this.data, 0, this.data.length);
-                wr.flush();
-                wr.close();
-            } else {
-                httpURLConnection.setRequestMethod("GET");
-            }
-
-            httpURLConnection.connect();
-
-            int responseCode = httpURLConnection.getResponseCode();
-            response.setStatus(responseCode);
-            response.setFromUrl(url.toString());
-            InputStream is = httpURLConnection.getInputStream();
-            if ("gzip".equals(httpURLConnection.getContentEncoding())) {
-                is = new GZIPInputStream(is);
-            }
-            response.setStream(is);
+            response = HttpTransports.get().execute(url, data, headers, maxResponseBytes);
         } catch (Exception e) {
             log.warning(url.toString() + " exception " + e);
+            response = new Response();
+            response.setFromUrl(url.toString());
+            response.setError(e);
         } finally {
-            if (queue != null) {
+            if (queue != null && response != null) {
                 queue.offer(response);
             }
         }
@@ -15,6 +15,7 @@ public class Response {
     private InputStream stream;
     private String fromUrl;
     private Integer status;
+    private Exception error;
 
     public Response() {
     }
@@ -47,6 +48,15 @@ public class Response {
         this.fromUrl = fromUrl;
     }
 
+    /** Why the request failed before a response arrived, or null. */
+    public Exception getError() {
+        return error;
+    }
+
+    public void setError(Exception error) {
+        this.error = error;
+    }
+
     public InputStream getStream() {
         return this.stream;
     }
@@ -60,8 +70,14 @@ public class Response {
         int nRead;
         byte[] data = new byte[16384];
 
-        while ((nRead = this.stream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
+        // OkHttpTransport hands over a buffered body, so this only drains memory; closing
+        // still matters for a transport that streams, to free its connection.
+        try {
+            while ((nRead = this.stream.read(data, 0, data.length)) != -1) {
+                buffer.write(data, 0, nRead);
+            }
+        } finally {
+            this.stream.close();
         }
 
         buffer.flush();
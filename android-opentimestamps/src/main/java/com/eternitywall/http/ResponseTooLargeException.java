@@ -0,0 +1,10 @@
+package com.eternitywall.http;
+
+import java.io.IOException;
+
+/** The response body went past the limit the request allowed. */
+public class ResponseTooLargeException extends IOException {
+    public ResponseTooLargeException(String message) {
+        super(message);
+    }
+}
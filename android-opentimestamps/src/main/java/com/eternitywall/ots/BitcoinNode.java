@@ -106,6 +106,12 @@ public class BitcoinNode {
         blockHeader.setMerkleroot(result.getString("merkleroot"));
         blockHeader.setBlockHash(hash);
         blockHeader.setTime(String.valueOf(result.getInt("time")));
+        blockHeader.setPreviousBlockHash(result.optString("previousblockhash", null));
+        if (result.has("version") && result.has("bits") && result.has("nonce")) {
+            blockHeader.setVersion(result.getLong("version"));
+            blockHeader.setBits(Long.parseLong(result.getString("bits"), 16));
+            blockHeader.setNonce(result.getLong("nonce"));
+        }
 
         return blockHeader;
     }
@@ -6,6 +6,13 @@ public class BlockHeader {
     private String blockHash;
     private String time;
 
+    // Optional raw header fields, present when the source reported them. They allow the
+    // header to be re-hashed and its proof of work checked (see BlockHeaderCache).
+    private String previousBlockHash;
+    private Long version;
+    private Long bits;
+    private Long nonce;
+
     public void setTime(String time) {
         this.time = time;
     }
@@ -30,6 +37,44 @@ public class BlockHeader {
         this.blockHash = blockHash;
     }
 
+    public String getPreviousBlockHash() {
+        return previousBlockHash;
+    }
+
+    public void setPreviousBlockHash(String previousBlockHash) {
+        this.previousBlockHash = previousBlockHash;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Long getBits() {
+        return bits;
+    }
+
+    public void setBits(Long bits) {
+        this.bits = bits;
+    }
+
+    public Long getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(Long nonce) {
+        this.nonce = nonce;
+    }
+
+    /** Whether every field of the 80-byte header is known. */
+    public boolean hasRawFields() {
+        return previousBlockHash != null && version != null && bits != null && nonce != null
+                && merkleroot != null && blockHash != null && time != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,242 @@
+package com.eternitywall.ots;
+
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+import com.eternitywall.ots.exceptions.VerificationException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Block headers already looked up for verification, keyed by chain and height.
+ * <p>
+ * {@link OpenTimestamps#verify(Timestamp)} consults the cache before asking a node or
+ * Esplora, so a gallery anchored in a handful of blocks costs a handful of lookups, and a
+ * proof verified once can be verified again offline. Entries are least-recently-used
+ * beyond {@code maxEntries}. With a backing file every new header is appended to it, and the
+ * file is rewritten to the retained entries when loading finds it has grown past the bound.
+ * <p>
+ * With validation on, a Bitcoin header is only cached if it re-hashes to its block hash,
+ * meets the proof-of-work target in its {@code bits}, and links to any cached neighbour
+ * (its previous hash matches the header below, and the header above points at it).
+ * Headers missing the raw fields needed for this are rejected.
+ */
+public class BlockHeaderCache {
+
+    public final static int DEFAULT_MAX_ENTRIES = 20000;
+
+    private static Logger log = Utils.getLogger(BlockHeaderCache.class.getName());
+
+    private final File mFile;
+    private final boolean mValidate;
+    private final int mMaxEntries;
+    private final LinkedHashMap<String, BlockHeader> mEntries;
+    private boolean mLoaded = false;
+
+    /** In-memory only, no validation. */
+    public BlockHeaderCache(int maxEntries) {
+        this(null, maxEntries, false);
+    }
+
+    /**
+     * @param file     backing file, or null to keep headers in memory only
+     * @param validate check hash, proof of work and linkage before caching
+     */
+    public BlockHeaderCache(File file, int maxEntries, boolean validate) {
+        mFile = file;
+        mValidate = validate;
+        mMaxEntries = Math.max(1, maxEntries);
+        mEntries = new LinkedHashMap<String, BlockHeader>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BlockHeader> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    public synchronized BlockHeader get(String chain, int height) {
+        load();
+        return mEntries.get(key(chain, height));
+    }
+
+    /**
+     * Remember the header at {@code height}.
+     *
+     * @throws VerificationException if validation is on and the header fails it.
+     */
+    public synchronized void put(String chain, int height, BlockHeader header) throws VerificationException {
+        load();
+
+        if (mValidate)
+            validate(chain, height, header);
+
+        String key = key(chain, height);
+        if (header.equals(mEntries.get(key)))
+            return;
+
+        mEntries.put(key, header);
+        append(chain, height, header);
+    }
+
+    public synchronized int size() {
+        load();
+        return mEntries.size();
+    }
+
+    private void validate(String chain, int height, BlockHeader header) throws VerificationException {
+        if (!BitcoinBlockHeaderAttestation.chain.equals(chain))
+            return; // Only Bitcoin's SHA-256d proof of work is checked.
+
+        if (!header.hasRawFields())
+            throw new VerificationException("Header at " + height + " lacks the fields needed to validate it");
+
+        byte[] hash = headerHash(header);
+        if (!Utils.bytesToHex(Utils.arrayReverse(hash)).equalsIgnoreCase(header.getBlockHash()))
+            throw new VerificationException("Header at " + height + " does not hash to " + header.getBlockHash());
+
+        if (new BigInteger(1, Utils.arrayReverse(hash)).compareTo(target(header.getBits())) > 0)
+            throw new VerificationException("Header at " + height + " does not meet its proof-of-work target");
+
+        BlockHeader below = mEntries.get(key(chain, height - 1));
+        if (below != null && !below.getBlockHash().equalsIgnoreCase(header.getPreviousBlockHash()))
+            throw new VerificationException("Header at " + height + " does not link to cached header below");
+
+        BlockHeader above = mEntries.get(key(chain, height + 1));
+        if (above != null && above.getPreviousBlockHash() != null
+                && !above.getPreviousBlockHash().equalsIgnoreCase(header.getBlockHash()))
+            throw new VerificationException("Header at " + height + " is not the parent of cached header above");
+    }
+
+    /** SHA-256d of the serialized 80-byte header, in internal (little-endian) byte order. */
+    static byte[] headerHash(BlockHeader header) {
+        ByteBuffer buf = ByteBuffer.allocate(80).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(header.getVersion().intValue());
+        buf.put(Utils.arrayReverse(Utils.hexToBytes(header.getPreviousBlockHash())));
+        buf.put(Utils.arrayReverse(Utils.hexToBytes(header.getMerkleroot())));
+        buf.putInt(header.getTime().intValue());
+        buf.putInt(header.getBits().intValue());
+        buf.putInt(header.getNonce().intValue());
+
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return sha256.digest(sha256.digest(buf.array()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Expand the compact {@code nBits} encoding into the 256-bit target. */
+    static BigInteger target(long bits) {
+        int exponent = (int) ((bits >>> 24) & 0xff);
+        BigInteger mantissa = BigInteger.valueOf(bits & 0x007fffffL);
+        return exponent <= 3
+                ? mantissa.shiftRight(8 * (3 - exponent))
+                : mantissa.shiftLeft(8 * (exponent - 3));
+    }
+
+    private static String key(String chain, int height) {
+        return chain + ":" + height;
+    }
+
+    private void load() {
+        if (mLoaded)
+            return;
+        mLoaded = true;
+
+        if (mFile == null || !mFile.exists())
+            return;
+
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.trim().split(" ");
+                if (f.length < 5)
+                    continue;
+                try {
+                    BlockHeader header = new BlockHeader();
+                    header.setBlockHash(f[2]);
+                    header.setMerkleroot(f[3]);
+                    header.setTime(f[4]);
+                    if (f.length >= 9) {
+                        header.setPreviousBlockHash(orNull(f[5]));
+                        header.setVersion(f[6].equals("-") ? null : Long.valueOf(f[6]));
+                        header.setBits(f[7].equals("-") ? null : Long.valueOf(f[7]));
+                        header.setNonce(f[8].equals("-") ? null : Long.valueOf(f[8]));
+                    }
+                    mEntries.put(key(f[0], Integer.parseInt(f[1])), header);
+                    lines++;
+                } catch (RuntimeException e) {
+                    // torn or hand-edited line; skip it
+                }
+            }
+        } catch (IOException e) {
+            log.warning("Could not read block header cache: " + e.getMessage());
+            return;
+        }
+
+        if (lines > mEntries.size() + mMaxEntries / 4)
+            rewrite();
+    }
+
+    private void append(String chain, int height, BlockHeader header) {
+        if (mFile == null)
+            return;
+
+        File parent = mFile.getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(mFile, true), StandardCharsets.UTF_8)) {
+            out.write(line(chain, height, header));
+        } catch (IOException e) {
+            log.warning("Could not append to block header cache: " + e.getMessage());
+        }
+    }
+
+    private void rewrite() {
+        File tmp = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, BlockHeader> entry : mEntries.entrySet()) {
+                    int sep = entry.getKey().lastIndexOf(':');
+                    out.write(line(entry.getKey().substring(0, sep),
+                            Integer.parseInt(entry.getKey().substring(sep + 1)), entry.getValue()));
+                }
+            }
+            if (!tmp.renameTo(mFile))
+                throw new IOException("rename failed");
+        } catch (IOException e) {
+            log.warning("Could not compact block header cache: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private static String line(String chain, int height, BlockHeader h) {
+        return chain + " " + height + " " + h.getBlockHash() + " " + h.getMerkleroot() + " " + h.getTime()
+                + " " + orDash(h.getPreviousBlockHash()) + " " + orDash(h.getVersion())
+                + " " + orDash(h.getBits()) + " " + orDash(h.getNonce()) + "\n";
+    }
+
+    private static String orDash(Object value) {
+        return value == null ? "-" : value.toString();
+    }
+
+    private static String orNull(String value) {
+        return "-".equals(value) ? null : value;
+    }
+}
@@ -2,6 +2,7 @@ package com.eternitywall.ots;
 
 import com.eternitywall.http.Request;
 import com.eternitywall.http.Response;
+import com.eternitywall.http.ResponseTooLargeException;
 import com.eternitywall.ots.exceptions.CommitmentNotFoundException;
 import com.eternitywall.ots.exceptions.DeserializationException;
 import com.eternitywall.ots.exceptions.ExceededSizeException;
@@ -18,6 +19,9 @@ import java.util.logging.Logger;
  */
 public class Calendar {
 
+    /** Largest calendar response accepted; the transport stops reading past it. */
+    public static final int MAX_RESPONSE_BYTES = 10000;
+
     private String url;
     private ECKey key;
 
@@ -85,11 +89,10 @@ public class Calendar {
             Request task = new Request(obj);
             task.setData(digest);
             task.setHeaders(headers);
+            task.setMaxResponseBytes(MAX_RESPONSE_BYTES);
             Response response = task.call();
+            checkSize(response);
             byte[] body = response.getBytes();
-            if (body.length > 10000) {
-                throw new ExceededSizeException("Calendar response exceeded size limit");
-            }
 
             StreamDeserializationContext ctx = new StreamDeserializationContext(body);
             return Timestamp.deserialize(ctx, digest);
@@ -122,11 +125,10 @@ public class Calendar {
             URL obj = new URL(url + "/timestamp/" + Utils.bytesToHex(commitment).toLowerCase());
             Request task = new Request(obj);
             task.setHeaders(headers);
+            task.setMaxResponseBytes(MAX_RESPONSE_BYTES);
             Response response = task.call();
+            checkSize(response);
             byte[] body = response.getBytes();
-            if (body.length > 10000) {
-                throw new ExceededSizeException("Calendar response exceeded size limit");
-            }
 
             if (!response.isOk()) {
                 throw new CommitmentNotFoundException("com.eternitywall.ots.Calendar response a status code != 200 which is: " + response.getStatus());
@@ -144,4 +146,10 @@ public class Calendar {
             throw new UrlException(e.getMessage());
         }
     }
+
+    static void checkSize(Response response) throws ExceededSizeException {
+        if (response.getError() instanceof ResponseTooLargeException) {
+            throw new ExceededSizeException("Calendar response exceeded size limit");
+        }
+    }
 }
@@ -63,6 +63,7 @@ public class CalendarAsyncSubmit implements Callable<Optional<Timestamp>> {
         Request task = new Request(obj);
         task.setData(digest);
         task.setHeaders(headers);
+        task.setMaxResponseBytes(Calendar.MAX_RESPONSE_BYTES);
         Response response = task.call();
 
         if (response.isOk()) {
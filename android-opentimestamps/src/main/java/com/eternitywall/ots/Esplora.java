@@ -5,7 +5,6 @@ import com.eternitywall.http.Response;
 import org.json.JSONObject;
 
 import java.net.URL;
-import java.util.concurrent.*;
 import java.util.logging.Logger;
 
 public class Esplora {
@@ -22,11 +21,7 @@ public class Esplora {
      */
     public static BlockHeader block(final String hash) throws Exception {
         final URL url = new URL(esploraUrl + "/block/" + hash);
-        final Request task = new Request(url);
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        final Future<Response> future = executor.submit(task);
-        final Response take = future.get();
-        executor.shutdown();
+        final Response take = new Request(url).call();
         if (!take.isOk())
             throw new Exception();
 
@@ -37,6 +32,12 @@ public class Esplora {
         blockHeader.setMerkleroot(merkleroot);
         blockHeader.setTime(time);
         blockHeader.setBlockHash(hash);
+        blockHeader.setPreviousBlockHash(jsonObject.optString("previousblockhash", null));
+        if (jsonObject.has("version") && jsonObject.has("bits") && jsonObject.has("nonce")) {
+            blockHeader.setVersion(jsonObject.getLong("version"));
+            blockHeader.setBits(jsonObject.getLong("bits"));
+            blockHeader.setNonce(jsonObject.getLong("nonce"));
+        }
         log.info(take.getFromUrl() + " " + blockHeader);
         return blockHeader;
         //log.warning("Cannot parse merkleroot from body: " + jsonObject + ": " + e.getMessage());
@@ -51,11 +52,7 @@ public class Esplora {
      */
     public static String blockHash(final Integer height) throws Exception {
         final URL url = new URL(esploraUrl + "/block-height/" + height);
-        final Request task = new Request(url);
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        final Future<Response> future = executor.submit(task);
-        final Response take = future.get();
-        executor.shutdown();
+        final Response take = new Request(url).call();
         if (!take.isOk())
             throw new Exception();
         final String blockHash = take.getString();
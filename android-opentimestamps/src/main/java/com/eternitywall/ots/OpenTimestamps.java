@@ -38,6 +38,32 @@ public class OpenTimestamps {
 
     private static Logger log = Utils.getLogger(OpenTimestamps.class.getName());
 
+    /**
+     * Calendar submissions for every stamp share these threads (and, through
+     * {@link com.eternitywall.http.HttpTransports}, one connection pool) instead of spinning
+     * up a fresh pool per call.
+     */
+    private static final ExecutorService sCalendarExecutor = Executors.newFixedThreadPool(8, r -> {
+        Thread t = new Thread(r, "ots-calendar");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Block headers already looked up by {@link #verify(Timestamp)}. */
+    private static volatile BlockHeaderCache sHeaderCache = new BlockHeaderCache(BlockHeaderCache.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Replace the cache that block-header lookups go through, e.g. with a file-backed one so
+     * re-verification works offline. Defaults to an in-memory cache.
+     */
+    public static void setBlockHeaderCache(BlockHeaderCache cache) {
+        sHeaderCache = cache != null ? cache : new BlockHeaderCache(BlockHeaderCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    public static BlockHeaderCache getBlockHeaderCache() {
+        return sHeaderCache;
+    }
+
     /**
      * Show information on a detached timestamp.
      *
@@ -200,7 +226,7 @@ public class OpenTimestamps {
      */
     private static Timestamp create(Timestamp timestamp, List<String> calendarUrls, Integer m, HashMap<String, String> privateCalendarUrls) {
         int capacity = calendarUrls.size() + privateCalendarUrls.size();
-        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService executor = sCalendarExecutor;
         ArrayBlockingQueue<Optional<Timestamp>> queue = new ArrayBlockingQueue<>(capacity);
 
         // Submit to all private calendars with the signature key
@@ -268,9 +294,6 @@ public class OpenTimestamps {
             log.severe("Failed to create timestamp: requested " + String.valueOf(m) + " attestation" + ((m > 1) ? "s" : "") + " but received only " + String.valueOf(count));
         }
 
-        //shut down the executor service now
-        executor.shutdown();
-
         return timestamp;
     }
 
@@ -332,7 +355,7 @@ public class OpenTimestamps {
     public static HashMap<VerifyResult.Chains, VerifyResult> verify(Timestamp timestamp) throws Exception {
         HashMap<VerifyResult.Chains, VerifyResult> verifyResults = new HashMap<>();
 
-        for (Map.Entry<byte[], TimeAttestation> item : timestamp.allAttestations().entrySet()) {
+        for (Map.Entry<byte[], TimeAttestation> item : timestamp.allAttestationEntries()) {
             byte[] msg = item.getKey();
             TimeAttestation attestation = item.getValue();
             VerifyResult verifyResult = null;
@@ -394,7 +417,12 @@ public class OpenTimestamps {
      */
     public static Long verify(BitcoinBlockHeaderAttestation attestation, byte[] msg) throws VerificationException, Exception {
         Integer height = attestation.getHeight();
-        BlockHeader blockInfo;
+        BlockHeaderCache cache = sHeaderCache;
+        BlockHeader blockInfo = cache.get(BitcoinBlockHeaderAttestation.chain, height);
+
+        if (blockInfo != null) {
+            return attestation.verifyAgainstBlockheader(Utils.arrayReverse(msg), blockInfo);
+        }
 
         try {
             Properties properties = BitcoinNode.readBitcoinConf();
@@ -413,6 +441,7 @@ public class OpenTimestamps {
             }
         }
 
+        cacheHeader(cache, BitcoinBlockHeaderAttestation.chain, height, blockInfo);
         return attestation.verifyAgainstBlockheader(Utils.arrayReverse(msg), blockInfo);
     }
 
@@ -427,7 +456,12 @@ public class OpenTimestamps {
      */
     public static Long verify(LitecoinBlockHeaderAttestation attestation, byte[] msg) throws VerificationException, Exception {
         Integer height = attestation.getHeight();
-        BlockHeader blockInfo;
+        BlockHeaderCache cache = sHeaderCache;
+        BlockHeader blockInfo = cache.get(LitecoinBlockHeaderAttestation.chain, height);
+
+        if (blockInfo != null) {
+            return attestation.verifyAgainstBlockheader(Utils.arrayReverse(msg), blockInfo);
+        }
 
         try {
             String blockHash = blockHash = Esplora.blockHash(height);
@@ -438,9 +472,22 @@ public class OpenTimestamps {
             throw e2;
         }
 
+        cacheHeader(cache, LitecoinBlockHeaderAttestation.chain, height, blockInfo);
         return attestation.verifyAgainstBlockheader(Utils.arrayReverse(msg), blockInfo);
     }
 
+    /**
+     * Remember a fetched header. A header the cache refuses is still used for this
+     * verification, exactly as if there were no cache; it is just not kept.
+     */
+    private static void cacheHeader(BlockHeaderCache cache, String chain, int height, BlockHeader header) {
+        try {
+            cache.put(chain, height, header);
+        } catch (VerificationException e) {
+            log.warning("Not caching block header: " + e.getMessage());
+        }
+    }
+
     /**
      * Upgrade a timestamp.
      *
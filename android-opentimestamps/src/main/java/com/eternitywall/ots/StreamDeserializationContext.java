@@ -40,8 +40,21 @@ public class StreamDeserializationContext {
         return uint8Array;
     }
 
+    /**
+     * Read one byte without allocating.
+     *
+     * @return the byte as 0..255, or -1 at the end of the stream.
+     */
+    public int readByte() {
+        if (this.counter >= this.buffer.length) {
+            return -1;
+        }
+
+        return this.buffer[this.counter++] & 0xff;
+    }
+
     public boolean readBool() {
-        byte b = this.read(1)[0];
+        byte b = (byte) this.readByte();
 
         if (b == 0xff) {
             return true;
@@ -55,10 +68,13 @@ public class StreamDeserializationContext {
     public int readVaruint() {
         int value = 0;
         byte shift = 0;
-        byte b;
+        int b;
 
         do {
-            b = this.read(1)[0];
+            b = this.readByte();
+            if (b < 0) {
+                throw new IndexOutOfBoundsException("varuint runs past end of stream");
+            }
             value |= (b & 0b01111111) << shift;
             shift += 7;
         } while ((b & 0b10000000) != 0b00000000);
@@ -66,32 +66,43 @@ public class Timestamp {
      */
     public static Timestamp deserialize(StreamDeserializationContext ctx, byte[] initialMsg)
         throws DeserializationException {
-        Timestamp self = new Timestamp(initialMsg);
-        byte tag = ctx.readBytes(1)[0];
+        // Iterative walk: each node is a run of 0xff-prefixed items followed by a final
+        // item, where an item is an attestation (0x00) or an op and the child it leads to.
+        // The stack holds the nodes whose final item has not been read yet, so deep or
+        // wide trees cost neither Java stack nor a byte[] per tag.
+        Timestamp root = new Timestamp(initialMsg);
+        ArrayDeque<Timestamp> open = new ArrayDeque<>();
+        open.push(root);
+
+        while (!open.isEmpty()) {
+            Timestamp node = open.peek();
+
+            int tag = ctx.readByte();
+            boolean more = tag == 0xff;
+            if (more) {
+                tag = ctx.readByte();
+            }
+            if (tag < 0) {
+                throw new DeserializationException("Timestamp ends mid-tree");
+            }
+            if (!more) {
+                open.pop();
+            }
 
-        while ((tag & 0xff) == 0xff) {
-            byte current = ctx.readBytes(1)[0];
-            doTagOrAttestation(self, ctx, current, initialMsg);
-            tag = ctx.readBytes(1)[0];
+            if (tag == 0x00) {
+                node.attestations.add(TimeAttestation.deserialize(ctx));
+            } else {
+                Op op = Op.deserializeFromTag(ctx, (byte) tag);
+                if (op == null) {
+                    throw new DeserializationException("Unknown operation tag " + tag);
+                }
+                Timestamp child = new Timestamp(op.call(node.msg));
+                node.ops.put(op, child);
+                open.push(child);
+            }
         }
 
-        doTagOrAttestation(self, ctx, tag, initialMsg);
-
-        return self;
-    }
-
-    private static void doTagOrAttestation(Timestamp self, StreamDeserializationContext ctx, byte tag, byte[] initialMsg)
-        throws DeserializationException {
-        if ((tag & 0xff) == 0x00) {
-            TimeAttestation attestation = TimeAttestation.deserialize(ctx);
-            self.attestations.add(attestation);
-        } else {
-            Op op = Op.deserializeFromTag(ctx, tag);
-            byte[] result = op.call(initialMsg);
-
-            Timestamp stamp = Timestamp.deserialize(ctx, result);
-            self.ops.put(op, stamp);
-        }
+        return root;
     }
 
     /**
@@ -192,12 +203,12 @@ public class Timestamp {
      */
     public TimeAttestation shrink() throws Exception {
         // Get all attestations
-        HashMap<byte[], TimeAttestation> allAttestations = this.allAttestations();
+        List<Map.Entry<byte[], TimeAttestation>> allAttestations = this.allAttestationEntries();
 
         if (allAttestations.size() == 0) {
             throw new Exception();
         } else if (allAttestations.size() == 1) {
-            return allAttestations.values().iterator().next();
+            return allAttestations.get(0).getValue();
         } else if (this.ops.size() == 0) {
             throw new Exception();     // TODO: Need a descriptive exception string here
         }
@@ -228,7 +239,7 @@ public class Timestamp {
 
         // Only pending attestations : return the first
         if (minAttestation == null) {
-            return allAttestations.values().iterator().next();
+            return allAttestations.get(0).getValue();
         }
 
         // Remove attestation if not min attestation
@@ -461,7 +472,7 @@ public class Timestamp {
     public Set<TimeAttestation> getAttestations() {
         Set set = new HashSet<TimeAttestation>();
 
-        for (Map.Entry<byte[], TimeAttestation> item : this.allAttestations().entrySet()) {
+        for (Map.Entry<byte[], TimeAttestation> item : this.allAttestationEntries()) {
             //byte[] msg = item.getKey();
             TimeAttestation attestation = item.getValue();
             set.add(attestation);
@@ -476,7 +487,7 @@ public class Timestamp {
      * @return True if the timestamp is complete, False otherwise.
      */
     public Boolean isTimestampComplete() {
-        for (Map.Entry<byte[], TimeAttestation> item : this.allAttestations().entrySet()) {
+        for (Map.Entry<byte[], TimeAttestation> item : this.allAttestationEntries()) {
             //byte[] msg = item.getKey();
             TimeAttestation attestation = item.getValue();
 
@@ -489,28 +500,44 @@ public class Timestamp {
     }
 
     /**
-     * Iterate over all attestations recursively
+     * Every attestation in the tree paired with the message it attests, in tree order.
+     * A node carrying several attestations contributes one entry for each.
      *
-     * @return Returns iterable of (msg, attestation)
+     * @return Returns list of (msg, attestation)
      */
-    public HashMap<byte[], TimeAttestation> allAttestations() {
-        HashMap<byte[], TimeAttestation> map = new HashMap<>();
+    public List<Map.Entry<byte[], TimeAttestation>> allAttestationEntries() {
+        List<Map.Entry<byte[], TimeAttestation>> list = new ArrayList<>();
+        ArrayDeque<Timestamp> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        while (!pending.isEmpty()) {
+            Timestamp node = pending.pop();
 
-        for (TimeAttestation attestation : this.attestations) {
-            map.put(this.msg, attestation);
+            for (TimeAttestation attestation : node.attestations) {
+                list.add(new AbstractMap.SimpleImmutableEntry<>(node.msg, attestation));
+            }
+
+            for (Timestamp child : node.ops.values()) {
+                pending.push(child);
+            }
         }
 
-        for (Map.Entry<Op, Timestamp> entry : this.ops.entrySet()) {
-            Timestamp ts = entry.getValue();
-            //Op op = entry.getKey();
+        return list;
+    }
 
-            HashMap<byte[], TimeAttestation> subMap = ts.allAttestations();
+    /**
+     * Iterate over all attestations recursively
+     *
+     * @return Returns iterable of (msg, attestation)
+     * @deprecated Keys are compared by array identity and a node with several attestations
+     * keeps only the last one; use {@link #allAttestationEntries()}.
+     */
+    @Deprecated
+    public HashMap<byte[], TimeAttestation> allAttestations() {
+        HashMap<byte[], TimeAttestation> map = new HashMap<>();
 
-            for (Map.Entry<byte[], TimeAttestation> item : subMap.entrySet()) {
-                byte[] msg = item.getKey();
-                TimeAttestation attestation = item.getValue();
-                map.put(msg, attestation);
-            }
+        for (Map.Entry<byte[], TimeAttestation> item : allAttestationEntries()) {
+            map.put(item.getKey(), item.getValue());
         }
 
         return map;
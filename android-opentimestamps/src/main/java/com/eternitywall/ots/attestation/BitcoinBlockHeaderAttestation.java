@@ -73,6 +73,10 @@ public class BitcoinBlockHeaderAttestation extends TimeAttestation {
 
     @Override
     public int compareTo(TimeAttestation o) {
+        if (!(o instanceof BitcoinBlockHeaderAttestation)) {
+            return Utils.compare(this._TAG(), o._TAG());
+        }
+
         BitcoinBlockHeaderAttestation ob = (BitcoinBlockHeaderAttestation) o;
 
         return this.height - ob.height;
@@ -51,6 +51,10 @@ public class EthereumBlockHeaderAttestation extends TimeAttestation {
 
     @Override
     public int compareTo(TimeAttestation o) {
+        if (!(o instanceof EthereumBlockHeaderAttestation)) {
+            return Utils.compare(this._TAG(), o._TAG());
+        }
+
         EthereumBlockHeaderAttestation ob = (EthereumBlockHeaderAttestation) o;
 
         return this.height - ob.height;
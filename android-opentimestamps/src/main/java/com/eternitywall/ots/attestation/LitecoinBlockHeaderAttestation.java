@@ -53,6 +53,10 @@ public class LitecoinBlockHeaderAttestation extends TimeAttestation {
 
     @Override
     public int compareTo(TimeAttestation o) {
+        if (!(o instanceof LitecoinBlockHeaderAttestation)) {
+            return Utils.compare(this._TAG(), o._TAG());
+        }
+
         LitecoinBlockHeaderAttestation ob = (LitecoinBlockHeaderAttestation) o;
 
         return this.height - ob.height;
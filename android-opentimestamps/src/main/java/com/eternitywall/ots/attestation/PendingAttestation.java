@@ -105,6 +105,10 @@ public class PendingAttestation extends TimeAttestation {
 
     @Override
     public int compareTo(TimeAttestation o) {
+        if (!(o instanceof PendingAttestation)) {
+            return Utils.compare(this._TAG(), o._TAG());
+        }
+
         PendingAttestation opa = (PendingAttestation) o;
 
         return Utils.compare(this.uri, opa.uri);
@@ -49,6 +49,10 @@ public class UnknownAttestation extends TimeAttestation {
 
     @Override
     public int compareTo(TimeAttestation o) {
+        if (!(o instanceof UnknownAttestation)) {
+            return Utils.compare(this._TAG(), o._TAG());
+        }
+
         UnknownAttestation ota = (UnknownAttestation) o;
 
         return Utils.compare(this.payload, ota.payload);
@@ -63,9 +63,12 @@ public abstract class Op implements Comparable<Op> {
      * @return The subclass Operation.
      */
     public static Op deserialize(StreamDeserializationContext ctx) throws DeserializationException {
-        byte tag = ctx.readBytes(1)[0];
+        int tag = ctx.readByte();
+        if (tag < 0) {
+            throw new DeserializationException("Missing operation tag");
+        }
 
-        return Op.deserializeFromTag(ctx, tag);
+        return Op.deserializeFromTag(ctx, (byte) tag);
     }
 
     /**
@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -23,6 +25,15 @@ public class OpCrypto extends OpUnary {
 
     private static Logger log = Utils.getLogger(OpCrypto.class.getName());
 
+    // MessageDigest.getInstance walks the provider list on every call, and a timestamp
+    // evaluates one hash op per node, so each thread keeps one instance per algorithm.
+    private static final ThreadLocal<Map<String, MessageDigest>> sDigests = new ThreadLocal<Map<String, MessageDigest>>() {
+        @Override
+        protected Map<String, MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
     public String _TAG_NAME = "";
 
     public String _HASHLIB_NAME() {
@@ -41,11 +52,27 @@ public class OpCrypto extends OpUnary {
         return OpUnary.deserializeFromTag(ctx, tag);
     }
 
+    /**
+     * The calling thread's digest for {@code _HASHLIB_NAME()}, reset and ready for use.
+     * Callers must finish with it (digest() resets it) before asking again.
+     */
+    protected MessageDigest digest() throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = sDigests.get();
+        MessageDigest digest = digests.get(this._HASHLIB_NAME());
+        if (digest == null) {
+            digest = MessageDigest.getInstance(this._HASHLIB_NAME());
+            digests.put(this._HASHLIB_NAME(), digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
     @Override
     public byte[] call(byte[] msg) {
         // For Sha1 & Sha256 use java.security.MessageDigest library
         try {
-            MessageDigest digest = MessageDigest.getInstance(this._HASHLIB_NAME());
+            MessageDigest digest = digest();
             byte[] hash = digest.digest(msg);
 
             return hash;
@@ -58,7 +85,7 @@ public class OpCrypto extends OpUnary {
     }
 
     public byte[] hashFd(StreamDeserializationContext ctx) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(this._HASHLIB_NAME());
+        MessageDigest digest = digest();
         byte[] chunk = ctx.read(1048576);
 
         while (chunk != null && chunk.length > 0) {
@@ -82,7 +109,7 @@ public class OpCrypto extends OpUnary {
     }
 
     public byte[] hashFd(InputStream inputStream) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(this._HASHLIB_NAME());
+        MessageDigest digest = digest();
         byte[] chunk = new byte[1048576];
         int count = inputStream.read(chunk, 0, 1048576);
 
@@ -19,6 +19,13 @@ public class OpRIPEMD160 extends OpCrypto {
 
     public static byte _TAG = 0x03;
 
+    private static final ThreadLocal<RIPEMD160Digest> sDigest = new ThreadLocal<RIPEMD160Digest>() {
+        @Override
+        protected RIPEMD160Digest initialValue() {
+            return new RIPEMD160Digest();
+        }
+    };
+
     @Override
     public byte _TAG() {
         return OpRIPEMD160._TAG;
@@ -45,7 +52,9 @@ public class OpRIPEMD160 extends OpCrypto {
 
     @Override
     public byte[] call(byte[] msg) {
-        RIPEMD160Digest digest = new RIPEMD160Digest();
+        // doFinal() resets the digest, so the thread's instance is ready for the next call.
+        RIPEMD160Digest digest = sDigest.get();
+        digest.reset();
         digest.update(msg, 0, msg.length);
         byte[] hash = new byte[digest.getDigestSize()];
         digest.doFinal(hash, 0);
@@ -0,0 +1,164 @@
+package org.witness.proofmode.notaries;
+
+import com.eternitywall.ots.DetachedTimestampFile;
+import com.eternitywall.ots.Hash;
+import com.eternitywall.ots.OpenTimestamps;
+import com.eternitywall.ots.Utils;
+
+import org.witness.proofmode.notarization.NotarizationListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Collects media hashes and stamps them together.
+ * <p>
+ * Every hash used to get its own {@link OpenTimestamps#stamp} call, i.e. its own thread pool
+ * and one round trip per calendar. The batcher holds hashes for up to {@link #getWindowMs()}
+ * or until {@link #getMaxBatchSize()} are pending, then stamps them all in one call: the
+ * library builds a Merkle tree over the nonce-appended leaves and submits only its tip to
+ * each calendar. Each leaf's timestamp then carries the path to the tip and the calendar
+ * attestations, so it serializes to a complete per-hash {@code .ots} file.
+ * <p>
+ * Listeners are called on the batcher's thread once their batch has been stamped. A hash
+ * submitted twice in the same window shares one leaf and both listeners get its result.
+ * <p>
+ * The pending batch is only held in memory. A hash whose batch had not been stamped when
+ * the process died is never reported back, so callers must not treat it as notarized until
+ * the listener runs; MediaWatcher's proof job journal stamps such hashes again on restart.
+ */
+public class OpenTimestampsBatcher {
+
+    public final static long DEFAULT_WINDOW_MS = 5000;
+    public final static int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final static String ALGO = "SHA256";
+
+    private static Logger log = Utils.getLogger(OpenTimestampsBatcher.class.getName());
+
+    private final ScheduledExecutorService mExec = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ots-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long mWindowMs;
+    private final int mMaxBatchSize;
+
+    private LinkedHashMap<String, List<NotarizationListener>> mPending = new LinkedHashMap<>();
+    private ScheduledFuture<?> mScheduledFlush = null;
+
+    public OpenTimestampsBatcher ()
+    {
+        this(DEFAULT_WINDOW_MS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public OpenTimestampsBatcher (long windowMs, int maxBatchSize)
+    {
+        mWindowMs = Math.max(0, windowMs);
+        mMaxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public long getWindowMs ()
+    {
+        return mWindowMs;
+    }
+
+    public int getMaxBatchSize ()
+    {
+        return mMaxBatchSize;
+    }
+
+    /** Queue a hex SHA-256 for the next batch. */
+    public synchronized void submit (String mediaHash, NotarizationListener listener)
+    {
+        List<NotarizationListener> listeners = mPending.get(mediaHash);
+        if (listeners == null) {
+            listeners = new ArrayList<>(1);
+            mPending.put(mediaHash, listeners);
+        }
+        listeners.add(listener);
+
+        if (mPending.size() >= mMaxBatchSize) {
+            cancelScheduledFlush();
+            mExec.execute(this::flush);
+        }
+        else if (mScheduledFlush == null) {
+            mScheduledFlush = mExec.schedule(this::flush, mWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Number of distinct hashes waiting for the next batch. */
+    public synchronized int pendingCount ()
+    {
+        return mPending.size();
+    }
+
+    /** Stamp whatever is pending now, on the caller's thread. */
+    public void flush ()
+    {
+        Map<String, List<NotarizationListener>> batch;
+        synchronized (this) {
+            cancelScheduledFlush();
+            if (mPending.isEmpty())
+                return;
+            batch = mPending;
+            mPending = new LinkedHashMap<>();
+        }
+
+        List<String> hashes = new ArrayList<>(batch.size());
+        List<Hash> digests = new ArrayList<>(batch.size());
+        List<DetachedTimestampFile> leaves = new ArrayList<>(batch.size());
+        for (String mediaHash : batch.keySet()) {
+            try {
+                Hash hash = new Hash(Utils.hexToBytes(mediaHash), ALGO);
+                leaves.add(DetachedTimestampFile.from(hash));
+                digests.add(hash);
+                hashes.add(mediaHash);
+            } catch (RuntimeException e) {
+                for (NotarizationListener listener : batch.get(mediaHash))
+                    listener.notarizationFailed(-1, "invalid hash: " + e.getMessage());
+            }
+        }
+
+        if (leaves.isEmpty())
+            return;
+
+        try {
+            OpenTimestamps.stamp(leaves, null, 0, null);
+        } catch (IOException | RuntimeException e) {
+            // Every listener hears back, so no caller waits on a batch that will never come.
+            log.warning("Batch of " + leaves.size() + " failed to stamp: " + e.getMessage());
+            for (String mediaHash : hashes)
+                for (NotarizationListener listener : batch.get(mediaHash))
+                    listener.notarizationFailed(-1, e.getMessage());
+            return;
+        }
+
+        log.info("Stamped " + leaves.size() + " hashes in one batch");
+
+        for (int i = 0; i < leaves.size(); i++) {
+            String mediaHash = hashes.get(i);
+            byte[] ots = new DetachedTimestampFile(digests.get(i).getOp(), leaves.get(i).getTimestamp()).serialize();
+
+            for (NotarizationListener listener : batch.get(mediaHash))
+                listener.notarizationSuccessful(mediaHash, ots);
+        }
+    }
+
+    private void cancelScheduledFlush ()
+    {
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+    }
+}
@@ -7,16 +7,14 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.util.Base64;
 
-import com.eternitywall.ots.DetachedTimestampFile;
-import com.eternitywall.ots.Hash;
+import com.eternitywall.ots.BlockHeaderCache;
 import com.eternitywall.ots.OpenTimestamps;
-import com.eternitywall.ots.Timestamp;
-import com.eternitywall.ots.Utils;
 
 import org.witness.proofmode.ProofMode;
 import org.witness.proofmode.notarization.NotarizationListener;
 import org.witness.proofmode.notarization.NotarizationProvider;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -26,16 +24,44 @@ import java.io.InputStream;
 
 public class OpenTimestampsNotarizationProvider implements NotarizationProvider {
 
-    private final static String ALGO = "SHA256";
+    /** Shared so every provider instance in the process feeds the same Merkle batches. */
+    private final static OpenTimestampsBatcher sDefaultBatcher = new OpenTimestampsBatcher();
+
+    private final static String HEADER_CACHE_FILE = "ots-block-headers.cache";
+    private static boolean sHeaderCacheInstalled = false;
 
     private final Context mContext;
+    private final OpenTimestampsBatcher mBatcher;
 
     public OpenTimestampsNotarizationProvider() {
         this(null);
     }
 
     public OpenTimestampsNotarizationProvider(Context context) {
+        this(context, sDefaultBatcher);
+    }
+
+    /**
+     * @param batcher collects hashes into Merkle batches; pass one with a zero window and a
+     *                batch size of 1 to stamp each hash on its own.
+     */
+    public OpenTimestampsNotarizationProvider(Context context, OpenTimestampsBatcher batcher) {
         this.mContext = context != null ? context.getApplicationContext() : null;
+        this.mBatcher = batcher;
+
+        if (mContext != null)
+            installHeaderCache(mContext);
+    }
+
+    /** Keep verified block headers in app storage so proofs re-verify without a network. */
+    private static synchronized void installHeaderCache(Context context) {
+        if (sHeaderCacheInstalled)
+            return;
+        OpenTimestamps.setBlockHeaderCache(new BlockHeaderCache(
+                new File(context.getFilesDir(), HEADER_CACHE_FILE),
+                BlockHeaderCache.DEFAULT_MAX_ENTRIES,
+                true));
+        sHeaderCacheInstalled = true;
     }
 
     /** Whether the user has the OpenTimestamps notarization provider enabled. */
@@ -47,29 +73,32 @@ public class OpenTimestampsNotarizationProvider implements NotarizationProvider
                 ProofMode.PREF_OPTION_NOTARY_OTS_DEFAULT);
     }
 
+    /**
+     * Only the hash is stamped, so the media stream is closed unread. The hash joins the
+     * current {@link OpenTimestampsBatcher} batch and the listener is called, off the
+     * caller's thread, once that batch has been stamped.
+     */
     @Override
     public void notarize(String mediaHash, String mimeType, InputStream is, NotarizationListener listener) {
 
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ignored) {
+            }
+        }
+
         if (!isEnabled()) {
+            listener.notarizationSkipped(mediaHash);
             return;
         }
 
-        try {
-            Hash hash = new Hash(Utils.hexToBytes(mediaHash), ALGO);
-
-            DetachedTimestampFile detached = DetachedTimestampFile.from(hash);
-            Timestamp stampResult = OpenTimestamps.stamp(detached,null,0, null);
-            DetachedTimestampFile detachedToSerialize = new DetachedTimestampFile(hash.getOp(), stampResult);
-
-          //  String result = new String(Base64.encode(detachedToSerialize.serialize(),Base64.DEFAULT));
-
-            listener.notarizationSuccessful(mediaHash, detachedToSerialize.serialize());
-        }
-        catch (IOException ioe)
-        {
-            listener.notarizationFailed(-1,ioe.getMessage());
+        mBatcher.submit(mediaHash, listener);
+    }
 
-        }
+    /** Stamp any hashes still waiting in this provider's batch now. */
+    public void flush() {
+        mBatcher.flush();
     }
 
     @Override
@@ -0,0 +1,80 @@
+package org.witness.proofmode.notaries;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.witness.proofmode.ProofMode;
+import org.witness.proofmode.service.MediaWatcher;
+import org.witness.proofmode.storage.DefaultStorageProvider;
+import org.witness.proofmode.storage.StorageProvider;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Periodically upgrades pending OpenTimestamps proofs with {@link OtsUpgrader}.
+ * <p>
+ * Calendars aggregate into a Bitcoin transaction every few hours, so the work runs every
+ * {@link #INTERVAL_HOURS} hours on any network and does nothing while OpenTimestamps
+ * notarization is turned off.
+ */
+public class OtsUpgradeWorker extends Worker {
+
+    public final static String WORK_NAME = "ots-upgrade";
+    public final static long INTERVAL_HOURS = 6;
+
+    private final static String INDEX_FILE = "ots-upgrade.index";
+
+    public OtsUpgradeWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                OtsUpgradeWorker.class, INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!prefs.getBoolean(ProofMode.PREF_OPTION_NOTARY_OTS, ProofMode.PREF_OPTION_NOTARY_OTS_DEFAULT))
+            return Result.success();
+
+        File root = DefaultStorageProvider.proofRoot(context);
+        if (!root.exists())
+            return Result.success();
+
+        // Save through the provider proof is written with, so its index, hooks and any
+        // secondary upload see the upgraded files.
+        MediaWatcher mw = MediaWatcher.getInstance(context);
+        StorageProvider storage = mw != null && mw.getStorageProvider() != null
+                ? mw.getStorageProvider() : new DefaultStorageProvider(context);
+
+        OtsUpgrader.Result result = new OtsUpgrader(root, new File(root.getParentFile(), INDEX_FILE), storage).run();
+        Timber.d("OTS upgrade: %s", result);
+        return Result.success();
+    }
+}
@@ -0,0 +1,363 @@
+package org.witness.proofmode.notaries;
+
+import com.eternitywall.ots.Calendar;
+import com.eternitywall.ots.DetachedTimestampFile;
+import com.eternitywall.ots.Timestamp;
+import com.eternitywall.ots.Utils;
+import com.eternitywall.ots.attestation.PendingAttestation;
+import com.eternitywall.ots.attestation.TimeAttestation;
+
+import org.witness.proofmode.storage.StorageListener;
+import org.witness.proofmode.storage.StorageProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Upgrades the pending {@code .ots} files under a proof folder in place.
+ * <p>
+ * Freshly stamped files only carry {@link PendingAttestation}s. Once the calendars have
+ * anchored their commitments in a Bitcoin block, {@link Calendar#getTimestamp} returns the
+ * path to the block header. Rather than calling {@code OpenTimestamps.upgrade} per file,
+ * the upgrader groups every pending sub-timestamp by (calendar URL, commitment) and fetches
+ * each distinct pair once, on a bounded pool, then merges the answer into every file that
+ * shares it. Since stamping is batched, a whole session of photos usually shares a single
+ * commitment per calendar.
+ * <p>
+ * Files found complete are recorded in an index together with their modification time and
+ * are not read again while unchanged. Only calendars in the allow list are contacted; the
+ * URL inside a pending attestation comes from the file and is not otherwise trusted.
+ * <p>
+ * Upgraded files are written back through the {@link StorageProvider} the upgrader is given,
+ * as {@code <hash>.ots} under their hash, so the provider's index, durable writes, layout and
+ * artifact-saved hooks (and with them any re-upload) see the new proof. Without a provider
+ * the files are replaced in place.
+ */
+public class OtsUpgrader {
+
+    public final static int DEFAULT_PARALLELISM = 4;
+
+    /** The calendars {@code OpenTimestamps.stamp} submits to by default. */
+    public final static List<String> DEFAULT_CALENDARS = Arrays.asList(
+            "https://alice.btc.calendar.opentimestamps.org",
+            "https://bob.btc.calendar.opentimestamps.org",
+            "https://finney.calendar.eternitywall.com");
+
+    private final static String OTS_EXTENSION = ".ots";
+    private final static String COMPLETE = "complete:";
+
+    private static Logger log = Utils.getLogger(OtsUpgrader.class.getName());
+
+    /** Fetches the upgraded timestamp for one commitment from one calendar. */
+    public interface TimestampFetcher {
+        Timestamp fetch(String calendarUrl, byte[] commitment) throws Exception;
+    }
+
+    /** Counters for one {@link #run()}. */
+    public static class Result {
+        public int scanned;
+        public int skippedComplete;
+        public int pending;
+        public int commitmentsFetched;
+        public int commitmentsFailed;
+        public int filesUpgraded;
+        public int filesCompleted;
+
+        @Override
+        public String toString() {
+            return "scanned=" + scanned + " skipped=" + skippedComplete + " pending=" + pending
+                    + " fetched=" + commitmentsFetched + " failed=" + commitmentsFailed
+                    + " upgraded=" + filesUpgraded + " completed=" + filesCompleted;
+        }
+    }
+
+    private static class Member {
+        final File file;
+        final Timestamp subStamp;
+
+        Member(File file, Timestamp subStamp) {
+            this.file = file;
+            this.subStamp = subStamp;
+        }
+    }
+
+    private static class Group {
+        final String calendarUrl;
+        final byte[] commitment;
+        final List<Member> members = new ArrayList<>();
+
+        Group(String calendarUrl, byte[] commitment) {
+            this.calendarUrl = calendarUrl;
+            this.commitment = commitment;
+        }
+    }
+
+    private final File mRoot;
+    private final File mIndexFile;
+    private final StorageProvider mStorage;
+    private final int mParallelism;
+    private final Set<String> mCalendars;
+    private final TimestampFetcher mFetcher;
+
+    public OtsUpgrader(File root, File indexFile, StorageProvider storage) {
+        this(root, indexFile, storage, DEFAULT_PARALLELISM, DEFAULT_CALENDARS, null);
+    }
+
+    /**
+     * @param storage where upgraded files are saved; null to replace them in place.
+     * @param fetcher null to query the calendars with {@link Calendar#getTimestamp}, one
+     *                {@link Calendar} per URL for the whole run.
+     */
+    public OtsUpgrader(File root, File indexFile, StorageProvider storage, int parallelism,
+                       List<String> calendars, TimestampFetcher fetcher) {
+        mRoot = root;
+        mIndexFile = indexFile;
+        mStorage = storage;
+        mParallelism = Math.max(1, parallelism);
+        mCalendars = new HashSet<>(calendars);
+        mFetcher = fetcher != null ? fetcher : new CalendarFetcher();
+    }
+
+    /** Scan, fetch and rewrite. Safe to call repeatedly; each call is one pass. */
+    public Result run() {
+        Result result = new Result();
+        Properties index = loadIndex();
+        Set<String> seen = new HashSet<>();
+
+        Map<String, Group> groups = new LinkedHashMap<>();
+        Map<File, DetachedTimestampFile> loaded = new LinkedHashMap<>();
+
+        List<File> files = new ArrayList<>();
+        collect(mRoot, files);
+
+        for (File file : files) {
+            result.scanned++;
+            String key = indexKey(file);
+            seen.add(key);
+
+            if ((COMPLETE + file.lastModified()).equals(index.getProperty(key))) {
+                result.skippedComplete++;
+                continue;
+            }
+
+            DetachedTimestampFile ots;
+            try {
+                ots = DetachedTimestampFile.deserialize(Files.readAllBytes(file.toPath()));
+            } catch (Exception e) {
+                log.warning("Unreadable timestamp " + file + ": " + e.getMessage());
+                continue;
+            }
+
+            if (ots.getTimestamp().isTimestampComplete()) {
+                index.setProperty(key, COMPLETE + file.lastModified());
+                continue;
+            }
+
+            boolean pending = false;
+            for (Timestamp subStamp : ots.getTimestamp().directlyVerified()) {
+                for (TimeAttestation attestation : subStamp.attestations) {
+                    if (!(attestation instanceof PendingAttestation))
+                        continue;
+
+                    String calendarUrl = new String(((PendingAttestation) attestation).getUri(), StandardCharsets.UTF_8);
+                    if (!mCalendars.contains(calendarUrl)) {
+                        log.info("Skipping calendar not in allow list: " + calendarUrl);
+                        continue;
+                    }
+
+                    String groupKey = calendarUrl + " " + Utils.bytesToHex(subStamp.msg);
+                    Group group = groups.get(groupKey);
+                    if (group == null) {
+                        group = new Group(calendarUrl, subStamp.msg);
+                        groups.put(groupKey, group);
+                    }
+                    group.members.add(new Member(file, subStamp));
+                    pending = true;
+                }
+            }
+
+            if (pending) {
+                loaded.put(file, ots);
+                result.pending++;
+            }
+        }
+
+        Set<File> changed = new LinkedHashSet<>();
+
+        if (!groups.isEmpty()) {
+            ExecutorService exec = Executors.newFixedThreadPool(Math.min(mParallelism, groups.size()));
+            try {
+                Map<Group, Future<Timestamp>> fetches = new LinkedHashMap<>();
+                for (Group group : groups.values())
+                    fetches.put(group, exec.submit(() -> mFetcher.fetch(group.calendarUrl, group.commitment)));
+
+                for (Map.Entry<Group, Future<Timestamp>> entry : fetches.entrySet()) {
+                    Group group = entry.getKey();
+                    Timestamp upgraded;
+                    try {
+                        upgraded = entry.getValue().get();
+                    } catch (Exception e) {
+                        // Not anchored yet (or calendar unreachable): try again next run.
+                        result.commitmentsFailed++;
+                        continue;
+                    }
+                    if (upgraded == null) {
+                        result.commitmentsFailed++;
+                        continue;
+                    }
+                    result.commitmentsFetched++;
+
+                    for (Member member : group.members) {
+                        try {
+                            member.subStamp.merge(upgraded);
+                            changed.add(member.file);
+                        } catch (Exception e) {
+                            log.warning("Could not merge upgrade into " + member.file + ": " + e.getMessage());
+                        }
+                    }
+                }
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+
+        for (File file : changed) {
+            DetachedTimestampFile ots = loaded.get(file);
+            try {
+                save(file, ots.serialize());
+                result.filesUpgraded++;
+                if (ots.getTimestamp().isTimestampComplete()) {
+                    index.setProperty(indexKey(file), COMPLETE + file.lastModified());
+                    result.filesCompleted++;
+                }
+            } catch (IOException e) {
+                log.warning("Could not rewrite " + file + ": " + e.getMessage());
+            }
+        }
+
+        // Forget files that are gone so the index does not grow without bound.
+        index.keySet().retainAll(seen);
+        saveIndex(index);
+
+        log.info("OTS upgrade pass: " + result);
+        return result;
+    }
+
+    private void collect(File dir, List<File> out) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        for (File child : children) {
+            if (child.isDirectory())
+                collect(child, out);
+            else if (child.getName().endsWith(OTS_EXTENSION))
+                out.add(child);
+        }
+    }
+
+    private String indexKey(File file) {
+        String root = mRoot.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    private Properties loadIndex() {
+        Properties index = new Properties();
+        if (mIndexFile.exists()) {
+            try (FileInputStream in = new FileInputStream(mIndexFile)) {
+                index.load(in);
+            } catch (IOException e) {
+                log.warning("Could not read OTS upgrade index: " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private void saveIndex(Properties index) {
+        File tmp = new File(mIndexFile.getParentFile(), mIndexFile.getName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                index.store(out, null);
+            }
+            if (!tmp.renameTo(mIndexFile))
+                throw new IOException("rename failed");
+        } catch (IOException e) {
+            log.warning("Could not write OTS upgrade index: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private void save(File file, byte[] bytes) throws IOException {
+        if (mStorage == null) {
+            writeAtomically(file, bytes);
+            return;
+        }
+
+        String identifier = file.getName();
+        String hash = identifier.substring(0, identifier.length() - OTS_EXTENSION.length());
+        final Exception[] failure = {null};
+        try {
+            mStorage.saveBytes(hash, identifier, bytes, new StorageListener() {
+                @Override
+                public void saveSuccessful(String hash, String uri) {
+                }
+
+                @Override
+                public void saveFailed(Exception exception) {
+                    failure[0] = exception;
+                }
+            });
+        } catch (Exception e) {
+            failure[0] = e;
+        }
+        if (failure[0] != null)
+            throw new IOException("could not save " + identifier, failure[0]);
+    }
+
+    private static void writeAtomically(File file, byte[] bytes) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed for " + file);
+        }
+    }
+
+    private static class CalendarFetcher implements TimestampFetcher {
+        private final Map<String, Calendar> mCalendars = new LinkedHashMap<>();
+
+        @Override
+        public Timestamp fetch(String calendarUrl, byte[] commitment) throws Exception {
+            Calendar calendar;
+            synchronized (mCalendars) {
+                calendar = mCalendars.get(calendarUrl);
+                if (calendar == null) {
+                    calendar = new Calendar(calendarUrl);
+                    mCalendars.put(calendarUrl, calendar);
+                }
+            }
+            return calendar.getTimestamp(commitment);
+        }
+    }
+}
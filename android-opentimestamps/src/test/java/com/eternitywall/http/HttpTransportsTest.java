@@ -0,0 +1,90 @@
+package com.eternitywall.http;
+
+import com.eternitywall.ots.Calendar;
+import com.eternitywall.ots.Timestamp;
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpTransportsTest {
+
+    /** Answers every request with {@code body} and records the URL and cap it was given. */
+    private static class RecordingTransport implements HttpTransport {
+        final List<String> urls = new ArrayList<>();
+        final List<Long> caps = new ArrayList<>();
+        final byte[] body;
+
+        RecordingTransport(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public Response execute(URL url, byte[] data, Map<String, String> headers, long maxResponseBytes) {
+            urls.add(url.toString());
+            caps.add(maxResponseBytes);
+            Response response = new Response(new ByteArrayInputStream(body));
+            response.setStatus(200);
+            response.setFromUrl(url.toString());
+            return response;
+        }
+    }
+
+    @After
+    public void restoreDefault() {
+        HttpTransports.set(null);
+    }
+
+    @Test
+    public void set_routesEveryRequestThroughTheNewTransport() throws Exception {
+        byte[] commitment = new byte[32];
+        Arrays.fill(commitment, (byte) 0x11);
+        Timestamp upgraded = new Timestamp(commitment);
+        upgraded.attestations.add(new BitcoinBlockHeaderAttestation(800000));
+        RecordingTransport transport = new RecordingTransport(upgraded.serialize());
+
+        HttpTransports.set(transport);
+        Timestamp fetched = new Calendar("https://alice.btc.calendar.opentimestamps.org").getTimestamp(commitment);
+
+        assertTrue(fetched.isTimestampComplete());
+        assertEquals(1, transport.urls.size());
+        assertTrue(transport.urls.get(0).startsWith("https://alice.btc.calendar.opentimestamps.org/timestamp/1111"));
+        assertEquals(Long.valueOf(Calendar.MAX_RESPONSE_BYTES), transport.caps.get(0));
+    }
+
+    @Test
+    public void request_withoutItsOwnCap_usesTheDefault() throws Exception {
+        RecordingTransport transport = new RecordingTransport(new byte[0]);
+        HttpTransports.set(transport);
+
+        new Request(new URL("https://blockstream.info/api/blocks/tip/height")).call();
+
+        assertEquals(Long.valueOf(HttpTransports.DEFAULT_MAX_RESPONSE_BYTES), transport.caps.get(0));
+    }
+
+    @Test
+    public void setNull_restoresOneSharedOkHttpTransport() {
+        HttpTransport custom = new RecordingTransport(new byte[0]);
+        HttpTransports.set(custom);
+        assertSame(custom, HttpTransports.get());
+
+        HttpTransports.set(null);
+        HttpTransport restored = HttpTransports.get();
+
+        assertNotSame(custom, restored);
+        assertTrue(restored instanceof OkHttpTransport);
+        assertSame(restored, HttpTransports.get());
+    }
+}
@@ -0,0 +1,193 @@
+package com.eternitywall.http;
+
+import com.eternitywall.ots.Calendar;
+import com.eternitywall.ots.Timestamp;
+import com.eternitywall.ots.Utils;
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+import com.eternitywall.ots.attestation.PendingAttestation;
+import com.eternitywall.ots.exceptions.CommitmentNotFoundException;
+import com.eternitywall.ots.exceptions.ExceededSizeException;
+import com.eternitywall.ots.op.OpAppend;
+import com.eternitywall.ots.op.OpSHA256;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the transport, and {@link Calendar} on top of it, against a calendar stand-in on the
+ * loopback interface.
+ */
+public class OkHttpTransportTest {
+
+    private final static byte[] NONCE = new byte[]{1, 2, 3, 4};
+    private final static int HEIGHT = 800000;
+
+    private HttpServer mServer;
+    private String mBaseUrl;
+    private final Map<String, byte[]> mReceived = new ConcurrentHashMap<>();
+    private final Map<String, String> mContentTypes = new ConcurrentHashMap<>();
+
+    @Before
+    public void startCalendar() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        // Like a calendar: a pending stamp for every digest, an anchored one for a commitment,
+        // except that commitments starting 00 are unknown and ones starting ee answer too much.
+        mServer.createContext("/digest", exchange -> {
+            byte[] digest = readBody(exchange);
+            mReceived.put("/digest", digest);
+            mContentTypes.put("/digest", String.valueOf(exchange.getRequestHeaders().getFirst("Content-Type")));
+            Timestamp stamp = new Timestamp(digest);
+            stamp.add(new OpAppend(NONCE)).add(new OpSHA256()).attestations
+                    .add(new PendingAttestation(mBaseUrl.getBytes(StandardCharsets.UTF_8)));
+            send(exchange, 200, stamp.serialize(), false);
+        });
+        mServer.createContext("/timestamp/", exchange -> {
+            String hex = exchange.getRequestURI().getPath().substring("/timestamp/".length());
+            if (hex.startsWith("00")) {
+                send(exchange, 404, "Commitment not found".getBytes(StandardCharsets.UTF_8), false);
+                return;
+            }
+            if (hex.startsWith("ee")) {
+                send(exchange, 200, new byte[Calendar.MAX_RESPONSE_BYTES + 1], true);
+                return;
+            }
+            Timestamp upgraded = new Timestamp(Utils.hexToBytes(hex));
+            upgraded.attestations.add(new BitcoinBlockHeaderAttestation(HEIGHT));
+            send(exchange, 200, upgraded.serialize(), false);
+        });
+        mServer.createContext("/sized/", exchange -> {
+            int size = Integer.parseInt(exchange.getRequestURI().getPath().substring("/sized/".length()));
+            send(exchange, 200, new byte[size], false);
+        });
+        mServer.createContext("/chunked/", exchange -> {
+            int size = Integer.parseInt(exchange.getRequestURI().getPath().substring("/chunked/".length()));
+            send(exchange, 200, new byte[size], true);
+        });
+        mServer.start();
+
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void stopCalendar() {
+        mServer.stop(0);
+        HttpTransports.set(null);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Send {@code body}, with a Content-Length unless {@code chunked}. */
+    private static void send(HttpExchange exchange, int status, byte[] body, boolean chunked) throws IOException {
+        exchange.sendResponseHeaders(status, chunked ? 0 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] digest(int seed) {
+        byte[] digest = new byte[32];
+        Arrays.fill(digest, (byte) seed);
+        return digest;
+    }
+
+    @Test
+    public void post_sendsTheData_andReadsTheWholeBody() throws Exception {
+        byte[] digest = digest(7);
+        Response response = new OkHttpTransport().execute(new URL(mBaseUrl + "/digest"), digest,
+                Collections.singletonMap("Content-Type", "application/x-www-form-urlencoded"), 1024);
+
+        assertTrue(response.isOk());
+        assertEquals(mBaseUrl + "/digest", response.getFromUrl());
+        assertArrayEquals(digest, mReceived.get("/digest"));
+        assertEquals("application/x-www-form-urlencoded", mContentTypes.get("/digest"));
+        assertEquals(1, Timestamp.deserialize(response.getBytes(), digest).allAttestationEntries().size());
+    }
+
+    @Test
+    public void errorStatus_isReturnedWithItsBody() throws Exception {
+        Response response = new OkHttpTransport().execute(
+                new URL(mBaseUrl + "/timestamp/00ff"), null, null, 1024);
+
+        assertFalse(response.isOk());
+        assertEquals(Integer.valueOf(404), response.getStatus());
+        assertEquals("Commitment not found", response.getString());
+    }
+
+    @Test
+    public void bodyAtTheCap_isRead() throws Exception {
+        Response response = new OkHttpTransport().execute(new URL(mBaseUrl + "/sized/1024"), null, null, 1024);
+        assertEquals(1024, response.getBytes().length);
+
+        response = new OkHttpTransport().execute(new URL(mBaseUrl + "/chunked/1024"), null, null, 1024);
+        assertEquals(1024, response.getBytes().length);
+    }
+
+    @Test
+    public void declaredLengthOverTheCap_isRefused() throws Exception {
+        try {
+            new OkHttpTransport().execute(new URL(mBaseUrl + "/sized/1025"), null, null, 1024);
+            fail("expected ResponseTooLargeException");
+        } catch (ResponseTooLargeException expected) {
+        }
+    }
+
+    @Test
+    public void chunkedBodyOverTheCap_isRefused() throws Exception {
+        try {
+            new OkHttpTransport().execute(new URL(mBaseUrl + "/chunked/100000"), null, null, 1024);
+            fail("expected ResponseTooLargeException");
+        } catch (ResponseTooLargeException expected) {
+        }
+    }
+
+    @Test
+    public void calendar_submitsAndUpgrades_throughTheDefaultTransport() throws Exception {
+        Calendar calendar = new Calendar(mBaseUrl);
+        byte[] digest = digest(9);
+
+        Timestamp pending = calendar.submit(digest);
+        assertFalse(pending.isTimestampComplete());
+
+        byte[] commitment = pending.directlyVerified().get(0).msg;
+        Timestamp upgraded = calendar.getTimestamp(commitment);
+        assertTrue(upgraded.isTimestampComplete());
+        assertArrayEquals(commitment, upgraded.msg);
+    }
+
+    @Test(expected = CommitmentNotFoundException.class)
+    public void calendar_unknownCommitment_isNotFound() throws Exception {
+        byte[] commitment = digest(0);
+        new Calendar(mBaseUrl).getTimestamp(commitment);
+    }
+
+    @Test(expected = ExceededSizeException.class)
+    public void calendar_oversizedResponse_exceedsSize() throws Exception {
+        new Calendar(mBaseUrl).getTimestamp(digest(0xee));
+    }
+}
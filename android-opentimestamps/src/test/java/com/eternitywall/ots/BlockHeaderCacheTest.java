@@ -0,0 +1,108 @@
+package com.eternitywall.ots;
+
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+import com.eternitywall.ots.exceptions.VerificationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BlockHeaderCacheTest {
+
+    private final static String CHAIN = BitcoinBlockHeaderAttestation.chain;
+
+    private final static String GENESIS_HASH = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+    private final static String BLOCK_1_HASH = "00000000839a8e6886ab5951d76f411475428afc90947ee320161bbf18eb6048";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static BlockHeader genesis() {
+        BlockHeader header = new BlockHeader();
+        header.setBlockHash(GENESIS_HASH);
+        header.setPreviousBlockHash("0000000000000000000000000000000000000000000000000000000000000000");
+        header.setMerkleroot("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b");
+        header.setTime("1231006505");
+        header.setVersion(1L);
+        header.setBits(0x1d00ffffL);
+        header.setNonce(2083236893L);
+        return header;
+    }
+
+    private static BlockHeader block1() {
+        BlockHeader header = new BlockHeader();
+        header.setBlockHash(BLOCK_1_HASH);
+        header.setPreviousBlockHash(GENESIS_HASH);
+        header.setMerkleroot("0e3e2357e806b6cdb1f70b54c3a3a17b6714ee1f0e68bebb44a74b1efd512098");
+        header.setTime("1231469665");
+        header.setVersion(1L);
+        header.setBits(0x1d00ffffL);
+        header.setNonce(2573394689L);
+        return header;
+    }
+
+    @Test
+    public void headerHash_matchesTheBlockHash() {
+        byte[] hash = BlockHeaderCache.headerHash(genesis());
+        assertEquals(GENESIS_HASH, Utils.bytesToHex(Utils.arrayReverse(hash)).toLowerCase());
+
+        hash = BlockHeaderCache.headerHash(block1());
+        assertEquals(BLOCK_1_HASH, Utils.bytesToHex(Utils.arrayReverse(hash)).toLowerCase());
+    }
+
+    @Test
+    public void target_expandsCompactBits() {
+        assertEquals(BigInteger.valueOf(0xffff).shiftLeft(208), BlockHeaderCache.target(0x1d00ffffL));
+        assertEquals(BigInteger.valueOf(0x12), BlockHeaderCache.target(0x01120000L));
+        assertEquals(new BigInteger("12345600", 16), BlockHeaderCache.target(0x04123456L));
+    }
+
+    @Test
+    public void validatingCache_acceptsRealHeaders_andPersistsThem() throws Exception {
+        File file = new File(tmp.getRoot(), "headers.cache");
+        BlockHeaderCache cache = new BlockHeaderCache(file, 100, true);
+        cache.put(CHAIN, 0, genesis());
+        cache.put(CHAIN, 1, block1());
+
+        BlockHeaderCache reopened = new BlockHeaderCache(file, 100, true);
+        assertEquals(2, reopened.size());
+        assertEquals(genesis(), reopened.get(CHAIN, 0));
+        assertEquals(2573394689L, (long) reopened.get(CHAIN, 1).getNonce());
+    }
+
+    @Test
+    public void validatingCache_rejectsTamperedOrUnlinkedHeaders() throws Exception {
+        BlockHeaderCache cache = new BlockHeaderCache(null, 100, true);
+
+        BlockHeader tampered = genesis();
+        tampered.setNonce(1L);
+        assertRejected(cache, 0, tampered);
+
+        // Re-hashes correctly but claims a hash far above its proof-of-work target.
+        BlockHeader easy = genesis();
+        easy.setBits(0x03000001L);
+        easy.setBlockHash(Utils.bytesToHex(Utils.arrayReverse(BlockHeaderCache.headerHash(easy))));
+        assertRejected(cache, 0, easy);
+
+        cache.put(CHAIN, 0, genesis());
+        BlockHeader orphan = block1();
+        orphan.setPreviousBlockHash(BLOCK_1_HASH);
+        assertRejected(cache, 1, orphan);
+        assertNull(cache.get(CHAIN, 1));
+    }
+
+    private static void assertRejected(BlockHeaderCache cache, int height, BlockHeader header) {
+        try {
+            cache.put(CHAIN, height, header);
+            fail("header at " + height + " should have been rejected");
+        } catch (VerificationException expected) {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.eternitywall.ots;
+
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+import com.eternitywall.ots.attestation.PendingAttestation;
+import com.eternitywall.ots.op.Op;
+import com.eternitywall.ots.op.OpAppend;
+import com.eternitywall.ots.op.OpPrepend;
+import com.eternitywall.ots.op.OpSHA256;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trips a timestamp shaped like a batched, upgraded proof: a Merkle path from the leaf
+ * to the batch tip, then three calendar branches of about forty ops each.
+ */
+public class TimestampDeserializeTest {
+
+    @Test
+    public void deserializeLargeTimestamp() throws Exception {
+        byte[] leaf = new byte[32];
+        Arrays.fill(leaf, (byte) 0x2a);
+
+        Timestamp timestamp = build(leaf);
+        byte[] ots = timestamp.serialize();
+
+        Timestamp parsed = Timestamp.deserialize(ots, leaf);
+        assertArrayEquals(ots, parsed.serialize());
+        // Two calendars pending, one anchored with two attestations on the same message.
+        assertEquals(4, parsed.allAttestationEntries().size());
+    }
+
+    @Test
+    public void deserializeDeepTimestamp_doesNotRecursePerOp() throws Exception {
+        byte[] leaf = new byte[32];
+
+        // One (append, sha256) step ending in an attestation, serialized, gives the bytes of
+        // a step and of the tail. Serializing recurses, so the deep proof is spliced together.
+        Timestamp step = new Timestamp(leaf);
+        step.add(new OpAppend(new byte[]{7})).add(new OpSHA256())
+                .attestations.add(new BitcoinBlockHeaderAttestation(800000));
+        byte[] one = step.serialize();
+        int stepLength = 3 + 1; // append tag, length, byte; sha256 tag
+
+        int depth = 10000;
+        ByteArrayOutputStream ots = new ByteArrayOutputStream();
+        byte[] msg = leaf;
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < depth; i++) {
+            ots.write(one, 0, stepLength);
+            byte[] appended = Arrays.copyOf(msg, msg.length + 1);
+            appended[msg.length] = 7;
+            msg = sha256.digest(appended);
+        }
+        ots.write(one, stepLength, one.length - stepLength);
+
+        Timestamp parsed = Timestamp.deserialize(ots.toByteArray(), leaf);
+        assertEquals(1, parsed.allAttestationEntries().size());
+        assertArrayEquals(msg, parsed.allAttestationEntries().get(0).getKey());
+    }
+
+    private static Timestamp build(byte[] leaf) {
+        Timestamp root = new Timestamp(leaf);
+
+        // Nonce, then a 256-leaf Merkle path up to the batch tip.
+        Timestamp tip = root.add(new OpAppend(bytes(16, 1))).add(new OpSHA256());
+        for (int level = 0; level < 8; level++) {
+            Op sibling = level % 2 == 0 ? new OpAppend(bytes(32, level)) : new OpPrepend(bytes(32, level));
+            tip = tip.add(sibling).add(new OpSHA256());
+        }
+
+        String[] calendars = {
+                "https://alice.btc.calendar.opentimestamps.org",
+                "https://bob.btc.calendar.opentimestamps.org",
+                "https://finney.calendar.eternitywall.com"};
+
+        for (int c = 0; c < calendars.length; c++) {
+            Timestamp branch = tip.add(new OpPrepend(bytes(4, 100 + c))).add(new OpSHA256());
+            for (int i = 0; i < 20; i++) {
+                Op sibling = i % 2 == 0 ? new OpPrepend(bytes(32, 10 * c + i)) : new OpAppend(bytes(32, 10 * c + i));
+                branch = branch.add(sibling).add(new OpSHA256());
+            }
+
+            if (c == 0) {
+                branch.attestations.add(new BitcoinBlockHeaderAttestation(800000));
+                branch.attestations.add(new PendingAttestation(calendars[c].getBytes(StandardCharsets.UTF_8)));
+            } else {
+                branch.attestations.add(new PendingAttestation(calendars[c].getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        return root;
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) (seed * 31 + i);
+        return b;
+    }
+}
@@ -0,0 +1,178 @@
+package org.witness.proofmode.notaries;
+
+import com.eternitywall.ots.DetachedTimestampFile;
+import com.eternitywall.ots.Timestamp;
+import com.eternitywall.ots.Utils;
+import com.eternitywall.ots.attestation.BitcoinBlockHeaderAttestation;
+import com.eternitywall.ots.attestation.PendingAttestation;
+import com.eternitywall.ots.op.OpAppend;
+import com.eternitywall.ots.op.OpPrepend;
+import com.eternitywall.ots.op.OpSHA256;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OtsUpgraderTest {
+
+    private final static String ALICE = "https://alice.btc.calendar.opentimestamps.org";
+    private final static String BOB = "https://bob.btc.calendar.opentimestamps.org";
+    private final static int HEIGHT = 800000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Answers every commitment with a Bitcoin attestation and records what it was asked. */
+    private static class FakeCalendars implements OtsUpgrader.TimestampFetcher {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+        boolean anchored = true;
+
+        @Override
+        public Timestamp fetch(String calendarUrl, byte[] commitment) throws Exception {
+            fetched.add(calendarUrl + " " + Utils.bytesToHex(commitment));
+            if (!anchored)
+                throw new Exception("Pending confirmation in Bitcoin blockchain");
+            Timestamp upgraded = new Timestamp(commitment);
+            upgraded.attestations.add(new BitcoinBlockHeaderAttestation(HEIGHT));
+            return upgraded;
+        }
+    }
+
+    private static byte[] digest(int seed) {
+        byte[] digest = new byte[32];
+        Arrays.fill(digest, (byte) seed);
+        return digest;
+    }
+
+    /**
+     * The two leaves of one stamped batch: each file's path ends in the same Merkle tip,
+     * which is what the calendars were sent.
+     */
+    private File[] writeBatch(File dir, List<String> calendars) throws Exception {
+        byte[] a = digest(1);
+        byte[] b = digest(2);
+
+        Timestamp left = new Timestamp(a);
+        Timestamp leftTip = left.add(new OpAppend(b)).add(new OpSHA256());
+        Timestamp right = new Timestamp(b);
+        Timestamp rightTip = right.add(new OpPrepend(a)).add(new OpSHA256());
+        assertArrayEquals(leftTip.msg, rightTip.msg);
+
+        for (String calendar : calendars) {
+            leftTip.attestations.add(new PendingAttestation(calendar.getBytes(StandardCharsets.UTF_8)));
+            rightTip.attestations.add(new PendingAttestation(calendar.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return new File[]{
+                write(dir, Utils.bytesToHex(a).toLowerCase(), left),
+                write(dir, Utils.bytesToHex(b).toLowerCase(), right)};
+    }
+
+    private static File write(File dir, String hash, Timestamp timestamp) throws Exception {
+        File folder = new File(dir, hash);
+        folder.mkdirs();
+        File file = new File(folder, hash + ".ots");
+        Files.write(file.toPath(), new DetachedTimestampFile(new OpSHA256(), timestamp).serialize());
+        return file;
+    }
+
+    private static DetachedTimestampFile read(File file) throws Exception {
+        return DetachedTimestampFile.deserialize(Files.readAllBytes(file.toPath()));
+    }
+
+    private OtsUpgrader upgrader(FakeCalendars calendars) {
+        return new OtsUpgrader(new File(tmp.getRoot(), "proofs"), new File(tmp.getRoot(), "ots-index.properties"),
+                null, 2, OtsUpgrader.DEFAULT_CALENDARS, calendars);
+    }
+
+    @Test
+    public void sharedCommitment_isFetchedOncePerCalendar() throws Exception {
+        File[] files = writeBatch(new File(tmp.getRoot(), "proofs"), Arrays.asList(ALICE, BOB));
+        FakeCalendars calendars = new FakeCalendars();
+
+        OtsUpgrader.Result result = upgrader(calendars).run();
+
+        assertEquals(2, result.scanned);
+        assertEquals(2, result.pending);
+        assertEquals(2, result.commitmentsFetched);
+        String tip = Utils.bytesToHex(read(files[0]).getTimestamp().directlyVerified().get(0).msg);
+        assertEquals(new HashSet<>(Arrays.asList(ALICE + " " + tip, BOB + " " + tip)), new HashSet<>(calendars.fetched));
+        assertEquals(2, calendars.fetched.size());
+    }
+
+    @Test
+    public void upgrade_isMergedAndWrittenInPlace() throws Exception {
+        File[] files = writeBatch(new File(tmp.getRoot(), "proofs"), Collections.singletonList(ALICE));
+        byte[] leftDigest = read(files[0]).fileDigest();
+
+        OtsUpgrader.Result result = upgrader(new FakeCalendars()).run();
+
+        assertEquals(2, result.filesUpgraded);
+        assertEquals(2, result.filesCompleted);
+        for (File file : files) {
+            DetachedTimestampFile ots = read(file);
+            assertTrue(ots.getTimestamp().isTimestampComplete());
+            assertTrue(ots.getTimestamp().getAttestations().contains(new BitcoinBlockHeaderAttestation(HEIGHT)));
+            assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+        }
+        assertArrayEquals(leftDigest, read(files[0]).fileDigest());
+    }
+
+    @Test
+    public void completeFiles_areSkippedWhileUnchanged() throws Exception {
+        writeBatch(new File(tmp.getRoot(), "proofs"), Collections.singletonList(ALICE));
+        upgrader(new FakeCalendars()).run();
+
+        FakeCalendars calendars = new FakeCalendars();
+        OtsUpgrader.Result result = upgrader(calendars).run();
+
+        assertEquals(2, result.scanned);
+        assertEquals(2, result.skippedComplete);
+        assertEquals(0, result.pending);
+        assertTrue(calendars.fetched.isEmpty());
+    }
+
+    @Test
+    public void unanchoredCommitment_leavesTheFilesForTheNextRun() throws Exception {
+        File[] files = writeBatch(new File(tmp.getRoot(), "proofs"), Collections.singletonList(ALICE));
+        byte[] before = Files.readAllBytes(files[0].toPath());
+        FakeCalendars calendars = new FakeCalendars();
+        calendars.anchored = false;
+
+        OtsUpgrader.Result result = upgrader(calendars).run();
+
+        assertEquals(1, result.commitmentsFailed);
+        assertEquals(0, result.filesUpgraded);
+        assertArrayEquals(before, Files.readAllBytes(files[0].toPath()));
+
+        calendars.anchored = true;
+        assertEquals(2, upgrader(calendars).run().filesCompleted);
+    }
+
+    @Test
+    public void calendarsOutsideTheAllowList_areNotContacted() throws Exception {
+        File[] files = writeBatch(new File(tmp.getRoot(), "proofs"), Collections.singletonList("https://calendar.example.com"));
+        FakeCalendars calendars = new FakeCalendars();
+
+        OtsUpgrader.Result result = upgrader(calendars).run();
+
+        assertEquals(2, result.scanned);
+        assertEquals(0, result.pending);
+        assertTrue(calendars.fetched.isEmpty());
+        assertFalse(read(files[0]).getTimestamp().isTimestampComplete());
+    }
+}
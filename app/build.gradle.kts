@@ -314,6 +314,12 @@ base {
     archivesName.set("Proofmode-${android.defaultConfig.versionName}")
 }
 
+ksp {
+    // Room writes the schema of each AppDatabase version here; commit the new file
+    // along with the migration to it.
+    arg("room.schemaLocation", "$projectDir/schemas")
+}
+
 dependencies {
     implementation(libs.bundles.navigation)
 
@@ -346,6 +352,7 @@ dependencies {
     implementation(libs.coil.compose)
     implementation(libs.coil.video)
     implementation(libs.kotlinx.serialization.json)
+    implementation(libs.androidx.paging.compose)
 
     // Room database support (for activity view)
     implementation(libs.bundles.room)
@@ -24,10 +24,12 @@ import androidx.compose.ui.platform.ComposeView
 import androidx.core.content.ContextCompat
 import androidx.core.view.GravityCompat
 import androidx.drawerlayout.widget.DrawerLayout
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.PreferenceManager
 import androidx.activity.result.PickVisualMediaRequest
 import androidx.activity.result.contract.ActivityResultContracts
 import com.google.android.material.floatingactionbutton.FloatingActionButton
+import kotlinx.coroutines.launch
 import org.witness.proofmode.ProofMode.EVENT_PROOF_GENERATED
 import org.witness.proofmode.ProofMode.PREF_OPTION_AI_DEFAULT
 import org.witness.proofmode.ProofMode.PREF_OPTION_BLOCK_AI
@@ -291,14 +293,16 @@ class MainActivity : AppCompatActivity(),
     }
 
     fun checkNoPicsView () {
-        if (Activities.activities.size == 0)
-        {
-            findViewById<View>(R.id.nopics).visibility = View.VISIBLE
-        }
-        else
-        {
-            findViewById<View>(R.id.nopics).visibility = View.GONE
+        lifecycleScope.launch {
+            if (!Activities.hasActivities(this@MainActivity))
+            {
+                findViewById<View>(R.id.nopics).visibility = View.VISIBLE
+            }
+            else
+            {
+                findViewById<View>(R.id.nopics).visibility = View.GONE
 
+            }
         }
     }
 
@@ -28,9 +28,8 @@ import org.bouncycastle.openpgp.PGPException
 import org.witness.proofmode.ProofModeApp.Companion.EXPECTED_PACKAGE_NAME
 import org.witness.proofmode.ProofModeApp.Companion.EXPECTED_SIGNING_CERTIFICATE_HASH_BASE64
 import org.witness.proofmode.ProofModeApp.Companion.IS_PROD
-import org.witness.proofmode.c2pa.C2PAManager
+import org.witness.proofmode.c2pa.C2PARuntime
 import org.witness.proofmode.c2pa.DeviceIntegritySupport
-import org.witness.proofmode.c2pa.PreferencesManager
 import org.witness.proofmode.c2pa.proofsign.ProofSignClient
 import org.witness.proofmode.c2pa.proofsign.Result
 import org.witness.proofmode.c2pa.proofsign.SignerException
@@ -39,6 +38,7 @@ import org.witness.proofmode.crypto.pgp.PgpUtils
 import org.witness.proofmode.library.BuildConfig
 import org.witness.proofmode.notaries.NostrNotarizationProvider
 import org.witness.proofmode.notaries.OpenTimestampsNotarizationProvider
+import org.witness.proofmode.notaries.OtsUpgradeWorker
 import androidx.lifecycle.ProcessLifecycleOwner
 import androidx.lifecycle.lifecycleScope
 import org.witness.proofmode.notarization.NotarizationProvider
@@ -296,7 +296,7 @@ class ProofModeApp : Application(), Configuration.Provider {
     //ensure this device has been updated with security patches within 90 days
     fun checkC2PAConformance () : Boolean {
 
-        val c2paMan = C2PAManager(this, PreferencesManager(this))
+        val c2paMan = C2PARuntime.manager(this)
         val certChain = c2paMan.getDeviceAttestationCertChain("test")
         val conformant = c2paMan.checkOSSecurityPatchDate(90, certChain)
 
@@ -626,6 +626,7 @@ class ProofModeApp : Application(), Configuration.Provider {
             Class.forName("com.eternitywall.ots.OpenTimestamps")
             val nProvider: NotarizationProvider = OpenTimestampsNotarizationProvider(this)
             ProofMode.addNotarizationProvider(this, nProvider)
+            OtsUpgradeWorker.schedule(this)
         } catch (e: ClassNotFoundException) {
             //class not available
         }
@@ -20,7 +20,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.witness.proofmode.c2pa.C2PAManager
-import org.witness.proofmode.c2pa.PreferencesManager
+import org.witness.proofmode.c2pa.C2PARuntime
 import org.witness.proofmode.c2pa.SigningMode
 import org.witness.proofmode.c2pa.proofsign.ProofSignClient
 import org.witness.proofmode.databinding.ActivitySettingsBinding
@@ -108,7 +108,7 @@ class SigningSettingsActivity : AppCompatActivity() {
         private fun showEditCawgDialog() {
             val context = context ?: return
             val appContext = context.applicationContext
-            val c2paManager = C2PAManager(appContext, PreferencesManager(appContext))
+            val c2paManager = C2PARuntime.manager(appContext)
 
             val view = layoutInflater.inflate(R.layout.dialog_edit_cawg, null)
             val keyEdit = view.findViewById<EditText>(R.id.editCawgPrivateKey)
@@ -194,7 +194,7 @@ class SigningSettingsActivity : AppCompatActivity() {
 
             lifecycleScope.launch {
                 val csr = withContext(Dispatchers.IO) {
-                    val c2paManager = C2PAManager(appContext, PreferencesManager(appContext))
+                    val c2paManager = C2PARuntime.manager(appContext)
                     c2paManager.createCawgIdentity(creatorName, true)
                     c2paManager.getCawgCSR()
                 }
@@ -292,7 +292,7 @@ class SigningSettingsActivity : AppCompatActivity() {
 
             if (mode == MODE_REMOTE) {
 
-                val c2paMan = C2PAManager(requireContext(), PreferencesManager(requireContext()))
+                val c2paMan = C2PARuntime.manager(requireContext())
                 val certChain = c2paMan.getDeviceAttestationCertChain("test")
                 val conformant = c2paMan.checkOSSecurityPatchDate(90, certChain)
 
@@ -0,0 +1,183 @@
+package org.witness.proofmode.share
+
+import org.witness.proofmode.crypto.HashUtils
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.security.MessageDigest
+import java.util.Locale
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Writes a proof bundle zip straight to [out], e.g. the SAF destination or the share file.
+ *
+ * Media that is already compressed (JPEG, MP4, ...) is written STORED, so sharing a set of
+ * videos costs a copy rather than a DEFLATE pass that gains nothing. A STORED entry needs
+ * its CRC-32 and size before its header is written; callers that hashed the media already
+ * pass them in via [Checksums] (see [digest]), otherwise the entry is read once to compute
+ * them. Sidecars (CSV, JSON, signatures) are small text and are deflated as before.
+ *
+ * [progress] is called with the bytes of entry content written so far, at most once per
+ * [PROGRESS_STEP] bytes and at the end of each entry.
+ *
+ * An entry whose source cannot be opened is skipped with nothing written. Once an entry's
+ * header is out, though, a failure cannot be undone: the zip stream is left inside that
+ * entry. The bundle is then aborted with a [BundleAbortedException]; the destination is
+ * closed without a central directory, and every later [add] and [close] throws as well,
+ * so the caller cannot mistake the truncated file for a bundle.
+ */
+class ProofBundleWriter(
+    out: OutputStream,
+    private val progress: ((written: Long) -> Unit)? = null,
+    bufferSize: Int = DEFAULT_BUFFER_SIZE,
+) : Closeable {
+
+    /** SHA-256 (hex), CRC-32 and size of one media file, from a single read. */
+    data class Checksums(val sha256: String, val crc32: Long, val size: Long)
+
+    /** An entry failed after its header was written; the bundle is unusable. */
+    class BundleAbortedException(message: String, cause: Throwable) : IOException(message, cause)
+
+    private val buffer = ByteArray(bufferSize)
+    private val sink = BufferedOutputStream(out, bufferSize)
+    private val zip = ZipOutputStream(sink)
+    private var aborted: BundleAbortedException? = null
+    private var written = 0L
+    private var lastReported = 0L
+
+    /**
+     * Add [name] with the content [open] returns. [checksums], when given, must describe
+     * that content exactly; a mismatch aborts the bundle.
+     */
+    @Throws(IOException::class)
+    fun add(name: String, checksums: Checksums? = null, open: () -> InputStream) {
+        checkNotAborted()
+        val entry = ZipEntry(name)
+
+        if (isCompressed(name)) {
+            val sums = checksums ?: open().use { crcOf(it) }
+            entry.method = ZipEntry.STORED
+            entry.size = sums.size
+            entry.compressedSize = sums.size
+            entry.crc = sums.crc32
+        } else {
+            entry.method = ZipEntry.DEFLATED
+        }
+
+        // Open before the header goes out, so a source that cannot be read is skipped
+        // without leaving a truncated entry behind.
+        val source = open()
+        source.use { input ->
+            try {
+                zip.putNextEntry(entry)
+                var n = input.read(buffer)
+                while (n != -1) {
+                    zip.write(buffer, 0, n)
+                    advance(n.toLong())
+                    n = input.read(buffer)
+                }
+                zip.closeEntry()
+            } catch (e: Exception) {
+                throw abort(name, e)
+            }
+        }
+        report()
+    }
+
+    @Throws(IOException::class)
+    fun add(name: String, bytes: ByteArray) {
+        add(name) { bytes.inputStream() }
+    }
+
+    /** Bytes of entry content written so far. */
+    val bytesWritten: Long get() = written
+
+    /** Writes the central directory and closes the destination. */
+    @Throws(IOException::class)
+    override fun close() {
+        checkNotAborted()
+        zip.close()
+    }
+
+    // A fresh exception each time: `use` adds the one from close() to the one from add().
+    private fun checkNotAborted() {
+        aborted?.let { throw BundleAbortedException(it.message ?: "Proof bundle aborted", it) }
+    }
+
+    private fun abort(name: String, cause: Exception): BundleAbortedException {
+        val e = BundleAbortedException("Proof bundle aborted while writing $name", cause)
+        aborted = e
+        // Not zip.close(): finishing would write a central directory for the torn entry.
+        try {
+            sink.close()
+        } catch (ignored: IOException) {
+        }
+        return e
+    }
+
+    private fun crcOf(input: InputStream): Checksums {
+        val crc = CRC32()
+        var size = 0L
+        var n = input.read(buffer)
+        while (n != -1) {
+            crc.update(buffer, 0, n)
+            size += n
+            n = input.read(buffer)
+        }
+        return Checksums("", crc.value, size)
+    }
+
+    private fun advance(n: Long) {
+        written += n
+        if (written - lastReported >= PROGRESS_STEP) report()
+    }
+
+    private fun report() {
+        lastReported = written
+        progress?.invoke(written)
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 256 * 1024
+        const val PROGRESS_STEP = 4L * 1024 * 1024
+
+        private val COMPRESSED_EXTENSIONS = setOf(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "dng",
+            "mp4", "m4v", "mov", "3gp", "mkv", "webm",
+            "mp3", "m4a", "aac", "ogg", "opus", "amr", "flac",
+            "zip", "gz", "gpg",
+        )
+
+        /** Whether DEFLATE would gain nothing on an entry called [name]. */
+        @JvmStatic
+        fun isCompressed(name: String): Boolean =
+            name.substringAfterLast('.', "").lowercase(Locale.ROOT) in COMPRESSED_EXTENSIONS
+
+        /**
+         * Read [input] once for the SHA-256 the proof lookup needs and the CRC-32 and size
+         * a STORED entry needs. The stream is closed.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun digest(input: InputStream, bufferSize: Int = DEFAULT_BUFFER_SIZE): Checksums {
+            val sha256 = MessageDigest.getInstance("SHA-256")
+            val crc = CRC32()
+            val buffer = ByteArray(bufferSize)
+            var size = 0L
+            input.use { stream ->
+                var n = stream.read(buffer)
+                while (n != -1) {
+                    sha256.update(buffer, 0, n)
+                    crc.update(buffer, 0, n)
+                    size += n
+                    n = stream.read(buffer)
+                }
+            }
+            return Checksums(HashUtils.asHex(sha256.digest()), crc.value, size)
+        }
+    }
+}
@@ -16,6 +16,7 @@ import android.net.Uri
 import android.os.*
 import android.provider.MediaStore
 import android.text.TextUtils
+import android.text.format.Formatter
 import android.view.Menu
 import android.view.MenuItem
 import android.view.View
@@ -82,9 +83,7 @@ import java.net.URLDecoder
 import java.text.SimpleDateFormat
 import java.util.*
 import java.util.concurrent.TimeUnit
-import java.util.zip.ZipEntry
 import java.util.zip.ZipFile
-import java.util.zip.ZipOutputStream
 import kotlin.io.path.createTempFile
 import kotlin.math.sign
 
@@ -97,6 +96,10 @@ class ShareProofActivity : AppCompatActivity() {
 
     private val hashCache = HashMap<String, String?>()
 
+    // CRC-32 and size from the same read that produced the hash, keyed by the URI that was
+    // read, so the bundle writer can store media without reading it an extra time.
+    private val checksumCache = HashMap<String, ProofBundleWriter.Checksums>()
+
     private lateinit var pgpUtils : PgpUtils
 
     private var mPrefs : SharedPreferences? = null
@@ -144,6 +147,7 @@ class ShareProofActivity : AppCompatActivity() {
 
     private fun resetShareState() {
         hashCache.clear()
+        checksumCache.clear()
         proofZipName = ""
         baseDocumentTreeUri = null
         lastProcessedIntentKey = null
@@ -315,7 +319,7 @@ class ShareProofActivity : AppCompatActivity() {
             val mediaSource = ProofSetMediaSource.fromUri(appCtx, mediaUri, mime)
             // NEW-B2: activity-local primary — same disk as proof set
             val primary = mStorageProvider ?: DefaultStorageProvider(applicationContext)
-            val filebase = FilebaseStorageProvider.from(config)
+            val filebase = FilebaseStorageProvider.from(config, FilebaseStorageProvider.multipartStateDir(appCtx))
             val uploadMode = config.resolveUploadMode()
             if (uploadMode == FilebaseConfig.UploadMode.NONE) {
                 showFilebaseNotConfiguredDialog()
@@ -633,7 +637,7 @@ class ShareProofActivity : AppCompatActivity() {
         val config = readFilebaseConfigFromPrefs()
         val filebase: FilebaseStorageProvider? =
             if (config.hasIpfsAccess() || config.hasS3Access()) {
-                FilebaseStorageProvider.from(config)
+                FilebaseStorageProvider.from(config, FilebaseStorageProvider.multipartStateDir(this))
             } else {
                 null
             }
@@ -787,7 +791,6 @@ class ShareProofActivity : AppCompatActivity() {
         val shareUris = ArrayList<Uri?>()
         val shareItems = ArrayList<ProofableItem>()
         val shareText = StringBuffer()
-        var fileProofDownloads: File? = null
 
         if (Intent.ACTION_SEND_MULTIPLE == action) {
             val mediaUris = intent.getParcelableArrayListExtra<Uri>(Intent.EXTRA_STREAM) ?: emptyList()
@@ -844,86 +847,44 @@ class ShareProofActivity : AppCompatActivity() {
 
         if (shareUris.size > 0) {
             if (!shareProof) shareNotarization(shareText.toString()) else {
-                val fileCacheFolder = File(cacheDir, "zips")
-                fileCacheFolder.mkdir()
                 generateProofZipName(fileName)
-                var fileZip = File(fileCacheFolder, proofZipName)
-                Timber.d("Preparing proof bundle zip: " + fileZip.absolutePath)
+                // Stream the bundle straight to where it is saved; there is no cache copy.
                 try {
-                    zipProof(shareUris, fileZip)
-                } catch (e: IOException) {
-                    Timber.e(e, "Error generating proof Zip")
-
-                }
-                if (fileZip.length() > 0) {
-                    Timber.d("Proof zip completed. Size:%s", fileZip.length())
-                    val encryptZip = false
-                    if (encryptZip) {
-                        val fileZipEnc = File(fileCacheFolder, "$proofZipName.gpg")
-                        try {
-                            pgpUtils.encrypt(
-                                FileInputStream(fileZip),
-                                fileZip.length(),
-                                FileOutputStream(fileZipEnc)
-                            )
-                            fileZip = fileZipEnc
-                        } catch (e: IOException) {
-                            e.printStackTrace()
-                        } catch (e: Exception) {
-                            e.printStackTrace()
-                        }
-                    }
-                    /**
-                     * Uri uriZip = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".provider", fileZip);
-                     * shareFiltered(getString(R.string.select_app), shareText.toString(), shareUris, uriZip);
-                     */
                     if (baseDocumentTreeUri != null) {
-
-                        val fis = FileInputStream(fileZip)
                         val directory = DocumentFile.fromTreeUri(
                             this@ShareProofActivity,
                             baseDocumentTreeUri!!
                         )
-                        val file = directory!!.createFile("application/zip", fileZip.name)
+                        val file = directory!!.createFile("application/zip", proofZipName)
                         val pfd = contentResolver.openFileDescriptor(
                             file!!.uri, "w"
                         )
-                        val fos = FileOutputStream(pfd!!.fileDescriptor)
-
-                            var count: Int
-                            val data = ByteArray(BUFFER)
-                            while (fis.read(data, 0, BUFFER).also { count = it } != -1) {
-                                fos.write(data, 0, count)
+                        Timber.d("Writing proof bundle zip to: " + file.uri)
+                        try {
+                            pfd!!.use {
+                                zipProof(shareUris, FileOutputStream(it.fileDescriptor))
                             }
-                            fis.close()
-                            fos.close()
-
-                        fos.close()
-
-
+                        } catch (e: IOException) {
+                            file.delete()
+                            throw e
+                        }
                     } else {
-                        fileProofDownloads = File(
+                        val fileProofDownloads = File(
                             Environment.getExternalStoragePublicDirectory(
                                 Environment.DIRECTORY_DOWNLOADS
-                            ), fileZip.name
+                            ), proofZipName
                         )
-                        val fos = FileOutputStream(fileProofDownloads)
-                        val fis = FileInputStream(fileZip)
-
-                        var count: Int
-                        val data = ByteArray(BUFFER)
-                        while (fis.read(data, 0, BUFFER).also { count = it } != -1) {
-                            fos.write(data, 0, count)
+                        Timber.d("Writing proof bundle zip to: " + fileProofDownloads.absolutePath)
+                        try {
+                            zipProof(shareUris, FileOutputStream(fileProofDownloads))
+                        } catch (e: IOException) {
+                            fileProofDownloads.delete()
+                            throw e
                         }
-                        fis.close()
-                        fos.close()
-
-
+                        Timber.d("Proof zip completed. Size:%s", fileProofDownloads.length())
                     }
-
-                    //copy IO utils
-                } else {
-                    Timber.d("Proof zip failed due to empty size:" + fileZip.length())
+                } catch (e: IOException) {
+                    Timber.e(e, "Error generating proof Zip")
                 }
             }
         }
@@ -1018,6 +979,7 @@ class ShareProofActivity : AppCompatActivity() {
                     zipProof(shareUris, fileZip)
                 } catch (e: IOException) {
                     Timber.e(e, "Error generating proof Zip")
+                    fileZip.delete()
                     return false
                 }
                 if (fileZip.length() > 0) {
@@ -1048,6 +1010,22 @@ class ShareProofActivity : AppCompatActivity() {
         return true
     }
 
+    /**
+     * SHA-256 of the media, as [HashUtils.getSHA256FromFileContent] would return, with the
+     * CRC-32 and size from the same read kept for [zipProof].
+     */
+    private fun digestMedia(mediaUri: Uri): String? {
+        return try {
+            val input = contentResolver.openInputStream(mediaUri) ?: return null
+            val checksums = ProofBundleWriter.digest(input)
+            checksumCache[canonicalMediaUriKey(mediaUri)] = checksums
+            checksums.sha256
+        } catch (e: IOException) {
+            Timber.w(e, "Error generating hash")
+            null
+        }
+    }
+
     @Throws(FileNotFoundException::class)
     private fun proofExists(mediaUri: Uri): String? {
         var mediaUri = mediaUri
@@ -1056,9 +1034,7 @@ class ShareProofActivity : AppCompatActivity() {
             sMediaUri = sMediaUri.replace(DOCUMENT_IMAGE, MEDIA_IMAGE)
             mediaUri = Uri.parse(sMediaUri)
         }
-        val hash = HashUtils.getSHA256FromFileContent(
-            contentResolver.openInputStream(mediaUri)
-        )
+        val hash = digestMedia(mediaUri)
         if (hash != null) {
             hashCache[canonicalMediaUriKey(mediaUri)] = hash
             Timber.d("Proof check if exists for URI %s and hash %s", mediaUri, hash)
@@ -1289,11 +1265,7 @@ class ShareProofActivity : AppCompatActivity() {
         isFirstProof: Boolean
     ): String? {
         var hash = hash
-        if (hash == null) hash = HashUtils.getSHA256FromFileContent(
-            contentResolver.openInputStream(
-                uriMedia!!
-            )
-        )
+        if (hash == null) hash = digestMedia(uriMedia!!)
         if (hash != null && mStorageProvider?.proofExists(hash) == true) {
 
             // LP attestation (.lp.json) artifacts are included automatically — see LocationProtocolArtifactStore Phase 4 notes
@@ -1381,64 +1353,57 @@ class ShareProofActivity : AppCompatActivity() {
 
     @Throws(IOException::class, PGPException::class)
     fun zipProof(uris: ArrayList<Uri?>, fileZip: File?) {
-        var origin: BufferedInputStream
-        val dest = FileOutputStream(fileZip)
-        val out = ZipOutputStream(
-            BufferedOutputStream(
-                dest
+        zipProof(uris, FileOutputStream(fileZip))
+    }
+
+    /**
+     * Write the bundle for [uris] to [dest] with a [ProofBundleWriter] and close it. Progress
+     * is shown in the progress text as the amount written so far.
+     */
+    @Throws(IOException::class, PGPException::class)
+    fun zipProof(uris: ArrayList<Uri?>, dest: OutputStream) {
+        val progress: (Long) -> Unit = { written ->
+            displayProgressAsync(
+                getString(
+                    R.string.progress_writing_proof_bundle,
+                    Formatter.formatShortFileSize(this, written)
+                )
             )
-        )
-        val data = ByteArray(BUFFER)
-        for (uri in uris) {
-            try {
-                val fileName = getFileNameFromUri(contentResolver, uri)
-                Timber.d("adding to zip: $fileName")
-                var isProofItem = mStorageProvider?.getProofItem(uri!!)
-                if (isProofItem == null)
-                    isProofItem = contentResolver.openInputStream(uri!!)
-                origin = BufferedInputStream(isProofItem, BUFFER)
-                val entry = ZipEntry(fileName)
-                out.putNextEntry(entry)
-                var count: Int
-                while (origin.read(data, 0, BUFFER).also { count = it } != -1) {
-                    out.write(data, 0, count)
+        }
+
+        ProofBundleWriter(dest, progress).use { out ->
+            for (uri in uris) {
+                try {
+                    val fileName = getFileNameFromUri(contentResolver, uri)
+                    Timber.d("adding to zip: $fileName")
+                    out.add(fileName, uri?.let { checksumCache[canonicalMediaUriKey(it)] }) {
+                        mStorageProvider?.getProofItem(uri!!)
+                            ?: contentResolver.openInputStream(uri!!)
+                            ?: throw FileNotFoundException(uri.toString())
+                    }
+                } catch (e: ProofBundleWriter.BundleAbortedException) {
+                    throw e
+                } catch (e: Exception) {
+                    Timber.d(e, "Failed adding URI to zip: " + uri!!.lastPathSegment)
                 }
-                origin.close()
-            } catch (e: Exception) {
-                Timber.d(e, "Failed adding URI to zip: " + uri!!.lastPathSegment)
             }
+            Timber.d("Adding public key")
+            //add public key
+            out.add("pubkey.asc", ProofMode.getPublicKeyString().toByteArray())
+
+            //TODO c2pa
+            /**
+            var fileCert = File(filesDir,C2PA_CERT_PATH)
+            if (fileCert.exists()) {
+                Timber.d("Adding C2PA certificate")
+                out.add(C2PA_CERT_PATH, fileCert.readBytes())
+            }**/
+
+            Timber.d("Adding HowToVerifyProofData.txt")
+            val howToFile = "HowToVerifyProofData.txt"
+            out.add(howToFile) { resources.assets.open(howToFile) }
         }
-        Timber.d("Adding public key")
-        //add public key
-        val pubKey = ProofMode.getPublicKeyString()
-        var entry: ZipEntry? = ZipEntry("pubkey.asc")
-        out.putNextEntry(entry)
-        out.write(pubKey.toByteArray())
-
-        //TODO c2pa
-        /**
-        var fileCert = File(filesDir,C2PA_CERT_PATH)
-        if (fileCert.exists()) {
-            Timber.d("Adding C2PA certificate")
-            entry = ZipEntry(C2PA_CERT_PATH)
-            out.putNextEntry(entry)
-            out.write(fileCert.readBytes())
-        }**/
-
-        Timber.d("Adding HowToVerifyProofData.txt")
-        val howToFile = "HowToVerifyProofData.txt"
-        entry = ZipEntry(howToFile)
-        out.putNextEntry(entry)
-        val `is` = resources.assets.open(howToFile)
-        val buffer = ByteArray(1024)
-        var length = `is`.read(buffer)
-        while (length != -1) {
-            out.write(buffer, 0, length)
-            length = `is`.read(buffer)
-        }
-        `is`.close()
         Timber.d("Zip complete")
-        out.close()
     }
 
 
@@ -1505,7 +1470,6 @@ class ShareProofActivity : AppCompatActivity() {
         private const val DOCUMENT_IMAGE =
             "content://com.android.providers.media.documents/document/image%3A"
         private const val MEDIA_IMAGE = "content://media/external/images/media/"
-        private const val BUFFER = 1024 * 8
         fun writeToTempImageAndGetPathUri(inContext: Context, inImage: Bitmap): Uri {
             val bytes = ByteArrayOutputStream()
             inImage.compress(Bitmap.CompressFormat.JPEG, 100, bytes)
@@ -16,19 +16,40 @@ import androidx.room.ColumnInfo
 import androidx.room.Dao
 import androidx.room.Database
 import androidx.room.Delete
+import androidx.room.Embedded
 import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.PrimaryKey
 import androidx.room.Query
+import androidx.room.Relation
 import androidx.room.Room
 import androidx.room.RoomDatabase
+import androidx.room.Transaction
 import androidx.room.TypeConverter
 import androidx.room.TypeConverters
 import androidx.room.Update
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.PagingSource
+import androidx.paging.cachedIn
+import androidx.paging.map
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import kotlinx.serialization.KSerializer
 import kotlinx.serialization.SerialName
+import kotlinx.serialization.SerializationException
 import java.util.Date
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.builtins.ListSerializer
@@ -129,7 +150,7 @@ object UriSerializer : KSerializer<Uri> {
     }
 }
 
-@Entity(tableName = "activities")
+@Entity(tableName = "activities", indices = [Index("startTime")])
 class Activity(@PrimaryKey val id: String, @ColumnInfo(name = "data") val type: ActivityType, @ColumnInfo(name = "startTime") val startTime: Date) {
 }
 
@@ -156,31 +177,155 @@ sealed class ActivityType {
     class PublicKeyShared(val key: String) : ActivityType()
 }
 
+// Items that carry a proof lifecycle (captured/imported/shared media).
+fun proofItemsOf(activity: Activity): SnapshotStateList<ProofableItem>? =
+    when (val t = activity.type) {
+        is ActivityType.MediaCaptured -> t.items
+        is ActivityType.MediaImported -> t.items
+        is ActivityType.MediaShared -> t.items
+        is ActivityType.PublicKeyShared -> null
+    }
+
+// The same activity type with an empty item list. Items are stored as rows of
+// proofable_items, so the JSON in activities.data only keeps the rest.
+private fun ActivityType.withoutItems(): ActivityType =
+    when (this) {
+        is ActivityType.MediaCaptured -> ActivityType.MediaCaptured(mutableStateListOf())
+        is ActivityType.MediaImported -> ActivityType.MediaImported(mutableStateListOf())
+        is ActivityType.MediaShared -> ActivityType.MediaShared(mutableStateListOf(), fileName, shareText)
+        is ActivityType.PublicKeyShared -> this
+    }
+
+// One ProofableItem of an activity, at its index in the activity's item list.
+// itemId is the proof hash, or the URI while a capture is still pending; both it
+// and uri are indexed so proof events find their row without scanning the feed.
+@Entity(
+    tableName = "proofable_items",
+    primaryKeys = ["activityId", "position"],
+    foreignKeys = [ForeignKey(
+        entity = Activity::class,
+        parentColumns = ["id"],
+        childColumns = ["activityId"],
+        onDelete = ForeignKey.CASCADE
+    )],
+    indices = [Index("itemId"), Index("uri")]
+)
+class ProofableItemRow(
+    val activityId: String,
+    val position: Int,
+    val itemId: String,
+    val uri: String,
+    val proofStatus: ProofStatus
+) {
+    fun toProofableItem() = ProofableItem(itemId, Uri.parse(uri), proofStatus)
+
+    companion object {
+        // Rows for the items of [activity] from index [from] on. Call this on the
+        // thread that mutates the item list, before handing the rows to Room.
+        fun of(activity: Activity, from: Int = 0): List<ProofableItemRow> {
+            val items = proofItemsOf(activity)?.toList() ?: return emptyList()
+            return (from until items.size).map { position ->
+                val item = items[position]
+                ProofableItemRow(activity.id, position, item.id, item.uri.toString(), item.proofStatus)
+            }
+        }
+    }
+}
+
+class ActivityWithItems(
+    @Embedded val activity: Activity,
+    @Relation(parentColumn = "id", entityColumn = "activityId") val items: List<ProofableItemRow>
+) {
+    fun toActivity(): Activity {
+        proofItemsOf(activity)?.let { list ->
+            list.clear()
+            list.addAll(items.sortedBy { it.position }.map { it.toProofableItem() })
+        }
+        return activity
+    }
+}
+
 @Dao
-interface ActivitiesDao {
-    @Query("SELECT * FROM activities ORDER BY startTime ASC")
-    suspend fun getAll(): List<Activity>
+abstract class ActivitiesDao {
+    // The feed, newest first. Both walk the startTime index.
+    @Transaction
+    @Query("SELECT * FROM activities ORDER BY startTime DESC, id DESC")
+    abstract fun pagingSource(): PagingSource<Int, ActivityWithItems>
 
-    @Update
-    suspend fun update(activity: Activity)
+    @Transaction
+    @Query("SELECT * FROM activities ORDER BY startTime DESC, id DESC LIMIT :limit")
+    abstract suspend fun getNewest(limit: Int): List<ActivityWithItems>
+
+    @Query("SELECT EXISTS(SELECT 1 FROM activities)")
+    abstract suspend fun hasAny(): Boolean
+
+    @Query("SELECT * FROM proofable_items WHERE uri = :uri LIMIT 1")
+    abstract suspend fun itemByUri(uri: String): ProofableItemRow?
+
+    @Transaction
+    @Query("SELECT * FROM activities WHERE id IN (SELECT activityId FROM proofable_items WHERE itemId = :id OR uri = :id) LIMIT 1")
+    protected abstract suspend fun findByItem(id: String): ActivityWithItems?
+
+    // The activity holding an item whose hash or URI is [id].
+    suspend fun activityFromProofableItemId(id: String): Activity? = findByItem(id)?.toActivity()
+
+    @Query("SELECT EXISTS(SELECT 1 FROM activities WHERE id = :id)")
+    protected abstract suspend fun exists(id: String): Boolean
 
     @Insert
-    suspend fun insert(activity: Activity)
+    protected abstract suspend fun insertActivity(activity: Activity)
+
+    @Update
+    protected abstract suspend fun updateActivity(activity: Activity): Int
 
     @Delete
-    suspend fun delete(activity: Activity)
+    abstract suspend fun delete(activity: Activity)
+
+    @Query("DELETE FROM activities WHERE id IN (SELECT activityId FROM proofable_items WHERE itemId = :id OR uri = :id)")
+    abstract suspend fun deleteId(id: String?)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    protected abstract suspend fun upsertItems(rows: List<ProofableItemRow>)
+
+    @Query("DELETE FROM proofable_items WHERE activityId = :activityId AND position >= :count")
+    protected abstract suspend fun trimItems(activityId: String, count: Int)
+
+    // Set the hash and status of one item in place; a no-op if the row is not stored yet.
+    @Query("UPDATE proofable_items SET itemId = :itemId, proofStatus = :proofStatus WHERE activityId = :activityId AND position = :position")
+    abstract suspend fun updateItem(activityId: String, position: Int, itemId: String, proofStatus: ProofStatus)
 
-    @Query("DELETE FROM activities WHERE data LIKE '%\"' || :id || '\"%'")
-    suspend fun deleteId(id: String?)
+    suspend fun insert(activity: Activity) = insertWithItems(activity, ProofableItemRow.of(activity))
 
-    @Query("SELECT * FROM activities WHERE data LIKE '%\"' || :id || '\"%' LIMIT 1")
-    suspend fun activityFromProofableItemId(id: String): Activity?
+    suspend fun update(activity: Activity) = updateWithItems(activity, ProofableItemRow.of(activity))
+
+    // Store the items of [activity] from index [from] on, after new ones were appended.
+    suspend fun appendItems(activity: Activity, from: Int) = appendRows(activity.id, ProofableItemRow.of(activity, from))
+
+    @Transaction
+    protected open suspend fun insertWithItems(activity: Activity, rows: List<ProofableItemRow>) {
+        insertActivity(activity)
+        upsertItems(rows)
+    }
+
+    @Transaction
+    protected open suspend fun updateWithItems(activity: Activity, rows: List<ProofableItemRow>) {
+        if (updateActivity(activity) == 0) return
+        upsertItems(rows)
+        trimItems(activity.id, rows.size)
+    }
+
+    @Transaction
+    protected open suspend fun appendRows(activityId: String, rows: List<ProofableItemRow>) {
+        // The activity may still be on its way in from another addActivity call;
+        // its insert then carries these items along.
+        if (rows.isNotEmpty() && exists(activityId)) upsertItems(rows)
+    }
 }
 
 class Converters {
     @TypeConverter
     fun fromActivityType(value: ActivityType): String {
-        return Json.encodeToString(value)
+        return Json.encodeToString(value.withoutItems())
     }
 
     @TypeConverter
@@ -205,18 +350,61 @@ class Converters {
     }
 }
 
-@Database(entities = [Activity::class], version = 1)
+@Database(entities = [Activity::class, ProofableItemRow::class], version = 2, exportSchema = true)
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun activitiesDao(): ActivitiesDao
+
+    companion object {
+        // Version 1 kept every item inside the JSON in activities.data, so finding
+        // the activity of a hash or URI meant a LIKE scan over the whole table.
+        // Move the items into proofable_items and drop them from the JSON.
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `proofable_items` (`activityId` TEXT NOT NULL, `position` INTEGER NOT NULL, `itemId` TEXT NOT NULL, `uri` TEXT NOT NULL, `proofStatus` TEXT NOT NULL, PRIMARY KEY(`activityId`, `position`), FOREIGN KEY(`activityId`) REFERENCES `activities`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_proofable_items_itemId` ON `proofable_items` (`itemId`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_proofable_items_uri` ON `proofable_items` (`uri`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_activities_startTime` ON `activities` (`startTime`)")
+
+                val converters = Converters()
+                db.query("SELECT id, data FROM activities").use { cursor ->
+                    while (cursor.moveToNext()) {
+                        val id = cursor.getString(0)
+                        val type = try {
+                            converters.toActivityType(cursor.getString(1))
+                        } catch (e: SerializationException) {
+                            Log.w("Activities", "Leaving unreadable activity $id as is", e)
+                            null
+                        } ?: continue
+                        val activity = Activity(id, type, Date())
+                        for (row in ProofableItemRow.of(activity)) {
+                            db.execSQL(
+                                "INSERT OR REPLACE INTO proofable_items (activityId, position, itemId, uri, proofStatus) VALUES (?, ?, ?, ?, ?)",
+                                arrayOf(row.activityId, row.position, row.itemId, row.uri, row.proofStatus.name)
+                            )
+                        }
+                        db.execSQL("UPDATE activities SET data = ? WHERE id = ?", arrayOf(converters.fromActivityType(type), id))
+                    }
+                }
+            }
+        }
+    }
 }
 
 object Activities: ViewModel()
 {
-    var activities: SnapshotStateList<Activity> = SnapshotStateList()
-
     private lateinit var db: AppDatabase
 
+    private var feedFlow: Flow<PagingData<Activity>>? = null
+
+    // Serializes feed writes in call order. Proof events for one capture
+    // (pending -> generating -> generated) arrive back to back, and each must
+    // see the rows written by the one before.
+    private val writeLock = Mutex()
+
+    private const val FEED_PAGE_SIZE = 20
+    private const val FEED_MAX_SIZE = 200
+
     init {
     }
 
@@ -225,60 +413,74 @@ object Activities: ViewModel()
             db = Room.databaseBuilder(
                 context.applicationContext,
                 AppDatabase::class.java, "activities-db"
-            ).build()
+            ).addMigrations(AppDatabase.MIGRATION_1_2).build()
         }
         return db
     }
 
-    fun load(context: Context) {
-        val db = getDB(context)
-        viewModelScope.launch {
-            //db.clearAllTables()
-            val allFromDb = db.activitiesDao().getAll()
-            MainScope().launch {
-                activities.clear()
-                activities.addAll(allFromDb)
-                if (context is MainActivity)
-                {
-                    (context as MainActivity).checkNoPicsView()
+    // The Activities feed, newest first, paged in from the database as the list
+    // scrolls. At most FEED_MAX_SIZE activities are held at once; pages further
+    // away are dropped and read again when scrolled back to. Room invalidates
+    // the paging source on every write, so new activities and proof status
+    // changes show up without a reload. Whether each item still exists is
+    // resolved on the IO dispatcher before its page reaches the UI.
+    fun feed(context: Context): Flow<PagingData<Activity>> {
+        feedFlow?.let { return it }
+        val appContext = context.applicationContext
+        val dao = getDB(context).activitiesDao()
+        return Pager(
+            PagingConfig(pageSize = FEED_PAGE_SIZE, enablePlaceholders = false, maxSize = FEED_MAX_SIZE)
+        ) { dao.pagingSource() }
+            .flow
+            .map { page ->
+                page.map { row ->
+                    row.toActivity().also { activity ->
+                        proofItemsOf(activity)?.let { items ->
+                            withContext(Dispatchers.IO) { DeletedStatusCache.resolve(appContext, items) }
+                        }
+                    }
                 }
             }
-        }
+            .cachedIn(viewModelScope)
+            .also { feedFlow = it }
+    }
+
+    fun load(context: Context) {
+        // Start paging the feed in before the view asks for it.
+        feed(context)
     }
 
+    suspend fun hasActivities(context: Context): Boolean = getDB(context).activitiesDao().hasAny()
+
     var timeBatchWindow = 60000 * 5 //5 minutes
     private var listItems : List<ProofableItem> = ArrayList<ProofableItem>();
 
     fun addActivity(activity: Activity, context: Context) {
         val db = getDB(context)
 
-        // SnapshotStateList writes must happen on the main thread for Compose to
-        // schedule a recomposition. addActivity is frequently invoked from a
-        // background/broadcast callback (MediaWatcher -> ProofEventReceiver), so
-        // marshal the in-memory mutation onto the main thread the same way
-        // load() does; otherwise the Activities feed only refreshes once the
-        // user taps or scrolls. The DB writes are suspend calls that Room
+        // addActivity is frequently invoked from a background/broadcast callback
+        // (MediaWatcher -> ProofEventReceiver). The feed follows the database, so
+        // only the DB writes happen here; they are suspend calls that Room
         // dispatches to its own executor.
         MainScope().launch {
-            val lastActivity = activities.lastOrNull()
-            if (activity.type is ActivityType.MediaCaptured && lastActivity != null && lastActivity.type is ActivityType.MediaCaptured && (lastActivity.startTime.time + timeBatchWindow) >= activity.startTime.time) {
-                // If within the same batch window, add it to the same "batch" as the previous one.
-                for (pItem in activity.type.items) {
-                    if (!lastActivity.type.items.any { it.uri == pItem.uri }) {
-                        lastActivity.type.items.add(pItem)
+            writeLock.withLock {
+                val dao = db.activitiesDao()
+                val lastActivity = dao.getNewest(1).firstOrNull()?.toActivity()
+                if (activity.type is ActivityType.MediaCaptured && lastActivity != null && lastActivity.type is ActivityType.MediaCaptured && (lastActivity.startTime.time + timeBatchWindow) >= activity.startTime.time) {
+                    // If within the same batch window, add it to the same "batch" as the previous one.
+                    val storedCount = lastActivity.type.items.size
+                    for (pItem in activity.type.items) {
+                        if (!lastActivity.type.items.any { it.uri == pItem.uri }) {
+                            lastActivity.type.items.add(pItem)
+                        }
                     }
-                }
 
-                if (db.activitiesDao().activityFromProofableItemId(activity.id) == null)
-                    db.activitiesDao().update(lastActivity)
-            } else {
-                // Guard against a duplicate in-memory id (matches the Room
-                // @PrimaryKey constraint). Two entries with the same id would
-                // crash the Activities LazyColumn, which keys items by id.
-                if (activities.none { it.id == activity.id })
-                    activities.add(activity)
-                if (db.activitiesDao().activityFromProofableItemId(activity.id) == null)
-                    db.activitiesDao().insert(activity)
+                    if (dao.activityFromProofableItemId(activity.id) == null)
+                        dao.appendItems(lastActivity, storedCount)
+                } else {
+                    if (dao.activityFromProofableItemId(activity.id) == null)
+                        dao.insert(activity)
+                }
             }
 
             if (context is MainActivity) {
@@ -287,26 +489,6 @@ object Activities: ViewModel()
         }
     }
 
-    // Items that carry a proof lifecycle (captured/imported/shared media).
-    private fun proofItemsOf(activity: Activity): SnapshotStateList<ProofableItem>? =
-        when (val t = activity.type) {
-            is ActivityType.MediaCaptured -> t.items
-            is ActivityType.MediaImported -> t.items
-            is ActivityType.MediaShared -> t.items
-            is ActivityType.PublicKeyShared -> null
-        }
-
-    // Locate a live in-memory item by its (stable) media URI. Must be called on
-    // the main thread since it reads the Compose snapshot list.
-    private fun findItemByUri(uriString: String): Pair<Activity, Int>? {
-        for (activity in activities) {
-            val items = proofItemsOf(activity) ?: continue
-            val idx = items.indexOfFirst { it.uri.toString() == uriString }
-            if (idx >= 0) return activity to idx
-        }
-        return null
-    }
-
     // Step 1 of the capture lifecycle: show the freshly-captured media right
     // away, before any proof work, as a PENDING item. The real SHA-256 hash is
     // not known yet (C2PA embedding will change the bytes), so the URI doubles
@@ -332,12 +514,13 @@ object Activities: ViewModel()
     fun markProofGenerating(uriString: String, context: Context) {
         val db = getDB(context)
         MainScope().launch {
-            val (activity, idx) = findItemByUri(uriString) ?: return@launch
-            val items = proofItemsOf(activity) ?: return@launch
-            // Don't regress a completed item if events arrive out of order.
-            if (items[idx].proofStatus == ProofStatus.GENERATED) return@launch
-            items[idx] = items[idx].copy(proofStatus = ProofStatus.GENERATING)
-            db.activitiesDao().update(activity)
+            writeLock.withLock {
+                val dao = db.activitiesDao()
+                val row = dao.itemByUri(uriString) ?: return@withLock
+                // Don't regress a completed item if events arrive out of order.
+                if (row.proofStatus == ProofStatus.GENERATED) return@withLock
+                dao.updateItem(row.activityId, row.position, row.itemId, ProofStatus.GENERATING)
+            }
         }
     }
 
@@ -348,17 +531,16 @@ object Activities: ViewModel()
     fun markProofGenerated(uriString: String, hash: String, imported: Boolean, context: Context) {
         val db = getDB(context)
         MainScope().launch {
-            val found = findItemByUri(uriString)
-            if (found != null) {
-                val (activity, idx) = found
-                val items = proofItemsOf(activity)
-                if (items != null) {
-                    items[idx] = items[idx].copy(id = hash, proofStatus = ProofStatus.GENERATED)
-                    db.activitiesDao().update(activity)
-                    if (context is MainActivity) context.checkNoPicsView()
-                    return@launch
+            val row = writeLock.withLock {
+                val dao = db.activitiesDao()
+                dao.itemByUri(uriString)?.also {
+                    dao.updateItem(it.activityId, it.position, hash, ProofStatus.GENERATED)
                 }
             }
+            if (row != null) {
+                if (context is MainActivity) context.checkNoPicsView()
+                return@launch
+            }
 
             val item = ProofableItem(hash, Uri.parse(uriString), ProofStatus.GENERATED)
             val type = if (imported)
@@ -375,16 +557,12 @@ object Activities: ViewModel()
 
            var activity = db.activitiesDao().activityFromProofableItemId(id)
 
-            activities.remove(activity)
-
             activity?.let {
                 db.activitiesDao().delete(activity)
                 db.activitiesDao().deleteId(activity.id)
             }
 
             DeletedStatusCache.clear()
-            activities.clear()
-            activities.addAll(db.activitiesDao().getAll())
         }
 
 
@@ -494,18 +672,33 @@ fun SnapshotStateList<ProofableItem>.withDeletedItemsRemoved(context: Context):
     return this.filter { !it.isDeleted(context)}.toMutableStateList()
 }
 
+// Whether each media URI is gone. The feed fills it off the main thread as
+// pages load (resolve), so composition normally only reads it. Least recently
+// used entries are dropped past MAX_ENTRIES; a dropped one is checked again.
 object DeletedStatusCache {
-    private val cache = mutableMapOf<String, Boolean>()
+    private const val MAX_ENTRIES = 4096
 
+    private val cache = object : LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Boolean>?) = size > MAX_ENTRIES
+    }
+
+    @Synchronized
     fun get(uri: Uri): Boolean? = cache[uri.toString()]
 
+    @Synchronized
     fun put(uri: Uri, deleted: Boolean) {
         cache[uri.toString()] = deleted
     }
 
+    @Synchronized
     fun clear() {
         cache.clear()
     }
+
+    // Check every item that has no cached answer yet. Call this off the main thread.
+    fun resolve(context: Context, items: List<ProofableItem>) {
+        for (item in items.toList()) item.isDeleted(context)
+    }
 }
 
 fun ProofableItem.isDeleted(context: Context): Boolean {
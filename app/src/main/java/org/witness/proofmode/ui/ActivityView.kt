@@ -69,6 +69,7 @@ import androidx.core.net.toFile
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.compose.LocalLifecycleOwner
+import androidx.paging.compose.collectAsLazyPagingItems
 import coil.compose.AsyncImage
 import coil.decode.VideoFrameDecoder
 import coil.request.ImageRequest
@@ -77,8 +78,8 @@ import kotlinx.coroutines.withContext
 import org.witness.proofmode.FeatureFlags
 import org.witness.proofmode.MediaType
 import org.witness.proofmode.R
-import org.witness.proofmode.c2pa.C2PAManager
-import org.witness.proofmode.c2pa.PreferencesManager
+import org.witness.proofmode.c2pa.C2PARuntime
+import org.witness.proofmode.c2pa.C2PAValidationCache
 import org.witness.proofmode.c2pa.ValidationState
 import org.witness.proofmode.getMediaTypeFromFileUri
 import org.witness.proofmode.lp.AutoCaptureLpMarkerResolver
@@ -90,6 +91,7 @@ import org.witness.proofmode.plugins.lp.attestation.LocationProtocolArtifactStor
 import org.witness.proofmode.service.MediaWatcher
 import org.witness.proofmode.storage.DefaultStorageProvider
 import org.witness.proofmode.service.MediaWatcher.Companion.getImagePath
+import java.io.FileNotFoundException
 import java.text.SimpleDateFormat
 import java.util.Date
 
@@ -98,24 +100,6 @@ const val ASSETS_GUTTER_SIZE = 10F
 const val ASSETS_CORNER_RADIUS = 20F
 val ASSETS_BACKGROUND = Color.Black.copy(0.1F)
 
-/**
- * Cache for C2PA verification results to avoid repeated expensive checks.
- * Results are cached for the lifespan of the process.
- */
-object C2PAVerificationCache {
-    private val cache = mutableMapOf<String, ValidationState>()
-
-    fun get(path: String): ValidationState? = cache[path]
-
-    fun put(path: String, state: ValidationState) {
-        cache[path] = state
-    }
-
-    fun clear() {
-        cache.clear()
-    }
-}
-
 interface ActivitiesViewDelegate {
     abstract fun openCamera()
     abstract fun shareItems(media: List<ProofableItem>, fileName: String?, shareText: String?)
@@ -182,31 +166,27 @@ fun ProofableItemView(
             return@LaunchedEffect
         }
 
-        var filePath : String? = ""
-
-        if (uri.scheme == "file")
-            filePath = uri.toFile().canonicalPath
-        else {
-            filePath = MediaWatcher.getImagePath(context, uri)
-            if (filePath?.isEmpty()==true)
-                filePath = MediaWatcher.getVideoPath(context, uri)
-        }
-
-        filePath?.let {
-            val cachedResult = C2PAVerificationCache.get(filePath)
-            if (cachedResult != null) {
-                c2paState = cachedResult
-            } else {
-                val result = withContext(Dispatchers.IO) {
-                    try {
-                        val c2paMan = C2PAManager(context, PreferencesManager(context))
-                        c2paMan.validateSignedMedia(filePath)
-                    } catch (e: Exception) {
-                        ValidationState.INVALID
+        // A GENERATED item's id is its content hash, the key of the shared,
+        // persisted validation cache; the file path is only looked up on a miss.
+        c2paState = withContext(Dispatchers.IO) {
+            try {
+                C2PAValidationCache.forContext(context).getOrValidate(item.id) {
+                    var filePath : String? = ""
+
+                    if (uri.scheme == "file")
+                        filePath = uri.toFile().canonicalPath
+                    else {
+                        filePath = MediaWatcher.getImagePath(context, uri)
+                        if (filePath?.isEmpty()==true)
+                            filePath = MediaWatcher.getVideoPath(context, uri)
                     }
+
+                    if (filePath == null) throw FileNotFoundException(uri.toString())
+                    val c2paMan = C2PARuntime.manager(context)
+                    c2paMan.validateSignedMedia(filePath)
                 }
-                C2PAVerificationCache.put(filePath, result)
-                c2paState = result
+            } catch (e: Exception) {
+                ValidationState.INVALID
             }
         }
 
@@ -779,28 +759,18 @@ fun ActivitiesView(onAnyItemSelected: ((Boolean) -> Unit)? = null) {
         }
     }
     val listState = rememberLazyListState()
+    val context = LocalContext.current
+    val feed = remember { Activities.feed(context) }.collectAsLazyPagingItems()
 
-    // New activities are appended to Activities.activities and rendered in
-    // reverse (asReversed()), so the newest entry sits at index 0. Track the
-    // total media count — across batched captures, not just the activity count,
-    // since rapid captures merge into the most-recent activity — and scroll to
-    // the top whenever it grows, so freshly captured/imported media is visible
-    // without a manual tap or scroll.
-    val totalItemCount by remember {
-        derivedStateOf {
-            Activities.activities.sumOf { activity ->
-                when (val type = activity.type) {
-                    is ActivityType.MediaCaptured -> type.items.size
-                    is ActivityType.MediaImported -> type.items.size
-                    is ActivityType.MediaShared -> type.items.size
-                    is ActivityType.PublicKeyShared -> 1
-                }
-            }
-        }
-    }
+    // The feed is newest first, so the newest entry sits at index 0. Track its
+    // id and media count — rapid captures merge into the most-recent activity
+    // instead of adding one — and scroll to the top whenever either changes, so
+    // freshly captured/imported media is visible without a manual tap or scroll.
+    val newest = if (feed.itemCount > 0) feed.peek(0) else null
+    val newestKey = newest?.let { it.id to (proofItemsOf(it)?.size ?: 1) }
 
-    LaunchedEffect(totalItemCount) {
-        if (totalItemCount > 0) {
+    LaunchedEffect(newestKey) {
+        if (newestKey != null) {
             listState.animateScrollToItem(0)
         }
     }
@@ -823,11 +793,13 @@ fun ActivitiesView(onAnyItemSelected: ((Boolean) -> Unit)? = null) {
                     ) {
 
 
-                        // distinctBy id: the in-memory list can briefly hold two
-                        // entries with the same id (e.g. a load() reload racing an
-                        // addActivity() broadcast), and LazyColumn throws
+                        // Skip repeated ids: pages read across a database write
+                        // can briefly overlap, and LazyColumn throws
                         // IllegalArgumentException on duplicate item keys.
-                        Activities.activities.asReversed().distinctBy { it.id }.forEach { activity ->
+                        val seen = HashSet<String>()
+                        for (index in 0 until feed.itemCount) {
+                            val activity = feed.peek(index) ?: continue
+                            if (!seen.add(activity.id)) continue
                             stickyHeader(key = "header_${activity.id}") {
                                 ActivityDateView(
                                     date = activity.startTime,
@@ -835,7 +807,9 @@ fun ActivitiesView(onAnyItemSelected: ((Boolean) -> Unit)? = null) {
                                 )
                             }
                             item(key = "item_${activity.id}") {
-                                ActivityView(activity = activity)
+                                // Reading through get() tells the pager how far
+                                // the list has scrolled, so it loads the next page.
+                                ActivityView(activity = feed[index] ?: activity)
                             }
                         }
                     }
@@ -91,8 +91,8 @@ import org.contentauth.c2pa.C2PA
 import org.json.JSONObject
 import org.witness.proofmode.ProofMode
 import org.witness.proofmode.R
-import org.witness.proofmode.c2pa.C2PAManager
-import org.witness.proofmode.c2pa.PreferencesManager
+import org.witness.proofmode.c2pa.C2PARuntime
+import org.witness.proofmode.c2pa.C2PAValidationCache
 import org.witness.proofmode.c2pa.ValidationState
 import org.witness.proofmode.notaries.NostrNotarizationVerifier
 import org.witness.proofmode.plugins.ipfscid.IpfsCidSidecar
@@ -362,8 +362,10 @@ fun updateMetadata (itemUri : Uri, context : Context) {
             var validationState = ValidationState.INVALID
 
             try {
-                val c2paMan = C2PAManager(context, PreferencesManager(context))
-                validationState = c2paMan.validateSignedMedia(c2paFile.canonicalPath)
+                validationState = C2PAValidationCache.forContext(context).getOrValidate(hash) {
+                    val c2paMan = C2PARuntime.manager(context)
+                    c2paMan.validateSignedMedia(c2paFile.canonicalPath)
+                }
             } catch (e: Exception) {
                 ValidationState.INVALID
             }
@@ -563,7 +565,7 @@ fun C2PAManifestRow(label: String, validationState: ValidationState, filePath: S
             coroutineScope.launch {
                 val result = withContext(Dispatchers.IO) {
                     try {
-                        val c2paMan = C2PAManager(context, PreferencesManager(context))
+                        val c2paMan = C2PARuntime.manager(context)
                         c2paMan.readManifest(filePath)
                     } catch (e: Exception) {
                         Timber.e(e, "Error reading C2PA manifest")
@@ -622,21 +624,20 @@ fun C2PAManifestRow(label: String, validationState: ValidationState, filePath: S
                     resigning = true
                     resignStatus = context.getString(R.string.resign_in_progress)
                     coroutineScope.launch {
-                        val started = withContext(Dispatchers.IO) {
+                        val status = withContext(Dispatchers.IO) {
                             runCatching {
                                 val mw = MediaWatcher.getInstance(context)
-                                if (mw != null && mw.proofExists(mediaHash)) {
+                                when {
+                                    mw == null || !mw.proofExists(mediaHash) -> R.string.resign_no_proof
                                     mw.resignMedia(
                                         Uri.fromFile(File(filePath)),
                                         mimeTypeForPath(filePath)
-                                    )
-                                    true
-                                } else false
-                            }.getOrDefault(false)
+                                    ) -> R.string.resign_started
+                                    else -> R.string.resign_busy
+                                }
+                            }.getOrDefault(R.string.resign_no_proof)
                         }
-                        resignStatus = context.getString(
-                            if (started) R.string.resign_started else R.string.resign_no_proof
-                        )
+                        resignStatus = context.getString(status)
                         resigning = false
                     }
                 }
@@ -0,0 +1,135 @@
+package org.witness.proofmode.share
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.witness.proofmode.crypto.HashUtils
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.io.InputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipInputStream
+
+/** Plain JVM tests for [ProofBundleWriter]. */
+class ProofBundleWriterTest {
+
+    private val media = ByteArray(300_000) { (it * 7 % 251).toByte() }
+    private val sidecar = "File Hash SHA256,abc\n".repeat(100).toByteArray()
+
+    private fun entries(zip: ByteArray): Map<String, Pair<Int, ByteArray>> {
+        val out = LinkedHashMap<String, Pair<Int, ByteArray>>()
+        ZipInputStream(ByteArrayInputStream(zip)).use { zis ->
+            var entry = zis.nextEntry
+            while (entry != null) {
+                out[entry.name] = entry.method to zis.readBytes()
+                entry = zis.nextEntry
+            }
+        }
+        return out
+    }
+
+    @Test
+    fun media_isStored_andSidecars_areDeflated() {
+        val bytes = ByteArrayOutputStream()
+        ProofBundleWriter(bytes).use {
+            it.add("IMG_0001.jpg", ProofBundleWriter.digest(media.inputStream())) { media.inputStream() }
+            it.add("abc.proof.csv") { sidecar.inputStream() }
+            it.add("pubkey.asc", "key".toByteArray())
+        }
+
+        val entries = entries(bytes.toByteArray())
+        assertEquals(listOf("IMG_0001.jpg", "abc.proof.csv", "pubkey.asc"), entries.keys.toList())
+        assertEquals(ZipEntry.STORED, entries.getValue("IMG_0001.jpg").first)
+        assertArrayEquals(media, entries.getValue("IMG_0001.jpg").second)
+        assertEquals(ZipEntry.DEFLATED, entries.getValue("abc.proof.csv").first)
+        assertArrayEquals(sidecar, entries.getValue("abc.proof.csv").second)
+    }
+
+    @Test
+    fun storedMedia_withoutChecksums_isReadForCrcFirst() {
+        var opens = 0
+        val bytes = ByteArrayOutputStream()
+        ProofBundleWriter(bytes).use {
+            it.add("clip.MP4") { opens++; media.inputStream() }
+        }
+
+        assertEquals(2, opens)
+        assertArrayEquals(media, entries(bytes.toByteArray()).getValue("clip.MP4").second)
+    }
+
+    @Test
+    fun unreadableSource_leavesNoEntry() {
+        val bytes = ByteArrayOutputStream()
+        ProofBundleWriter(bytes).use {
+            try {
+                it.add("gone.txt") { throw FileNotFoundException("gone") }
+            } catch (e: FileNotFoundException) {
+                // skipped by the caller
+            }
+            it.add("abc.proof.csv") { sidecar.inputStream() }
+        }
+
+        assertEquals(listOf("abc.proof.csv"), entries(bytes.toByteArray()).keys.toList())
+    }
+
+    @Test(expected = ProofBundleWriter.BundleAbortedException::class)
+    fun staleChecksums_abortTheBundle() {
+        val stale = ProofBundleWriter.digest(media.copyOf(media.size - 1).inputStream())
+        ProofBundleWriter(ByteArrayOutputStream()).use {
+            it.add("IMG_0001.jpg", stale) { media.inputStream() }
+        }
+    }
+
+    @Test
+    fun failureMidEntry_abortsTheBundle_evenIfTheCallerCarriesOn() {
+        val bytes = ByteArrayOutputStream()
+        val writer = ProofBundleWriter(bytes)
+        writer.add("abc.proof.csv") { sidecar.inputStream() }
+        try {
+            writer.add("clip.mp4", ProofBundleWriter.digest(media.inputStream())) {
+                object : InputStream() {
+                    var left = 1000
+                    override fun read(): Int =
+                        if (left-- > 0) 0 else throw IOException("provider went away")
+                }
+            }
+            fail("the torn entry should abort the bundle")
+        } catch (e: ProofBundleWriter.BundleAbortedException) {
+            assertTrue(e.cause is IOException)
+        }
+        val written = bytes.size()
+
+        for (attempt in listOf({ writer.add("pubkey.asc", "key".toByteArray()) }, { writer.close() })) {
+            try {
+                attempt()
+                fail("an aborted bundle must not be written to or finished")
+            } catch (expected: ProofBundleWriter.BundleAbortedException) {
+            }
+        }
+        assertEquals(written, bytes.size())
+        try {
+            entries(bytes.toByteArray())
+            fail("no central directory, so the torn entry cannot pass for a bundle")
+        } catch (expected: ZipException) {
+        }
+    }
+
+    @Test
+    fun digest_matchesHashUtils_andReportsProgress() {
+        val sums = ProofBundleWriter.digest(media.inputStream())
+        assertEquals(HashUtils.getSHA256FromBytes(media), sums.sha256)
+        assertEquals(media.size.toLong(), sums.size)
+
+        val reported = ArrayList<Long>()
+        ProofBundleWriter(ByteArrayOutputStream(), { reported.add(it) }).use {
+            it.add("IMG_0001.jpg", sums) { media.inputStream() }
+        }
+        assertTrue(reported.isNotEmpty())
+        assertEquals(media.size.toLong(), reported.last())
+    }
+}
@@ -0,0 +1,130 @@
+package org.witness.proofmode.ui
+
+import android.content.Context
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.witness.proofmode.TestProofModeApplication
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28], application = TestProofModeApplication::class)
+class AppDatabaseMigrationTest {
+
+    private val dbName = "activities-migration-test"
+    private lateinit var context: Context
+
+    // A burst of photos taken as one capture: two proofs done or under way and one still
+    // keyed by its URI. The second item has no proofStatus, as rows written before that
+    // field existed.
+    private val batchedCapture = """{"type":"capture","items":[""" +
+        """{"id":"hash1","uri":"content://media/external/images/1","proofStatus":"pending"},""" +
+        """{"id":"hash2","uri":"content://media/external/images/2"},""" +
+        """{"id":"content://media/external/images/3","uri":"content://media/external/images/3","proofStatus":"generating"}]}"""
+    private val share = """{"type":"mediaShare","items":[""" +
+        """{"id":"hash1","uri":"content://media/external/images/1"}],"fileName":"proof.zip"}"""
+    private val keyShare = """{"type":"publicKeyShare","key":"-----BEGIN PGP PUBLIC KEY BLOCK-----"}"""
+    private val unreadable = """{"type":"capture","items":[{"id":"hash9","""
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        context.deleteDatabase(dbName)
+    }
+
+    @After
+    fun tearDown() {
+        context.deleteDatabase(dbName)
+    }
+
+    @Test
+    fun migration1To2_movesItemsIntoRows_andStripsThemFromTheJson() {
+        createVersion1(
+            "batch" to batchedCapture,
+            "share" to share,
+            "key" to keyShare,
+            "broken" to unreadable,
+        )
+
+        val db = Room.databaseBuilder(context, AppDatabase::class.java, dbName)
+            .addMigrations(AppDatabase.MIGRATION_1_2)
+            .allowMainThreadQueries()
+            .build()
+        try {
+            assertEquals(
+                listOf(
+                    "batch|0|hash1|content://media/external/images/1|PENDING",
+                    "batch|1|hash2|content://media/external/images/2|GENERATED",
+                    "batch|2|content://media/external/images/3|content://media/external/images/3|GENERATING",
+                    "share|0|hash1|content://media/external/images/1|GENERATED",
+                ),
+                rows(db, "SELECT activityId, position, itemId, uri, proofStatus FROM proofable_items ORDER BY activityId, position"),
+            )
+            assertEquals(
+                listOf(
+                    "batch|{\"type\":\"capture\",\"items\":[]}",
+                    "broken|$unreadable",
+                    "key|$keyShare",
+                    "share|{\"type\":\"mediaShare\",\"items\":[],\"fileName\":\"proof.zip\"}",
+                ),
+                rows(db, "SELECT id, data FROM activities ORDER BY id"),
+            )
+
+            // The migrated rows read back through the DAO, items and all.
+            runBlocking {
+                val activity = db.activitiesDao().activityFromProofableItemId("hash2")!!
+                assertEquals("batch", activity.id)
+                assertEquals(
+                    listOf("hash1", "hash2", "content://media/external/images/3"),
+                    proofItemsOf(activity)!!.map { it.id },
+                )
+                assertNull(db.activitiesDao().itemByUri("content://media/external/images/9"))
+            }
+        } finally {
+            db.close()
+        }
+    }
+
+    // A database as version 1 of AppDatabase left it: every item inside activities.data.
+    private fun createVersion1(vararg activities: Pair<String, String>) {
+        val config = SupportSQLiteOpenHelper.Configuration.builder(context)
+            .name(dbName)
+            .callback(object : SupportSQLiteOpenHelper.Callback(1) {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `activities` (`id` TEXT NOT NULL, `data` TEXT NOT NULL, `startTime` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+                }
+
+                override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) {
+                }
+            })
+            .build()
+        val helper = FrameworkSQLiteOpenHelperFactory().create(config)
+        try {
+            activities.forEachIndexed { i, (id, data) ->
+                helper.writableDatabase.execSQL(
+                    "INSERT INTO activities (id, data, startTime) VALUES (?, ?, ?)",
+                    arrayOf(id, data, 1_700_000_000_000L + i),
+                )
+            }
+        } finally {
+            helper.close()
+        }
+    }
+
+    private fun rows(db: AppDatabase, sql: String): List<String> =
+        db.openHelper.readableDatabase.query(sql).use { cursor ->
+            generateSequence {
+                if (cursor.moveToNext()) (0 until cursor.columnCount).joinToString("|") { cursor.getString(it) } else null
+            }.toList()
+        }
+}
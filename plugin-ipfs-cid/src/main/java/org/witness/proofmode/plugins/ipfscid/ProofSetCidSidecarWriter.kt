@@ -51,7 +51,10 @@ object ProofSetCidSidecarWriter {
         }
         val storageProvider = event.storageProvider
         val onDiskIds = basenamesFromProofSet(storageProvider, proofSetHash)
-        val mediaBytes = try {
+        // Reuse the bytes captured by MediaWatcher's single-pass digest when the media was
+        // small enough to keep; otherwise fall back to reading it here.
+        val digestBytes = event.mediaDigest?.takeIf { it.sha256 == proofSetHash }?.leafBytes
+        val mediaBytes = digestBytes ?: try {
             event.context.contentResolver.openInputStream(event.mediaUri)?.use { it.readBytes() }
         } catch (e: OutOfMemoryError) {
             Timber.w(e, "initial sidecar write OOM reading media for %s", proofSetHash)